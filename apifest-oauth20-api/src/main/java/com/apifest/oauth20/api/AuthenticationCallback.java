@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.api;
+
+/**
+ * Receives the result of a non-blocking user authentication. Only the first call is taken into account,
+ * results passed after the authentication timed out are ignored.
+ */
+public interface AuthenticationCallback {
+
+    /**
+     * Called when the user is authenticated.
+     * @param userDetails details about the authenticated user, <code>null</code> if the username or
+     * password is not valid
+     */
+    void onSuccess(UserDetails userDetails);
+
+    /**
+     * Called when the user cannot be authenticated.
+     * @param e the authentication failure
+     */
+    void onFailure(AuthenticationException e);
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.api;
+
+import org.jboss.netty.handler.codec.http.HttpRequest;
+
+/**
+ * Interface for non-blocking user authentication. A single instance is created on server startup and used by
+ * all threads, so implementations should be thread-safe. The method should not block, the result
+ * should be passed to the callback when the authentication completes, e.g. from the thread of an asynchronous
+ * LDAP or HTTP client.
+ */
+public interface IAsyncUserAuthentication {
+
+    /**
+     * Starts the authentication of the user using username, password and what info required from the
+     * authentication request.
+     * @param username username
+     * @param password password
+     * @param authRequest the authentication request
+     * @param callback receives the details about the authenticated user or the authentication failure
+     */
+    void authenticate(String username, String password, HttpRequest authRequest, AuthenticationCallback callback);
+
+}
@@ -28,4 +28,22 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface OnException {
 
+    /**
+     * Path templates of the endpoints the handler is invoked for, e.g. <code>/oauth20/tokens</code> or
+     * <code>/oauth20/scopes/{scope}</code>. A template ending with <code>*</code> matches all endpoints
+     * with that prefix. If not set, the handler is invoked for all requests.
+     */
+    String[] uri() default {};
+
+    /**
+     * HTTP methods the handler is invoked for. If not set, the handler is invoked for all methods.
+     */
+    String[] method() default {};
+
+    /**
+     * Whether a single handler instance could be used by all threads. Thread-safe handlers are instantiated
+     * once on server startup, other handlers once per thread and the instance is reused for the requests
+     * handled by that thread.
+     */
+    boolean threadSafe() default false;
 }
@@ -18,6 +18,7 @@ package com.apifest.oauth20;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.codehaus.jackson.annotate.JsonIgnore;
@@ -76,6 +77,13 @@ public class AccessToken implements Serializable {
     @JsonProperty("refresh_expires_in")
     private String refreshExpiresIn = "";
 
+    // calculated once from created and expires_in, 0 if not known
+    @JsonIgnore
+    private long expiresAt;
+
+    @JsonIgnore
+    private long refreshExpiresAt;
+
     /**
      * Creates access token along with its refresh token.
      *
@@ -96,9 +104,9 @@ public class AccessToken implements Serializable {
      * @param createRefreshToken
      */
     public AccessToken(String tokenType, String expiresIn, String scope, boolean createRefreshToken, String refreshExpiresIn) {
-        this.token = RandomGenerator.generateRandomString();
+        this.token = TokenGenerator.generateAccessToken();
         if (createRefreshToken) {
-            this.refreshToken = RandomGenerator.generateRandomString();
+            this.refreshToken = TokenGenerator.generateRefreshToken();
             this.refreshExpiresIn = (refreshExpiresIn != null && !refreshExpiresIn.isEmpty())? refreshExpiresIn : expiresIn;
         }
         this.expiresIn = expiresIn;
@@ -106,6 +114,10 @@ public class AccessToken implements Serializable {
         this.scope = scope;
         this.valid = true;
         this.created = (new Date()).getTime();
+        this.expiresAt = calculateExpiresAt(created, expiresIn);
+        if (createRefreshToken) {
+            this.refreshExpiresAt = calculateExpiresAt(created, this.refreshExpiresIn);
+        }
     }
 
     /**
@@ -118,7 +130,7 @@ public class AccessToken implements Serializable {
      * @param refreshToken
      */
     public AccessToken(String tokenType, String expiresIn, String scope, String refreshToken, String refreshExpiresIn) {
-        this.token = RandomGenerator.generateRandomString();
+        this.token = TokenGenerator.generateAccessToken();
         this.expiresIn = expiresIn;
         this.type = tokenType;
         this.scope = scope;
@@ -126,11 +138,35 @@ public class AccessToken implements Serializable {
         this.created = (new Date()).getTime();
         this.refreshToken = refreshToken;
         this.refreshExpiresIn = (refreshExpiresIn != null && !refreshExpiresIn.isEmpty()) ? refreshExpiresIn : expiresIn;
+        this.expiresAt = calculateExpiresAt(created, expiresIn);
+        this.refreshExpiresAt = calculateExpiresAt(created, this.refreshExpiresIn);
     }
 
     public AccessToken() {
     }
 
+    /**
+     * Creates a copy of an access token, so changes of the copy do not affect the original, e.g. a cached token.
+     *
+     * @param other the access token to be copied
+     */
+    public AccessToken(AccessToken other) {
+        this.token = other.token;
+        this.refreshToken = other.refreshToken;
+        this.expiresIn = other.expiresIn;
+        this.type = other.type;
+        this.scope = other.scope;
+        this.valid = other.valid;
+        this.clientId = other.clientId;
+        this.codeId = other.codeId;
+        this.userId = other.userId;
+        this.details = (other.details != null) ? new HashMap<String, String>(other.details) : null;
+        this.created = other.created;
+        this.refreshExpiresIn = other.refreshExpiresIn;
+        this.expiresAt = other.expiresAt;
+        this.refreshExpiresAt = other.refreshExpiresAt;
+    }
+
     public String getToken() {
         return token;
     }
@@ -153,6 +189,7 @@ public class AccessToken implements Serializable {
 
     public void setExpiresIn(String expiresIn) {
         this.expiresIn = expiresIn;
+        this.expiresAt = calculateExpiresAt(created, expiresIn);
     }
 
     public String getType() {
@@ -217,6 +254,8 @@ public class AccessToken implements Serializable {
 
     public void setCreated(Long created) {
         this.created = created;
+        this.expiresAt = calculateExpiresAt(created, expiresIn);
+        this.refreshExpiresAt = calculateExpiresAt(created, refreshExpiresIn);
     }
 
     public String getRefreshExpiresIn() {
@@ -225,6 +264,29 @@ public class AccessToken implements Serializable {
 
     public void setRefreshExpiresIn(String refreshExpiresIn) {
         this.refreshExpiresIn = refreshExpiresIn;
+        this.refreshExpiresAt = calculateExpiresAt(created, refreshExpiresIn);
+    }
+
+    /**
+     * Returns the time in millis when the access token expires, 0 if not known.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Returns the time in millis when the refresh token expires, 0 if not known.
+     */
+    public long getRefreshExpiresAt() {
+        return refreshExpiresAt;
+    }
+
+    public void setRefreshExpiresAt(long refreshExpiresAt) {
+        this.refreshExpiresAt = refreshExpiresAt;
     }
 
     public static AccessToken loadFromMap(Map<String, Object> map) {
@@ -241,6 +303,13 @@ public class AccessToken implements Serializable {
         accessToken.created = (Long) map.get("created");
         accessToken.details = JSONUtils.convertStringToMap((String) map.get("details"));
         accessToken.refreshExpiresIn = (String) ((map.get("refreshExpiresIn") != null ? map.get("refreshExpiresIn") : accessToken.expiresIn));
+        // tokens stored by older versions have no expiresAt and refreshExpiresAt
+        Object expiresAt = map.get("expiresAt");
+        accessToken.expiresAt = (expiresAt instanceof Number) ? ((Number) expiresAt).longValue()
+                : calculateExpiresAt(accessToken.created, accessToken.expiresIn);
+        Object refreshExpiresAt = map.get("refreshExpiresAt");
+        accessToken.refreshExpiresAt = (refreshExpiresAt instanceof Number) ? ((Number) refreshExpiresAt).longValue()
+                : calculateExpiresAt(accessToken.created, accessToken.refreshExpiresIn);
         return accessToken;
     }
 
@@ -258,26 +327,40 @@ public class AccessToken implements Serializable {
         accessToken.created = Long.parseLong(map.get("created"));
         accessToken.details = JSONUtils.convertStringToMap(map.get("details"));
         accessToken.refreshExpiresIn = map.get("refreshExpiresIn") != null ? map.get("refreshExpiresIn") : accessToken.expiresIn;
+        // tokens stored by older versions have no expiresAt and refreshExpiresAt
+        String expiresAt = map.get("expiresAt");
+        accessToken.expiresAt = (expiresAt != null) ? Long.parseLong(expiresAt)
+                : calculateExpiresAt(accessToken.created, accessToken.expiresIn);
+        String refreshExpiresAt = map.get("refreshExpiresAt");
+        accessToken.refreshExpiresAt = (refreshExpiresAt != null) ? Long.parseLong(refreshExpiresAt)
+                : calculateExpiresAt(accessToken.created, accessToken.refreshExpiresIn);
         return accessToken;
     }
 
     public boolean tokenExpired() {
-        // expires_in is in seconds
-        Long expiresInSec = Long.valueOf(getExpiresIn()) * 1000;
-        Long currentTime = System.currentTimeMillis();
-        if (expiresInSec + getCreated() < currentTime) {
-            return true;
-        }
-        return false;
+        return expiresAt < System.currentTimeMillis();
     }
 
     public boolean refreshTokenExpired() {
-        Long refreshExpiresInSec = Long.valueOf(getRefreshExpiresIn()) * 1000;
-        Long currentTime = System.currentTimeMillis();
-        if (refreshExpiresInSec + getCreated() < currentTime) {
-            return true;
+        return refreshExpiresAt < System.currentTimeMillis();
+    }
+
+    /**
+     * Calculates the expiration time in millis.
+     *
+     * @param created creation time in millis
+     * @param expiresIn expires_in in seconds
+     * @return expiration time in millis, 0 if created or expiresIn is not set
+     */
+    protected static long calculateExpiresAt(Long created, String expiresIn) {
+        if (created == null || expiresIn == null || expiresIn.isEmpty()) {
+            return 0;
+        }
+        try {
+            return created + Long.parseLong(expiresIn) * 1000;
+        } catch (NumberFormatException e) {
+            return 0;
         }
-        return false;
     }
 
 }
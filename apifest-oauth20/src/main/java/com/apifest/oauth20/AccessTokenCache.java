@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Map;
+
+/**
+ * Local cache of access tokens loaded from the DB.
+ * A cached token never outlives the access token itself. Tokens are copied in and out of the cache,
+ * so the cached ones are never changed.
+ */
+public class AccessTokenCache extends BoundedCache<String, AccessToken> {
+
+    // approximate size of an AccessToken object and its fields without the string contents
+    private static final int TOKEN_OVERHEAD_BYTES = 256;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private final long ttl;
+
+    /**
+     * Creates access token cache.
+     *
+     * @param maxEntries maximum number of cached tokens
+     * @param maxBytes maximum estimated size of all cached tokens in bytes, 0 means no limit
+     * @param ttl maximum time in seconds a token is kept in the cache
+     */
+    public AccessTokenCache(int maxEntries, long maxBytes, int ttl) {
+        super(maxEntries, maxBytes);
+        this.ttl = ttl * 1000L;
+    }
+
+    /**
+     * Returns a copy of the cached access token, so callers could change it without affecting the cache.
+     *
+     * @param token the access token
+     * @return copy of the cached access token or <code>null</code>
+     */
+    @Override
+    public AccessToken get(String token) {
+        AccessToken accessToken = super.get(token);
+        return (accessToken != null) ? new AccessToken(accessToken) : null;
+    }
+
+    public void put(AccessToken accessToken) {
+        if (accessToken == null || !accessToken.isValid()) {
+            return;
+        }
+        // a token without valid expiration has expiresAt 0, so it is not cached
+        long expiresAt = Math.min(System.currentTimeMillis() + ttl, accessToken.getExpiresAt());
+        put(accessToken.getToken(), new AccessToken(accessToken), expiresAt, estimateSize(accessToken));
+    }
+
+    /**
+     * Caches an access token loaded from the DB, unless it was removed from the cache during the load,
+     * e.g. revoked concurrently.
+     *
+     * @param accessToken the access token
+     * @param version the version of the token read before the load, see {@link #version(Object)}
+     */
+    public void put(AccessToken accessToken, long version) {
+        if (accessToken == null || !accessToken.isValid()) {
+            return;
+        }
+        long expiresAt = Math.min(System.currentTimeMillis() + ttl, accessToken.getExpiresAt());
+        put(accessToken.getToken(), new AccessToken(accessToken), expiresAt, estimateSize(accessToken), version);
+    }
+
+    protected static int estimateSize(AccessToken accessToken) {
+        int size = TOKEN_OVERHEAD_BYTES;
+        size += sizeOf(accessToken.getToken());
+        size += sizeOf(accessToken.getRefreshToken());
+        size += sizeOf(accessToken.getExpiresIn());
+        size += sizeOf(accessToken.getRefreshExpiresIn());
+        size += sizeOf(accessToken.getType());
+        size += sizeOf(accessToken.getScope());
+        size += sizeOf(accessToken.getClientId());
+        size += sizeOf(accessToken.getCodeId());
+        size += sizeOf(accessToken.getUserId());
+        Map<String, String> details = accessToken.getDetails();
+        if (details != null) {
+            for (Map.Entry<String, String> entry : details.entrySet()) {
+                size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOf(String value) {
+        return (value != null) ? STRING_OVERHEAD_BYTES + value.length() * 2 : 0;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.handler.codec.http.HttpMethod;
+
+/**
+ * Limits the number of requests handled concurrently. Each request class has its own limit. In addition,
+ * all classes share a global limit, but a class could use only its share of it, so capacity is left
+ * for the classes with higher priority (validate &gt; token &gt; auth code &gt; admin).
+ * Requests over the limits are rejected immediately instead of being queued.
+ */
+public class AdmissionController implements MetricsSource {
+
+    /**
+     * Request classes ordered by priority.
+     */
+    public enum RequestClass {
+        VALIDATE("validate", 100), TOKEN("token", 90), AUTH_CODE("auth_code", 75), ADMIN("admin", 50),
+        // not limited, e.g. metrics and not found
+        OTHER("other", 100);
+
+        private final String configName;
+        private final int defaultShare;
+
+        private RequestClass(String configName, int defaultShare) {
+            this.configName = configName;
+            this.defaultShare = defaultShare;
+        }
+
+        public String getConfigName() {
+            return configName;
+        }
+
+        public int getDefaultShare() {
+            return defaultShare;
+        }
+
+        public static RequestClass fromConfigName(String name) {
+            for (RequestClass requestClass : values()) {
+                if (requestClass != OTHER && requestClass.configName.equals(name)) {
+                    return requestClass;
+                }
+            }
+            return null;
+        }
+    }
+
+    // in seconds
+    public static final int DEFAULT_RETRY_AFTER = 1;
+
+    private static volatile AdmissionController instance;
+    private static volatile boolean initialized;
+
+    private final int maxConcurrent;
+    private final int retryAfter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<RequestClass, ClassState> states = new EnumMap<RequestClass, ClassState>(RequestClass.class);
+
+    /**
+     * Creates admission controller.
+     *
+     * @param maxConcurrent max number of requests handled concurrently, 0 - no global limit
+     * @param limits max number of requests handled concurrently per request class, not set or 0 - no limit
+     * @param shares percentage of the global limit each request class could use, if not set the default share is used
+     * @param retryAfter value of the Retry-After header of the rejected requests, in seconds
+     */
+    public AdmissionController(int maxConcurrent, Map<RequestClass, Integer> limits, Map<RequestClass, Integer> shares,
+            int retryAfter) {
+        this.maxConcurrent = maxConcurrent;
+        this.retryAfter = retryAfter;
+        for (RequestClass requestClass : RequestClass.values()) {
+            Integer limit = limits.get(requestClass);
+            Integer share = shares.get(requestClass);
+            if (share == null) {
+                share = requestClass.getDefaultShare();
+            }
+            states.put(requestClass, new ClassState((limit != null) ? limit : 0, Math.max(1, maxConcurrent * share / 100)));
+        }
+    }
+
+    /**
+     * Returns the admission controller configured for that ApiFest OAuth20 node.
+     *
+     * @return admission controller or <code>null</code>, if no limits are set
+     * @throws IllegalArgumentException if admission.limits or admission.shares is not in the correct format
+     */
+    public static synchronized AdmissionController getInstance() {
+        if (!initialized) {
+            Map<RequestClass, Integer> limits = parseClassValues(OAuthServer.getAdmissionLimits());
+            Map<RequestClass, Integer> shares = parseClassValues(OAuthServer.getAdmissionShares());
+            if (OAuthServer.getAdmissionMaxConcurrent() > 0 || !limits.isEmpty()) {
+                instance = new AdmissionController(OAuthServer.getAdmissionMaxConcurrent(), limits, shares,
+                        OAuthServer.getAdmissionRetryAfter());
+            }
+            initialized = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Parses values per request class in format validate:200,token:100,auth_code:50,admin:10.
+     *
+     * @param value values per request class
+     * @return {@link Map} of values by request class, empty if value is not set
+     * @throws IllegalArgumentException if a request class is unknown or a value is not a non-negative integer
+     */
+    public static Map<RequestClass, Integer> parseClassValues(String value) {
+        Map<RequestClass, Integer> values = new EnumMap<RequestClass, Integer>(RequestClass.class);
+        if (value == null || value.trim().isEmpty()) {
+            return values;
+        }
+        for (String entry : value.split(",")) {
+            int idx = entry.indexOf(':');
+            if (idx <= 0) {
+                throw new IllegalArgumentException("value must be in format request_class:value");
+            }
+            RequestClass requestClass = RequestClass.fromConfigName(entry.substring(0, idx).trim());
+            if (requestClass == null) {
+                throw new IllegalArgumentException("unknown request class " + entry.substring(0, idx).trim());
+            }
+            int classValue;
+            try {
+                classValue = Integer.parseInt(entry.substring(idx + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("value of " + requestClass.getConfigName() + " must be integer");
+            }
+            if (classValue < 0) {
+                throw new IllegalArgumentException("value of " + requestClass.getConfigName() + " must not be negative");
+            }
+            values.put(requestClass, classValue);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the class of a request.
+     *
+     * @param method HTTP method of the request
+     * @param uri request URI, could contain query string
+     * @return the request class
+     */
+    public static RequestClass classify(HttpMethod method, String uri) {
+        String path = RouteRegistry.getPath(uri);
+        if (HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI.equals(path)) {
+            return RequestClass.VALIDATE;
+        }
+        if ((HttpRequestHandler.ACCESS_TOKEN_URI.equals(path) || HttpRequestHandler.ACCESS_TOKEN_REVOKE_URI.equals(path))
+                && HttpMethod.POST.equals(method)) {
+            return RequestClass.TOKEN;
+        }
+        if (HttpRequestHandler.AUTH_CODE_URI.equals(path)) {
+            return RequestClass.AUTH_CODE;
+        }
+        if (path.startsWith(HttpRequestHandler.APPLICATION_URI) || path.startsWith(HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI)
+                || HttpRequestHandler.ACCESS_TOKEN_URI.equals(path)
+                || HttpRequestHandler.USER_AUTHENTICATIONS_URI.equals(path)) {
+            return RequestClass.ADMIN;
+        }
+        return RequestClass.OTHER;
+    }
+
+    /**
+     * Tries to admit a request. Each admitted request should be released with {@link #release(RequestClass)}.
+     *
+     * @param requestClass class of the request
+     * @return <code>true</code> if the request is admitted, <code>false</code> if it should be rejected
+     */
+    public boolean tryAcquire(RequestClass requestClass) {
+        if (requestClass == RequestClass.OTHER) {
+            return true;
+        }
+        ClassState state = states.get(requestClass);
+        if (maxConcurrent > 0 && !acquireGlobal(state.globalLimit)) {
+            state.shed.incrementAndGet();
+            return false;
+        }
+        if (state.permits != null && !state.permits.tryAcquire()) {
+            if (maxConcurrent > 0) {
+                inFlight.decrementAndGet();
+            }
+            state.shed.incrementAndGet();
+            return false;
+        }
+        state.inFlight.incrementAndGet();
+        state.admitted.incrementAndGet();
+        return true;
+    }
+
+    public void release(RequestClass requestClass) {
+        if (requestClass == RequestClass.OTHER) {
+            return;
+        }
+        ClassState state = states.get(requestClass);
+        state.inFlight.decrementAndGet();
+        if (state.permits != null) {
+            state.permits.release();
+        }
+        if (maxConcurrent > 0) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private boolean acquireGlobal(int limit) {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getInFlight(RequestClass requestClass) {
+        return states.get(requestClass).inFlight.get();
+    }
+
+    public long getShed(RequestClass requestClass) {
+        return states.get(requestClass).shed.get();
+    }
+
+    public long getAdmitted(RequestClass requestClass) {
+        return states.get(requestClass).admitted.get();
+    }
+
+    /*
+     * @see com.apifest.oauth20.MetricsSource#getMetrics()
+     */
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+        metrics.put("in_flight", inFlight.get());
+        for (Map.Entry<RequestClass, ClassState> entry : states.entrySet()) {
+            if (entry.getKey() != RequestClass.OTHER) {
+                String name = entry.getKey().getConfigName();
+                metrics.put(name + ".in_flight", entry.getValue().inFlight.get());
+                metrics.put(name + ".admitted", entry.getValue().admitted.get());
+                metrics.put(name + ".shed", entry.getValue().shed.get());
+            }
+        }
+        return metrics;
+    }
+
+    private static final class ClassState {
+        private final Semaphore permits;
+        private final int globalLimit;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+
+        private ClassState(int limit, int globalLimit) {
+            this.permits = (limit > 0) ? new Semaphore(limit) : null;
+            this.globalLimit = globalLimit;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.oauth20.AdmissionController.RequestClass;
+
+/**
+ * Applies the {@link AdmissionController} limits to the requests of a connection. It is added before the
+ * execution stage, so rejected requests are answered with 503 from the I/O thread and are never queued.
+ * Responses, including the 503 ones, are written through the {@link ResponseSequencer} of the connection,
+ * which notifies this handler, so each admitted request is released when its own response is written.
+ */
+public class AdmissionHandler extends SimpleChannelUpstreamHandler implements ResponseSequencer.Listener {
+
+    protected static Logger log = LoggerFactory.getLogger(AdmissionHandler.class);
+
+    private final AdmissionController controller;
+
+    private final ResponseSequencer sequencer;
+
+    // classes of the admitted requests of that connection, which responses are not written yet
+    private final Map<HttpRequest, RequestClass> admitted = Collections
+            .synchronizedMap(new IdentityHashMap<HttpRequest, RequestClass>());
+
+    /**
+     * Creates admission handler.
+     *
+     * @param controller the shared admission controller
+     * @param sequencer the response sequencer of the connection, added before this handler
+     */
+    public AdmissionHandler(AdmissionController controller, ResponseSequencer sequencer) {
+        this.controller = controller;
+        this.sequencer = sequencer;
+        sequencer.setListener(this);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (e.getMessage() instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) e.getMessage();
+            RequestClass requestClass = AdmissionController.classify(request.getMethod(), request.getUri());
+            if (!controller.tryAcquire(requestClass)) {
+                log.debug("request {} {} rejected, {} limit reached", new Object[] { request.getMethod(),
+                        request.getUri(), requestClass.getConfigName() });
+                HttpResponse response = Response.createServiceUnavailableResponse(controller.getRetryAfter());
+                // written after the responses of the earlier requests of the connection
+                ChannelFuture future = sequencer.write(ctx.getChannel(), request, response);
+                if (!HttpHeaders.isKeepAlive(request)) {
+                    future.addListener(ChannelFutureListener.CLOSE);
+                }
+                return;
+            }
+            admitted.put(request, requestClass);
+        }
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void responseWritten(HttpRequest request) {
+        RequestClass requestClass = admitted.remove(request);
+        if (requestClass != null) {
+            controller.release(requestClass);
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        List<RequestClass> remaining;
+        synchronized (admitted) {
+            remaining = new ArrayList<RequestClass>(admitted.values());
+            admitted.clear();
+        }
+        for (RequestClass requestClass : remaining) {
+            controller.release(requestClass);
+        }
+        super.channelClosed(ctx, e);
+    }
+}
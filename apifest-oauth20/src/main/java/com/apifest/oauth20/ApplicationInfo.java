@@ -73,6 +73,11 @@ public class ApplicationInfo implements Serializable {
         return registered.toString();
     }
 
+    // not public, so it is not serialized
+    Date getRegisteredDate() {
+        return registered;
+    }
+
     public void setRegistered(Date registered) {
         this.registered = registered;
     }
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.oauth20.api.LifecycleHandler;
+
+/**
+ * Executes asynchronous response handlers after the response is written, so their latency is not added
+ * to the response time. The queue of the pending handler calls is bounded, when it is full the overflow
+ * policy decides whether a call is dropped, waits for free space or is executed by the calling thread.
+ */
+public class AsyncHandlerExecutor implements MetricsSource {
+
+    /**
+     * What to do with a handler call when the queue is full.
+     */
+    public enum OverflowPolicy {
+        DROP, BLOCK, CALLER_RUNS;
+
+        /**
+         * Parses overflow policy, case insensitive.
+         *
+         * @param value drop, block or caller_runs
+         * @return the overflow policy
+         * @throws IllegalArgumentException if the value is not a known policy
+         */
+        public static OverflowPolicy parse(String value) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value.trim())) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("unknown overflow policy " + value);
+        }
+    }
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    protected static Logger log = LoggerFactory.getLogger(AsyncHandlerExecutor.class);
+
+    private static volatile AsyncHandlerExecutor instance;
+    private static volatile boolean initialized;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolMetrics poolMetrics;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    /**
+     * Creates async handler executor.
+     *
+     * @param threads number of threads that execute the handlers
+     * @param queueSize max number of pending handler calls
+     * @param policy what to do with a handler call when the queue is full
+     */
+    public AsyncHandlerExecutor(int threads, int queueSize, OverflowPolicy policy) {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new HandlerThreadFactory(), createRejectionHandler(policy));
+        poolMetrics = new ThreadPoolMetrics(executor);
+    }
+
+    /**
+     * Returns the async handler executor configured for that ApiFest OAuth20 node.
+     *
+     * @return async handler executor or <code>null</code>, if async handlers are executed synchronously
+     * @throws IllegalArgumentException if lifecycle.async.overflow is not a known policy
+     */
+    public static synchronized AsyncHandlerExecutor getInstance() {
+        if (!initialized) {
+            String overflow = OAuthServer.getAsyncHandlerOverflow();
+            OverflowPolicy policy = (overflow != null && !overflow.trim().isEmpty()) ? OverflowPolicy.parse(overflow)
+                    : OverflowPolicy.DROP;
+            if (OAuthServer.getAsyncHandlerThreads() > 0) {
+                instance = new AsyncHandlerExecutor(OAuthServer.getAsyncHandlerThreads(),
+                        Math.max(1, OAuthServer.getAsyncHandlerQueueSize()), policy);
+            }
+            initialized = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Schedules a response handler call.
+     *
+     * @param entry the response handler
+     * @param request the request
+     * @param response the response already written
+     */
+    public void execute(final LifecycleHandlerEntry<LifecycleHandler> entry, final HttpRequest request,
+            final HttpResponse response) {
+        submitted.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    // not thread-safe handlers are instantiated per executor thread
+                    entry.getHandler().handle(request, response);
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    log.error("async handler {} failed", entry.getHandlerClass().getName(), e);
+                } finally {
+                    recordTime(System.nanoTime() - start);
+                }
+            }
+        });
+    }
+
+    private void recordTime(long nanos) {
+        completed.incrementAndGet();
+        totalTime.addAndGet(nanos);
+        long max = maxTime.get();
+        while (nanos > max && !maxTime.compareAndSet(max, nanos)) {
+            max = maxTime.get();
+        }
+    }
+
+    private RejectedExecutionHandler createRejectionHandler(OverflowPolicy policy) {
+        switch (policy) {
+        case BLOCK:
+            return new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+                    if (pool.isShutdown()) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    try {
+                        pool.getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        dropped.incrementAndGet();
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+        case CALLER_RUNS:
+            return new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+                    if (pool.isShutdown()) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    task.run();
+                }
+            };
+        default:
+            return new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+                    dropped.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /*
+     * @see com.apifest.oauth20.MetricsSource#getMetrics()
+     */
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = poolMetrics.getMetrics();
+        long count = completed.get();
+        metrics.put("submitted", submitted.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("failed", failed.get());
+        metrics.put("handler_time_avg_us", (count > 0) ? totalTime.get() / count / 1000 : 0L);
+        metrics.put("handler_time_max_us", maxTime.get() / 1000);
+        return metrics;
+    }
+
+    private static final class HandlerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "async-handler-" + count.incrementAndGet());
+            // pending handler calls should not prevent the server shutdown
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
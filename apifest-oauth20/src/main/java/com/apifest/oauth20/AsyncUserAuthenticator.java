@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.oauth20.api.AuthenticationCallback;
+import com.apifest.oauth20.api.AuthenticationException;
+import com.apifest.oauth20.api.IAsyncUserAuthentication;
+import com.apifest.oauth20.api.UserDetails;
+
+/**
+ * Calls the configured {@link IAsyncUserAuthentication} with a timeout. The result is passed to the callback
+ * only once: either the authentication result or {@link AuthenticationTimeoutException}, whichever comes first.
+ * Timeouts are tracked by a {@link HashedWheelTimer}, so no thread waits for the authentication.
+ */
+public class AsyncUserAuthenticator {
+
+    // in milliseconds
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    protected static Logger log = LoggerFactory.getLogger(AsyncUserAuthenticator.class);
+
+    private static volatile AsyncUserAuthenticator instance;
+    private static volatile boolean initialized;
+
+    private final IAsyncUserAuthentication authentication;
+    private final long timeout;
+    private final Timer timer;
+
+    /**
+     * Creates async user authenticator.
+     *
+     * @param authentication the user authentication
+     * @param timeout max time in milliseconds to wait for the authentication result
+     * @param timer timer that tracks the timeouts
+     */
+    public AsyncUserAuthenticator(IAsyncUserAuthentication authentication, long timeout, Timer timer) {
+        this.authentication = authentication;
+        this.timeout = timeout;
+        this.timer = timer;
+    }
+
+    /**
+     * Returns the async user authenticator configured for that ApiFest OAuth20 node.
+     *
+     * @return async user authenticator or <code>null</code>, if the user authentication class does not implement
+     * {@link IAsyncUserAuthentication}
+     */
+    public static synchronized AsyncUserAuthenticator getInstance() {
+        if (!initialized) {
+            IAsyncUserAuthentication authentication = OAuthServer.getAsyncUserAuthentication();
+            if (authentication != null) {
+                instance = new AsyncUserAuthenticator(authentication, OAuthServer.getUserAuthenticationTimeout(),
+                        new HashedWheelTimer());
+            }
+            initialized = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Starts the authentication of a user.
+     *
+     * @param username username
+     * @param password password
+     * @param authRequest the authentication request
+     * @param callback receives the result once, from the thread that completed the authentication or the timer thread
+     */
+    public void authenticate(String username, String password, HttpRequest authRequest,
+            final AuthenticationCallback callback) {
+        final AtomicBoolean completed = new AtomicBoolean();
+        final Timeout timeoutTask = timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout t) {
+                if (completed.compareAndSet(false, true)) {
+                    log.warn("user authentication timed out after {} ms", timeout);
+                    callback.onFailure(new AuthenticationTimeoutException("user authentication timed out"));
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        AuthenticationCallback once = new AuthenticationCallback() {
+            @Override
+            public void onSuccess(UserDetails userDetails) {
+                if (completed.compareAndSet(false, true)) {
+                    timeoutTask.cancel();
+                    callback.onSuccess(userDetails);
+                }
+            }
+
+            @Override
+            public void onFailure(AuthenticationException e) {
+                if (completed.compareAndSet(false, true)) {
+                    timeoutTask.cancel();
+                    callback.onFailure(e);
+                }
+            }
+        };
+        try {
+            authentication.authenticate(username, password, authRequest, once);
+        } catch (RuntimeException e) {
+            log.error("cannot authenticate user", e);
+            once.onFailure(new AuthenticationException(e.getMessage()));
+        }
+    }
+}
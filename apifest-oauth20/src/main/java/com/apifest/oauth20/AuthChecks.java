@@ -16,7 +16,6 @@
 
 package com.apifest.oauth20;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.slf4j.Logger;
@@ -29,8 +28,6 @@ import org.slf4j.LoggerFactory;
  */
 public class AuthChecks {
 
-    private static final String BASIC = "Basic ";
-
     protected static Logger log = LoggerFactory.getLogger(AuthChecks.class);
 
     protected DBManager db = DBManagerFactory.getInstance();
@@ -39,21 +36,11 @@ public class AuthChecks {
         // extract Basic Authentication header
         String authHeader = req.headers().get(HttpHeaders.AUTHORIZATION);
         String clientId = null;
-        if (authHeader != null && authHeader.contains(BASIC)) {
-            String value = authHeader.replace(BASIC, "");
-            Base64 decoder = new Base64();
-            byte[] decodedBytes = decoder.decode(value);
-            String decoded = new String(decodedBytes);
-            // client_id:client_secret
-            String[] str = decoded.split(":");
-            if (str.length == 2) {
-                String authClientId = str[0];
-                String authClientSecret = str[1];
-                // check valid - DB call
-                if (db.validClient(authClientId, authClientSecret)) {
-                    clientId = authClientId;
-                }
-            }
+        // client_id:client_secret
+        String[] credentials = RequestParser.parseBasicAuthorization(authHeader);
+        // check valid - DB call
+        if (credentials != null && db.validClient(credentials[0], credentials[1])) {
+            clientId = credentials[0];
         }
         return clientId;
     }
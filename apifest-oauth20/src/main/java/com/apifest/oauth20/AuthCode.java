@@ -28,11 +28,6 @@ import org.bson.types.ObjectId;
  */
 public class AuthCode {
 
-    /**
-     * Authorization code length
-     */
-    private static final int AUTH_CODE_LENGTH = 200;
-
     private String id;
     private String code;
     private String clientId;
@@ -152,7 +147,7 @@ public class AuthCode {
      * @return authorization code
      */
     public static String generate() {
-        return RandomGenerator.generateCharsSymbolsString(AUTH_CODE_LENGTH);
+        return TokenGenerator.generateAuthCode();
     }
 
     /**
@@ -18,12 +18,9 @@ package com.apifest.oauth20;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.List;
-import java.util.Map;
 
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
-import org.jboss.netty.handler.codec.http.QueryStringDecoder;
 
 /**
  * Represents authorization code request.
@@ -39,6 +36,7 @@ public class AuthRequest {
     private static final String SCOPE = "scope";
     private static final String USER_ID = "user_id";
     private static final String RESPONSE_TYPE_CODE = "code";
+    private static final String[] PARAMS = { CLIENT_ID, RESPONSE_TYPE, REDIRECT_URI, STATE, SCOPE, USER_ID };
 
     private String clientId;
     private String responseType;
@@ -49,16 +47,21 @@ public class AuthRequest {
     // additional field for identifying token-associated user
     private String userId;
 
-    public AuthRequest(HttpRequest request) {
+    /**
+     * Creates authorization code request from the query string of the request.
+     *
+     * @param request the authorization code request
+     * @throws OAuthException if the query string is too large or malformed, or a parameter is repeated
+     */
+    public AuthRequest(HttpRequest request) throws OAuthException {
         if (request.getUri() != null) {
-            QueryStringDecoder dec = new QueryStringDecoder(request.getUri());
-            Map<String, List<String>> params = dec.getParameters();
-            this.clientId = QueryParameter.getFirstElement(params, CLIENT_ID);
-            this.responseType = QueryParameter.getFirstElement(params, RESPONSE_TYPE);
-            this.redirectUri = QueryParameter.getFirstElement(params, REDIRECT_URI);
-            this.state = QueryParameter.getFirstElement(params, STATE);
-            this.scope = QueryParameter.getFirstElement(params, SCOPE);
-            this.userId = QueryParameter.getFirstElement(params, USER_ID);
+            String[] params = RequestParser.parseQuery(request.getUri(), PARAMS);
+            this.clientId = params[0];
+            this.responseType = params[1];
+            this.redirectUri = params[2];
+            this.state = params[3];
+            this.scope = params[4];
+            this.userId = params[5];
         }
     }
 
@@ -17,11 +17,14 @@
 package com.apifest.oauth20;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
-import org.apache.commons.codec.binary.Base64;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -33,8 +36,9 @@ import org.jboss.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.apifest.oauth20.api.AuthenticationCallback;
 import com.apifest.oauth20.api.AuthenticationException;
-import com.apifest.oauth20.api.ICustomGrantTypeHandler;
+import com.apifest.oauth20.api.IAsyncUserAuthentication;
 import com.apifest.oauth20.api.IUserAuthentication;
 import com.apifest.oauth20.api.UserDetails;
 
@@ -52,6 +56,85 @@ public class AuthorizationServer {
 
     protected DBManager db = DBManagerFactory.getInstance();
     protected ScopeService scopeService = new ScopeService();
+    protected TokenSigner tokenSigner = TokenSigner.getInstance();
+    protected AsyncUserAuthenticator asyncAuthenticator = AsyncUserAuthenticator.getInstance();
+    protected UserAuthenticationCache userAuthCache = UserAuthenticationCache.getInstance();
+    protected CustomGrantTypeRegistry customGrantTypes = CustomGrantTypeRegistry.getInstance();
+    protected Executor executionStage = OAuthServer.getExecutionStage();
+
+    /**
+     * Receives the result of an access token request.
+     */
+    public interface AccessTokenCallback {
+
+        /**
+         * Called when the access token is issued.
+         *
+         * @param accessToken the access token, <code>null</code> if no token could be issued for that grant type
+         */
+        void onIssued(AccessToken accessToken);
+
+        void onFailure(OAuthException e);
+    }
+
+    /**
+     * Issues the access token when the user is authenticated and passes it to the {@link AccessTokenCallback}.
+     * The token is issued by the executor of the requests, if any, so the threads of the authentication
+     * do not write to the DB and the number of concurrently issued tokens stays bounded.
+     */
+    protected abstract static class TokenIssuingCallback implements AuthenticationCallback {
+        private final AccessTokenCallback callback;
+        private final Executor executor;
+
+        protected TokenIssuingCallback(AccessTokenCallback callback, Executor executor) {
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+        protected abstract AccessToken createAccessToken(UserDetails userDetails) throws OAuthException;
+
+        protected abstract OAuthException toOAuthException(AuthenticationException e);
+
+        @Override
+        public void onSuccess(final UserDetails userDetails) {
+            if (executor == null) {
+                issue(userDetails);
+                return;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        issue(userDetails);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                callback.onFailure(new OAuthException(Response.SERVER_OVERLOADED,
+                        HttpResponseStatus.SERVICE_UNAVAILABLE));
+            }
+        }
+
+        private void issue(UserDetails userDetails) {
+            AccessToken accessToken;
+            try {
+                accessToken = createAccessToken(userDetails);
+            } catch (OAuthException e) {
+                callback.onFailure(e);
+                return;
+            } catch (RuntimeException e) {
+                log.error("cannot issue access token", e);
+                callback.onFailure(new OAuthException(e, Response.CANNOT_ISSUE_TOKEN,
+                        HttpResponseStatus.INTERNAL_SERVER_ERROR));
+                return;
+            }
+            callback.onIssued(accessToken);
+        }
+
+        @Override
+        public void onFailure(AuthenticationException e) {
+            callback.onFailure(toOAuthException(e));
+        }
+    }
 
     public ClientCredentials issueClientCredentials(HttpRequest req) throws OAuthException {
         ClientCredentials creds = null;
@@ -59,14 +142,14 @@ public class AuthorizationServer {
         String contentType = req.headers().get(HttpHeaders.Names.CONTENT_TYPE);
 
         if (contentType != null && contentType.contains(Response.APPLICATION_JSON)) {
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = JSONSerializer.getMapper();
             ApplicationInfo appInfo;
             try {
                 appInfo = mapper.readValue(content, ApplicationInfo.class);
                 if (appInfo.valid()) {
                     String[] scopeList = appInfo.getScope().split(" ");
                     for (String s : scopeList) {
-                        // TODO: add cache for scope
+                        // served from memory, if the scope registry is enabled
                         if (db.findScope(s) == null) {
                             throw new OAuthException(Response.SCOPE_NOT_EXIST, HttpResponseStatus.BAD_REQUEST);
                         }
@@ -128,6 +211,80 @@ public class AuthorizationServer {
     }
 
     public AccessToken issueAccessToken(HttpRequest req) throws OAuthException {
+        return issueAccessToken(validateTokenRequest(req), req);
+    }
+
+    /**
+     * Issues access token. The user of a password grant is authenticated with {@link IAsyncUserAuthentication},
+     * if configured, and the handler of a custom grant type with its own threads is executed in them. In both cases,
+     * the access token is passed to the callback when the authentication completes. Access tokens of the other
+     * grants are issued synchronously and passed to the callback before the method returns.
+     *
+     * @param req the token request
+     * @param callback receives the access token or the error
+     */
+    public void issueAccessToken(final HttpRequest req, final AccessTokenCallback callback) {
+        try {
+            final TokenRequest tokenRequest = validateTokenRequest(req);
+            if (asyncAuthenticator != null && TokenRequest.PASSWORD.equals(tokenRequest.getGrantType())) {
+                final String scope = getValidPasswordScope(tokenRequest);
+                UserDetails cached = getCachedUserDetails(tokenRequest);
+                if (cached != null) {
+                    callback.onIssued(createPasswordAccessToken(tokenRequest, scope, cached));
+                    return;
+                }
+                asyncAuthenticator.authenticate(tokenRequest.getUsername(), tokenRequest.getPassword(), req,
+                        new TokenIssuingCallback(callback, executionStage) {
+                    @Override
+                    protected AccessToken createAccessToken(UserDetails userDetails) throws OAuthException {
+                        AccessToken accessToken = createPasswordAccessToken(tokenRequest, scope, userDetails);
+                        cacheUserDetails(tokenRequest, userDetails);
+                        return accessToken;
+                    }
+
+                    @Override
+                    protected OAuthException toOAuthException(AuthenticationException e) {
+                        return AuthorizationServer.this.toOAuthException(e);
+                    }
+                });
+                return;
+            }
+            CustomGrantType customGrantType = (customGrantTypes != null)
+                    ? customGrantTypes.get(tokenRequest.getGrantType()) : null;
+            if (customGrantType != null && customGrantType.isIsolated()) {
+                final String scope = getValidCustomGrantScope(tokenRequest);
+                customGrantType.execute(req, new TokenIssuingCallback(callback, executionStage) {
+                    @Override
+                    protected AccessToken createAccessToken(UserDetails userDetails) throws OAuthException {
+                        return createCustomGrantAccessToken(tokenRequest, scope, userDetails);
+                    }
+
+                    @Override
+                    protected OAuthException toOAuthException(AuthenticationException e) {
+                        return toCustomGrantOAuthException(e);
+                    }
+                });
+                return;
+            }
+            callback.onIssued(issueAccessToken(tokenRequest, req));
+        } catch (OAuthException e) {
+            callback.onFailure(e);
+        }
+    }
+
+    public boolean isAsyncUserAuthentication() {
+        return asyncAuthenticator != null;
+    }
+
+    /**
+     * Whether some access tokens are issued asynchronously by {@link #issueAccessToken(HttpRequest, AccessTokenCallback)},
+     * i.e. the user authentication is non-blocking or a custom grant type handler is executed in its own threads.
+     */
+    public boolean isAsyncAccessTokenIssuing() {
+        return isAsyncUserAuthentication() || (customGrantTypes != null && customGrantTypes.hasIsolatedGrantTypes());
+    }
+
+    protected TokenRequest validateTokenRequest(HttpRequest req) throws OAuthException {
         TokenRequest tokenRequest = new TokenRequest(req);
 
         if (tokenRequest.getClientId() == null) {
@@ -145,28 +302,21 @@ public class AuthorizationServer {
                 throw new OAuthException(Response.INVALID_CLIENT_CREDENTIALS, HttpResponseStatus.BAD_REQUEST);
             }
         }
+        return tokenRequest;
+    }
 
+    protected AccessToken issueAccessToken(TokenRequest tokenRequest, HttpRequest req) throws OAuthException {
         AccessToken accessToken = null;
         if (TokenRequest.AUTHORIZATION_CODE.equals(tokenRequest.getGrantType())) {
-            AuthCode authCode = findAuthCode(tokenRequest);
-            // TODO: REVISIT: Move client_id check to db query
+            // the auth code is invalidated, if it was issued to that client for that redirect uri
+            AuthCode authCode = consumeAuthCode(tokenRequest);
             if (authCode != null) {
-                if (!tokenRequest.getClientId().equals(authCode.getClientId())) {
-                    throw new OAuthException(Response.INVALID_CLIENT_ID, HttpResponseStatus.BAD_REQUEST);
-                }
-                if (authCode.getRedirectUri() != null
-                        && !tokenRequest.getRedirectUri().equals(authCode.getRedirectUri())) {
-                    throw new OAuthException(Response.INVALID_REDIRECT_URI, HttpResponseStatus.BAD_REQUEST);
-                } else {
-                    // invalidate the auth code
-                    db.updateAuthCodeValidStatus(authCode.getCode(), false);
-                    accessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD,authCode.getScope()),
-                            authCode.getScope(), getExpiresIn(TokenRequest.REFRESH_TOKEN, authCode.getScope()));
-                    accessToken.setUserId(authCode.getUserId());
-                    accessToken.setClientId(authCode.getClientId());
-                    accessToken.setCodeId(authCode.getId());
-                    db.storeAccessToken(accessToken);
-                }
+                accessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD,authCode.getScope()),
+                        authCode.getScope(), getExpiresIn(TokenRequest.REFRESH_TOKEN, authCode.getScope()));
+                accessToken.setUserId(authCode.getUserId());
+                accessToken.setClientId(authCode.getClientId());
+                accessToken.setCodeId(authCode.getId());
+                storeAccessToken(accessToken);
             } else {
                 throw new OAuthException(Response.INVALID_AUTH_CODE, HttpResponseStatus.BAD_REQUEST);
             }
@@ -184,17 +334,15 @@ public class AuthorizationServer {
                     } else {
                         validScope = accessToken.getScope();
                     }
-                    db.updateAccessTokenValidStatus(accessToken.getToken(), false);
                     AccessToken newAccessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD,
                             validScope), validScope, accessToken.getRefreshToken(), accessToken.getRefreshExpiresIn());
                     newAccessToken.setUserId(accessToken.getUserId());
                     newAccessToken.setDetails(accessToken.getDetails());
                     newAccessToken.setClientId(accessToken.getClientId());
-                    db.storeAccessToken(newAccessToken);
-                    db.removeAccessToken(accessToken.getToken());
+                    rotateAccessToken(accessToken, newAccessToken);
                     return newAccessToken;
                 } else {
-                    db.removeAccessToken(accessToken.getToken());
+                    removeAccessToken(accessToken);
                     throw new OAuthException(Response.INVALID_REFRESH_TOKEN, HttpResponseStatus.BAD_REQUEST);
                 }
             } else {
@@ -214,59 +362,121 @@ public class AuthorizationServer {
             if ((applicationDetails != null) && (applicationDetails.size() > 0)) {
                 accessToken.setDetails(applicationDetails);
             }
-            db.storeAccessToken(accessToken);
+            storeAccessToken(accessToken);
         } else if (TokenRequest.PASSWORD.equals(tokenRequest.getGrantType())) {
-            String scope = scopeService.getValidScope(tokenRequest.getScope(), tokenRequest.getClientId());
-            if (scope == null) {
-                throw new OAuthException(Response.SCOPE_NOK_MESSAGE, HttpResponseStatus.BAD_REQUEST);
-            }
-
+            String scope = getValidPasswordScope(tokenRequest);
             try {
-                UserDetails userDetails = authenticateUser(tokenRequest.getUsername(), tokenRequest.getPassword(), req);
-                if (userDetails != null && userDetails.getUserId() != null) {
-                    accessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD, scope), scope,
-                            getExpiresIn(TokenRequest.REFRESH_TOKEN, scope));
-                    accessToken.setUserId(userDetails.getUserId());
-                    accessToken.setDetails(userDetails.getDetails());
-                    accessToken.setClientId(tokenRequest.getClientId());
-                    db.storeAccessToken(accessToken);
-                } else {
-                    throw new OAuthException(Response.INVALID_USERNAME_PASSWORD, HttpResponseStatus.UNAUTHORIZED);
+                UserDetails userDetails = getCachedUserDetails(tokenRequest);
+                if (userDetails == null) {
+                    userDetails = authenticateUser(tokenRequest.getUsername(), tokenRequest.getPassword(), req);
+                    cacheUserDetails(tokenRequest, userDetails);
                 }
+                accessToken = createPasswordAccessToken(tokenRequest, scope, userDetails);
             } catch (AuthenticationException e) {
-                // in case some custom response should be returned other than HTTP 401
-                // for instance, if the user authentication requires more user details as a subsequent step
-                if (e.getResponse() != null) {
-                    String responseContent = e.getResponse().getContent().toString(CharsetUtil.UTF_8);
-                    throw new OAuthException(e, responseContent, e.getResponse().getStatus());
-                } else {
-                    log.error("Cannot authenticate user", e);
-                    throw new OAuthException(e, Response.CANNOT_AUTHENTICATE_USER, HttpResponseStatus.UNAUTHORIZED); // NOSONAR
-                }
-            }
-        } else if (tokenRequest.getGrantType().equals(OAuthServer.getCustomGrantType())) {
-            String scope = scopeService.getValidScope(tokenRequest.getScope(), tokenRequest.getClientId());
-            if (scope == null) {
-                throw new OAuthException(Response.SCOPE_NOK_MESSAGE, HttpResponseStatus.BAD_REQUEST);
+                throw toOAuthException(e);
             }
+        } else if (OAuthServer.isCustomGrantType(tokenRequest.getGrantType())) {
+            String scope = getValidCustomGrantScope(tokenRequest);
             try {
-                accessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD, scope), scope,
-                        getExpiresIn(TokenRequest.REFRESH_TOKEN, scope));
-                accessToken.setClientId(tokenRequest.getClientId());
-                UserDetails userDetails = callCustomGrantTypeHandler(req);
-                if (userDetails != null && userDetails.getUserId() != null) {
-                    accessToken.setUserId(userDetails.getUserId());
-                    accessToken.setDetails(userDetails.getDetails());
-                }
-                db.storeAccessToken(accessToken);
+                UserDetails userDetails = callCustomGrantTypeHandler(tokenRequest.getGrantType(), req);
+                accessToken = createCustomGrantAccessToken(tokenRequest, scope, userDetails);
             } catch (AuthenticationException e) {
-                log.error("Cannot authenticate user", e);
-                throw new OAuthException(e, Response.CANNOT_AUTHENTICATE_USER, HttpResponseStatus.UNAUTHORIZED);
+                throw toCustomGrantOAuthException(e);
             }
         }
         return accessToken;
     }
 
+    protected String getValidCustomGrantScope(TokenRequest tokenRequest) throws OAuthException {
+        String scope = scopeService.getValidScope(tokenRequest.getScope(), tokenRequest.getClientId());
+        if (scope == null) {
+            throw new OAuthException(Response.SCOPE_NOK_MESSAGE, HttpResponseStatus.BAD_REQUEST);
+        }
+        return scope;
+    }
+
+    protected AccessToken createCustomGrantAccessToken(TokenRequest tokenRequest, String scope, UserDetails userDetails) {
+        AccessToken accessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD, scope), scope,
+                getExpiresIn(TokenRequest.REFRESH_TOKEN, scope));
+        accessToken.setClientId(tokenRequest.getClientId());
+        if (userDetails != null && userDetails.getUserId() != null) {
+            accessToken.setUserId(userDetails.getUserId());
+            accessToken.setDetails(userDetails.getDetails());
+        }
+        storeAccessToken(accessToken);
+        return accessToken;
+    }
+
+    protected OAuthException toCustomGrantOAuthException(AuthenticationException e) {
+        if (e instanceof AuthenticationTimeoutException || e instanceof GrantTypeUnavailableException) {
+            log.warn("custom grant_type unavailable: {}", e.getMessage());
+            return new OAuthException(e, Response.GRANT_TYPE_UNAVAILABLE, HttpResponseStatus.SERVICE_UNAVAILABLE);
+        }
+        log.error("Cannot authenticate user", e);
+        return new OAuthException(e, Response.CANNOT_AUTHENTICATE_USER, HttpResponseStatus.UNAUTHORIZED);
+    }
+
+    protected String getValidPasswordScope(TokenRequest tokenRequest) throws OAuthException {
+        String scope = scopeService.getValidScope(tokenRequest.getScope(), tokenRequest.getClientId());
+        if (scope == null) {
+            throw new OAuthException(Response.SCOPE_NOK_MESSAGE, HttpResponseStatus.BAD_REQUEST);
+        }
+        return scope;
+    }
+
+    protected UserDetails getCachedUserDetails(TokenRequest tokenRequest) {
+        if (userAuthCache == null) {
+            return null;
+        }
+        return userAuthCache.get(tokenRequest.getClientId(), tokenRequest.getUsername(), tokenRequest.getPassword());
+    }
+
+    protected void cacheUserDetails(TokenRequest tokenRequest, UserDetails userDetails) {
+        if (userAuthCache != null) {
+            userAuthCache.put(tokenRequest.getClientId(), tokenRequest.getUsername(), tokenRequest.getPassword(),
+                    userDetails);
+        }
+    }
+
+    /**
+     * Removes the cached authentication results of a user on all nodes, e.g. when the user password is changed.
+     *
+     * @param username username
+     */
+    public void invalidateUserAuthentications(String username) {
+        if (userAuthCache != null) {
+            userAuthCache.invalidateUser(username);
+        }
+    }
+
+    protected AccessToken createPasswordAccessToken(TokenRequest tokenRequest, String scope, UserDetails userDetails)
+            throws OAuthException {
+        if (userDetails == null || userDetails.getUserId() == null) {
+            throw new OAuthException(Response.INVALID_USERNAME_PASSWORD, HttpResponseStatus.UNAUTHORIZED);
+        }
+        AccessToken accessToken = new AccessToken(TOKEN_TYPE_BEARER, getExpiresIn(TokenRequest.PASSWORD, scope), scope,
+                getExpiresIn(TokenRequest.REFRESH_TOKEN, scope));
+        accessToken.setUserId(userDetails.getUserId());
+        accessToken.setDetails(userDetails.getDetails());
+        accessToken.setClientId(tokenRequest.getClientId());
+        storeAccessToken(accessToken);
+        return accessToken;
+    }
+
+    protected OAuthException toOAuthException(AuthenticationException e) {
+        // in case some custom response should be returned other than HTTP 401
+        // for instance, if the user authentication requires more user details as a subsequent step
+        if (e.getResponse() != null) {
+            String responseContent = e.getResponse().getContent().toString(CharsetUtil.UTF_8);
+            return new OAuthException(e, responseContent, e.getResponse().getStatus());
+        }
+        if (e instanceof AuthenticationTimeoutException) {
+            return new OAuthException(e, Response.USER_AUTHENTICATION_TIMEOUT, HttpResponseStatus.SERVICE_UNAVAILABLE);
+        }
+        log.error("Cannot authenticate user", e);
+        return new OAuthException(e, Response.CANNOT_AUTHENTICATE_USER, HttpResponseStatus.UNAUTHORIZED); // NOSONAR
+    }
+
     protected UserDetails authenticateUser(String username, String password, HttpRequest authRequest) throws AuthenticationException {
         UserDetails userDetails = null;
         IUserAuthentication ua;
@@ -288,52 +498,82 @@ public class AuthorizationServer {
         return userDetails;
     }
 
-    protected UserDetails callCustomGrantTypeHandler(HttpRequest authRequest) throws AuthenticationException {
-        UserDetails userDetails = null;
-        ICustomGrantTypeHandler customHandler;
-        if (OAuthServer.getCustomGrantTypeHandler() != null) {
-            try {
-                customHandler = OAuthServer.getCustomGrantTypeHandler().newInstance();
-                userDetails = customHandler.execute(authRequest);
-            } catch (InstantiationException e) {
-                log.error("cannot instantiate custom grant_type class", e);
-                throw new AuthenticationException(e.getMessage());
-            } catch (IllegalAccessException e) {
-                log.error("cannot instantiate custom grant_type class", e);
-                throw new AuthenticationException(e.getMessage());
-            }
+    protected UserDetails callCustomGrantTypeHandler(String grantType, HttpRequest authRequest)
+            throws AuthenticationException {
+        CustomGrantType customGrantType = (customGrantTypes != null) ? customGrantTypes.get(grantType) : null;
+        if (customGrantType == null) {
+            return null;
         }
-        return userDetails;
+        return customGrantType.execute(authRequest);
     }
 
     protected String getBasicAuthorizationClientId(HttpRequest req) {
         // extract Basic Authorization header
         String authHeader = req.headers().get(HttpHeaders.Names.AUTHORIZATION);
         String clientId = null;
-        if (authHeader != null && authHeader.contains(BASIC)) {
-            String value = authHeader.replace(BASIC, "");
-            Base64 decoder = new Base64();
-            byte[] decodedBytes = decoder.decode(value);
-            String decoded = new String(decodedBytes, Charset.forName("UTF-8"));
-            // client_id:client_secret - should be changed by client password
-            String[] str = decoded.split(":");
-            if (str.length == 2) {
-                String authClientId = str[0];
-                String authClientSecret = str[1];
-                // check valid - DB call
-                if (db.validClient(authClientId, authClientSecret)) {
-                    clientId = authClientId;
-                }
-            }
+        // client_id:client_secret - should be changed by client password
+        String[] credentials = RequestParser.parseBasicAuthorization(authHeader);
+        // check valid - DB call
+        if (credentials != null && db.validClient(credentials[0], credentials[1])) {
+            clientId = credentials[0];
         }
         return clientId;
     }
 
-    protected AuthCode findAuthCode(TokenRequest tokenRequest) {
-        return db.findAuthCode(tokenRequest.getCode(), tokenRequest.getRedirectUri());
+    protected AuthCode consumeAuthCode(TokenRequest tokenRequest) {
+        return db.consumeAuthCode(tokenRequest.getCode(), tokenRequest.getRedirectUri(), tokenRequest.getClientId());
+    }
+
+    /**
+     * Signs the access token, if signed tokens are used, and stores it in the DB.
+     * A signed access token without refresh token is self-contained, so storing it is optional.
+     *
+     * @param accessToken the access token
+     */
+    protected void storeAccessToken(AccessToken accessToken) {
+        if (tokenSigner != null) {
+            accessToken.setToken(tokenSigner.sign(accessToken));
+            boolean hasRefreshToken = accessToken.getRefreshToken() != null && !accessToken.getRefreshToken().isEmpty();
+            if (!hasRefreshToken && !OAuthServer.getStoreSignedTokens()) {
+                return;
+            }
+        }
+        db.storeAccessToken(accessToken);
+    }
+
+    // replaces the access token in a single DB call, a concurrent refresh with the same token fails
+    protected void rotateAccessToken(AccessToken oldToken, AccessToken newToken) throws OAuthException {
+        if (tokenSigner != null) {
+            newToken.setToken(tokenSigner.sign(newToken));
+        }
+        if (!db.rotateAccessToken(oldToken.getToken(), newToken)) {
+            throw new OAuthException(Response.INVALID_REFRESH_TOKEN, HttpResponseStatus.BAD_REQUEST);
+        }
+        if (tokenSigner != null && TokenSigner.isSignedToken(oldToken.getToken())) {
+            tokenSigner.revoke(oldToken);
+        }
+    }
+
+    protected void removeAccessToken(AccessToken accessToken) {
+        db.removeAccessToken(accessToken.getToken());
+        if (tokenSigner != null && TokenSigner.isSignedToken(accessToken.getToken())) {
+            tokenSigner.revoke(accessToken);
+        }
+    }
+
+    // signed tokens are verified locally, the DB is not consulted
+    protected AccessToken isValidSignedToken(String token) {
+        AccessToken accessToken = tokenSigner.parse(token);
+        if (accessToken != null && !accessToken.tokenExpired() && !tokenSigner.isRevoked(token)) {
+            return accessToken;
+        }
+        return null;
     }
 
     public AccessToken isValidToken(String token) {
+        if (tokenSigner != null && TokenSigner.isSignedToken(token)) {
+            return isValidSignedToken(token);
+        }
         AccessToken accessToken = db.findAccessToken(token);
         if (accessToken != null && accessToken.isValid()) {
             if (accessToken.tokenExpired()) {
@@ -345,6 +585,44 @@ public class AuthorizationServer {
         return null;
     }
 
+    /**
+     * Validates several access tokens with one DB lookup.
+     *
+     * @param req request that contains the access tokens
+     * @return {@link Map} of the valid access tokens, keyed by access token
+     */
+    public Map<String, AccessToken> validateTokens(HttpRequest req) throws OAuthException {
+        ValidateTokensRequest validateRequest = new ValidateTokensRequest(req);
+        validateRequest.checkMandatoryParams();
+        Map<String, AccessToken> validTokens = new HashMap<String, AccessToken>();
+        List<String> tokens = new ArrayList<String>(validateRequest.getTokens().size());
+        for (String token : validateRequest.getTokens()) {
+            if (tokenSigner != null && TokenSigner.isSignedToken(token)) {
+                AccessToken accessToken = isValidSignedToken(token);
+                if (accessToken != null) {
+                    validTokens.put(token, accessToken);
+                }
+            } else {
+                tokens.add(token);
+            }
+        }
+        if (tokens.isEmpty()) {
+            return validTokens;
+        }
+        Map<String, AccessToken> found = db.findAccessTokens(tokens);
+        for (String token : tokens) {
+            AccessToken accessToken = found.get(token);
+            if (accessToken != null && accessToken.isValid()) {
+                if (accessToken.tokenExpired()) {
+                    db.updateAccessTokenValidStatus(accessToken.getToken(), false);
+                } else {
+                    validTokens.put(token, accessToken);
+                }
+            }
+        }
+        return validTokens;
+    }
+
     public ApplicationInfo getApplicationInfo(String clientId) {
         ApplicationInfo appInfo = null;
         ClientCredentials creds = db.findClientCredentials(clientId);
@@ -411,14 +689,19 @@ public class AuthorizationServer {
             throw new OAuthException(Response.INVALID_CLIENT_ID, HttpResponseStatus.BAD_REQUEST);
         }
         String token = revokeRequest.getAccessToken();
-        AccessToken accessToken = db.findAccessToken(token);
+        AccessToken accessToken = null;
+        if (tokenSigner != null && TokenSigner.isSignedToken(token)) {
+            accessToken = tokenSigner.parse(token);
+        } else {
+            accessToken = db.findAccessToken(token);
+        }
         if (accessToken != null) {
             if (accessToken.tokenExpired()) {
                 log.debug("access token {} is expired", token);
                 return true;
             }
             if (clientId.equals(accessToken.getClientId())) {
-                db.removeAccessToken(accessToken.getToken());
+                removeAccessToken(accessToken);
                 log.debug("access token {} set status invalid", token);
                 return true;
             } else {
@@ -441,7 +724,7 @@ public class AuthorizationServer {
             if (!isExistingClient(clientId)) {
                 throw new OAuthException(Response.INVALID_CLIENT_ID, HttpResponseStatus.BAD_REQUEST);
             }
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = JSONSerializer.getMapper();
             ApplicationInfo appInfo;
             try {
                 appInfo = mapper.readValue(content, ApplicationInfo.class);
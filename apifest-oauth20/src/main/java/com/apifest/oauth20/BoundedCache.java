@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process LRU cache bounded both by number of entries and by estimated size in bytes.
+ * Every entry has its own expiration time. The cache is split into segments, each guarded by its own lock.
+ */
+public class BoundedCache<K, V> implements MetricsSource {
+
+    /**
+     * Selects the values removed by {@link BoundedCache#removeAll(ValueMatcher)}.
+     */
+    public interface ValueMatcher<V> {
+        boolean matches(V value);
+    }
+
+    private static final int SEGMENTS_COUNT = 16;
+
+    private final Segment<K, V>[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries maximum number of entries kept in the cache
+     * @param maxBytes maximum estimated size of all entries in bytes, 0 means no limit
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int maxEntries, long maxBytes) {
+        segments = new Segment[SEGMENTS_COUNT];
+        int entriesPerSegment = Math.max(1, maxEntries / SEGMENTS_COUNT);
+        long bytesPerSegment = (maxBytes > 0) ? Math.max(1, maxBytes / SEGMENTS_COUNT) : Long.MAX_VALUE;
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            segments[i] = new Segment<K, V>(entriesPerSegment, bytesPerSegment);
+        }
+    }
+
+    /**
+     * Returns the value associated with the key, if it is not expired.
+     *
+     * @param key the key
+     * @return the cached value or <code>null</code>
+     */
+    public V get(K key) {
+        long now = System.currentTimeMillis();
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> entry;
+        synchronized (segment) {
+            entry = segment.map.get(key);
+            if (entry != null && entry.expiresAt <= now) {
+                segment.map.remove(key);
+                segment.bytes -= entry.bytes;
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Puts a value in the cache. If the value is already expired, it is not cached.
+     *
+     * @param key the key
+     * @param value the value
+     * @param expiresAt time in millis when the entry expires
+     * @param bytes estimated size of the entry in bytes
+     */
+    public void put(K key, V value, long expiresAt, int bytes) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            putLocked(segment, key, value, expiresAt, bytes);
+        }
+    }
+
+    /**
+     * Returns the version of a key, changed each time the key is removed. A value loaded after reading it
+     * is put with {@link #put(Object, Object, long, int, long)}, so a removal during the load is not undone.
+     *
+     * @param key the key
+     * @return the version of the key
+     */
+    public long version(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.removals;
+        }
+    }
+
+    /**
+     * Puts a value in the cache, unless the key was removed after its version was read.
+     * The version is shared by the keys of a segment, so a removal of another key could skip the put as well.
+     *
+     * @param key the key
+     * @param value the value
+     * @param expiresAt time in millis when the entry expires
+     * @param bytes estimated size of the entry in bytes
+     * @param version the version of the key read before the value was loaded, see {@link #version(Object)}
+     * @return <code>true</code> if the value is cached
+     */
+    public boolean put(K key, V value, long expiresAt, int bytes, long version) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return false;
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.removals != version) {
+                return false;
+            }
+            putLocked(segment, key, value, expiresAt, bytes);
+        }
+        return true;
+    }
+
+    private void putLocked(Segment<K, V> segment, K key, V value, long expiresAt, int bytes) {
+        Entry<V> old = segment.map.put(key, new Entry<V>(value, expiresAt, bytes));
+        if (old != null) {
+            segment.bytes -= old.bytes;
+        }
+        segment.bytes += bytes;
+        Iterator<Map.Entry<K, Entry<V>>> it = segment.map.entrySet().iterator();
+        while ((segment.map.size() > segment.maxEntries || segment.bytes > segment.maxBytes) && it.hasNext()) {
+            Entry<V> eldest = it.next().getValue();
+            it.remove();
+            segment.bytes -= eldest.bytes;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes a value from the cache.
+     *
+     * @param key the key
+     */
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> old = segment.map.remove(key);
+            if (old != null) {
+                segment.bytes -= old.bytes;
+            }
+            // even if not cached, it could be put by a load that started before the removal
+            segment.removals++;
+        }
+    }
+
+    /**
+     * Removes the values selected by a matcher. All entries are checked, so it is meant for rare invalidations.
+     *
+     * @param matcher selects the values to be removed
+     * @return the number of removed values
+     */
+    public int removeAll(ValueMatcher<? super V> matcher) {
+        int removed = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                Iterator<Entry<V>> it = segment.map.values().iterator();
+                while (it.hasNext()) {
+                    Entry<V> entry = it.next();
+                    if (matcher.matches(entry.value)) {
+                        it.remove();
+                        segment.bytes -= entry.bytes;
+                        removed++;
+                    }
+                }
+                segment.removals++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all values from the cache.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.bytes = 0;
+                segment.removals++;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+        metrics.put("size", size());
+        metrics.put("bytes", getBytes());
+        metrics.put("hits", getHits());
+        metrics.put("misses", getMisses());
+        metrics.put("evictions", getEvictions());
+        metrics.put("expirations", getExpirations());
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + ", bytes=" + getBytes() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", expirations=" + getExpirations();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS_COUNT - 1)];
+    }
+
+    private static final class Segment<K, V> {
+        // access order, so the first entry is the least recently used one
+        private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes;
+        // incremented on each removal, see BoundedCache#version
+        private long removals;
+
+        private Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private final int bytes;
+
+        private Entry(V value, long expiresAt, int bytes) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+    }
+}
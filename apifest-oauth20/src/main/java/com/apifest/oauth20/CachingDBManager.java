@@ -0,0 +1,487 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DBManager that keeps local caches in front of another DBManager.
+ * All writes go to the underlying DBManager and invalidate the cached values.
+ * Invalidations are published to the other ApiFest OAuth20 nodes through the invalidation bus, if any.
+ * Client applications read while a request scope is open are also kept for the rest of that request,
+ * see {@link #beginRequestScope()}.
+ */
+public class CachingDBManager implements DBManager, InvalidationListener {
+
+    // client applications read during the current request, null values for client_ids not found
+    private static final ThreadLocal<Map<String, ClientCredentials>> REQUEST_CLIENTS =
+            new ThreadLocal<Map<String, ClientCredentials>>();
+
+    private final DBManager db;
+    private final AccessTokenCache accessTokenCache;
+    private final UnknownTokenCache unknownTokenCache;
+    private final ClientCredentialsCache clientCache;
+    private final ScopeRegistry scopeRegistry;
+    private final InvalidationBus invalidationBus;
+
+    /**
+     * Creates caching DBManager.
+     *
+     * @param db the underlying DBManager
+     * @param accessTokenCache cache for found access tokens, <code>null</code> if not used
+     * @param unknownTokenCache cache for access tokens not found in the DB, <code>null</code> if not used
+     */
+    public CachingDBManager(DBManager db, AccessTokenCache accessTokenCache, UnknownTokenCache unknownTokenCache) {
+        this(db, accessTokenCache, unknownTokenCache, null);
+    }
+
+    /**
+     * Creates caching DBManager that publishes invalidations to the other nodes and receives theirs.
+     *
+     * @param db the underlying DBManager
+     * @param accessTokenCache cache for found access tokens, <code>null</code> if not used
+     * @param unknownTokenCache cache for access tokens not found in the DB, <code>null</code> if not used
+     * @param invalidationBus invalidation bus, <code>null</code> if caches are local to that node only
+     */
+    public CachingDBManager(DBManager db, AccessTokenCache accessTokenCache, UnknownTokenCache unknownTokenCache,
+            InvalidationBus invalidationBus) {
+        this(db, accessTokenCache, unknownTokenCache, null, invalidationBus);
+    }
+
+    /**
+     * Creates caching DBManager that caches client applications as well.
+     *
+     * @param db the underlying DBManager
+     * @param accessTokenCache cache for found access tokens, <code>null</code> if not used
+     * @param unknownTokenCache cache for access tokens not found in the DB, <code>null</code> if not used
+     * @param clientCache cache for client applications, <code>null</code> if not used
+     * @param invalidationBus invalidation bus, <code>null</code> if caches are local to that node only
+     */
+    public CachingDBManager(DBManager db, AccessTokenCache accessTokenCache, UnknownTokenCache unknownTokenCache,
+            ClientCredentialsCache clientCache, InvalidationBus invalidationBus) {
+        this(db, accessTokenCache, unknownTokenCache, clientCache, null, invalidationBus);
+    }
+
+    /**
+     * Creates caching DBManager that caches client applications and resolves scopes from memory as well.
+     *
+     * @param db the underlying DBManager
+     * @param accessTokenCache cache for found access tokens, <code>null</code> if not used
+     * @param unknownTokenCache cache for access tokens not found in the DB, <code>null</code> if not used
+     * @param clientCache cache for client applications, <code>null</code> if not used
+     * @param scopeRegistry in-memory snapshot of the scopes, <code>null</code> if scopes are read from the DB
+     * @param invalidationBus invalidation bus, <code>null</code> if caches are local to that node only
+     */
+    public CachingDBManager(DBManager db, AccessTokenCache accessTokenCache, UnknownTokenCache unknownTokenCache,
+            ClientCredentialsCache clientCache, ScopeRegistry scopeRegistry, InvalidationBus invalidationBus) {
+        this.db = db;
+        this.accessTokenCache = accessTokenCache;
+        this.unknownTokenCache = unknownTokenCache;
+        this.clientCache = clientCache;
+        this.scopeRegistry = scopeRegistry;
+        this.invalidationBus = invalidationBus;
+        if (invalidationBus != null) {
+            invalidationBus.addListener(this);
+        }
+    }
+
+    public DBManager getDBManager() {
+        return db;
+    }
+
+    public AccessTokenCache getAccessTokenCache() {
+        return accessTokenCache;
+    }
+
+    public UnknownTokenCache getUnknownTokenCache() {
+        return unknownTokenCache;
+    }
+
+    public ClientCredentialsCache getClientCache() {
+        return clientCache;
+    }
+
+    public ScopeRegistry getScopeRegistry() {
+        return scopeRegistry;
+    }
+
+    public InvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+
+    /**
+     * Opens a request scope on the current thread. Until {@link #endRequestScope()} is called,
+     * each client application is read at most once, no matter how many checks of the request need it.
+     */
+    public static void beginRequestScope() {
+        REQUEST_CLIENTS.set(new HashMap<String, ClientCredentials>(4));
+    }
+
+    /**
+     * Closes the request scope of the current thread.
+     */
+    public static void endRequestScope() {
+        REQUEST_CLIENTS.remove();
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#validClient(java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean validClient(String clientId, String clientSecret) {
+        if (clientCache == null && REQUEST_CLIENTS.get() == null) {
+            return db.validClient(clientId, clientSecret);
+        }
+        // the same check as in the DBManagers, but served from the cached client application
+        ClientCredentials creds = findClientCredentials(clientId);
+        return creds != null && creds.getSecret().equals(clientSecret)
+                && creds.getStatus() == ClientCredentials.ACTIVE_STATUS;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#storeClientCredentials(com.apifest.oauth20.ClientCredentials)
+     */
+    @Override
+    public void storeClientCredentials(ClientCredentials clientCreds) {
+        db.storeClientCredentials(clientCreds);
+        removeCachedClient(clientCreds.getId());
+        publish(InvalidationEvent.Type.CLIENT, clientCreds.getId());
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#storeAuthCode(com.apifest.oauth20.AuthCode)
+     */
+    @Override
+    public void storeAuthCode(AuthCode authCode) {
+        db.storeAuthCode(authCode);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#updateAuthCodeValidStatus(java.lang.String, boolean)
+     */
+    @Override
+    public void updateAuthCodeValidStatus(String authCode, boolean valid) {
+        db.updateAuthCodeValidStatus(authCode, valid);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#storeAccessToken(com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public void storeAccessToken(AccessToken accessToken) {
+        db.storeAccessToken(accessToken);
+        if (unknownTokenCache != null) {
+            unknownTokenCache.remove(accessToken.getToken());
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldToken, AccessToken newToken) {
+        boolean rotated = db.rotateAccessToken(oldToken, newToken);
+        if (rotated) {
+            if (unknownTokenCache != null) {
+                unknownTokenCache.remove(newToken.getToken());
+            }
+            removeCachedAccessToken(oldToken);
+            publish(InvalidationEvent.Type.ACCESS_TOKEN, oldToken);
+        }
+        return rotated;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#findAccessTokenByRefreshToken(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AccessToken findAccessTokenByRefreshToken(String refreshToken, String clientId) {
+        return db.findAccessTokenByRefreshToken(refreshToken, clientId);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#updateAccessTokenValidStatus(java.lang.String, boolean)
+     */
+    @Override
+    public void updateAccessTokenValidStatus(String accessToken, boolean valid) {
+        db.updateAccessTokenValidStatus(accessToken, valid);
+        removeCachedAccessToken(accessToken);
+        publish(InvalidationEvent.Type.ACCESS_TOKEN, accessToken);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#findAccessToken(java.lang.String)
+     */
+    @Override
+    public AccessToken findAccessToken(String accessToken) {
+        AccessToken token = null;
+        if (accessTokenCache != null) {
+            token = accessTokenCache.get(accessToken);
+            if (token != null) {
+                return token;
+            }
+        }
+        if (unknownTokenCache != null && unknownTokenCache.contains(accessToken)) {
+            return null;
+        }
+        // read before the DB, so a token removed during the load is not cached again
+        long version = (accessTokenCache != null) ? accessTokenCache.version(accessToken) : 0;
+        token = db.findAccessToken(accessToken);
+        if (token == null) {
+            if (unknownTokenCache != null) {
+                unknownTokenCache.put(accessToken);
+            }
+        } else if (accessTokenCache != null) {
+            accessTokenCache.put(token, version);
+        }
+        return token;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#findAccessTokens(java.util.Collection)
+     */
+    @Override
+    public Map<String, AccessToken> findAccessTokens(Collection<String> accessTokens) {
+        Map<String, AccessToken> found = new HashMap<String, AccessToken>();
+        List<String> notCached = new ArrayList<String>(accessTokens.size());
+        // versions of the not cached tokens, read before the DB
+        List<Long> versions = new ArrayList<Long>(accessTokens.size());
+        for (String accessToken : accessTokens) {
+            AccessToken token = (accessTokenCache != null) ? accessTokenCache.get(accessToken) : null;
+            if (token != null) {
+                found.put(accessToken, token);
+            } else if (unknownTokenCache == null || !unknownTokenCache.contains(accessToken)) {
+                notCached.add(accessToken);
+                versions.add((accessTokenCache != null) ? accessTokenCache.version(accessToken) : 0L);
+            }
+        }
+        if (!notCached.isEmpty()) {
+            Map<String, AccessToken> loaded = db.findAccessTokens(notCached);
+            for (int i = 0; i < notCached.size(); i++) {
+                String accessToken = notCached.get(i);
+                AccessToken token = loaded.get(accessToken);
+                if (token == null) {
+                    if (unknownTokenCache != null) {
+                        unknownTokenCache.put(accessToken);
+                    }
+                } else {
+                    found.put(accessToken, token);
+                    if (accessTokenCache != null) {
+                        accessTokenCache.put(token, versions.get(i));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#findAuthCode(java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode findAuthCode(String authCode, String redirectUri) {
+        return db.findAuthCode(authCode, redirectUri);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#consumeAuthCode(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri, String clientId) {
+        return db.consumeAuthCode(authCode, redirectUri, clientId);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#findClientCredentials(java.lang.String)
+     */
+    @Override
+    public ClientCredentials findClientCredentials(String clientId) {
+        if (clientId == null) {
+            return db.findClientCredentials(clientId);
+        }
+        Map<String, ClientCredentials> requestClients = REQUEST_CLIENTS.get();
+        if (requestClients != null && requestClients.containsKey(clientId)) {
+            return requestClients.get(clientId);
+        }
+        ClientCredentials creds = (clientCache != null) ? clientCache.get(clientId) : null;
+        if (creds == null) {
+            // read before the DB, so a client application updated during the load is not cached again
+            long version = (clientCache != null) ? clientCache.version(clientId) : 0;
+            creds = db.findClientCredentials(clientId);
+            if (creds != null && clientCache != null) {
+                clientCache.put(creds, version);
+            }
+        }
+        if (requestClients != null) {
+            requestClients.put(clientId, creds);
+        }
+        return creds;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#storeScope(com.apifest.oauth20.Scope)
+     */
+    @Override
+    public boolean storeScope(Scope scope) {
+        boolean stored = db.storeScope(scope);
+        reloadScopes();
+        publish(InvalidationEvent.Type.SCOPE, scope.getScope());
+        return stored;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#getAllScopes()
+     */
+    @Override
+    public List<Scope> getAllScopes() {
+        if (scopeRegistry != null) {
+            return scopeRegistry.getAll();
+        }
+        return db.getAllScopes();
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#findScope(java.lang.String)
+     */
+    @Override
+    public Scope findScope(String scopeName) {
+        if (scopeRegistry != null) {
+            return scopeRegistry.find(scopeName);
+        }
+        return db.findScope(scopeName);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#updateClientApp(java.lang.String, java.lang.String, java.lang.String, java.lang.Integer, java.util.Map)
+     */
+    @Override
+    public boolean updateClientApp(String clientId, String scope, String description, Integer status,
+            Map<String, String> applicationDetails) {
+        boolean updated = db.updateClientApp(clientId, scope, description, status, applicationDetails);
+        removeCachedClient(clientId);
+        publish(InvalidationEvent.Type.CLIENT, clientId);
+        return updated;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#getAllApplications()
+     */
+    @Override
+    public List<ClientCredentials> getAllApplications() {
+        return db.getAllApplications();
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#deleteScope(java.lang.String)
+     */
+    @Override
+    public boolean deleteScope(String scopeName) {
+        boolean deleted = db.deleteScope(scopeName);
+        reloadScopes();
+        publish(InvalidationEvent.Type.SCOPE, scopeName);
+        return deleted;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#getAccessTokenByUserIdAndClientApp(java.lang.String, java.lang.String)
+     */
+    @Override
+    public List<AccessToken> getAccessTokenByUserIdAndClientApp(String userId, String clientId) {
+        return db.getAccessTokenByUserIdAndClientApp(userId, clientId);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#removeAccessToken(java.lang.String)
+     */
+    @Override
+    public void removeAccessToken(String accessToken) {
+        db.removeAccessToken(accessToken);
+        removeCachedAccessToken(accessToken);
+        publish(InvalidationEvent.Type.ACCESS_TOKEN, accessToken);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#storeRevokedToken(java.lang.String, long)
+     */
+    @Override
+    public void storeRevokedToken(String tokenId, long expiresAt) {
+        db.storeRevokedToken(tokenId, expiresAt);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#isRevokedToken(java.lang.String)
+     */
+    @Override
+    public boolean isRevokedToken(String tokenId) {
+        return db.isRevokedToken(tokenId);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#getRevokedTokens()
+     */
+    @Override
+    public Map<String, Long> getRevokedTokens() {
+        return db.getRevokedTokens();
+    }
+
+    /*
+     * @see com.apifest.oauth20.InvalidationListener#onInvalidation(com.apifest.oauth20.InvalidationEvent)
+     */
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        if (event.getType() == InvalidationEvent.Type.ACCESS_TOKEN) {
+            removeCachedAccessToken(event.getKey());
+        } else if (event.getType() == InvalidationEvent.Type.CLIENT && clientCache != null) {
+            clientCache.remove(event.getKey());
+        } else if (event.getType() == InvalidationEvent.Type.SCOPE) {
+            reloadScopes();
+        }
+    }
+
+    protected void reloadScopes() {
+        if (scopeRegistry != null) {
+            scopeRegistry.reload();
+        }
+    }
+
+    protected void removeCachedClient(String clientId) {
+        if (clientCache != null) {
+            clientCache.remove(clientId);
+        }
+        Map<String, ClientCredentials> requestClients = REQUEST_CLIENTS.get();
+        if (requestClients != null) {
+            requestClients.remove(clientId);
+        }
+    }
+
+    protected void removeCachedAccessToken(String accessToken) {
+        if (accessTokenCache != null) {
+            accessTokenCache.remove(accessToken);
+        }
+    }
+
+    protected void publish(InvalidationEvent.Type type, String key) {
+        if (invalidationBus != null) {
+            invalidationBus.publish(type, key, 0);
+        }
+    }
+
+}
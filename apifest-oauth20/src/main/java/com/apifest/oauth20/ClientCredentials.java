@@ -18,6 +18,7 @@ package com.apifest.oauth20;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.codehaus.jackson.annotate.JsonIgnore;
@@ -99,6 +100,25 @@ public class ClientCredentials implements Serializable {
 
     }
 
+    /**
+     * Creates a copy of a client application, so changes of the copy do not affect the original, e.g. a cached one.
+     *
+     * @param other the client application to be copied
+     */
+    public ClientCredentials(ClientCredentials other) {
+        this.id = other.id;
+        this.secret = other.secret;
+        this.scope = other.scope;
+        this.name = other.name;
+        this.created = other.created;
+        this.uri = other.uri;
+        this.descr = other.descr;
+        this.type = other.type;
+        this.status = other.status;
+        this.applicationDetails = (other.applicationDetails != null)
+                ? new HashMap<String, String>(other.applicationDetails) : null;
+    }
+
     public String getId() {
         return id;
     }
@@ -180,11 +200,11 @@ public class ClientCredentials implements Serializable {
     }
 
     private String generateClientId() {
-        return RandomGenerator.generateShortRandomString();
+        return TokenGenerator.generateClientId();
     }
 
     private String generateClientSecret() {
-        return RandomGenerator.generateRandomString();
+        return TokenGenerator.generateClientSecret();
     }
 
     /**
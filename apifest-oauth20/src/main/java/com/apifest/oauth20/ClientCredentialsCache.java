@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Map;
+
+/**
+ * Local cache of client applications loaded from the DB.
+ * Entries are invalidated when the client application is updated on any node. Client applications are copied
+ * in and out of the cache, so the cached ones are never changed.
+ */
+public class ClientCredentialsCache extends BoundedCache<String, ClientCredentials> {
+
+    // approximate size of a ClientCredentials object and its fields without the string contents
+    private static final int CLIENT_OVERHEAD_BYTES = 256;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private final long ttl;
+
+    /**
+     * Creates client application cache.
+     *
+     * @param maxEntries maximum number of cached client applications
+     * @param ttl maximum time in seconds a client application is kept in the cache
+     */
+    public ClientCredentialsCache(int maxEntries, int ttl) {
+        super(maxEntries, 0);
+        this.ttl = ttl * 1000L;
+    }
+
+    /**
+     * Returns a copy of the cached client application, so callers could change it without affecting the cache.
+     *
+     * @param clientId the client_id
+     * @return copy of the cached client application or <code>null</code>
+     */
+    @Override
+    public ClientCredentials get(String clientId) {
+        ClientCredentials clientCreds = super.get(clientId);
+        return (clientCreds != null) ? new ClientCredentials(clientCreds) : null;
+    }
+
+    public void put(ClientCredentials clientCreds) {
+        if (clientCreds == null || clientCreds.getId() == null) {
+            return;
+        }
+        put(clientCreds.getId(), new ClientCredentials(clientCreds), System.currentTimeMillis() + ttl,
+                estimateSize(clientCreds));
+    }
+
+    /**
+     * Caches a client application loaded from the DB, unless it was removed from the cache during the load,
+     * e.g. updated concurrently.
+     *
+     * @param clientCreds the client application
+     * @param version the version of the client_id read before the load, see {@link #version(Object)}
+     */
+    public void put(ClientCredentials clientCreds, long version) {
+        if (clientCreds == null || clientCreds.getId() == null) {
+            return;
+        }
+        put(clientCreds.getId(), new ClientCredentials(clientCreds), System.currentTimeMillis() + ttl,
+                estimateSize(clientCreds), version);
+    }
+
+    protected static int estimateSize(ClientCredentials clientCreds) {
+        int size = CLIENT_OVERHEAD_BYTES;
+        size += sizeOf(clientCreds.getId());
+        size += sizeOf(clientCreds.getSecret());
+        size += sizeOf(clientCreds.getName());
+        size += sizeOf(clientCreds.getUri());
+        size += sizeOf(clientCreds.getDescr());
+        size += sizeOf(clientCreds.getScope());
+        Map<String, String> details = clientCreds.getApplicationDetails();
+        if (details != null) {
+            for (Map.Entry<String, String> entry : details.entrySet()) {
+                size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOf(String value) {
+        return (value != null) ? STRING_OVERHEAD_BYTES + value.length() * 2 : 0;
+    }
+}
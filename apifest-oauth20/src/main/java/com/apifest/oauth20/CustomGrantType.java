@@ -0,0 +1,332 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.oauth20.api.AuthenticationCallback;
+import com.apifest.oauth20.api.AuthenticationException;
+import com.apifest.oauth20.api.ICustomGrantTypeHandler;
+import com.apifest.oauth20.api.UserDetails;
+
+/**
+ * Custom grant_type with its own limits. If threads are configured, the {@link ICustomGrantTypeHandler} is
+ * executed in a bounded thread pool of that grant_type with a timeout, so a slow handler could not stall
+ * the requests of the other grant types. Otherwise, the handler is executed in the calling thread.
+ * Each thread uses its own handler instance.
+ */
+public class CustomGrantType implements MetricsSource {
+
+    // in milliseconds
+    public static final int DEFAULT_TIMEOUT = 5000;
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    protected static Logger log = LoggerFactory.getLogger(CustomGrantType.class);
+
+    private final String name;
+    private final Class<ICustomGrantTypeHandler> handlerClass;
+    private final int maxConcurrent;
+    private final long timeout;
+    private final Timer timer;
+    private final Semaphore permits;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolMetrics poolMetrics;
+    private final ThreadLocal<ICustomGrantTypeHandler> handlers = new ThreadLocal<ICustomGrantTypeHandler>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    /**
+     * Creates custom grant_type.
+     *
+     * @param name the grant_type value
+     * @param handlerClass the handler of that grant_type
+     * @param threads number of threads that execute the handler, 0 - executed in the calling thread
+     * @param queueSize max number of requests waiting for a free thread
+     * @param maxConcurrent max number of requests handled concurrently, 0 - no limit
+     * @param timeout max time in milliseconds to wait for the handler, used only if threads are configured
+     * @param timer timer that tracks the timeouts
+     */
+    public CustomGrantType(String name, Class<ICustomGrantTypeHandler> handlerClass, int threads, int queueSize,
+            int maxConcurrent, long timeout, Timer timer) {
+        this.name = name;
+        this.handlerClass = handlerClass;
+        this.maxConcurrent = maxConcurrent;
+        this.timeout = timeout;
+        this.timer = timer;
+        this.permits = (maxConcurrent > 0) ? new Semaphore(maxConcurrent) : null;
+        if (threads > 0) {
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new GrantTypeThreadFactory(name));
+            poolMetrics = new ThreadPoolMetrics(executor);
+        } else {
+            executor = null;
+            poolMetrics = null;
+        }
+    }
+
+    /**
+     * Executes the handler. The result is passed to the callback once: the user details, the handler error,
+     * {@link GrantTypeUnavailableException} if the request is over the limits or
+     * {@link AuthenticationTimeoutException} if the handler does not complete in time.
+     *
+     * @param request the token request
+     * @param callback receives the result from the thread that completed the handler or the timer thread
+     */
+    public void execute(final HttpRequest request, AuthenticationCallback callback) {
+        requests.incrementAndGet();
+        if (permits != null && !permits.tryAcquire()) {
+            rejected.incrementAndGet();
+            callback.onFailure(new GrantTypeUnavailableException("too many concurrent requests for grant_type "
+                    + name));
+            return;
+        }
+        if (executor == null) {
+            invokeHandler(request, callback);
+            return;
+        }
+        final AuthenticationCallback once = withTimeout(callback);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    invokeHandler(request, once);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            rejected.incrementAndGet();
+            once.onFailure(new GrantTypeUnavailableException("no free thread for grant_type " + name));
+        }
+    }
+
+    /**
+     * Executes the handler and waits for the result.
+     *
+     * @param request the token request
+     * @return user details that will be associated with the access token
+     * @throws AuthenticationException if the handler fails, the request is over the limits or the handler
+     * does not complete in time
+     */
+    public UserDetails execute(HttpRequest request) throws AuthenticationException {
+        BlockingCallback callback = new BlockingCallback();
+        execute(request, callback);
+        return callback.getResult();
+    }
+
+    private AuthenticationCallback withTimeout(final AuthenticationCallback callback) {
+        final AtomicBoolean done = new AtomicBoolean();
+        final Timeout timeoutTask = timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout t) {
+                if (done.compareAndSet(false, true)) {
+                    timeouts.incrementAndGet();
+                    log.warn("grant_type {} timed out after {} ms", name, timeout);
+                    callback.onFailure(new AuthenticationTimeoutException("grant_type " + name + " timed out"));
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        return new AuthenticationCallback() {
+            @Override
+            public void onSuccess(UserDetails userDetails) {
+                if (done.compareAndSet(false, true)) {
+                    timeoutTask.cancel();
+                    callback.onSuccess(userDetails);
+                }
+            }
+
+            @Override
+            public void onFailure(AuthenticationException e) {
+                if (done.compareAndSet(false, true)) {
+                    timeoutTask.cancel();
+                    callback.onFailure(e);
+                }
+            }
+        };
+    }
+
+    private void invokeHandler(HttpRequest request, AuthenticationCallback callback) {
+        long start = System.nanoTime();
+        UserDetails userDetails;
+        try {
+            userDetails = getHandler().execute(request);
+        } catch (AuthenticationException e) {
+            failed.incrementAndGet();
+            callback.onFailure(e);
+            return;
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            log.error("grant_type {} handler failed", name, e);
+            callback.onFailure(new AuthenticationException(e.getMessage()));
+            return;
+        } finally {
+            // the permit is held until the handler returns, even if the request has already timed out
+            if (permits != null) {
+                permits.release();
+            }
+            recordTime(System.nanoTime() - start);
+        }
+        callback.onSuccess(userDetails);
+    }
+
+    private ICustomGrantTypeHandler getHandler() throws AuthenticationException {
+        ICustomGrantTypeHandler handler = handlers.get();
+        if (handler == null) {
+            try {
+                handler = handlerClass.newInstance();
+            } catch (InstantiationException e) {
+                log.error("cannot instantiate custom grant_type class", e);
+                throw new AuthenticationException(e.getMessage());
+            } catch (IllegalAccessException e) {
+                log.error("cannot instantiate custom grant_type class", e);
+                throw new AuthenticationException(e.getMessage());
+            }
+            handlers.set(handler);
+        }
+        return handler;
+    }
+
+    private void recordTime(long nanos) {
+        completed.incrementAndGet();
+        totalTime.addAndGet(nanos);
+        long max = maxTime.get();
+        while (nanos > max && !maxTime.compareAndSet(max, nanos)) {
+            max = maxTime.get();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Whether the handler is executed in the thread pool of that grant_type.
+     */
+    public boolean isIsolated() {
+        return executor != null;
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.MetricsSource#getMetrics()
+     */
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = (poolMetrics != null) ? poolMetrics.getMetrics()
+                : new LinkedHashMap<String, Number>();
+        long count = completed.get();
+        metrics.put("requests", requests.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("timeouts", timeouts.get());
+        metrics.put("failed", failed.get());
+        if (permits != null) {
+            metrics.put("in_flight", maxConcurrent - permits.availablePermits());
+        }
+        metrics.put("handler_time_avg_us", (count > 0) ? totalTime.get() / count / 1000 : 0L);
+        metrics.put("handler_time_max_us", maxTime.get() / 1000);
+        return metrics;
+    }
+
+    private static final class BlockingCallback implements AuthenticationCallback {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile UserDetails userDetails;
+        private volatile AuthenticationException error;
+
+        @Override
+        public void onSuccess(UserDetails details) {
+            userDetails = details;
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(AuthenticationException e) {
+            error = e;
+            latch.countDown();
+        }
+
+        // the timer completes the callback, if the handler does not
+        UserDetails getResult() throws AuthenticationException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AuthenticationException("interrupted while waiting for the custom grant_type handler");
+            }
+            if (error != null) {
+                throw error;
+            }
+            return userDetails;
+        }
+    }
+
+    private static final class GrantTypeThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        GrantTypeThreadFactory(String name) {
+            this.prefix = "grant-type-" + name + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.oauth20.api.ICustomGrantTypeHandler;
+
+/**
+ * Registry of the custom grant types by grant_type value. Several custom grant types are configured by
+ * custom.grant_types=device,partner and per grant type properties with prefix custom.grant_type.[alias].
+ * The single custom grant_type set by custom.grant_type and custom.grant_type.class is registered as well.
+ */
+public class CustomGrantTypeRegistry {
+
+    public static final String GRANT_TYPES_PROPERTY = "custom.grant_types";
+    public static final String LEGACY_GRANT_TYPE_PROPERTY = "custom.grant_type";
+
+    protected static Logger log = LoggerFactory.getLogger(CustomGrantTypeRegistry.class);
+
+    private static volatile CustomGrantTypeRegistry instance;
+    private static volatile boolean initialized;
+
+    private final Map<String, CustomGrantType> grantTypes = new LinkedHashMap<String, CustomGrantType>();
+
+    /**
+     * Configuration of a custom grant type.
+     */
+    public static class Config {
+        private final String alias;
+        private final String name;
+        private final String className;
+        private final int threads;
+        private final int queueSize;
+        private final int maxConcurrent;
+        private final int timeout;
+        private Class<ICustomGrantTypeHandler> handlerClass;
+
+        public Config(String alias, String name, String className, int threads, int queueSize, int maxConcurrent,
+                int timeout) {
+            this.alias = alias;
+            this.name = name;
+            this.className = className;
+            this.threads = threads;
+            this.queueSize = queueSize;
+            this.maxConcurrent = maxConcurrent;
+            this.timeout = timeout;
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        public int getTimeout() {
+            return timeout;
+        }
+
+        public Class<ICustomGrantTypeHandler> getHandlerClass() {
+            return handlerClass;
+        }
+
+        public void setHandlerClass(Class<ICustomGrantTypeHandler> handlerClass) {
+            this.handlerClass = handlerClass;
+        }
+    }
+
+    /**
+     * Creates registry of the custom grant types with a loaded handler class.
+     *
+     * @param configs configuration of the custom grant types
+     * @param timer timer that tracks the timeouts of the handlers
+     */
+    public CustomGrantTypeRegistry(List<Config> configs, Timer timer) {
+        for (Config config : configs) {
+            if (config.getHandlerClass() != null) {
+                grantTypes.put(config.getName(), new CustomGrantType(config.getName(), config.getHandlerClass(),
+                        config.getThreads(), config.getQueueSize(), config.getMaxConcurrent(), config.getTimeout(),
+                        timer));
+            }
+        }
+    }
+
+    /**
+     * Returns the custom grant types configured for that ApiFest OAuth20 node and registers their metrics.
+     *
+     * @return custom grant types registry or <code>null</code>, if no custom grant_type handler is loaded
+     */
+    public static synchronized CustomGrantTypeRegistry getInstance() {
+        if (!initialized) {
+            List<Config> configs = OAuthServer.getCustomGrantTypeConfigs();
+            boolean loaded = false;
+            for (Config config : configs) {
+                loaded |= config.getHandlerClass() != null;
+            }
+            if (loaded) {
+                instance = new CustomGrantTypeRegistry(configs, new HashedWheelTimer());
+                for (Config config : configs) {
+                    CustomGrantType grantType = instance.get(config.getName());
+                    if (grantType != null) {
+                        Metrics.register("grant_type_" + config.getAlias(), grantType);
+                    }
+                }
+            }
+            initialized = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Parses the configuration of the custom grant types. Each grant type in custom.grant_types is configured by:
+     * custom.grant_type.[alias].name - grant_type value, the alias by default;
+     * custom.grant_type.[alias].class - the {@link ICustomGrantTypeHandler} implementation;
+     * custom.grant_type.[alias].threads - threads of the grant type, 0 (default) - executed in the calling thread;
+     * custom.grant_type.[alias].queue_size - max number of requests waiting for a thread;
+     * custom.grant_type.[alias].max_concurrent - max number of requests handled concurrently, 0 (default) - no limit;
+     * custom.grant_type.[alias].timeout - handler timeout in ms, used only if threads are configured.
+     *
+     * @param props the properties
+     * @return configuration of the custom grant types, empty if none is set
+     */
+    public static List<Config> parseConfigs(Properties props) {
+        List<Config> configs = new ArrayList<Config>();
+        List<String> names = new ArrayList<String>();
+        String legacyName = props.getProperty(LEGACY_GRANT_TYPE_PROPERTY);
+        if (legacyName != null && legacyName.trim().length() > 0) {
+            legacyName = legacyName.trim();
+            configs.add(parseConfig(props, legacyName, legacyName,
+                    props.getProperty(LEGACY_GRANT_TYPE_PROPERTY + ".class")));
+            names.add(legacyName);
+        }
+        String aliases = props.getProperty(GRANT_TYPES_PROPERTY);
+        if (aliases == null || aliases.trim().length() == 0) {
+            return configs;
+        }
+        for (String alias : aliases.split(",")) {
+            alias = alias.trim();
+            if (alias.length() == 0) {
+                continue;
+            }
+            String prefix = LEGACY_GRANT_TYPE_PROPERTY + "." + alias;
+            String name = props.getProperty(prefix + ".name", alias).trim();
+            if (names.contains(name)) {
+                log.error("grant_type {} is configured more than once, {} is ignored", name, prefix);
+                continue;
+            }
+            configs.add(parseConfig(props, alias, name, props.getProperty(prefix + ".class")));
+            names.add(name);
+        }
+        return configs;
+    }
+
+    private static Config parseConfig(Properties props, String alias, String name, String className) {
+        String prefix = LEGACY_GRANT_TYPE_PROPERTY + "." + alias;
+        return new Config(alias, name, (className != null) ? className.trim() : null,
+                OAuthServer.getIntProperty(props, prefix + ".threads", 0),
+                OAuthServer.getIntProperty(props, prefix + ".queue_size", CustomGrantType.DEFAULT_QUEUE_SIZE),
+                OAuthServer.getIntProperty(props, prefix + ".max_concurrent", 0),
+                OAuthServer.getIntProperty(props, prefix + ".timeout", CustomGrantType.DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * Returns the custom grant type with a loaded handler.
+     *
+     * @param name grant_type value
+     * @return the custom grant type or <code>null</code>, if not configured or its handler is not loaded
+     */
+    public CustomGrantType get(String name) {
+        return grantTypes.get(name);
+    }
+
+    public Collection<CustomGrantType> getGrantTypes() {
+        return Collections.unmodifiableCollection(grantTypes.values());
+    }
+
+    /**
+     * Whether any custom grant type handler is executed in its own thread pool.
+     */
+    public boolean hasIsolatedGrantTypes() {
+        for (CustomGrantType grantType : grantTypes.values()) {
+            if (grantType.isIsolated()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void shutdown() {
+        for (CustomGrantType grantType : grantTypes.values()) {
+            grantType.shutdown();
+        }
+    }
+}
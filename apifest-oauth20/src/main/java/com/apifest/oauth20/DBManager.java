@@ -19,6 +19,7 @@
  */
 package com.apifest.oauth20;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -62,6 +63,19 @@ public interface DBManager {
      */
     void storeAccessToken(AccessToken accessToken);
 
+    /**
+     * Replaces an access token with a new one issued with its refresh token. Concurrent refreshes with the same
+     * token issue a single new token. The old token is removed and the new one is stored in separate writes,
+     * except in Redis, so between them a lookup by the refresh token could find no token or both tokens, and
+     * a server stopped between them could leave no usable token for that refresh token or an extra one.
+     *
+     * @param oldToken the access token to be replaced
+     * @param newToken the new access token
+     * @return <code>true</code> if the token is replaced, <code>false</code> if the old token does not exist
+     * anymore, e.g. it was already replaced by a concurrent refresh
+     */
+    boolean rotateAccessToken(String oldToken, AccessToken newToken);
+
     /**
      * Loads an access token record from DB by passed refreshToken
      *
@@ -87,6 +101,14 @@ public interface DBManager {
      */
     AccessToken findAccessToken(String accessToken);
 
+    /**
+     * Loads several access token records from DB in a single round trip.
+     *
+     * @param accessTokens access tokens
+     * @return {@link Map} of the found access tokens, keyed by access token
+     */
+    Map<String, AccessToken> findAccessTokens(Collection<String> accessTokens);
+
     /**
      * Loads an auth code record from DB by passed authCode and redirect uri.
      *
@@ -96,6 +118,18 @@ public interface DBManager {
      */
     AuthCode findAuthCode(String authCode, String redirectUri);
 
+    /**
+     * Invalidates an auth code in a single DB operation, if it is valid and was issued to the client for the
+     * redirect uri, so the code could be exchanged for an access token only once.
+     *
+     * @param authCode authCode
+     * @param redirectUri redirect uri of the client app
+     * @param clientId client id of the client app
+     * @return the invalidated auth code or <code>null</code>, if the code is not valid, was issued to another
+     * client or redirect uri or was already consumed
+     */
+    AuthCode consumeAuthCode(String authCode, String redirectUri, String clientId);
+
     /**
      * Loads a client credentials from DB by passed clientId.
      *
@@ -169,4 +203,28 @@ public interface DBManager {
      */
     void removeAccessToken(String accessToken);
 
+    /**
+     * Stores the id of a revoked signed access token. The record is kept until the token expires,
+     * so the revocation survives restarts and is seen by all nodes.
+     *
+     * @param tokenId id of the revoked token
+     * @param expiresAt time in millis when the token expires
+     */
+    void storeRevokedToken(String tokenId, long expiresAt);
+
+    /**
+     * Checks whether a signed access token is revoked.
+     *
+     * @param tokenId id of the token
+     * @return <code>true</code> if the token is revoked and not expired yet
+     */
+    boolean isRevokedToken(String tokenId);
+
+    /**
+     * Loads all revoked signed access tokens that are not expired yet.
+     *
+     * @return {@link Map} of expiration time in millis by token id
+     */
+    Map<String, Long> getRevokedTokens();
+
 }
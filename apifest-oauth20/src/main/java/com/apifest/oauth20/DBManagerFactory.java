@@ -35,10 +35,71 @@ public class DBManagerFactory {
             } else {
                 dbManager = new HazelcastDBManager();
             }
+            AccessTokenCache accessTokenCache = null;
+            if (OAuthServer.getAccessTokenCacheMaxEntries() > 0) {
+                accessTokenCache = new AccessTokenCache(OAuthServer.getAccessTokenCacheMaxEntries(),
+                        OAuthServer.getAccessTokenCacheMaxBytes(), OAuthServer.getAccessTokenCacheTTL());
+                Metrics.register("access_token_cache", accessTokenCache);
+            }
+            UnknownTokenCache unknownTokenCache = null;
+            if (OAuthServer.getUnknownTokenCacheMaxEntries() > 0) {
+                unknownTokenCache = new UnknownTokenCache(OAuthServer.getUnknownTokenCacheMaxEntries(),
+                        OAuthServer.getUnknownTokenCacheTTL());
+                Metrics.register("unknown_token_cache", unknownTokenCache);
+            }
+            ClientCredentialsCache clientCache = null;
+            if (OAuthServer.getClientCacheMaxEntries() > 0) {
+                clientCache = new ClientCredentialsCache(OAuthServer.getClientCacheMaxEntries(),
+                        OAuthServer.getClientCacheTTL());
+                Metrics.register("client_cache", clientCache);
+            }
+            ScopeRegistry scopeRegistry = null;
+            if (OAuthServer.isScopeCacheEnabled()) {
+                scopeRegistry = new ScopeRegistry(dbManager, OAuthServer.getScopeCacheReloadInterval());
+                Metrics.register("scope_registry", scopeRegistry);
+            }
+            boolean dbCaches = accessTokenCache != null || unknownTokenCache != null || clientCache != null
+                    || scopeRegistry != null;
+            TokenSigner tokenSigner = TokenSigner.getInstance();
+            UserAuthenticationCache userAuthCache = UserAuthenticationCache.getInstance();
+
+            // invalidations are exchanged only when something local uses them, so all nodes of a cluster
+            // are expected to use the same cache settings
+            InvalidationBus invalidationBus = null;
+            if (dbCaches || tokenSigner != null || userAuthCache != null) {
+                invalidationBus = createInvalidationBus(dbManager);
+            }
+            if (dbCaches) {
+                dbManager = new CachingDBManager(dbManager, accessTokenCache, unknownTokenCache, clientCache,
+                        scopeRegistry, invalidationBus);
+            }
+            if (tokenSigner != null) {
+                // revocations of signed tokens survive restarts and are seen by all nodes
+                tokenSigner.setRevocationStore(dbManager);
+            }
+            if (invalidationBus != null) {
+                Metrics.register("invalidation_bus", invalidationBus);
+                if (tokenSigner != null) {
+                    tokenSigner.setInvalidationBus(invalidationBus);
+                }
+                if (userAuthCache != null) {
+                    userAuthCache.setInvalidationBus(invalidationBus);
+                }
+            }
         }
         return dbManager;
     }
 
+    // no invalidation bus available for MongoDB, local caches are not invalidated on the other nodes
+    private static InvalidationBus createInvalidationBus(DBManager db) {
+        if (db instanceof RedisDBManager) {
+            return ((RedisDBManager) db).createInvalidationBus();
+        } else if (db instanceof HazelcastDBManager) {
+            return ((HazelcastDBManager) db).createInvalidationBus();
+        }
+        return null;
+    }
+
     public static void init() {
         // that will instantiate a connection to the storage
         getInstance();
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import com.apifest.oauth20.api.AuthenticationException;
+
+/**
+ * Thrown when a custom grant_type handler cannot accept more requests, because its concurrency limit
+ * is reached or its queue is full.
+ */
+public class GrantTypeUnavailableException extends AuthenticationException {
+
+    private static final long serialVersionUID = -6019357361546473206L;
+
+    public GrantTypeUnavailableException(String message) {
+        super(message);
+    }
+}
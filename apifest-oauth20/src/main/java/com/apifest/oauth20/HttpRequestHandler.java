@@ -17,37 +17,33 @@
 package com.apifest.oauth20;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+import org.jboss.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.apifest.oauth20.api.ExceptionEventHandler;
 import com.apifest.oauth20.api.LifecycleHandler;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 
 /**
  * Handler for requests received on the server.
@@ -62,9 +58,121 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
     protected static final String APPLICATION_URI = "/oauth20/applications";
     protected static final String ACCESS_TOKEN_REVOKE_URI = "/oauth20/tokens/revoke";
     protected static final String OAUTH_CLIENT_SCOPE_URI = "/oauth20/scopes";
-
-    protected static final Pattern OAUTH_CLIENT_SCOPE_PATTERN = Pattern.compile("/oauth20/scopes/((\\p{Alnum}+-?_?)+$)");
-    protected static final Pattern APPLICATION_PATTERN = Pattern.compile("/oauth20/applications/([a-f[0-9]]+)$");
+    protected static final String METRICS_URI = "/oauth20/metrics";
+    protected static final String USER_AUTHENTICATIONS_URI = "/oauth20/user-authentications";
+
+    protected static final String CLIENT_ID_PARAM = "client_id";
+    protected static final String SCOPE_PARAM = "scope";
+    protected static final String APPLICATION_ROUTE = APPLICATION_URI + "/{" + CLIENT_ID_PARAM + ":[a-f0-9]+}";
+    protected static final String OAUTH_CLIENT_SCOPE_ROUTE = OAUTH_CLIENT_SCOPE_URI + "/{" + SCOPE_PARAM
+            + ":(\\p{Alnum}+-?_?)+}";
+
+    protected static final RouteRegistry<Endpoint> ROUTES = new RouteRegistry<Endpoint>();
+
+    static {
+        registerEndpoint(HttpMethod.POST, APPLICATION_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleRegister(req);
+            }
+        });
+        registerEndpoint(HttpMethod.GET, APPLICATION_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleGetAllClientApplications(req);
+            }
+        });
+        registerEndpoint(HttpMethod.GET, APPLICATION_ROUTE, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleGetClientApplication(req, route.getParam(CLIENT_ID_PARAM));
+            }
+        });
+        registerEndpoint(HttpMethod.PUT, APPLICATION_ROUTE, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleUpdateClientApplication(req, route.getParam(CLIENT_ID_PARAM));
+            }
+        });
+        registerEndpoint(HttpMethod.GET, AUTH_CODE_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleAuthorize(req);
+            }
+        });
+        registerEndpoint(HttpMethod.POST, ACCESS_TOKEN_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleToken(req);
+            }
+        });
+        registerEndpoint(HttpMethod.GET, ACCESS_TOKEN_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleGetAccessTokens(req);
+            }
+        });
+        registerEndpoint(HttpMethod.GET, ACCESS_TOKEN_VALIDATE_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleTokenValidate(req);
+            }
+        });
+        registerEndpoint(HttpMethod.POST, ACCESS_TOKEN_VALIDATE_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleTokensValidate(req);
+            }
+        });
+        registerEndpoint(HttpMethod.POST, ACCESS_TOKEN_REVOKE_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleTokenRevoke(req);
+            }
+        });
+        registerEndpoint(HttpMethod.GET, OAUTH_CLIENT_SCOPE_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleGetAllScopes(req);
+            }
+        });
+        registerEndpoint(HttpMethod.POST, OAUTH_CLIENT_SCOPE_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleRegisterScope(req);
+            }
+        });
+        registerEndpoint(HttpMethod.GET, OAUTH_CLIENT_SCOPE_ROUTE, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleGetScope(req, route.getParam(SCOPE_PARAM));
+            }
+        });
+        registerEndpoint(HttpMethod.PUT, OAUTH_CLIENT_SCOPE_ROUTE, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleUpdateScope(req, route.getParam(SCOPE_PARAM));
+            }
+        });
+        registerEndpoint(HttpMethod.DELETE, OAUTH_CLIENT_SCOPE_ROUTE, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleDeleteScope(req, route.getParam(SCOPE_PARAM));
+            }
+        });
+        registerEndpoint(HttpMethod.GET, METRICS_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleGetMetrics(req);
+            }
+        });
+        registerEndpoint(HttpMethod.DELETE, USER_AUTHENTICATIONS_URI, new Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route) {
+                return handler.handleInvalidateUserAuthentications(req);
+            }
+        });
+    }
 
     protected Logger log = LoggerFactory.getLogger(HttpRequestHandler.class);
 
@@ -72,62 +180,90 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 
     protected AuthorizationServer auth = new AuthorizationServer();
 
+    // marks the responses written by the endpoint itself, when they are ready
+    protected static final HttpResponse DEFERRED_RESPONSE = new DefaultHttpResponse(HttpVersion.HTTP_1_1,
+            HttpResponseStatus.OK);
+
+    // lifecycle handlers of the request being handled, requests of a channel are handled one at a time
+    private LifecycleEventHandlers.RouteHandlers lifecycleHandlers;
+
+    // the handler is created per channel
+    private Channel channel;
+
+    // writes the responses in the order of the requests, null if written as they are ready
+    private final ResponseSequencer sequencer;
+
+    public HttpRequestHandler() {
+        this(null);
+    }
+
+    /**
+     * Creates a request handler which responses are written through the sequencer of its channel.
+     *
+     * @param sequencer the sequencer of the channel
+     */
+    public HttpRequestHandler(ResponseSequencer sequencer) {
+        this.sequencer = sequencer;
+    }
+
+    /**
+     * Handles the requests matched by a route.
+     */
+    public interface Endpoint {
+        HttpResponse handle(HttpRequestHandler handler, HttpRequest req, RouteMatch<Endpoint> route);
+    }
+
+    /**
+     * Registers an endpoint, so requests with that method and path are dispatched to it.
+     *
+     * @param method HTTP method
+     * @param template path template, path parameters are set as {name} or {name:regex}
+     * @param endpoint the endpoint
+     */
+    public static void registerEndpoint(HttpMethod method, String template, Endpoint endpoint) {
+        ROUTES.register(method, template, endpoint);
+    }
+
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
-        final Channel channel = ctx.getChannel();
+        channel = ctx.getChannel();
         Object message = e.getMessage();
         if (message instanceof HttpRequest) {
             HttpRequest req = (HttpRequest) message;
+            RouteMatch<Endpoint> route = ROUTES.match(req.getMethod(), RouteRegistry.getPath(req.getUri()));
+            lifecycleHandlers = LifecycleEventHandlers.getHandlers(req.getMethod(), (route != null) ? route.getRoute() : null);
             invokeRequestEventHandlers(req, null);
 
-            HttpMethod method = req.getMethod();
-            String rawUri = req.getUri();
-            try {
-                URI u = new URI(rawUri);
-                rawUri = u.getRawPath();
-            } catch (URISyntaxException e2) {
-                log.error("URI syntax exception {}", rawUri);
-                invokeExceptionHandler(e2, req);
-            }
-
             HttpResponse response = null;
-            if (APPLICATION_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
-                response = handleRegister(req);
-            } else if (AUTH_CODE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
-                response = handleAuthorize(req);
-            } else if (ACCESS_TOKEN_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
-                response = handleToken(req);
-            } else if (ACCESS_TOKEN_VALIDATE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
-                response = handleTokenValidate(req);
-            } else if (APPLICATION_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
-                response = handleGetAllClientApplications(req);
-            } else if (rawUri.startsWith(APPLICATION_URI) && method.equals(HttpMethod.GET)) {
-                    response = handleGetClientApplication(req);
-            } else if (ACCESS_TOKEN_REVOKE_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
-                response = handleTokenRevoke(req);
-            } else if (OAUTH_CLIENT_SCOPE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
-                response = handleGetAllScopes(req);
-            } else if (OAUTH_CLIENT_SCOPE_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
-                response = handleRegisterScope(req);
-            } else if (ACCESS_TOKEN_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
-                response = handleGetAccessTokens(req);
-            } else if (rawUri.startsWith(OAUTH_CLIENT_SCOPE_URI) && method.equals(HttpMethod.PUT)) {
-                response = handleUpdateScope(req);
-            } else if (rawUri.startsWith(OAUTH_CLIENT_SCOPE_URI) && method.equals(HttpMethod.GET)) {
-                response = handleGetScope(req);
-            } else if (rawUri.startsWith(APPLICATION_URI) && method.equals(HttpMethod.PUT)) {
-                response = handleUpdateClientApplication(req);
-            } else if (rawUri.startsWith(OAUTH_CLIENT_SCOPE_URI) && method.equals(HttpMethod.DELETE)) {
-                response = handleDeleteScope(req);
+            if (route != null) {
+                // with the client cache, client applications are read once per request, whatever checks
+                // the endpoint does
+                boolean requestScope = isClientRequestScopeEnabled();
+                if (requestScope) {
+                    CachingDBManager.beginRequestScope();
+                }
+                try {
+                    response = route.getEndpoint().handle(this, req, route);
+                } catch (RuntimeException ex) {
+                    log.error("cannot handle request " + req.getUri(), ex);
+                    invokeExceptionHandler(ex, req);
+                } finally {
+                    if (requestScope) {
+                        CachingDBManager.endRequestScope();
+                    }
+                }
             } else {
                 response = Response.createNotFoundResponse();
             }
 
-            invokeResponseEventHandlers(req, response);
-            ChannelFuture future = channel.write(response);
+            // every request gets a response, the later responses of the channel wait for it
+            if (response == null) {
+                response = Response.createResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, Response.INTERNAL_ERROR);
+            }
 
-            if(!HttpHeaders.isKeepAlive(req)) {
-                future.addListener(ChannelFutureListener.CLOSE);
+            // a deferred response is written by the endpoint when it is ready
+            if (response != DEFERRED_RESPONSE) {
+                writeResponse(channel, req, response, lifecycleHandlers);
             }
             return;
 
@@ -136,50 +272,54 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
         }
     }
 
-    protected HttpResponse handleGetClientApplication(HttpRequest req) {
+    protected boolean isClientRequestScopeEnabled() {
+        return OAuthServer.getClientCacheMaxEntries() > 0;
+    }
+
+    protected void writeResponse(Channel channel, HttpRequest req, HttpResponse response,
+            LifecycleEventHandlers.RouteHandlers handlers) {
+        invokeHandlers(req, response, handlers.getResponseHandlers());
+        ChannelFuture future = (sequencer != null) ? sequencer.write(channel, req, response) : channel.write(response);
+        invokeAsyncHandlers(req, response, handlers.getAsyncResponseHandlers());
+
+        if(!HttpHeaders.isKeepAlive(req)) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    protected HttpResponse handleGetClientApplication(HttpRequest req, String clientId) {
         HttpResponse response = null;
-        Matcher m = APPLICATION_PATTERN.matcher(req.getUri());
-        if (m.find()) {
-            String clientId = m.group(1);
-            ApplicationInfo appInfo = auth.getApplicationInfo(clientId);
-            if (appInfo != null) {
-                ObjectMapper mapper = new ObjectMapper();
-                try {
-                    String json = mapper.writeValueAsString(appInfo);
-                    log.debug(json);
-                    response = Response.createOkResponse(json);
-                } catch (JsonGenerationException e) {
-                    log.error("error get application info", e);
-                    invokeExceptionHandler(e, req);
-                } catch (JsonMappingException e) {
-                    log.error("error get application info", e);
-                    invokeExceptionHandler(e, req);
-                } catch (IOException e) {
-                    log.error("error get application info", e);
-                    invokeExceptionHandler(e, req);
-                }
-            } else {
-                response = Response.createResponse(HttpResponseStatus.NOT_FOUND, Response.CLIENT_APP_NOT_EXIST);
+        ApplicationInfo appInfo = auth.getApplicationInfo(clientId);
+        if (appInfo != null) {
+            try {
+                ChannelBuffer json = JSONSerializer.toJson(appInfo);
+                logDebug(json);
+                response = Response.createOkResponse(json);
+            } catch (IOException e) {
+                log.error("error get application info", e);
+                invokeExceptionHandler(e, req);
             }
         } else {
-            response = Response.createNotFoundResponse();
+            response = Response.createResponse(HttpResponseStatus.NOT_FOUND, Response.CLIENT_APP_NOT_EXIST);
         }
         return response;
     }
 
     protected HttpResponse handleTokenValidate(HttpRequest req) {
         HttpResponse response = null;
-        QueryStringDecoder dec = new QueryStringDecoder(req.getUri());
-        Map<String, List<String>> params = dec.getParameters();
-        String tokenParam = QueryParameter.getFirstElement(params, QueryParameter.TOKEN);
+        String tokenParam;
+        try {
+            tokenParam = RequestParser.parseQuery(req.getUri(), QueryParameter.TOKEN)[0];
+        } catch (OAuthException e) {
+            return Response.createOAuthExceptionResponse(e);
+        }
         if (tokenParam == null || tokenParam.isEmpty()) {
             response = Response.createBadRequestResponse();
         } else {
             AccessToken token = auth.isValidToken(tokenParam);
             if (token != null) {
-                Gson gson = new Gson();
-                String json = gson.toJson(token);
-                log.debug(json);
+                ChannelBuffer json = JSONSerializer.fieldsToJson(token);
+                logDebug(json);
                 response = Response.createOkResponse(json);
             } else {
                 response = Response.createUnauthorizedResponse();
@@ -188,34 +328,48 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
         return response;
     }
 
+    protected HttpResponse handleGetMetrics(HttpRequest req) {
+        return Response.createOkResponse(JSONSerializer.fieldsToJson(Metrics.getAll()));
+    }
+
+    protected HttpResponse handleInvalidateUserAuthentications(HttpRequest req) {
+        QueryStringDecoder dec = new QueryStringDecoder(req.getUri());
+        String username = QueryParameter.getFirstElement(dec.getParameters(), QueryParameter.USERNAME);
+        if (username == null || username.isEmpty()) {
+            return Response.createBadRequestResponse(String.format(Response.MANDATORY_PARAM_MISSING,
+                    QueryParameter.USERNAME));
+        }
+        auth.invalidateUserAuthentications(username);
+        return Response.createOkResponse(Response.USER_AUTHENTICATIONS_INVALIDATED);
+    }
+
+    protected HttpResponse handleTokensValidate(HttpRequest req) {
+        HttpResponse response = null;
+        try {
+            Map<String, AccessToken> tokens = auth.validateTokens(req);
+            ChannelBuffer json = JSONSerializer.fieldsToJson(tokens);
+            logDebug(json);
+            response = Response.createOkResponse(json);
+        } catch (OAuthException e) {
+            invokeExceptionHandler(e, req);
+            response = Response.createOAuthExceptionResponse(e);
+        }
+        return response;
+    }
+
     protected HttpResponse handleToken(HttpRequest request) {
         HttpResponse response = null;
         String contentType = request.headers().get(HttpHeaders.Names.CONTENT_TYPE);
         if (contentType != null && contentType.contains(HttpHeaders.Values.APPLICATION_X_WWW_FORM_URLENCODED)) {
+            if (auth.isAsyncAccessTokenIssuing()) {
+                return handleTokenAsync(request);
+            }
             try {
                 AccessToken accessToken = auth.issueAccessToken(request);
-                if (accessToken != null) {
-                    ObjectMapper mapper = new ObjectMapper();
-                    String jsonString = mapper.writeValueAsString(accessToken);
-                    log.debug("access token:" + jsonString);
-                    response = Response.createOkResponse(jsonString);
-                    accessTokensLog.debug("token {}", jsonString);
-                }
+                response = createAccessTokenResponse(request, accessToken, getLifecycleHandlers(request));
             } catch (OAuthException ex) {
                 response = Response.createOAuthExceptionResponse(ex);
                 invokeExceptionHandler(ex, request);
-            } catch (JsonGenerationException e1) {
-                log.error("error handle token", e1);
-                invokeExceptionHandler(e1, request);
-            } catch (JsonMappingException e1) {
-                log.error("error handle token", e1);
-                invokeExceptionHandler(e1, request);
-            } catch (IOException e1) {
-                log.error("error handle token", e1);
-                invokeExceptionHandler(e1, request);
-            }
-            if (response == null) {
-                response = Response.createBadRequestResponse(Response.CANNOT_ISSUE_TOKEN);
             }
         } else {
             response = Response.createResponse(HttpResponseStatus.BAD_REQUEST, Response.UNSUPPORTED_MEDIA_TYPE);
@@ -223,43 +377,91 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
         return response;
     }
 
+    /**
+     * Issues access token without blocking the current thread while the user is authenticated
+     * or the custom grant_type handler is executed.
+     *
+     * @param request the token request
+     * @return the response or {@link #DEFERRED_RESPONSE}, if it will be written when the authentication completes
+     */
+    protected HttpResponse handleTokenAsync(HttpRequest request) {
+        DeferredTokenResponse deferred = new DeferredTokenResponse(channel, request, getLifecycleHandlers(request));
+        auth.issueAccessToken(request, deferred);
+        return deferred.defer();
+    }
+
+    protected HttpResponse createAccessTokenResponse(HttpRequest request, AccessToken accessToken,
+            LifecycleEventHandlers.RouteHandlers handlers) {
+        HttpResponse response = null;
+        if (accessToken != null) {
+            try {
+                ChannelBuffer json = JSONSerializer.toJson(accessToken);
+                response = Response.createOkResponse(json);
+                if (accessTokensLog.isDebugEnabled()) {
+                    accessTokensLog.debug("token {}", json.toString(CharsetUtil.UTF_8));
+                }
+            } catch (IOException e1) {
+                log.error("error handle token", e1);
+                invokeExceptionHandler(e1, request, handlers);
+            }
+        }
+        if (response == null) {
+            response = Response.createBadRequestResponse(Response.CANNOT_ISSUE_TOKEN);
+        }
+        return response;
+    }
+
     protected void invokeRequestEventHandlers(HttpRequest request, HttpResponse response) {
-        invokeHandlers(request, response, LifecycleEventHandlers.getRequestEventHandlers());
+        invokeHandlers(request, response, getLifecycleHandlers(request).getRequestHandlers());
     }
 
-    protected void invokeResponseEventHandlers(HttpRequest request, HttpResponse response) {
-        invokeHandlers(request, response, LifecycleEventHandlers.getResponseEventHandlers());
+    // invoked after the response is written, synchronously if no async handler executor is configured
+    protected void invokeAsyncHandlers(HttpRequest request, HttpResponse response,
+            List<LifecycleHandlerEntry<LifecycleHandler>> handlers) {
+        if (handlers.isEmpty()) {
+            return;
+        }
+        AsyncHandlerExecutor executor = AsyncHandlerExecutor.getInstance();
+        if (executor == null) {
+            invokeHandlers(request, response, handlers);
+            return;
+        }
+        for (int i = 0; i < handlers.size(); i++) {
+            executor.execute(handlers.get(i), request, response);
+        }
     }
 
     protected void invokeExceptionHandler(Exception ex, HttpRequest request) {
-        List<Class<ExceptionEventHandler>> handlers = LifecycleEventHandlers.getExceptionHandlers();
+        invokeExceptionHandler(ex, request, getLifecycleHandlers(request));
+    }
+
+    protected void invokeExceptionHandler(Exception ex, HttpRequest request,
+            LifecycleEventHandlers.RouteHandlers routeHandlers) {
+        List<LifecycleHandlerEntry<ExceptionEventHandler>> handlers = routeHandlers.getExceptionHandlers();
         for (int i = 0; i < handlers.size(); i++) {
-            try {
-                ExceptionEventHandler handler = handlers.get(i).newInstance();
-                handler.handleException(ex, request);
-            } catch (InstantiationException e) {
-                log.error("cannot instantiate exception handler", e);
-                invokeExceptionHandler(e, request);
-            } catch (IllegalAccessException e) {
-                log.error("cannot invoke exception handler", e);
-                invokeExceptionHandler(ex, request);
-            }
+            handlers.get(i).getHandler().handleException(ex, request);
         }
     }
 
-    protected void invokeHandlers(HttpRequest request, HttpResponse response, List<Class<LifecycleHandler>> handlers) {
+    protected void invokeHandlers(HttpRequest request, HttpResponse response,
+            List<LifecycleHandlerEntry<LifecycleHandler>> handlers) {
         for (int i = 0; i < handlers.size(); i++) {
-            try {
-                LifecycleHandler handler = handlers.get(i).newInstance();
-                handler.handle(request, response);
-            } catch (InstantiationException e) {
-                log.error("cannot instantiate handler", e);
-                invokeExceptionHandler(e, request);
-            } catch (IllegalAccessException e) {
-                log.error("cannot invoke handler", e);
-                invokeExceptionHandler(e, request);
+            handlers.get(i).getHandler().handle(request, response);
+        }
+    }
+
+    // handlers of the current request, resolved when the request is dispatched
+    protected LifecycleEventHandlers.RouteHandlers getLifecycleHandlers(HttpRequest request) {
+        LifecycleEventHandlers.RouteHandlers handlers = lifecycleHandlers;
+        if (handlers == null) {
+            RouteMatch<Endpoint> route = null;
+            if (request != null && request.getMethod() != null && request.getUri() != null) {
+                route = ROUTES.match(request.getMethod(), RouteRegistry.getPath(request.getUri()));
             }
+            handlers = LifecycleEventHandlers.getHandlers((request != null) ? request.getMethod() : null,
+                    (route != null) ? route.getRoute() : null);
         }
+        return handlers;
     }
 
     protected HttpResponse handleAuthorize(HttpRequest req) {
@@ -270,13 +472,17 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
             log.debug("redirectURI: {}", redirectURI);
 
             // return auth_code
-            JsonObject obj = new JsonObject();
-            obj.addProperty("redirect_uri", redirectURI);
-            response = Response.createOkResponse(obj.toString());
-            accessTokensLog.info("authCode {}", obj.toString());
+            ChannelBuffer json = JSONSerializer.redirectUriToJson(redirectURI);
+            response = Response.createOkResponse(json);
+            if (accessTokensLog.isInfoEnabled()) {
+                accessTokensLog.info("authCode {}", json.toString(CharsetUtil.UTF_8));
+            }
         } catch (OAuthException ex) {
             response = Response.createOAuthExceptionResponse(ex);
             invokeExceptionHandler(ex, req);
+        } catch (IOException e) {
+            log.error("error handle authorize", e);
+            invokeExceptionHandler(e, req);
         }
         return response;
     }
@@ -285,19 +491,12 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
         HttpResponse response = null;
         try {
             ClientCredentials creds = auth.issueClientCredentials(req);
-            ObjectMapper mapper = new ObjectMapper();
-            String jsonString = mapper.writeValueAsString(creds);
-            log.debug("credentials:" + jsonString);
-            response = Response.createOkResponse(jsonString);
+            ChannelBuffer json = JSONSerializer.toJson(creds);
+            logDebug(json);
+            response = Response.createOkResponse(json);
         } catch (OAuthException ex) {
             response = Response.createOAuthExceptionResponse(ex);
             invokeExceptionHandler(ex, req);
-        } catch (JsonGenerationException e1) {
-            log.error("error handle register", e1);
-            invokeExceptionHandler(e1, req);
-        } catch (JsonMappingException e1) {
-            log.error("error handle register", e1);
-            invokeExceptionHandler(e1, req);
         } catch (IOException e1) {
             log.error("error handle register", e1);
             invokeExceptionHandler(e1, req);
@@ -335,21 +534,15 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
         return response;
     }
 
-    protected HttpResponse handleUpdateScope(HttpRequest req) {
+    protected HttpResponse handleUpdateScope(HttpRequest req, String scopeName) {
         HttpResponse response = null;
-        Matcher m = OAUTH_CLIENT_SCOPE_PATTERN.matcher(req.getUri());
-        if (m.find()) {
-            String scopeName = m.group(1);
-            ScopeService scopeService = getScopeService();
-            try {
-                String responseMsg = scopeService.updateScope(req, scopeName);
-                response = Response.createOkResponse(responseMsg);
-            } catch (OAuthException e) {
-                invokeExceptionHandler(e, req);
-                response = Response.createResponse(e.getHttpStatus(), e.getMessage());
-            }
-        } else {
-            response = Response.createNotFoundResponse();
+        ScopeService scopeService = getScopeService();
+        try {
+            String responseMsg = scopeService.updateScope(req, scopeName);
+            response = Response.createOkResponse(responseMsg);
+        } catch (OAuthException e) {
+            invokeExceptionHandler(e, req);
+            response = Response.createResponse(e.getHttpStatus(), e.getMessage());
         }
         return response;
     }
@@ -367,72 +560,59 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
         return response;
     }
 
-    protected HttpResponse handleGetScope(HttpRequest req) {
+    protected HttpResponse handleGetScope(HttpRequest req, String scopeName) {
         HttpResponse response = null;
-        Matcher m = OAUTH_CLIENT_SCOPE_PATTERN.matcher(req.getUri());
-        if (m.find()) {
-            String scopeName = m.group(1);
-            ScopeService scopeService = getScopeService();
-            try {
-                String responseMsg = scopeService.getScopeByName(scopeName);
-                response = Response.createOkResponse(responseMsg);
-            } catch (OAuthException e) {
-                invokeExceptionHandler(e, req);
-                response = Response.createResponse(e.getHttpStatus(), e.getMessage());
-            }
-        } else {
-            response = Response.createNotFoundResponse();
+        ScopeService scopeService = getScopeService();
+        try {
+            String responseMsg = scopeService.getScopeByName(scopeName);
+            response = Response.createOkResponse(responseMsg);
+        } catch (OAuthException e) {
+            invokeExceptionHandler(e, req);
+            response = Response.createResponse(e.getHttpStatus(), e.getMessage());
         }
         return response;
     }
 
-    protected HttpResponse handleDeleteScope(HttpRequest req) {
+    protected HttpResponse handleDeleteScope(HttpRequest req, String scopeName) {
         HttpResponse response = null;
-        Matcher m = OAUTH_CLIENT_SCOPE_PATTERN.matcher(req.getUri());
-        if (m.find()) {
-            String scopeName = m.group(1);
-            ScopeService scopeService = getScopeService();
-            try {
-                String responseMsg = scopeService.deleteScope(scopeName);
-                response = Response.createOkResponse(responseMsg);
-            } catch (OAuthException e) {
-                invokeExceptionHandler(e, req);
-                response = Response.createResponse(e.getHttpStatus(), e.getMessage());
-            }
-        } else {
-            response = Response.createNotFoundResponse();
+        ScopeService scopeService = getScopeService();
+        try {
+            String responseMsg = scopeService.deleteScope(scopeName);
+            response = Response.createOkResponse(responseMsg);
+        } catch (OAuthException e) {
+            invokeExceptionHandler(e, req);
+            response = Response.createResponse(e.getHttpStatus(), e.getMessage());
         }
         return response;
     }
 
+    // the buffer is decoded only if debug is enabled
+    protected void logDebug(ChannelBuffer json) {
+        if (log.isDebugEnabled()) {
+            log.debug(json.toString(CharsetUtil.UTF_8));
+        }
+    }
+
     protected ScopeService getScopeService() {
         return new ScopeService();
     }
 
-    protected HttpResponse handleUpdateClientApplication(HttpRequest req) {
+    protected HttpResponse handleUpdateClientApplication(HttpRequest req, String clientId) {
         HttpResponse response = null;
-        Matcher m = APPLICATION_PATTERN.matcher(req.getUri());
-        if (m.find()) {
-            String clientId = m.group(1);
-            try {
-                if (auth.updateClientApp(req, clientId)) {
-                    response = Response.createOkResponse(Response.CLIENT_APP_UPDATED);
-                }
-            } catch (OAuthException ex) {
-                response = Response.createOAuthExceptionResponse(ex);
-                invokeExceptionHandler(ex, req);
+        try {
+            if (auth.updateClientApp(req, clientId)) {
+                response = Response.createOkResponse(Response.CLIENT_APP_UPDATED);
             }
-        } else {
-            response = Response.createNotFoundResponse();
+        } catch (OAuthException ex) {
+            response = Response.createOAuthExceptionResponse(ex);
+            invokeExceptionHandler(ex, req);
         }
         return response;
     }
 
     protected HttpResponse handleGetAllClientApplications(HttpRequest req) {
         List<ClientCredentials> apps = filterClientApps(req, DBManagerFactory.getInstance().getAllApplications());
-        Gson gson = new Gson();
-        String jsonString = gson.toJson(apps);
-        return Response.createOkResponse(jsonString);
+        return Response.createOkResponse(JSONSerializer.fieldsToJson(apps));
     }
 
     protected List<ClientCredentials> filterClientApps(HttpRequest req, List<ClientCredentials> apps) {
@@ -477,11 +657,54 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
                 response = Response.createBadRequestResponse(Response.INVALID_CLIENT_ID);
             } else {
                 List<AccessToken> accessTokens = DBManagerFactory.getInstance().getAccessTokenByUserIdAndClientApp(userId, clientId);
-                Gson gson = new Gson();
-                String jsonString = gson.toJson(accessTokens);
-                response = Response.createOkResponse(jsonString);
+                response = Response.createOkResponse(JSONSerializer.fieldsToJson(accessTokens));
             }
         }
         return response;
     }
+
+    /**
+     * Writes the token response when the access token is issued. If issued before the endpoint returns,
+     * the response is returned by the endpoint as usual. When pipelined, it is written after the responses of
+     * the earlier requests of the channel.
+     */
+    protected class DeferredTokenResponse implements AuthorizationServer.AccessTokenCallback {
+        private final Channel responseChannel;
+        private final HttpRequest request;
+        private final LifecycleEventHandlers.RouteHandlers handlers;
+        // null - pending, DEFERRED_RESPONSE - the endpoint returned, otherwise the response
+        private final AtomicReference<HttpResponse> state = new AtomicReference<HttpResponse>();
+
+        protected DeferredTokenResponse(Channel responseChannel, HttpRequest request,
+                LifecycleEventHandlers.RouteHandlers handlers) {
+            this.responseChannel = responseChannel;
+            this.request = request;
+            this.handlers = handlers;
+        }
+
+        @Override
+        public void onIssued(AccessToken accessToken) {
+            complete(createAccessTokenResponse(request, accessToken, handlers));
+        }
+
+        @Override
+        public void onFailure(OAuthException e) {
+            HttpResponse response = Response.createOAuthExceptionResponse(e);
+            invokeExceptionHandler(e, request, handlers);
+            complete(response);
+        }
+
+        private void complete(HttpResponse response) {
+            if (!state.compareAndSet(null, response)) {
+                writeResponse(responseChannel, request, response, handlers);
+            }
+        }
+
+        protected HttpResponse defer() {
+            if (state.compareAndSet(null, DEFERRED_RESPONSE)) {
+                return DEFERRED_RESPONSE;
+            }
+            return state.get();
+        }
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes invalidation events to all ApiFest OAuth20 nodes and dispatches the events received
+ * from the other nodes to the registered listeners. Events published by that node are not dispatched,
+ * as the local caches are already updated.
+ * The propagation lag is calculated from the publish timestamp, so it depends on the clock sync between the nodes.
+ */
+public abstract class InvalidationBus implements MetricsSource {
+
+    // events propagated slower than that (in millis) are logged
+    private static final long LAG_WARN_THRESHOLD = 1000;
+
+    protected static Logger log = LoggerFactory.getLogger(InvalidationBus.class);
+
+    private final String nodeId = TokenGenerator.generate(TokenGenerator.MIN_TOKEN_BYTES, TokenGenerator.ENCODING_HEX);
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong publishFailures = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong invalidMessages = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    public void addListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes an invalidation event. Failures are logged, not thrown, as the DB is already updated.
+     *
+     * @param type type of the invalidated value
+     * @param key key of the invalidated value
+     * @param expiresAt time in millis when the invalidated value expires, 0 if not applicable
+     */
+    public void publish(InvalidationEvent.Type type, String key, long expiresAt) {
+        InvalidationEvent event = new InvalidationEvent(type, key, expiresAt, nodeId, System.currentTimeMillis());
+        try {
+            send(event.encode());
+            published.incrementAndGet();
+        } catch (RuntimeException e) {
+            publishFailures.incrementAndGet();
+            log.error("cannot publish invalidation event {}", event, e);
+        }
+    }
+
+    /**
+     * Sends an encoded event to all nodes.
+     *
+     * @param message encoded event
+     */
+    protected abstract void send(String message);
+
+    /**
+     * Stops receiving events.
+     */
+    public abstract void close();
+
+    /**
+     * Invoked by the implementations when a message is received.
+     *
+     * @param message encoded event
+     */
+    protected void onMessage(String message) {
+        InvalidationEvent event = InvalidationEvent.decode(message);
+        if (event == null) {
+            invalidMessages.incrementAndGet();
+            log.warn("invalid invalidation event received: {}", message);
+            return;
+        }
+        if (nodeId.equals(event.getOrigin())) {
+            return;
+        }
+        received.incrementAndGet();
+        long lag = Math.max(0, System.currentTimeMillis() - event.getTimestamp());
+        totalLag.addAndGet(lag);
+        long max = maxLag.get();
+        while (lag > max && !maxLag.compareAndSet(max, lag)) {
+            max = maxLag.get();
+        }
+        if (lag > LAG_WARN_THRESHOLD) {
+            log.warn("invalidation event {} received {} ms after it was published", event, lag);
+        }
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.onInvalidation(event);
+            } catch (RuntimeException e) {
+                log.error("cannot handle invalidation event {}", event, e);
+            }
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getPublishFailures() {
+        return publishFailures.get();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getAverageLag() {
+        long count = received.get();
+        return (count > 0) ? totalLag.get() / count : 0;
+    }
+
+    public long getMaxLag() {
+        return maxLag.get();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+        metrics.put("published", getPublished());
+        metrics.put("publish_failures", getPublishFailures());
+        metrics.put("received", getReceived());
+        metrics.put("invalid_messages", invalidMessages.get());
+        metrics.put("avg_lag_ms", getAverageLag());
+        metrics.put("max_lag_ms", getMaxLag());
+        return metrics;
+    }
+}
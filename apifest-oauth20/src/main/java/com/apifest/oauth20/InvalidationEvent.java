@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+/**
+ * Notifies the ApiFest OAuth20 nodes that a value cached locally is changed or removed.
+ * The event is sent as a string in format type|origin|timestamp|expiresAt|key.
+ */
+public class InvalidationEvent {
+
+    public enum Type {
+        // access token removed or set invalid, key is the access token
+        ACCESS_TOKEN,
+        // signed access token revoked, key is the id of the token
+        REVOKED_TOKEN,
+        // client application updated, key is the client id
+        CLIENT,
+        // scope stored or deleted, key is the scope name
+        SCOPE,
+        // cached user authentication results invalidated, key is the username
+        USER
+    }
+
+    private static final char SEPARATOR = '|';
+    private static final int FIELDS_COUNT = 5;
+
+    private final Type type;
+    private final String key;
+    private final long expiresAt;
+    private final String origin;
+    private final long timestamp;
+
+    public InvalidationEvent(Type type, String key, long expiresAt, String origin, long timestamp) {
+        this.type = type;
+        this.key = key;
+        this.expiresAt = expiresAt;
+        this.origin = origin;
+        this.timestamp = timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the time in millis when the invalidated value expires, 0 if not applicable.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Returns the id of the ApiFest OAuth20 node that published the event.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Returns the time in millis when the event is published.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String encode() {
+        return type.name() + SEPARATOR + origin + SEPARATOR + timestamp + SEPARATOR + expiresAt + SEPARATOR + key;
+    }
+
+    /**
+     * Decodes an event sent over the invalidation bus.
+     *
+     * @param message encoded event
+     * @return the event or <code>null</code>, if the message is not a valid event
+     */
+    public static InvalidationEvent decode(String message) {
+        if (message == null) {
+            return null;
+        }
+        // the key is the last field, so it could contain the separator
+        String[] fields = message.split("\\|", FIELDS_COUNT);
+        if (fields.length != FIELDS_COUNT) {
+            return null;
+        }
+        try {
+            return new InvalidationEvent(Type.valueOf(fields[0]), fields[4], Long.parseLong(fields[3]), fields[1],
+                    Long.parseLong(fields[2]));
+        } catch (IllegalArgumentException e) {
+            // covers NumberFormatException too
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
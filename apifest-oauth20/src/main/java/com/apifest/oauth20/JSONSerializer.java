@@ -0,0 +1,331 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Serializes response bodies directly into {@link ChannelBuffer}s, so no intermediate String is created.
+ * {@link AccessToken}, {@link ClientCredentials}, {@link ApplicationInfo} and {@link Scope} are written by
+ * hand-written streaming writers that produce the same output as the annotated {@link ObjectMapper} mapping,
+ * other objects are serialized with a shared {@link Gson}. All methods are thread-safe.
+ */
+public final class JSONSerializer {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory FACTORY = MAPPER.getJsonFactory();
+    // the calculated expiration times of access tokens are stored, but not returned in the responses
+    private static final Gson GSON = new GsonBuilder().setExclusionStrategies(new ExclusionStrategy() {
+        @Override
+        public boolean shouldSkipField(FieldAttributes f) {
+            return f.getDeclaringClass() == AccessToken.class
+                    && ("expiresAt".equals(f.getName()) || "refreshExpiresAt".equals(f.getName()));
+        }
+
+        @Override
+        public boolean shouldSkipClass(Class<?> clazz) {
+            return false;
+        }
+    }).create();
+
+    // most responses fit in it, the buffer grows if needed
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final ObjectWriter<AccessToken> ACCESS_TOKEN_WRITER = new ObjectWriter<AccessToken>() {
+        @Override
+        public void write(JsonGenerator g, AccessToken accessToken) throws IOException {
+            // as @JsonSerialize(include = Inclusion.NON_EMPTY) and @JsonPropertyOrder of AccessToken
+            g.writeStartObject();
+            writeNonEmpty(g, "access_token", accessToken.getToken());
+            writeNonEmpty(g, "refresh_token", accessToken.getRefreshToken());
+            writeNonEmpty(g, "token_type", accessToken.getType());
+            writeNonEmpty(g, "expires_in", accessToken.getExpiresIn());
+            writeNonEmpty(g, "scope", accessToken.getScope());
+            writeNonEmpty(g, "refresh_expires_in", accessToken.getRefreshExpiresIn());
+            g.writeEndObject();
+        }
+    };
+
+    private static final ObjectWriter<ClientCredentials> CLIENT_CREDENTIALS_WRITER = new ObjectWriter<ClientCredentials>() {
+        @Override
+        public void write(JsonGenerator g, ClientCredentials creds) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("client_id", creds.getId());
+            g.writeStringField("client_secret", creds.getSecret());
+            g.writeEndObject();
+        }
+    };
+
+    private static final ObjectWriter<ApplicationInfo> APPLICATION_INFO_WRITER = new ObjectWriter<ApplicationInfo>() {
+        @Override
+        public void write(JsonGenerator g, ApplicationInfo appInfo) throws IOException {
+            // as @JsonSerialize(include = Inclusion.NON_EMPTY) and @JsonPropertyOrder of ApplicationInfo
+            g.writeStartObject();
+            writeNonEmpty(g, "name", appInfo.getName());
+            writeNonEmpty(g, "description", appInfo.getDescription());
+            writeNonEmpty(g, "client_id", appInfo.getId());
+            writeNonEmpty(g, "client_secret", appInfo.getSecret());
+            writeNonEmpty(g, "scope", appInfo.getScope());
+            Date registered = appInfo.getRegisteredDate();
+            if (registered != null) {
+                g.writeStringField("registered", registered.toString());
+            }
+            writeNonEmpty(g, "redirect_uri", appInfo.getRedirectUri());
+            if (appInfo.getStatus() != null) {
+                g.writeNumberField("status", appInfo.getStatus());
+            }
+            Map<String, String> details = appInfo.getApplicationDetails();
+            if (details != null && !details.isEmpty()) {
+                g.writeObjectFieldStart("application_details");
+                for (Map.Entry<String, String> entry : details.entrySet()) {
+                    g.writeStringField(entry.getKey(), entry.getValue());
+                }
+                g.writeEndObject();
+            }
+            g.writeEndObject();
+        }
+    };
+
+    private static final ObjectWriter<Scope> SCOPE_WRITER = new ObjectWriter<Scope>() {
+        @Override
+        public void write(JsonGenerator g, Scope scope) throws IOException {
+            // null values are included, "scope" and "refresh_expires_in" are not in @JsonPropertyOrder of Scope
+            g.writeStartObject();
+            g.writeStringField("description", scope.getDescription());
+            writeInteger(g, "cc_expires_in", scope.getCcExpiresIn());
+            writeInteger(g, "pass_expires_in", scope.getPassExpiresIn());
+            g.writeStringField("scope", scope.getScope());
+            writeInteger(g, "refresh_expires_in", scope.getRefreshExpiresIn());
+            g.writeEndObject();
+        }
+    };
+
+    private static final ObjectWriter<List<Scope>> SCOPES_WRITER = new ObjectWriter<List<Scope>>() {
+        @Override
+        public void write(JsonGenerator g, List<Scope> scopes) throws IOException {
+            g.writeStartArray();
+            for (Scope scope : scopes) {
+                if (scope != null) {
+                    SCOPE_WRITER.write(g, scope);
+                } else {
+                    g.writeNull();
+                }
+            }
+            g.writeEndArray();
+        }
+    };
+
+    private static final ObjectWriter<String> REDIRECT_URI_WRITER = new ObjectWriter<String>() {
+        @Override
+        public void write(JsonGenerator g, String redirectUri) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("redirect_uri", redirectUri);
+            g.writeEndObject();
+        }
+    };
+
+    private JSONSerializer() {
+    }
+
+    /**
+     * Returns the shared {@link ObjectMapper}. It is thread-safe and should not be reconfigured.
+     *
+     * @return the shared mapper
+     */
+    public static ObjectMapper getMapper() {
+        return MAPPER;
+    }
+
+    public static ChannelBuffer toJson(AccessToken accessToken) throws IOException {
+        return toBuffer(ACCESS_TOKEN_WRITER, accessToken);
+    }
+
+    public static ChannelBuffer toJson(ClientCredentials creds) throws IOException {
+        return toBuffer(CLIENT_CREDENTIALS_WRITER, creds);
+    }
+
+    public static ChannelBuffer toJson(ApplicationInfo appInfo) throws IOException {
+        return toBuffer(APPLICATION_INFO_WRITER, appInfo);
+    }
+
+    public static String toJsonString(Scope scope) throws IOException {
+        return toString(SCOPE_WRITER, scope);
+    }
+
+    public static String toJsonString(List<Scope> scopes) throws IOException {
+        return toString(SCOPES_WRITER, scopes);
+    }
+
+    /**
+     * Creates the response of an issued auth code.
+     *
+     * @param redirectUri the redirect URI with the auth code
+     * @return JSON object with redirect_uri
+     * @throws IOException if the JSON cannot be written
+     */
+    public static ChannelBuffer redirectUriToJson(String redirectUri) throws IOException {
+        return toBuffer(REDIRECT_URI_WRITER, redirectUri);
+    }
+
+    /**
+     * Serializes the fields of an object with {@link Gson}, as returned by token validation,
+     * client applications and access tokens lists.
+     *
+     * @param src the object
+     * @return buffer with the JSON
+     */
+    public static ChannelBuffer fieldsToJson(Object src) {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(INITIAL_BUFFER_SIZE);
+        GSON.toJson(src, new ChannelBufferWriter(buffer));
+        return buffer;
+    }
+
+    private static <T> ChannelBuffer toBuffer(ObjectWriter<T> writer, T value) throws IOException {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(INITIAL_BUFFER_SIZE);
+        write(writer, value, FACTORY.createJsonGenerator(new ChannelBufferOutputStream(buffer), JsonEncoding.UTF8));
+        return buffer;
+    }
+
+    private static <T> String toString(ObjectWriter<T> writer, T value) throws IOException {
+        StringWriter out = new StringWriter(INITIAL_BUFFER_SIZE);
+        write(writer, value, FACTORY.createJsonGenerator(out));
+        return out.toString();
+    }
+
+    private static <T> void write(ObjectWriter<T> writer, T value, JsonGenerator g) throws IOException {
+        try {
+            writer.write(g, value);
+        } catch (RuntimeException e) {
+            // as ObjectMapper does with the exceptions thrown by getters
+            throw new JsonMappingException("cannot serialize " + value.getClass().getName(), e);
+        }
+        g.close();
+    }
+
+    private static void writeNonEmpty(JsonGenerator g, String name, String value) throws IOException {
+        if (value != null && value.length() > 0) {
+            g.writeStringField(name, value);
+        }
+    }
+
+    private static void writeInteger(JsonGenerator g, String name, Integer value) throws IOException {
+        if (value != null) {
+            g.writeNumberField(name, value);
+        } else {
+            g.writeNullField(name);
+        }
+    }
+
+    /**
+     * Encodes chars as UTF-8 directly into a buffer. Unlike {@link java.io.OutputStreamWriter}, it does not
+     * allocate an intermediate byte buffer.
+     */
+    static final class ChannelBufferWriter extends Writer {
+        private final ChannelBuffer buffer;
+        private char highSurrogate;
+
+        ChannelBufferWriter(ChannelBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int c) {
+            writeChar((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                writeChar(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                writeChar(str.charAt(i));
+            }
+        }
+
+        private void writeChar(char c) {
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    buffer.writeByte(0xF0 | (codePoint >> 18));
+                    buffer.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer.writeByte(0x80 | (codePoint & 0x3F));
+                    return;
+                }
+                // unpaired surrogate, replaced as String.getBytes does
+                buffer.writeByte('?');
+            }
+            if (c < 0x80) {
+                buffer.writeByte(c);
+            } else if (c < 0x800) {
+                buffer.writeByte(0xC0 | (c >> 6));
+                buffer.writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                buffer.writeByte('?');
+            } else {
+                buffer.writeByte(0xE0 | (c >> 12));
+                buffer.writeByte(0x80 | ((c >> 6) & 0x3F));
+                buffer.writeByte(0x80 | (c & 0x3F));
+            }
+        }
+
+        @Override
+        public void flush() {
+            // nothing to flush, chars are written to the buffer immediately
+        }
+
+        @Override
+        public void close() {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                buffer.writeByte('?');
+            }
+        }
+    }
+
+    private interface ObjectWriter<T> {
+        void write(JsonGenerator g, T value) throws IOException;
+    }
+}
@@ -39,8 +39,7 @@ public final class JSONUtils {
     public static String convertMapToJSON(Map<String, String> list) {
         String result = null;
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            result = mapper.writeValueAsString(list);
+            result = JSONSerializer.getMapper().writeValueAsString(list);
         } catch (JsonGenerationException e) {
             log.error("Cannot convert list to JSON format", e);
         } catch (JsonMappingException e) {
@@ -52,7 +51,7 @@ public final class JSONUtils {
     }
 
     public static Map<String, String> convertStringToMap(String json) {
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JSONSerializer.getMapper();
         Map<String, String> details = null;
         try {
             if (json != null) {
@@ -20,11 +20,16 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
+import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +40,9 @@ import com.apifest.oauth20.api.OnResponse;
 import com.apifest.oauth20.api.OnRequest;
 
 /**
- * Loads lifecycle event handlers on OAuth server startup.
+ * Loads lifecycle event handlers on OAuth server startup. Handlers are instantiated on load and
+ * the handlers of each route are resolved once, on its first request, according to the URI and method
+ * filters of the handler annotations.
  *
  * @author Rossitsa Borissova
  */
@@ -43,11 +50,26 @@ public class LifecycleEventHandlers {
 
     private static Logger log = LoggerFactory.getLogger(LifecycleEventHandlers.class);
 
-    private static List<Class<LifecycleHandler>> requestEventHandlers = new ArrayList<Class<LifecycleHandler>>();
-    private static List<Class<LifecycleHandler>> responseEventHandlers = new ArrayList<Class<LifecycleHandler>>();
-    private static List<Class<ExceptionEventHandler>> exceptionHandlers = new ArrayList<Class<ExceptionEventHandler>>();
+    private static List<Class<LifecycleHandler>> requestEventHandlers = new CopyOnWriteArrayList<Class<LifecycleHandler>>();
+    private static List<Class<LifecycleHandler>> responseEventHandlers = new CopyOnWriteArrayList<Class<LifecycleHandler>>();
+    private static List<Class<ExceptionEventHandler>> exceptionHandlers = new CopyOnWriteArrayList<Class<ExceptionEventHandler>>();
+
+    private static List<LifecycleHandlerEntry<LifecycleHandler>> requestEntries =
+            new CopyOnWriteArrayList<LifecycleHandlerEntry<LifecycleHandler>>();
+    private static List<LifecycleHandlerEntry<LifecycleHandler>> responseEntries =
+            new CopyOnWriteArrayList<LifecycleHandlerEntry<LifecycleHandler>>();
+    private static List<LifecycleHandlerEntry<ExceptionEventHandler>> exceptionEntries =
+            new CopyOnWriteArrayList<LifecycleHandlerEntry<ExceptionEventHandler>>();
+
+    private static final RouteHandlers NO_HANDLERS = new RouteHandlers(
+            Collections.<LifecycleHandlerEntry<LifecycleHandler>>emptyList(),
+            Collections.<LifecycleHandlerEntry<LifecycleHandler>>emptyList(),
+            Collections.<LifecycleHandlerEntry<LifecycleHandler>>emptyList(),
+            Collections.<LifecycleHandlerEntry<ExceptionEventHandler>>emptyList());
+
+    // resolved handlers by route
+    private static final ConcurrentMap<Route<?>, RouteHandlers> routeHandlers = new ConcurrentHashMap<Route<?>, RouteHandlers>();
 
-    @SuppressWarnings("unchecked")
     public static void loadLifecycleHandlers(URLClassLoader classLoader, String customJar) {
         try {
             if (classLoader != null) {
@@ -67,22 +89,7 @@ public class LifecycleEventHandlers {
                                 || className.startsWith("org.apache.commons")) {
                             continue;
                         }
-                        Class<?> clazz = classLoader.loadClass(className);
-                        if (clazz.isAnnotationPresent(OnRequest.class)
-                                && LifecycleHandler.class.isAssignableFrom(clazz)) {
-                            requestEventHandlers.add((Class<LifecycleHandler>) clazz);
-                            log.debug("preIssueTokenHandler added {}", className);
-                        }
-                        if (clazz.isAnnotationPresent(OnResponse.class)
-                                && LifecycleHandler.class.isAssignableFrom(clazz)) {
-                            responseEventHandlers.add((Class<LifecycleHandler>) clazz);
-                            log.debug("postIssueTokenHandler added {}", className);
-                        }
-                        if (clazz.isAnnotationPresent(OnException.class)
-                                && ExceptionEventHandler.class.isAssignableFrom(clazz)) {
-                            exceptionHandlers.add((Class<ExceptionEventHandler>) clazz);
-                            log.debug("exceptionHandlers added {}", className);
-                        }
+                        addHandler(classLoader.loadClass(className));
                     } catch (ClassNotFoundException e1) {
                         // continue
                     }
@@ -97,6 +104,100 @@ public class LifecycleEventHandlers {
         }
     }
 
+    /**
+     * Adds a class as lifecycle handler, if it is annotated with {@link OnRequest}, {@link OnResponse}
+     * or {@link OnException}.
+     *
+     * @param clazz the class
+     */
+    @SuppressWarnings("unchecked")
+    protected static void addHandler(Class<?> clazz) {
+        String className = clazz.getName();
+        try {
+            OnRequest onRequest = clazz.getAnnotation(OnRequest.class);
+            if (onRequest != null && LifecycleHandler.class.isAssignableFrom(clazz)) {
+                requestEntries.add(new LifecycleHandlerEntry<LifecycleHandler>((Class<LifecycleHandler>) clazz,
+                        onRequest.uri(), onRequest.method(), onRequest.threadSafe()));
+                requestEventHandlers.add((Class<LifecycleHandler>) clazz);
+                log.debug("preIssueTokenHandler added {}", className);
+            }
+            OnResponse onResponse = clazz.getAnnotation(OnResponse.class);
+            if (onResponse != null && LifecycleHandler.class.isAssignableFrom(clazz)) {
+                responseEntries.add(new LifecycleHandlerEntry<LifecycleHandler>((Class<LifecycleHandler>) clazz,
+                        onResponse.uri(), onResponse.method(), onResponse.threadSafe(), onResponse.async()));
+                responseEventHandlers.add((Class<LifecycleHandler>) clazz);
+                log.debug("postIssueTokenHandler added {}", className);
+            }
+            OnException onException = clazz.getAnnotation(OnException.class);
+            if (onException != null && ExceptionEventHandler.class.isAssignableFrom(clazz)) {
+                exceptionEntries.add(new LifecycleHandlerEntry<ExceptionEventHandler>(
+                        (Class<ExceptionEventHandler>) clazz, onException.uri(), onException.method(),
+                        onException.threadSafe()));
+                exceptionHandlers.add((Class<ExceptionEventHandler>) clazz);
+                log.debug("exceptionHandlers added {}", className);
+            }
+        } catch (InstantiationException e) {
+            log.error("cannot instantiate handler " + className, e);
+        } catch (IllegalAccessException e) {
+            log.error("cannot instantiate handler " + className, e);
+        } finally {
+            routeHandlers.clear();
+        }
+    }
+
+    /**
+     * Removes all loaded handlers.
+     */
+    protected static void clear() {
+        requestEventHandlers.clear();
+        responseEventHandlers.clear();
+        exceptionHandlers.clear();
+        requestEntries.clear();
+        responseEntries.clear();
+        exceptionEntries.clear();
+        routeHandlers.clear();
+    }
+
+    /**
+     * Returns the handlers that should be invoked for a request.
+     *
+     * @param method HTTP method of the request
+     * @param route the matched route, <code>null</code> if no route is matched
+     * @return the request, response and exception handlers
+     */
+    public static RouteHandlers getHandlers(HttpMethod method, Route<?> route) {
+        if (requestEntries.isEmpty() && responseEntries.isEmpty() && exceptionEntries.isEmpty()) {
+            return NO_HANDLERS;
+        }
+        if (route == null) {
+            // requests to unknown paths are rare and their methods are arbitrary, so they are not cached
+            return resolve(method, null);
+        }
+        RouteHandlers handlers = routeHandlers.get(route);
+        if (handlers == null) {
+            handlers = resolve(route.getMethod(), route.getTemplate());
+            routeHandlers.putIfAbsent(route, handlers);
+        }
+        return handlers;
+    }
+
+    private static RouteHandlers resolve(HttpMethod method, String template) {
+        return new RouteHandlers(filter(requestEntries, method, template, false),
+                filter(responseEntries, method, template, false), filter(responseEntries, method, template, true),
+                filter(exceptionEntries, method, template, false));
+    }
+
+    private static <T> List<LifecycleHandlerEntry<T>> filter(List<LifecycleHandlerEntry<T>> entries,
+            HttpMethod method, String template, boolean async) {
+        List<LifecycleHandlerEntry<T>> result = new ArrayList<LifecycleHandlerEntry<T>>();
+        for (LifecycleHandlerEntry<T> entry : entries) {
+            if (entry.isAsync() == async && entry.appliesTo(method, template)) {
+                result.add(entry);
+            }
+        }
+        return (result.isEmpty()) ? Collections.<LifecycleHandlerEntry<T>>emptyList() : result;
+    }
+
     public static List<Class<LifecycleHandler>> getRequestEventHandlers() {
         return requestEventHandlers;
     }
@@ -108,4 +209,40 @@ public class LifecycleEventHandlers {
     public static List<Class<ExceptionEventHandler>> getExceptionHandlers() {
         return exceptionHandlers;
     }
+
+    /**
+     * Lifecycle handlers resolved for a route.
+     */
+    public static class RouteHandlers {
+        private final List<LifecycleHandlerEntry<LifecycleHandler>> requestHandlers;
+        private final List<LifecycleHandlerEntry<LifecycleHandler>> responseHandlers;
+        private final List<LifecycleHandlerEntry<LifecycleHandler>> asyncResponseHandlers;
+        private final List<LifecycleHandlerEntry<ExceptionEventHandler>> exceptionHandlers;
+
+        RouteHandlers(List<LifecycleHandlerEntry<LifecycleHandler>> requestHandlers,
+                List<LifecycleHandlerEntry<LifecycleHandler>> responseHandlers,
+                List<LifecycleHandlerEntry<LifecycleHandler>> asyncResponseHandlers,
+                List<LifecycleHandlerEntry<ExceptionEventHandler>> exceptionHandlers) {
+            this.requestHandlers = requestHandlers;
+            this.responseHandlers = responseHandlers;
+            this.asyncResponseHandlers = asyncResponseHandlers;
+            this.exceptionHandlers = exceptionHandlers;
+        }
+
+        public List<LifecycleHandlerEntry<LifecycleHandler>> getRequestHandlers() {
+            return requestHandlers;
+        }
+
+        public List<LifecycleHandlerEntry<LifecycleHandler>> getResponseHandlers() {
+            return responseHandlers;
+        }
+
+        public List<LifecycleHandlerEntry<LifecycleHandler>> getAsyncResponseHandlers() {
+            return asyncResponseHandlers;
+        }
+
+        public List<LifecycleHandlerEntry<ExceptionEventHandler>> getExceptionHandlers() {
+            return exceptionHandlers;
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import org.jboss.netty.handler.codec.http.HttpMethod;
+
+/**
+ * Lifecycle handler loaded from the custom jar with its URI and method filters. Thread-safe handlers
+ * are instantiated once, the others once per thread, so no handler is instantiated per request.
+ *
+ * @param <T> type of the handler
+ */
+public class LifecycleHandlerEntry<T> {
+
+    private final Class<? extends T> handlerClass;
+    private final String[] uris;
+    private final String[] methods;
+    private final boolean async;
+    private final T instance;
+    private final ThreadLocal<T> threadInstance;
+
+    /**
+     * Creates handler entry.
+     *
+     * @param handlerClass class of the handler, must have a public no-arg constructor
+     * @param uris path templates the handler is invoked for, empty if invoked for all requests
+     * @param methods HTTP methods the handler is invoked for, empty if invoked for all methods
+     * @param threadSafe whether a single handler instance could be used by all threads
+     * @throws InstantiationException if the handler cannot be instantiated
+     * @throws IllegalAccessException if the handler constructor is not accessible
+     */
+    public LifecycleHandlerEntry(Class<? extends T> handlerClass, String[] uris, String[] methods,
+            boolean threadSafe) throws InstantiationException, IllegalAccessException {
+        this(handlerClass, uris, methods, threadSafe, false);
+    }
+
+    /**
+     * Creates handler entry.
+     *
+     * @param handlerClass class of the handler, must have a public no-arg constructor
+     * @param uris path templates the handler is invoked for, empty if invoked for all requests
+     * @param methods HTTP methods the handler is invoked for, empty if invoked for all methods
+     * @param threadSafe whether a single handler instance could be used by all threads
+     * @param async whether the handler is invoked after the response is written
+     * @throws InstantiationException if the handler cannot be instantiated
+     * @throws IllegalAccessException if the handler constructor is not accessible
+     */
+    public LifecycleHandlerEntry(final Class<? extends T> handlerClass, String[] uris, String[] methods,
+            boolean threadSafe, boolean async) throws InstantiationException, IllegalAccessException {
+        this.handlerClass = handlerClass;
+        this.async = async;
+        this.uris = new String[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            this.uris[i] = normalizeTemplate(uris[i].trim());
+        }
+        this.methods = methods.clone();
+        // instantiate it on load, so a broken handler is reported on startup
+        T handler = handlerClass.newInstance();
+        if (threadSafe) {
+            this.instance = handler;
+            this.threadInstance = null;
+        } else {
+            this.instance = null;
+            this.threadInstance = new ThreadLocal<T>() {
+                @Override
+                protected T initialValue() {
+                    try {
+                        return handlerClass.newInstance();
+                    } catch (InstantiationException e) {
+                        throw new IllegalStateException("cannot instantiate handler " + handlerClass.getName(), e);
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException("cannot instantiate handler " + handlerClass.getName(), e);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the handler instance for the current thread.
+     *
+     * @return handler instance
+     */
+    public T getHandler() {
+        return (instance != null) ? instance : threadInstance.get();
+    }
+
+    public Class<? extends T> getHandlerClass() {
+        return handlerClass;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Checks whether the handler should be invoked for an endpoint.
+     *
+     * @param method HTTP method of the request
+     * @param template path template of the matched route, <code>null</code> if no route is matched
+     * @return <code>true</code> if the handler should be invoked
+     */
+    public boolean appliesTo(HttpMethod method, String template) {
+        if (methods.length > 0) {
+            boolean found = false;
+            for (String m : methods) {
+                if (method != null && m.trim().equalsIgnoreCase(method.getName())) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        if (uris.length == 0) {
+            return true;
+        }
+        if (template == null) {
+            return false;
+        }
+        String path = normalizeTemplate(template);
+        for (String uri : uris) {
+            if (uri.endsWith("*") ? path.startsWith(uri.substring(0, uri.length() - 1)) : path.equals(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // removes the regular expressions of the path parameters, e.g. {client_id:[a-f0-9]+} becomes {client_id}
+    protected static String normalizeTemplate(String template) {
+        if (template.indexOf(':') < 0) {
+            return template;
+        }
+        StringBuilder sb = new StringBuilder(template.length());
+        // the regular expression could contain braces as well, e.g. {scope:\p{Alnum}+}
+        int depth = 0;
+        boolean inRegex = false;
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0) {
+                    inRegex = false;
+                }
+            } else if (c == ':' && depth == 1) {
+                inRegex = true;
+            }
+            if (!inRegex) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry of the metrics sources of that ApiFest OAuth20 node.
+ * All metrics are returned by GET /oauth20/metrics.
+ */
+public final class Metrics {
+
+    private static final Map<String, MetricsSource> sources = new LinkedHashMap<String, MetricsSource>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Registers a metrics source. A source already registered with the same name is replaced.
+     *
+     * @param name name of the source
+     * @param source the metrics source
+     */
+    public static synchronized void register(String name, MetricsSource source) {
+        sources.put(name, source);
+    }
+
+    public static synchronized void unregister(String name) {
+        sources.remove(name);
+    }
+
+    /**
+     * Returns the current metrics of all registered sources.
+     *
+     * @return {@link Map} of metrics by source name
+     */
+    public static synchronized Map<String, Map<String, Number>> getAll() {
+        Map<String, Map<String, Number>> all = new LinkedHashMap<String, Map<String, Number>>();
+        for (Map.Entry<String, MetricsSource> entry : sources.entrySet()) {
+            all.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        return all;
+    }
+}
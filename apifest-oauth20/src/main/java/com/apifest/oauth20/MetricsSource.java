@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Map;
+
+/**
+ * Component that exposes its metrics through {@link Metrics}.
+ */
+public interface MetricsSource {
+
+    /**
+     * Returns the current values of the metrics.
+     *
+     * @return {@link Map} of metric values by metric name
+     */
+    Map<String, Number> getMetrics();
+}
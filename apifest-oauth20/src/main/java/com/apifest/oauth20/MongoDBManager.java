@@ -18,6 +18,9 @@ package com.apifest.oauth20;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +40,7 @@ import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
 import com.mongodb.WriteResult;
 
 /**
@@ -48,6 +52,7 @@ public class MongoDBManager implements DBManager {
 
     protected static MongoClient mongoClient;
     protected static DB db;
+    private volatile boolean revokedTokenIndexCreated;
 
     protected static Logger log = LoggerFactory.getLogger(DBManager.class);
 
@@ -63,6 +68,7 @@ public class MongoDBManager implements DBManager {
 
     protected static final String REFRESH_TOKEN_ID_NAME = "refreshToken";
     protected static final String VALID_NAME = "valid";
+    protected static final String ROTATED_NAME = "rotated";
     protected static final String REDIRECT_URI_NAME = "redirectUri";
 
     protected static final String SCOPE_COLLECTION_NAME = "scopes";
@@ -70,8 +76,28 @@ public class MongoDBManager implements DBManager {
 
     protected static final String USER_ID = "userId";
 
+    protected static final String REVOKED_TOKEN_COLLECTION_NAME = "revokedTokens";
+    protected static final String EXPIRES_AT_NAME = "expiresAt";
+
     public MongoDBManager() {
-        db = MongoUtil.getDB();
+        this(MongoUtil.getDB());
+    }
+
+    protected MongoDBManager(DB database) {
+        db = database;
+        createRevokedTokenIndex();
+    }
+
+    // MongoDB removes the revoked tokens when they expire
+    // if the DB is not available on startup, the index is created on the next revocation
+    protected void createRevokedTokenIndex() {
+        try {
+            db.getCollection(REVOKED_TOKEN_COLLECTION_NAME).createIndex(new BasicDBObject(EXPIRES_AT_NAME, 1),
+                    new BasicDBObject("expireAfterSeconds", 0));
+            revokedTokenIndexCreated = true;
+        } catch (MongoException e) {
+            log.error("Cannot create revoked tokens index", e);
+        }
     }
 
     /*
@@ -139,6 +165,26 @@ public class MongoDBManager implements DBManager {
         return null;
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#consumeAuthCode(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri, String clientId) {
+        BasicDBObject query = new BasicDBObject();
+        query.put(AUTH_CODE_ID_NAME, authCode);
+        query.put(REDIRECT_URI_NAME, redirectUri);
+        query.put(CLIENTS_ID_NAME, clientId);
+        query.put(VALID_NAME, true);
+        BasicDBObject update = new BasicDBObject("$set", new BasicDBObject(VALID_NAME, false));
+        DBObject result = db.getCollection(AUTH_CODE_COLLECTION_NAME).findAndModify(query, null, null, false, update,
+                true, false);
+        if (result == null) {
+            return null;
+        }
+        return AuthCode.loadFromMap(result.toMap());
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#storeAccessToken(com.apifest.oauth20.AccessToken)
      */
@@ -151,6 +197,41 @@ public class MongoDBManager implements DBManager {
         }
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldToken, AccessToken newToken) {
+        DBCollection coll = db.getCollection(ACCESS_TOKEN_COLLECTION_NAME);
+        // the old token is marked as rotated in place, so only one of concurrent refreshes matches it
+        BasicDBObject query = new BasicDBObject(ACCESS_TOKEN_ID_NAME, oldToken);
+        query.put(ROTATED_NAME, new BasicDBObject("$exists", false));
+        BasicDBObject update = new BasicDBObject("$set", new BasicDBObject(ROTATED_NAME, true).append(VALID_NAME, false));
+        DBObject old = coll.findAndModify(query, null, null, false, update, false, false);
+        if (old == null) {
+            return false;
+        }
+        try {
+            storeObject(newToken, ACCESS_TOKEN_COLLECTION_NAME);
+        } catch (IOException e) {
+            log.error("Object not stored in DB", e);
+            restoreRotatedToken(coll, oldToken, old);
+            return false;
+        } catch (RuntimeException e) {
+            restoreRotatedToken(coll, oldToken, old);
+            throw e;
+        }
+        coll.remove(new BasicDBObject(ACCESS_TOKEN_ID_NAME, oldToken));
+        return true;
+    }
+
+    // the old token could be refreshed again, when the new one is not stored
+    private void restoreRotatedToken(DBCollection coll, String oldToken, DBObject old) {
+        BasicDBObject update = new BasicDBObject("$set", new BasicDBObject(VALID_NAME, old.get(VALID_NAME)));
+        update.put("$unset", new BasicDBObject(ROTATED_NAME, ""));
+        coll.update(new BasicDBObject(ACCESS_TOKEN_ID_NAME, oldToken), update);
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#findAccessToken(java.lang.String)
      */
@@ -181,6 +262,31 @@ public class MongoDBManager implements DBManager {
         }
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#findAccessTokens(java.util.Collection)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<String, AccessToken> findAccessTokens(Collection<String> accessTokens) {
+        Map<String, AccessToken> found = new HashMap<String, AccessToken>();
+        BasicDBObject dbObject = new BasicDBObject();
+        dbObject.put(ACCESS_TOKEN_ID_NAME, new BasicDBObject("$in", accessTokens));
+        dbObject.put(VALID_NAME, true);
+        DBCollection coll = db.getCollection(ACCESS_TOKEN_COLLECTION_NAME);
+        List<DBObject> list = coll.find(dbObject).toArray();
+        for (DBObject object : list) {
+            Map<String, Object> mapLoaded = object.toMap();
+            // convert details map to String
+            if (mapLoaded.get("details") instanceof BasicDBObject) {
+                BasicDBObject details = (BasicDBObject) mapLoaded.get("details");
+                mapLoaded.put("details", details.toString());
+            }
+            AccessToken loadedAccessToken = AccessToken.loadFromMap(mapLoaded);
+            found.put(loadedAccessToken.getToken(), loadedAccessToken);
+        }
+        return found;
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#findAccessTokenByRefreshToken(java.lang.String, java.lang.String)
      */
@@ -469,4 +575,49 @@ public class MongoDBManager implements DBManager {
         }
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#storeRevokedToken(java.lang.String, long)
+     */
+    @Override
+    public void storeRevokedToken(String tokenId, long expiresAt) {
+        if (!revokedTokenIndexCreated) {
+            createRevokedTokenIndex();
+        }
+        DBCollection coll = db.getCollection(REVOKED_TOKEN_COLLECTION_NAME);
+        BasicDBObject query = new BasicDBObject(ID_NAME, tokenId);
+        BasicDBObject revoked = new BasicDBObject(ID_NAME, tokenId);
+        revoked.put(EXPIRES_AT_NAME, new Date(expiresAt));
+        coll.update(query, revoked, true, false);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#isRevokedToken(java.lang.String)
+     */
+    @Override
+    public boolean isRevokedToken(String tokenId) {
+        BasicDBObject query = new BasicDBObject(ID_NAME, tokenId);
+        // the TTL monitor removes expired documents with some delay
+        query.put(EXPIRES_AT_NAME, new BasicDBObject("$gt", new Date()));
+        return db.getCollection(REVOKED_TOKEN_COLLECTION_NAME).findOne(query) != null;
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#getRevokedTokens()
+     */
+    @Override
+    public Map<String, Long> getRevokedTokens() {
+        Map<String, Long> revoked = new HashMap<String, Long>();
+        BasicDBObject query = new BasicDBObject(EXPIRES_AT_NAME, new BasicDBObject("$gt", new Date()));
+        DBCursor cursor = db.getCollection(REVOKED_TOKEN_COLLECTION_NAME).find(query);
+        try {
+            while (cursor.hasNext()) {
+                DBObject object = cursor.next();
+                revoked.put((String) object.get(ID_NAME), ((Date) object.get(EXPIRES_AT_NAME)).getTime());
+            }
+        } finally {
+            cursor.close();
+        }
+        return revoked;
+    }
+
 }
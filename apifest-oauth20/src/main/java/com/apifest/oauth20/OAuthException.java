@@ -21,7 +21,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Custom exception class.
+ * Custom exception class. An exception without a cause is an expected protocol error (e.g. invalid client_id),
+ * so no stack trace is filled in for it. An exception that wraps a cause keeps its stack trace.
  *
  * @author Rossitsa Borissova
  */
@@ -44,6 +45,18 @@ public class OAuthException extends Exception {
         super(e);
         this.message = message;
         this.httpStatus = httpStatus;
+        if (e != null) {
+            super.fillInStackTrace();
+        }
+    }
+
+    /*
+     * Filling in the stack trace costs more than the rest of an invalid request handling, so it is skipped.
+     * @see java.lang.Throwable#fillInStackTrace()
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
     }
 
     @Override
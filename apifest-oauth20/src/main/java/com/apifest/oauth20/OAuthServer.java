@@ -25,22 +25,23 @@ import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.jboss.netty.channel.ChannelFactory;
-import org.jboss.netty.channel.ChannelPipeline;
-import org.jboss.netty.channel.ChannelPipelineFactory;
-import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
-import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
-import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
-import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.apifest.oauth20.api.ICustomGrantTypeHandler;
+import com.apifest.oauth20.api.IAsyncUserAuthentication;
 import com.apifest.oauth20.api.IUserAuthentication;
 
 /**
@@ -53,9 +54,14 @@ public final class OAuthServer {
     private static String customJar;
     private static String userAuthClass;
     private static Class<IUserAuthentication> userAuthenticationClass;
+    private static IAsyncUserAuthentication asyncUserAuthentication;
+    private static int userAuthenticationTimeout;
+    private static int userAuthCacheMaxEntries;
+    private static int userAuthCacheTTL;
     private static String customGrantType;
-    private static String customGrantTypeClass;
     private static Class<ICustomGrantTypeHandler> customGrantTypeHandler;
+    private static List<CustomGrantTypeRegistry.Config> customGrantTypeConfigs =
+            new ArrayList<CustomGrantTypeRegistry.Config>();
     private static String host;
     private static int portInt;
     private static String dbHost;
@@ -65,6 +71,44 @@ public final class OAuthServer {
     private static String apifestOAuth20Nodes;
     private static URLClassLoader jarClassLoader;
     private static String hazelcastPassword;
+    private static int accessTokenCacheMaxEntries;
+    private static long accessTokenCacheMaxBytes;
+    private static int accessTokenCacheTTL;
+    private static int unknownTokenCacheMaxEntries;
+    private static int unknownTokenCacheTTL;
+    private static int clientCacheMaxEntries;
+    private static int clientCacheTTL;
+    private static boolean scopeCacheEnabled;
+    private static int scopeCacheReloadInterval;
+    private static int validateTokensMaxCount;
+    private static String accessTokenFormat;
+    private static String signingKeys;
+    private static String signingKeyId;
+    private static int accessTokenBytes = TokenGenerator.DEFAULT_TOKEN_BYTES;
+    private static String accessTokenEncoding = TokenGenerator.ENCODING_BASE64URL;
+    private static int refreshTokenBytes = TokenGenerator.DEFAULT_TOKEN_BYTES;
+    private static String refreshTokenEncoding = TokenGenerator.ENCODING_BASE64URL;
+    private static int authCodeBytes = TokenGenerator.DEFAULT_TOKEN_BYTES;
+    private static String authCodeEncoding = TokenGenerator.ENCODING_BASE64URL;
+    private static int clientSecretBytes = TokenGenerator.DEFAULT_TOKEN_BYTES;
+    private static String clientSecretEncoding = TokenGenerator.ENCODING_BASE64URL;
+    private static int tokenPoolSize;
+    private static int tokenPoolRefillInterval;
+    private static boolean storeSignedTokens;
+    private static int bossThreads;
+    private static int workerThreads;
+    private static int executorThreads;
+    private static long executorMaxChannelMemory;
+    private static long executorMaxTotalMemory;
+    private static boolean directBuffers;
+    private static Executor executionStage;
+    private static int admissionMaxConcurrent;
+    private static String admissionLimits;
+    private static String admissionShares;
+    private static int admissionRetryAfter;
+    private static int asyncHandlerThreads;
+    private static int asyncHandlerQueueSize;
+    private static String asyncHandlerOverflow;
 
     // expires_in in sec for grant type password
     public static final int DEFAULT_PASSWORD_EXPIRES_IN = 900;
@@ -72,6 +116,36 @@ public final class OAuthServer {
     // expires_in in sec for grant type client_credentials
     public static final int DEFAULT_CC_EXPIRES_IN = 1800;
 
+    // max time in sec an access token is kept in the local cache
+    public static final int DEFAULT_ACCESS_TOKEN_CACHE_TTL = 60;
+
+    // time in sec an access token not found in the DB is kept in the local cache
+    public static final int DEFAULT_UNKNOWN_TOKEN_CACHE_TTL = 5;
+
+    // max time in sec a client application is kept in the local cache
+    public static final int DEFAULT_CLIENT_CACHE_TTL = 60;
+
+    // time in sec a successful user authentication is kept in the local cache
+    public static final int DEFAULT_USER_AUTH_CACHE_TTL = 60;
+
+    // max number of access tokens validated with one request
+    public static final int DEFAULT_VALIDATE_TOKENS_MAX_COUNT = 100;
+
+    // number of threads that accept connections
+    public static final int DEFAULT_BOSS_THREADS = 1;
+
+    // number of I/O threads, the same as the Netty default
+    public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+
+    // number of threads that handle requests, blocking DB and custom handler calls are executed in them
+    public static final int DEFAULT_EXECUTOR_THREADS = 32;
+
+    // max size in bytes of the not yet handled requests per connection
+    public static final int DEFAULT_EXECUTOR_MAX_CHANNEL_MEMORY = 1048576;
+
+    // max size in bytes of all not yet handled requests
+    public static final int DEFAULT_EXECUTOR_MAX_TOTAL_MEMORY = 67108864;
+
     static Logger log = LoggerFactory.getLogger(OAuthServer.class);
 
     private OAuthServer() {
@@ -83,29 +157,48 @@ public final class OAuthServer {
         }
 
         DBManagerFactory.init();
-        ChannelFactory factory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
-                Executors.newCachedThreadPool());
+        ChannelFactory factory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), bossThreads,
+                Executors.newCachedThreadPool(), workerThreads);
+
+        ExecutionHandler executionHandler = null;
+        if (executorThreads > 0) {
+            OrderedMemoryAwareThreadPoolExecutor executor = new OrderedMemoryAwareThreadPoolExecutor(executorThreads,
+                    executorMaxChannelMemory, executorMaxTotalMemory);
+            executionHandler = new ExecutionHandler(executor);
+            executionStage = executor;
+            Metrics.register("execution_stage", new ThreadPoolMetrics(executor));
+        } else {
+            log.warn("oauth20.executor.threads is 0, requests will be handled in the I/O worker threads");
+        }
+
+        AdmissionController admissionController = AdmissionController.getInstance();
+        if (admissionController != null) {
+            Metrics.register("admission", admissionController);
+        }
+        AsyncHandlerExecutor asyncHandlerExecutor = AsyncHandlerExecutor.getInstance();
+        if (asyncHandlerExecutor != null) {
+            Metrics.register("async_handlers", asyncHandlerExecutor);
+        }
+        // registers the metrics of the custom grant types
+        CustomGrantTypeRegistry.getInstance();
+        // starts filling the token pool before the first request
+        TokenPool.getInstance();
 
         ServerBootstrap bootstrap = new ServerBootstrap(factory);
-        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
-
-            @Override
-            public ChannelPipeline getPipeline() {
-                ChannelPipeline pipeline = Channels.pipeline();
-                pipeline.addLast("decoder", new HttpRequestDecoder());
-                pipeline.addLast("aggregator", new HttpChunkAggregator(4096));
-                pipeline.addLast("encoder", new HttpResponseEncoder());
-                pipeline.addLast("handler", new HttpRequestHandler());
-                return pipeline;
-            }
-        });
+        bootstrap.setPipelineFactory(new ServerPipelineFactory(executionHandler, admissionController));
 
         bootstrap.setOption("child.tcpNoDelay", true);
         bootstrap.setOption("child.keepAlive", true);
         bootstrap.setOption("child.soLinger", -1);
+        bootstrap.setOption("reuseAddress", true);
+        if (directBuffers) {
+            // received data is read into direct buffers, so it is not copied from the socket buffers to the heap
+            bootstrap.setOption("child.bufferFactory", DirectChannelBufferFactory.getInstance());
+        }
 
         bootstrap.bind(new InetSocketAddress(host, portInt));
-        log.info("ApiFest OAuth 2.0 Server started at " + host + ":" + portInt);
+        log.info("ApiFest OAuth 2.0 Server started at " + host + ":" + portInt + " (boss threads: " + bossThreads
+                + ", worker threads: " + workerThreads + ", executor threads: " + executorThreads + ")");
     }
 
     protected static boolean loadConfig() {
@@ -142,27 +235,61 @@ public final class OAuthServer {
                 }
             }
         }
+        if (TokenSigner.FORMAT_SIGNED.equalsIgnoreCase(accessTokenFormat)) {
+            try {
+                TokenSigner.getInstance();
+            } catch (IllegalArgumentException e) {
+                log.error("cannot load access_token.signing.keys, check property value: {}", e.getMessage());
+                return false;
+            }
+        } else if (!TokenSigner.FORMAT_OPAQUE.equalsIgnoreCase(accessTokenFormat)) {
+            log.error("access_token.format must be {} or {}", TokenSigner.FORMAT_OPAQUE, TokenSigner.FORMAT_SIGNED);
+            return false;
+        }
+        if (!checkTokenFormat("access_token", accessTokenBytes, accessTokenEncoding)
+                || !checkTokenFormat("refresh_token", refreshTokenBytes, refreshTokenEncoding)
+                || !checkTokenFormat("auth_code", authCodeBytes, authCodeEncoding)
+                || !checkTokenFormat("client_secret", clientSecretBytes, clientSecretEncoding)) {
+            return false;
+        }
+        try {
+            AdmissionController.getInstance();
+        } catch (IllegalArgumentException e) {
+            log.error("cannot load admission.limits or admission.shares, check property value: {}", e.getMessage());
+            return false;
+        }
+        try {
+            AsyncHandlerExecutor.getInstance();
+        } catch (IllegalArgumentException e) {
+            log.error("lifecycle.async.overflow must be drop, block or caller_runs");
+            return false;
+        }
         if (customJar == null || customJar.isEmpty()) {
             log.warn("Set value for user_authenticate_jar in properties file, otherwise user authentication will always pass successfully");
         } else {
             if (userAuthClass != null && userAuthClass.length() > 0) {
                 try {
-                    userAuthenticationClass = loadCustomUserAuthentication(userAuthClass);
+                    asyncUserAuthentication = loadCustomAsyncUserAuthentication(userAuthClass);
+                    if (asyncUserAuthentication == null) {
+                        userAuthenticationClass = loadCustomUserAuthentication(userAuthClass);
+                    }
                 } catch (ClassNotFoundException e) {
                     log.error("cannot load user.authenticate.class, check property value", e);
                 }
             }
-            if (customGrantType != null && customGrantType.length() > 0) {
-                if (customGrantTypeClass == null || customGrantTypeClass.length() == 0) {
+            for (CustomGrantTypeRegistry.Config config : customGrantTypeConfigs) {
+                if (config.getClassName() == null || config.getClassName().length() == 0) {
                     loaded = false;
-                    log.error("no custom.grant_type.class set for custom.grant_type={}", customGrantType);
+                    log.error("no custom.grant_type.class set for custom.grant_type={}", config.getName());
                 } else {
                     try {
-                        customGrantTypeHandler = loadCustomGrantTypeClass(customGrantTypeClass);
+                        config.setHandlerClass(loadCustomGrantTypeClass(config.getClassName()));
                     } catch (ClassNotFoundException e) {
                         log.error("cannot load custom.grant_type.class, check property value", e);
                     }
-
+                }
+                if (config.getName().equals(customGrantType)) {
+                    customGrantTypeHandler = config.getHandlerClass();
                 }
             }
 
@@ -176,6 +303,37 @@ public final class OAuthServer {
         return loaded;
     }
 
+    /**
+     * Loads the user authentication class, if it implements {@link IAsyncUserAuthentication}.
+     *
+     * @param className user authentication class name
+     * @return the single user authentication instance or <code>null</code>, if the class does not implement
+     * {@link IAsyncUserAuthentication} or cannot be instantiated
+     * @throws ClassNotFoundException if the class is not found in the custom jar
+     */
+    public static IAsyncUserAuthentication loadCustomAsyncUserAuthentication(String className)
+            throws ClassNotFoundException {
+        try {
+            URLClassLoader classLoader = getJarClassLoader();
+            if (classLoader != null) {
+                Class<?> clazz = classLoader.loadClass(className);
+                if (IAsyncUserAuthentication.class.isAssignableFrom(clazz)) {
+                    return (IAsyncUserAuthentication) clazz.newInstance();
+                }
+            }
+        } catch (MalformedURLException e) {
+            // reported when loaded as IUserAuthentication
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (InstantiationException e) {
+            log.error("cannot instantiate user.authenticate.class", e);
+        } catch (IllegalAccessException e) {
+            log.error("cannot instantiate user.authenticate.class", e);
+        }
+        return null;
+    }
+
     @SuppressWarnings("unchecked")
     public static Class<IUserAuthentication> loadCustomUserAuthentication(String className)
             throws ClassNotFoundException {
@@ -249,8 +407,12 @@ public final class OAuthServer {
             props.load(in);
             customJar = props.getProperty("custom.classes.jar");
             userAuthClass = props.getProperty("user.authenticate.class");
+            userAuthenticationTimeout = getIntProperty(props, "user.authenticate.timeout",
+                    AsyncUserAuthenticator.DEFAULT_TIMEOUT);
+            userAuthCacheMaxEntries = getIntProperty(props, "user.authenticate.cache.max_entries", 0);
+            userAuthCacheTTL = getIntProperty(props, "user.authenticate.cache.ttl", DEFAULT_USER_AUTH_CACHE_TTL);
             customGrantType = props.getProperty("custom.grant_type");
-            customGrantTypeClass = props.getProperty("custom.grant_type.class");
+            customGrantTypeConfigs = CustomGrantTypeRegistry.parseConfigs(props);
             database = props.getProperty("oauth20.database");
             redisSentinels = props.getProperty("redis.sentinels");
             redisMaster = props.getProperty("redis.master");
@@ -262,11 +424,81 @@ public final class OAuthServer {
             apifestOAuth20Nodes = props.getProperty("apifest-oauth20.nodes");
             // dev-pass is the default password used in Hazelcast
             hazelcastPassword = props.getProperty("hazelcast.password", "dev-pass");
+            // local access token cache is disabled, if max_entries is not set
+            accessTokenCacheMaxEntries = getIntProperty(props, "access_token.cache.max_entries", 0);
+            accessTokenCacheMaxBytes = getIntProperty(props, "access_token.cache.max_bytes", 0);
+            accessTokenCacheTTL = getIntProperty(props, "access_token.cache.ttl", DEFAULT_ACCESS_TOKEN_CACHE_TTL);
+            unknownTokenCacheMaxEntries = getIntProperty(props, "access_token.unknown_cache.max_entries", 0);
+            unknownTokenCacheTTL = getIntProperty(props, "access_token.unknown_cache.ttl", DEFAULT_UNKNOWN_TOKEN_CACHE_TTL);
+            clientCacheMaxEntries = getIntProperty(props, "client.cache.max_entries", 0);
+            clientCacheTTL = getIntProperty(props, "client.cache.ttl", DEFAULT_CLIENT_CACHE_TTL);
+            scopeCacheEnabled = Boolean.parseBoolean(props.getProperty("scope.cache.enabled", "false").trim());
+            scopeCacheReloadInterval = getIntProperty(props, "scope.cache.reload_interval",
+                    ScopeRegistry.DEFAULT_RELOAD_INTERVAL);
+            validateTokensMaxCount = getIntProperty(props, "access_token.validate.max_tokens", DEFAULT_VALIDATE_TOKENS_MAX_COUNT);
+            accessTokenFormat = props.getProperty("access_token.format", TokenSigner.FORMAT_OPAQUE).trim();
+            signingKeys = props.getProperty("access_token.signing.keys");
+            signingKeyId = props.getProperty("access_token.signing.key_id");
+            accessTokenBytes = getIntProperty(props, "access_token.bytes", TokenGenerator.DEFAULT_TOKEN_BYTES);
+            accessTokenEncoding = props.getProperty("access_token.encoding", TokenGenerator.ENCODING_BASE64URL).trim();
+            refreshTokenBytes = getIntProperty(props, "refresh_token.bytes", TokenGenerator.DEFAULT_TOKEN_BYTES);
+            refreshTokenEncoding = props.getProperty("refresh_token.encoding", TokenGenerator.ENCODING_BASE64URL).trim();
+            authCodeBytes = getIntProperty(props, "auth_code.bytes", TokenGenerator.DEFAULT_TOKEN_BYTES);
+            authCodeEncoding = props.getProperty("auth_code.encoding", TokenGenerator.ENCODING_BASE64URL).trim();
+            clientSecretBytes = getIntProperty(props, "client_secret.bytes", TokenGenerator.DEFAULT_TOKEN_BYTES);
+            clientSecretEncoding = props.getProperty("client_secret.encoding", TokenGenerator.ENCODING_BASE64URL).trim();
+            // tokens are generated inline, if the pool size is not set
+            tokenPoolSize = getIntProperty(props, "token_pool.size", 0);
+            tokenPoolRefillInterval = getIntProperty(props, "token_pool.refill_interval", TokenPool.DEFAULT_REFILL_INTERVAL);
+            // signed tokens without refresh token are not stored in the DB, only if explicitly set
+            storeSignedTokens = Boolean.parseBoolean(props.getProperty("access_token.signed.store", "true").trim());
+            bossThreads = getIntProperty(props, "oauth20.boss_threads", DEFAULT_BOSS_THREADS);
+            workerThreads = getIntProperty(props, "oauth20.worker_threads", DEFAULT_WORKER_THREADS);
+            executorThreads = getIntProperty(props, "oauth20.executor.threads", DEFAULT_EXECUTOR_THREADS);
+            executorMaxChannelMemory = getIntProperty(props, "oauth20.executor.max_channel_memory",
+                    DEFAULT_EXECUTOR_MAX_CHANNEL_MEMORY);
+            executorMaxTotalMemory = getIntProperty(props, "oauth20.executor.max_total_memory",
+                    DEFAULT_EXECUTOR_MAX_TOTAL_MEMORY);
+            directBuffers = Boolean.parseBoolean(props.getProperty("oauth20.direct_buffers", "false").trim());
+            admissionMaxConcurrent = getIntProperty(props, "admission.max_concurrent", 0);
+            admissionLimits = props.getProperty("admission.limits");
+            admissionShares = props.getProperty("admission.shares");
+            admissionRetryAfter = getIntProperty(props, "admission.retry_after", AdmissionController.DEFAULT_RETRY_AFTER);
+            asyncHandlerThreads = getIntProperty(props, "lifecycle.async.threads", AsyncHandlerExecutor.DEFAULT_THREADS);
+            asyncHandlerQueueSize = getIntProperty(props, "lifecycle.async.queue_size",
+                    AsyncHandlerExecutor.DEFAULT_QUEUE_SIZE);
+            asyncHandlerOverflow = props.getProperty("lifecycle.async.overflow");
         } catch (IOException e) {
             log.error("Cannot load properties file", e);
         }
     }
 
+    protected static boolean checkTokenFormat(String kind, int bytes, String encoding) {
+        if (bytes < TokenGenerator.MIN_TOKEN_BYTES) {
+            log.error("{}.bytes must be at least {}", kind, TokenGenerator.MIN_TOKEN_BYTES);
+            return false;
+        }
+        if (!TokenGenerator.isValidEncoding(encoding)) {
+            log.error("{}.encoding must be {} or {}",
+                    new Object[] { kind, TokenGenerator.ENCODING_BASE64URL, TokenGenerator.ENCODING_HEX });
+            return false;
+        }
+        return true;
+    }
+
+    protected static int getIntProperty(Properties props, String name, int defaultValue) {
+        String value = props.getProperty(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.error("{} must be integer, default value {} will be used", name, defaultValue);
+            return defaultValue;
+        }
+    }
+
     protected static void setHostAndPort(String configHost, String configPort) {
         host = configHost;
         // if not set in properties file, loaded from env var
@@ -322,6 +554,22 @@ public final class OAuthServer {
         return userAuthenticationClass;
     }
 
+    public static IAsyncUserAuthentication getAsyncUserAuthentication() {
+        return asyncUserAuthentication;
+    }
+
+    public static int getUserAuthenticationTimeout() {
+        return userAuthenticationTimeout;
+    }
+
+    public static int getUserAuthCacheMaxEntries() {
+        return userAuthCacheMaxEntries;
+    }
+
+    public static int getUserAuthCacheTTL() {
+        return userAuthCacheTTL;
+    }
+
     public static String getCustomGrantType() {
         return customGrantType;
     }
@@ -330,7 +578,180 @@ public final class OAuthServer {
         return customGrantTypeHandler;
     }
 
+    public static List<CustomGrantTypeRegistry.Config> getCustomGrantTypeConfigs() {
+        return customGrantTypeConfigs;
+    }
+
+    /**
+     * Whether a custom grant_type with that value is configured, even if its handler is not loaded.
+     *
+     * @param grantType grant_type value
+     */
+    public static boolean isCustomGrantType(String grantType) {
+        for (CustomGrantTypeRegistry.Config config : customGrantTypeConfigs) {
+            if (config.getName().equals(grantType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static String getHazelcastPassword() {
         return hazelcastPassword;
     }
+
+    public static int getAccessTokenCacheMaxEntries() {
+        return accessTokenCacheMaxEntries;
+    }
+
+    public static long getAccessTokenCacheMaxBytes() {
+        return accessTokenCacheMaxBytes;
+    }
+
+    public static int getAccessTokenCacheTTL() {
+        return accessTokenCacheTTL;
+    }
+
+    public static int getUnknownTokenCacheMaxEntries() {
+        return unknownTokenCacheMaxEntries;
+    }
+
+    public static int getUnknownTokenCacheTTL() {
+        return unknownTokenCacheTTL;
+    }
+
+    public static int getClientCacheMaxEntries() {
+        return clientCacheMaxEntries;
+    }
+
+    public static int getClientCacheTTL() {
+        return clientCacheTTL;
+    }
+
+    public static boolean isScopeCacheEnabled() {
+        return scopeCacheEnabled;
+    }
+
+    public static int getScopeCacheReloadInterval() {
+        return scopeCacheReloadInterval;
+    }
+
+    public static int getValidateTokensMaxCount() {
+        return validateTokensMaxCount;
+    }
+
+    public static String getAccessTokenFormat() {
+        return accessTokenFormat;
+    }
+
+    public static String getSigningKeys() {
+        return signingKeys;
+    }
+
+    public static String getSigningKeyId() {
+        return signingKeyId;
+    }
+
+    public static int getAccessTokenBytes() {
+        return accessTokenBytes;
+    }
+
+    public static String getAccessTokenEncoding() {
+        return accessTokenEncoding;
+    }
+
+    public static int getRefreshTokenBytes() {
+        return refreshTokenBytes;
+    }
+
+    public static String getRefreshTokenEncoding() {
+        return refreshTokenEncoding;
+    }
+
+    public static int getAuthCodeBytes() {
+        return authCodeBytes;
+    }
+
+    public static String getAuthCodeEncoding() {
+        return authCodeEncoding;
+    }
+
+    public static int getClientSecretBytes() {
+        return clientSecretBytes;
+    }
+
+    public static String getClientSecretEncoding() {
+        return clientSecretEncoding;
+    }
+
+    public static int getTokenPoolSize() {
+        return tokenPoolSize;
+    }
+
+    public static int getTokenPoolRefillInterval() {
+        return tokenPoolRefillInterval;
+    }
+
+    public static boolean getStoreSignedTokens() {
+        return storeSignedTokens;
+    }
+
+    public static int getBossThreads() {
+        return bossThreads;
+    }
+
+    public static int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public static int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    /**
+     * Returns the executor of the requests, <code>null</code> if requests are handled in the I/O worker threads.
+     */
+    public static Executor getExecutionStage() {
+        return executionStage;
+    }
+
+    public static long getExecutorMaxChannelMemory() {
+        return executorMaxChannelMemory;
+    }
+
+    public static long getExecutorMaxTotalMemory() {
+        return executorMaxTotalMemory;
+    }
+
+    public static boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public static int getAdmissionMaxConcurrent() {
+        return admissionMaxConcurrent;
+    }
+
+    public static String getAdmissionLimits() {
+        return admissionLimits;
+    }
+
+    public static String getAdmissionShares() {
+        return admissionShares;
+    }
+
+    public static int getAdmissionRetryAfter() {
+        return admissionRetryAfter;
+    }
+
+    public static int getAsyncHandlerThreads() {
+        return asyncHandlerThreads;
+    }
+
+    public static int getAsyncHandlerQueueSize() {
+        return asyncHandlerQueueSize;
+    }
+
+    public static String getAsyncHandlerOverflow() {
+        return asyncHandlerOverflow;
+    }
 }
@@ -29,6 +29,7 @@ public final class QueryParameter {
     public static final String TOKEN = "token";
     public static final String CLIENT_ID = "client_id";
     public static final String USER_ID = "user_id";
+    public static final String USERNAME = "username";
 
     public static String getFirstElement(Map<String, List<String>> map, String key) {
         String value = null;
@@ -20,13 +20,14 @@ import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.util.Random;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Utility class that generates random strings.
+ * Utility class that generates random strings. Tokens and client credentials are generated by
+ * {@link TokenGenerator}.
  *
  * @author Rossitsa Borissova
  */
@@ -67,8 +68,8 @@ public final class RandomGenerator {
      * @return random string
      */
     public static String generateCharsSymbolsString(int lenght) {
-        StringBuffer buf = new StringBuffer(lenght);
-        SecureRandom rand = new SecureRandom();
+        StringBuilder buf = new StringBuilder(lenght);
+        Random rand = TokenGenerator.getRandom();
         for (int i = 0; i < lenght; i++) {
             buf.append(charsSymbols[rand.nextInt(charsSymbols.length)]);
         }
@@ -79,7 +80,9 @@ public final class RandomGenerator {
      * Generates random string.
      *
      * @return random string
+     * @deprecated the hex string has variable length, use {@link TokenGenerator} instead
      */
+    @Deprecated
     public static String generateRandomString() {
         return generateRandomString("SHA-256");
     }
@@ -88,14 +91,15 @@ public final class RandomGenerator {
      * Generates short random string.
      *
      * @return random string
+     * @deprecated the hex string has variable length, use {@link TokenGenerator} instead
      */
+    @Deprecated
     public static String generateShortRandomString() {
         return generateRandomString("SHA-1");
     }
 
     private static String generateRandomString(String algorithm) {
-        SecureRandom rand = new SecureRandom();
-        int random = rand.nextInt();
+        int random = TokenGenerator.getRandom().nextInt();
         long time = System.currentTimeMillis();
         long id = Thread.currentThread().getId();
         MessageDigest md = null;
@@ -120,8 +124,8 @@ public final class RandomGenerator {
      * @return random string
      */
     public static String generateDigitsString(int length) {
-        StringBuffer buf = new StringBuffer(length);
-        SecureRandom rand = new SecureRandom();
+        StringBuilder buf = new StringBuilder(length);
+        Random rand = TokenGenerator.getRandom();
         for (int i = 0; i < length; i++) {
             buf.append(rand.nextInt(digits.length));
         }
@@ -20,24 +20,84 @@
 package com.apifest.oauth20;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.codec.digest.DigestUtils;
+
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 public class RedisDBManager implements DBManager {
 
     private static final String ACCESS_TOKEN_BY_USER_ID_PREFIX_NAME = "atuid:";
     private static final String ACCESS_TOKEN_PREFIX_NAME = "at:";
+    private static final String INVALIDATION_CHANNEL = "apifest-invalidation";
+    // sorted set of revoked signed token ids, scored by the expiration time of the token
+    private static final String REVOKED_TOKENS_KEY = "revoked_tokens";
+
+    // auth codes expire in 30 min
+    private static final int AUTH_CODE_TTL = 1800;
+
+    // KEYS: acc:code, acuri:code+redirectUri
+    // ARGV: ttl in sec, code, field1, value1, field2, value2...
+    private static final String STORE_AUTH_CODE_SCRIPT =
+            "redis.call('HMSET', KEYS[1], unpack(ARGV, 3))\n"
+            + "redis.call('EXPIRE', KEYS[1], ARGV[1])\n"
+            + "redis.call('HSET', KEYS[2], 'ac', ARGV[2])\n"
+            + "redis.call('EXPIRE', KEYS[2], ARGV[1])\n"
+            + "return 1";
+
+    // KEYS: acc:code, acuri:code+redirectUri
+    // ARGV: code, clientId
+    // returns the fields of the auth code, if it is valid and issued to the client for the redirect uri
+    private static final String CONSUME_AUTH_CODE_SCRIPT =
+            "if redis.call('HGET', KEYS[2], 'ac') ~= ARGV[1] then return nil end\n"
+            + "if redis.call('HGET', KEYS[1], 'valid') ~= 'true' then return nil end\n"
+            + "if redis.call('HGET', KEYS[1], 'clientId') ~= ARGV[2] then return nil end\n"
+            + "redis.call('HSET', KEYS[1], 'valid', 'false')\n"
+            + "return redis.call('HGETALL', KEYS[1])";
+
+    // KEYS: at:token, atr:refreshToken+clientId, atuid:userId:clientId:uniqueId
+    // ARGV: token expiresAt in millis, user index expiresAt in millis, token, field1, value1, field2, value2...
+    private static final String STORE_ACCESS_TOKEN_SCRIPT =
+            "redis.call('HMSET', KEYS[1], unpack(ARGV, 4))\n"
+            + "redis.call('PEXPIREAT', KEYS[1], ARGV[1])\n"
+            + "redis.call('HSET', KEYS[2], 'access_token', ARGV[3])\n"
+            + "redis.call('PEXPIREAT', KEYS[2], ARGV[1])\n"
+            + "redis.call('HSET', KEYS[3], 'access_token', ARGV[3])\n"
+            + "redis.call('PEXPIREAT', KEYS[3], ARGV[2])\n"
+            + "return 1";
+
+    // KEYS: at:oldToken, followed by the keys of STORE_ACCESS_TOKEN_SCRIPT
+    // ARGV: the same as STORE_ACCESS_TOKEN_SCRIPT
+    // returns 0 if the old token does not exist anymore, e.g. it is already rotated by a concurrent refresh
+    private static final String ROTATE_ACCESS_TOKEN_SCRIPT =
+            "if redis.call('DEL', KEYS[1]) == 0 then return 0 end\n"
+            + "redis.call('HMSET', KEYS[2], unpack(ARGV, 4))\n"
+            + "redis.call('PEXPIREAT', KEYS[2], ARGV[1])\n"
+            + "redis.call('HSET', KEYS[3], 'access_token', ARGV[3])\n"
+            + "redis.call('PEXPIREAT', KEYS[3], ARGV[1])\n"
+            + "redis.call('HSET', KEYS[4], 'access_token', ARGV[3])\n"
+            + "redis.call('PEXPIREAT', KEYS[4], ARGV[2])\n"
+            + "return 1";
 
     private static Set<String> sentinels;
     private static JedisSentinelPool pool;
-    private static String storeAuthCodeScript = "";
-    private static String storeAuthCodeSHA;
+    // the SHA1 of the script is known before the script is loaded
+    private static String storeAuthCodeSHA = DigestUtils.shaHex(STORE_AUTH_CODE_SCRIPT);
+    private static String consumeAuthCodeSHA = DigestUtils.shaHex(CONSUME_AUTH_CODE_SCRIPT);
+    private static String storeAccessTokenSHA = DigestUtils.shaHex(STORE_ACCESS_TOKEN_SCRIPT);
+    private static String rotateAccessTokenSHA = DigestUtils.shaHex(ROTATE_ACCESS_TOKEN_SCRIPT);
 
     static {
         sentinels = new HashSet<String>();
@@ -50,10 +110,42 @@ public class RedisDBManager implements DBManager {
 
     public void setupDBManager() {
         Jedis jedis = pool.getResource();
-        storeAuthCodeSHA = jedis.scriptLoad(storeAuthCodeScript);
+        storeAuthCodeSHA = jedis.scriptLoad(STORE_AUTH_CODE_SCRIPT);
+        consumeAuthCodeSHA = jedis.scriptLoad(CONSUME_AUTH_CODE_SCRIPT);
+        storeAccessTokenSHA = jedis.scriptLoad(STORE_ACCESS_TOKEN_SCRIPT);
+        rotateAccessTokenSHA = jedis.scriptLoad(ROTATE_ACCESS_TOKEN_SCRIPT);
         pool.returnResource(jedis);
     }
 
+    /*
+     * Executes a script loaded by setupDBManager. The scripts cache of Redis is empty after a restart,
+     * a failover or SCRIPT FLUSH, then the script is sent with EVAL, that loads it again.
+     */
+    protected Object evalScript(Jedis jedis, String script, String sha, List<String> keys, List<String> args) {
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            return jedis.eval(script, keys, args);
+        }
+    }
+
+    // adds the fields with values to the script arguments, Redis does not accept null values
+    private static void addFields(List<String> args, Map<String, String> fields) {
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (field.getValue() != null) {
+                args.add(field.getKey());
+                args.add(field.getValue());
+            }
+        }
+    }
+
+    public InvalidationBus createInvalidationBus() {
+        return new RedisInvalidationBus(pool, INVALIDATION_CHANNEL);
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#validClient(java.lang.String, java.lang.String)
      */
@@ -107,14 +199,19 @@ public class RedisDBManager implements DBManager {
         authCodeMap.put("valid", String.valueOf(authCode.isValid()));
         authCodeMap.put("userId", authCode.getUserId());
         authCodeMap.put("created", authCode.getCreated().toString());
+        List<String> keys = Arrays.asList("acc:" + authCode.getCode(),
+                "acuri:" + authCode.getCode() + authCode.getRedirectUri());
+        List<String> args = new ArrayList<String>(2 + authCodeMap.size() * 2);
+        args.add(String.valueOf(AUTH_CODE_TTL));
+        args.add(authCode.getCode());
+        addFields(args, authCodeMap);
+        // the auth code and its index are written with their TTLs atomically, in a single round trip
         Jedis jedis = pool.getResource();
-        jedis.hmset("acc:" + authCode.getCode(), authCodeMap);
-        // REVISIT: expires on auth code
-        jedis.expire("acc:" + authCode.getCode(), 1800);
-        jedis.hset("acuri:" + authCode.getCode() + authCode.getRedirectUri(), "ac",
-                authCode.getCode());
-        jedis.expire("acuri:" + authCode.getCode() + authCode.getRedirectUri(), 1800);
-        pool.returnResource(jedis);
+        try {
+            evalScript(jedis, STORE_AUTH_CODE_SCRIPT, storeAuthCodeSHA, keys, args);
+        } finally {
+            pool.returnResource(jedis);
+        }
     }
 
     /*
@@ -132,6 +229,20 @@ public class RedisDBManager implements DBManager {
      */
     @Override
     public void storeAccessToken(AccessToken accessToken) {
+        // the token, the refresh token and user indexes and their TTLs are written atomically, in a single round trip
+        writeAccessToken(STORE_ACCESS_TOKEN_SCRIPT, storeAccessTokenSHA, null, accessToken);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldToken, AccessToken newToken) {
+        Object rotated = writeAccessToken(ROTATE_ACCESS_TOKEN_SCRIPT, rotateAccessTokenSHA, oldToken, newToken);
+        return Long.valueOf(1).equals(rotated);
+    }
+
+    private Object writeAccessToken(String script, String sha, String oldToken, AccessToken accessToken) {
         Map<String, String> accessTokenMap = new HashMap<String, String>();
         accessTokenMap.put("token", accessToken.getToken());
         accessTokenMap.put("refreshToken", accessToken.getRefreshToken());
@@ -145,21 +256,31 @@ public class RedisDBManager implements DBManager {
         accessTokenMap.put("created", String.valueOf(accessToken.getCreated()));
         accessTokenMap.put("details", JSONUtils.convertMapToJSON(accessToken.getDetails()));
         accessTokenMap.put("refreshExpiresIn", accessToken.getRefreshExpiresIn());
-        Jedis jedis = pool.getResource();
-        jedis.hmset("at:" + accessToken.getToken(), accessTokenMap);
-        Integer tokenExpiration = Integer.valueOf((!accessToken.getRefreshExpiresIn().isEmpty()) ? accessToken.getRefreshExpiresIn() : accessToken.getExpiresIn());
-        jedis.expire("at:" + accessToken.getToken(), tokenExpiration);
-        jedis.hset("atr:" + accessToken.getRefreshToken() + accessToken.getClientId(),
-                "access_token", accessToken.getToken());
-        jedis.expire("atr:" + accessToken.getRefreshToken() + accessToken.getClientId(), tokenExpiration);
-
+        accessTokenMap.put("expiresAt", String.valueOf(accessToken.getExpiresAt()));
+        accessTokenMap.put("refreshExpiresAt", String.valueOf(accessToken.getRefreshExpiresAt()));
+        // the token is kept until the refresh token expires
+        long tokenExpiresAt = Math.max(accessToken.getExpiresAt(), accessToken.getRefreshExpiresAt());
         // store access tokens by user id and client app
-        // TODO: Replace with Lua script
         Long uniqueId = System.currentTimeMillis();
         String key = accessToken.getUserId() + ":" + accessToken.getClientId() + ":" + uniqueId;
-        jedis.hset(ACCESS_TOKEN_BY_USER_ID_PREFIX_NAME + key, "access_token", accessToken.getToken());
-        jedis.expire(ACCESS_TOKEN_BY_USER_ID_PREFIX_NAME + key, Integer.valueOf(accessToken.getExpiresIn()));
-        pool.returnResource(jedis);
+        List<String> keys = new ArrayList<String>(4);
+        if (oldToken != null) {
+            keys.add(ACCESS_TOKEN_PREFIX_NAME + oldToken);
+        }
+        keys.add(ACCESS_TOKEN_PREFIX_NAME + accessToken.getToken());
+        keys.add("atr:" + accessToken.getRefreshToken() + accessToken.getClientId());
+        keys.add(ACCESS_TOKEN_BY_USER_ID_PREFIX_NAME + key);
+        List<String> args = new ArrayList<String>(3 + accessTokenMap.size() * 2);
+        args.add(String.valueOf(tokenExpiresAt));
+        args.add(String.valueOf(accessToken.getExpiresAt()));
+        args.add(accessToken.getToken());
+        addFields(args, accessTokenMap);
+        Jedis jedis = pool.getResource();
+        try {
+            return evalScript(jedis, script, sha, keys, args);
+        } finally {
+            pool.returnResource(jedis);
+        }
     }
 
     /*
@@ -201,6 +322,30 @@ public class RedisDBManager implements DBManager {
         return AccessToken.loadFromStringMap(accessTokenMap);
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#findAccessTokens(java.util.Collection)
+     */
+    @Override
+    public Map<String, AccessToken> findAccessTokens(Collection<String> accessTokens) {
+        Map<String, AccessToken> found = new HashMap<String, AccessToken>();
+        List<Response<Map<String, String>>> responses = new ArrayList<Response<Map<String, String>>>(accessTokens.size());
+        Jedis jedis = pool.getResource();
+        Pipeline pipeline = jedis.pipelined();
+        for (String accessToken : accessTokens) {
+            responses.add(pipeline.hgetAll(ACCESS_TOKEN_PREFIX_NAME + accessToken));
+        }
+        pipeline.sync();
+        pool.returnResource(jedis);
+        for (Response<Map<String, String>> response : responses) {
+            Map<String, String> accessTokenMap = response.get();
+            if (!accessTokenMap.isEmpty() && !"false".equals(accessTokenMap.get("valid"))) {
+                AccessToken accessToken = AccessToken.loadFromStringMap(accessTokenMap);
+                found.put(accessToken.getToken(), accessToken);
+            }
+        }
+        return found;
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#findAuthCode(java.lang.String, java.lang.String)
      */
@@ -218,6 +363,33 @@ public class RedisDBManager implements DBManager {
         return AuthCode.loadFromStringMap(authCodeMap);
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#consumeAuthCode(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public AuthCode consumeAuthCode(String authCode, String redirectUri, String clientId) {
+        List<String> keys = Arrays.asList("acc:" + authCode, "acuri:" + authCode + redirectUri);
+        List<String> args = Arrays.asList(authCode, clientId);
+        Object result;
+        Jedis jedis = pool.getResource();
+        try {
+            result = evalScript(jedis, CONSUME_AUTH_CODE_SCRIPT, consumeAuthCodeSHA, keys, args);
+        } finally {
+            pool.returnResource(jedis);
+        }
+        if (result == null) {
+            return null;
+        }
+        // HGETALL reply is a list of fields and values
+        List<String> fields = (List<String>) result;
+        Map<String, String> authCodeMap = new HashMap<String, String>();
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            authCodeMap.put(fields.get(i), fields.get(i + 1));
+        }
+        return AuthCode.loadFromStringMap(authCodeMap);
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#findClientCredentials(java.lang.String)
      */
@@ -365,4 +537,52 @@ public class RedisDBManager implements DBManager {
         pool.returnResource(jedis);
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#storeRevokedToken(java.lang.String, long)
+     */
+    @Override
+    public void storeRevokedToken(String tokenId, long expiresAt) {
+        Jedis jedis = pool.getResource();
+        try {
+            jedis.zadd(REVOKED_TOKENS_KEY, expiresAt, tokenId);
+            // expired revocations are not needed anymore
+            jedis.zremrangeByScore(REVOKED_TOKENS_KEY, 0, System.currentTimeMillis());
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#isRevokedToken(java.lang.String)
+     */
+    @Override
+    public boolean isRevokedToken(String tokenId) {
+        Jedis jedis = pool.getResource();
+        try {
+            Double expiresAt = jedis.zscore(REVOKED_TOKENS_KEY, tokenId);
+            return expiresAt != null && expiresAt > System.currentTimeMillis();
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#getRevokedTokens()
+     */
+    @Override
+    public Map<String, Long> getRevokedTokens() {
+        Map<String, Long> revoked = new HashMap<String, Long>();
+        Jedis jedis = pool.getResource();
+        try {
+            Set<Tuple> tuples = jedis.zrangeByScoreWithScores(REVOKED_TOKENS_KEY, System.currentTimeMillis(),
+                    Double.POSITIVE_INFINITY);
+            for (Tuple tuple : tuples) {
+                revoked.put(tuple.getElement(), (long) tuple.getScore());
+            }
+        } finally {
+            pool.returnResource(jedis);
+        }
+        return revoked;
+    }
+
 }
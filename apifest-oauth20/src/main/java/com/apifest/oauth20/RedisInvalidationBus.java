@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * Invalidation bus that uses Redis pub/sub. The subscription runs in its own thread on a dedicated
+ * connection and is restored after a connection failure (e.g. Redis master failover).
+ */
+public class RedisInvalidationBus extends InvalidationBus {
+
+    // time in millis to wait before subscribing again after a connection failure
+    private static final long RECONNECT_DELAY = 1000;
+
+    private final JedisSentinelPool pool;
+    private final String channel;
+    private final Subscriber subscriber = new Subscriber();
+    private final Thread subscriberThread;
+    private volatile boolean closed;
+
+    public RedisInvalidationBus(JedisSentinelPool pool, String channel) {
+        this.pool = pool;
+        this.channel = channel;
+        subscriberThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribe();
+            }
+        }, "apifest-invalidation-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @Override
+    protected void send(String message) {
+        Jedis jedis = pool.getResource();
+        try {
+            jedis.publish(channel, message);
+            pool.returnResource(jedis);
+        } catch (JedisConnectionException e) {
+            pool.returnBrokenResource(jedis);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    protected void subscribe() {
+        while (!closed) {
+            Jedis jedis = null;
+            try {
+                jedis = pool.getResource();
+                // blocks until unsubscribed or the connection fails
+                jedis.subscribe(subscriber, channel);
+                pool.returnResource(jedis);
+            } catch (JedisConnectionException e) {
+                log.error("invalidation events subscription failed, will subscribe again", e);
+                if (jedis != null) {
+                    pool.returnBrokenResource(jedis);
+                }
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private class Subscriber extends JedisPubSub {
+
+        @Override
+        public void onMessage(String channel, String message) {
+            RedisInvalidationBus.this.onMessage(message);
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+            // not subscribed to patterns
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            log.info("subscribed to invalidation events on {}", channel);
+        }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) {
+            log.info("unsubscribed from invalidation events on {}", channel);
+        }
+
+        @Override
+        public void onPUnsubscribe(String pattern, int subscribedChannels) {
+            // not subscribed to patterns
+        }
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+            // not subscribed to patterns
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * Single-pass parsers of the OAuth request parameters. Only the values of the requested parameter names
+ * are decoded, the other parameters are skipped without allocations. Malformed percent-encoding, repeated
+ * parameters and requests over the size limits are rejected.
+ */
+public final class RequestParser {
+
+    // max size in bytes of a form content or a query string
+    public static final int MAX_CONTENT_LENGTH = 8192;
+    public static final int MAX_PARAMETERS = 64;
+    public static final int MAX_AUTHORIZATION_LENGTH = 1024;
+
+    private static final String BASIC = "Basic ";
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < BASE64_VALUES.length; i++) {
+            BASE64_VALUES[i] = -1;
+        }
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private RequestParser() {
+    }
+
+    /**
+     * Parses application/x-www-form-urlencoded content. The reader index of the content is not changed.
+     *
+     * @param content the request content
+     * @param names names of the parameters to extract, no more than 32
+     * @return values in the order of the names, <code>null</code> if a parameter is missing or has no '='
+     * @throws OAuthException if the content is too large or malformed, or a parameter is repeated
+     */
+    public static String[] parseForm(ChannelBuffer content, String... names) throws OAuthException {
+        int length = content.readableBytes();
+        if (length > MAX_CONTENT_LENGTH) {
+            throw new OAuthException(Response.REQUEST_TOO_LARGE, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+        }
+        int from = content.readerIndex();
+        return parse(new BufferSource(content), from, from + length, names);
+    }
+
+    /**
+     * Parses the query string of a request URI.
+     *
+     * @param uri the request URI
+     * @param names names of the parameters to extract, no more than 32
+     * @return values in the order of the names, <code>null</code> if a parameter is missing or has no '='
+     * @throws OAuthException if the query string is too large or malformed, or a parameter is repeated
+     */
+    public static String[] parseQuery(String uri, String... names) throws OAuthException {
+        int from = uri.indexOf('?');
+        if (from < 0) {
+            return new String[names.length];
+        }
+        int to = uri.indexOf('#', from);
+        if (to < 0) {
+            to = uri.length();
+        }
+        if (to - from - 1 > MAX_CONTENT_LENGTH) {
+            throw new OAuthException(Response.REQUEST_TOO_LARGE, HttpResponseStatus.REQUEST_URI_TOO_LONG);
+        }
+        return parse(new StringSource(uri), from + 1, to, names);
+    }
+
+    /**
+     * Decodes the credentials of a Basic Authorization header.
+     *
+     * @param header value of the Authorization header
+     * @return client_id and client_secret or <code>null</code>, if the header is not a valid Basic Authorization
+     */
+    public static String[] parseBasicAuthorization(String header) {
+        if (header == null || header.length() > MAX_AUTHORIZATION_LENGTH
+                || !header.regionMatches(true, 0, BASIC, 0, BASIC.length())) {
+            return null;
+        }
+        int from = BASIC.length();
+        int to = header.length();
+        while (from < to && header.charAt(from) == ' ') {
+            from++;
+        }
+        while (to > from && header.charAt(to - 1) == ' ') {
+            to--;
+        }
+        while (to > from && header.charAt(to - 1) == '=') {
+            to--;
+        }
+        int length = to - from;
+        if (length == 0 || length % 4 == 1) {
+            return null;
+        }
+        byte[] decoded = new byte[length * 3 / 4];
+        int bits = 0;
+        int bitCount = 0;
+        int pos = 0;
+        for (int i = from; i < to; i++) {
+            char c = header.charAt(i);
+            int value = (c < BASE64_VALUES.length) ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                return null;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                decoded[pos++] = (byte) (bits >> bitCount);
+            }
+        }
+        int colon = -1;
+        for (int i = 0; i < pos; i++) {
+            if (decoded[i] == ':') {
+                colon = i;
+                break;
+            }
+        }
+        // client_id:client_secret, the secret may contain ':'
+        if (colon <= 0 || colon == pos - 1) {
+            return null;
+        }
+        return new String[] { new String(decoded, 0, colon, CharsetUtil.UTF_8),
+                new String(decoded, colon + 1, pos - colon - 1, CharsetUtil.UTF_8) };
+    }
+
+    private static String[] parse(Source source, int from, int to, String[] names) throws OAuthException {
+        String[] values = new String[names.length];
+        int found = 0;
+        int count = 0;
+        int start = from;
+        while (start < to) {
+            int separator = -1;
+            int end = start;
+            for (; end < to; end++) {
+                int c = source.charAt(end);
+                if (c == '&') {
+                    break;
+                }
+                if (c == '=' && separator < 0) {
+                    separator = end;
+                } else if (c == '%' && (end + 2 >= to || hexValue(source.charAt(end + 1)) < 0
+                        || hexValue(source.charAt(end + 2)) < 0)) {
+                    throw new OAuthException(Response.INVALID_REQUEST, HttpResponseStatus.BAD_REQUEST);
+                }
+            }
+            if (end > start) {
+                if (++count > MAX_PARAMETERS) {
+                    throw new OAuthException(Response.INVALID_REQUEST, HttpResponseStatus.BAD_REQUEST);
+                }
+                int idx = indexOfName(source, start, (separator < 0) ? end : separator, names);
+                if (idx >= 0) {
+                    // parameters must not be included more than once, RFC 6749 3.1
+                    if ((found & (1 << idx)) != 0) {
+                        throw new OAuthException(Response.INVALID_REQUEST, HttpResponseStatus.BAD_REQUEST);
+                    }
+                    found |= 1 << idx;
+                    values[idx] = (separator < 0) ? null : decode(source, separator + 1, end);
+                }
+            }
+            start = end + 1;
+        }
+        return values;
+    }
+
+    private static int indexOfName(Source source, int from, int to, String[] names) {
+        for (int i = from; i < to; i++) {
+            int c = source.charAt(i);
+            if (c == '%' || c == '+') {
+                String name = decode(source, from, to);
+                for (int n = 0; n < names.length; n++) {
+                    if (names[n].equals(name)) {
+                        return n;
+                    }
+                }
+                return -1;
+            }
+        }
+        for (int n = 0; n < names.length; n++) {
+            if (regionEquals(source, from, to, names[n])) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(Source source, int from, int to, String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (source.charAt(from + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the escapes are already validated
+    private static String decode(Source source, int from, int to) {
+        int i = from;
+        while (i < to) {
+            int c = source.charAt(i);
+            if (c == '%' || c == '+') {
+                break;
+            }
+            i++;
+        }
+        if (i == to) {
+            return source.substring(from, to);
+        }
+        byte[] bytes = new byte[to - from];
+        int pos = 0;
+        for (i = from; i < to; i++) {
+            int c = source.charAt(i);
+            if (c == '+') {
+                bytes[pos++] = ' ';
+            } else if (c == '%') {
+                bytes[pos++] = (byte) ((hexValue(source.charAt(i + 1)) << 4) | hexValue(source.charAt(i + 2)));
+                i += 2;
+            } else {
+                bytes[pos++] = (byte) c;
+            }
+        }
+        return new String(bytes, 0, pos, CharsetUtil.UTF_8);
+    }
+
+    private static int hexValue(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private abstract static class Source {
+        abstract int charAt(int index);
+
+        abstract String substring(int from, int to);
+    }
+
+    private static final class BufferSource extends Source {
+        private final ChannelBuffer buffer;
+
+        BufferSource(ChannelBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        int charAt(int index) {
+            return buffer.getByte(index) & 0xFF;
+        }
+
+        @Override
+        String substring(int from, int to) {
+            if (buffer.hasArray()) {
+                // decoded by the JDK without the charset decoder created by ChannelBuffer.toString
+                return new String(buffer.array(), buffer.arrayOffset() + from, to - from, CharsetUtil.UTF_8);
+            }
+            return buffer.toString(from, to - from, CharsetUtil.UTF_8);
+        }
+    }
+
+    private static final class StringSource extends Source {
+        private final String value;
+
+        StringSource(String value) {
+            this.value = value;
+        }
+
+        @Override
+        int charAt(int index) {
+            return value.charAt(index);
+        }
+
+        @Override
+        String substring(int from, int to) {
+            return value.substring(from, to);
+        }
+    }
+}
@@ -16,6 +16,11 @@
 
 package com.apifest.oauth20;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
@@ -54,9 +59,48 @@ public final class Response {
     public static final String CLIENT_APP_NOT_EXIST = "{\"error\": \"client application does not exist\"}";
     public static final String SCOPE_NOK_MESSAGE = "{\"status\":\"scope not valid\"}";
     public static final String CLIENT_APP_UPDATED = "{\"status\":\"client application updated\"}";
+    public static final String USER_AUTHENTICATIONS_INVALIDATED = "{\"status\":\"user authentications invalidated\"}";
+    public static final String SERVER_OVERLOADED = "{\"error\": \"server is overloaded, retry later\"}";
+    public static final String USER_AUTHENTICATION_TIMEOUT = "{\"error\": \"user authentication timed out, retry later\"}";
+    public static final String GRANT_TYPE_UNAVAILABLE = "{\"error\": \"grant_type temporarily unavailable, retry later\"}";
+    public static final String INVALID_REQUEST = "{\"error\": \"invalid_request\"}";
+    public static final String REQUEST_TOO_LARGE = "{\"error\": \"request too large\"}";
+    public static final String INTERNAL_ERROR = "{\"error\": \"internal server error\"}";
+    public static final String TOO_MANY_TOKENS = "{\"error\": \"no more than %d tokens could be validated at once\"}";
 
     public static final String APPLICATION_JSON = "application/json";
 
+    // encoded constant messages by message, the buffers are read-only and duplicated for each response
+    private static final Map<String, ChannelBuffer> ENCODED_MESSAGES = new ConcurrentHashMap<String, ChannelBuffer>();
+
+    static {
+        preEncodeMessages(Response.class);
+    }
+
+    /**
+     * Encodes the constant JSON messages declared in a class, so the responses with them are not encoded again.
+     * Messages with format specifiers are skipped.
+     *
+     * @param clazz class that declares the messages as static final String fields
+     */
+    public static void preEncodeMessages(Class<?> clazz) {
+        for (Field field : clazz.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers) || !Modifier.isFinal(modifiers) || field.getType() != String.class) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                String message = (String) field.get(null);
+                if (message != null && message.startsWith("{") && !message.contains("%")) {
+                    ENCODED_MESSAGES.put(message, ChannelBuffers.unmodifiableBuffer(
+                            ChannelBuffers.wrappedBuffer(message.getBytes(CharsetUtil.UTF_8))));
+                }
+            } catch (IllegalAccessException e) {
+                // not a message
+            }
+        }
+    }
 
     public static HttpResponse createBadRequestResponse() {
         return createBadRequestResponse(null);
@@ -74,6 +118,10 @@ public final class Response {
         return createResponse(HttpResponseStatus.OK, jsonString);
     }
 
+    public static HttpResponse createOkResponse(ChannelBuffer json) {
+        return createResponse(HttpResponseStatus.OK, json);
+    }
+
     public static HttpResponse createOAuthExceptionResponse(OAuthException ex) {
         return createResponse(ex.getHttpStatus(), ex.getMessage());
     }
@@ -82,17 +130,39 @@ public final class Response {
         return createResponse(HttpResponseStatus.UNAUTHORIZED, Response.INVALID_ACCESS_TOKEN);
     }
 
+    public static HttpResponse createServiceUnavailableResponse(int retryAfter) {
+        HttpResponse response = createResponse(HttpResponseStatus.SERVICE_UNAVAILABLE, Response.SERVER_OVERLOADED);
+        response.headers().set(HttpHeaders.Names.RETRY_AFTER, retryAfter);
+        return response;
+    }
+
     public static HttpResponse createResponse(HttpResponseStatus status, String message) {
-        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        ChannelBuffer content = null;
         if (message != null) {
-            ChannelBuffer buf = ChannelBuffers.copiedBuffer(message.getBytes(CharsetUtil.UTF_8));
-            response.setContent(buf);
+            ChannelBuffer encoded = ENCODED_MESSAGES.get(message);
+            // shares the pre-encoded bytes with own indexes, otherwise wraps the encoded message without copying it
+            content = (encoded != null) ? encoded.duplicate()
+                    : ChannelBuffers.wrappedBuffer(message.getBytes(CharsetUtil.UTF_8));
+        }
+        return createResponse(status, content);
+    }
+
+    /**
+     * Creates JSON response with the given content. The content is sent as is, without copying.
+     *
+     * @param status response status
+     * @param content JSON content, could be <code>null</code>
+     * @return the response
+     */
+    public static HttpResponse createResponse(HttpResponseStatus status, ChannelBuffer content) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        if (content != null) {
+            response.setContent(content);
             response.headers().set(HttpHeaders.Names.CONTENT_TYPE, APPLICATION_JSON);
-            response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, buf.array().length);
+            response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, content.readableBytes());
         }
         response.headers().set(HttpHeaders.Names.CACHE_CONTROL, HttpHeaders.Values.NO_STORE);
         response.headers().set(HttpHeaders.Names.PRAGMA, HttpHeaders.Values.NO_CACHE);
         return response;
     }
 }
-
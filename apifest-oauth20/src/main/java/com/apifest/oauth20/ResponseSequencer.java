@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+/**
+ * Writes the responses of a connection in the order its requests are received, as HTTP/1.1 pipelining requires.
+ * Responses completed ahead of an earlier request, e.g. deferred token responses, are held until the responses
+ * of all earlier requests are written. It is added right after the encoder, so it sees every request of the
+ * connection, including the ones rejected by the {@link AdmissionHandler}.
+ */
+public class ResponseSequencer extends SimpleChannelUpstreamHandler {
+
+    /**
+     * Notified when the response of a request is written to the channel.
+     */
+    public interface Listener {
+        void responseWritten(HttpRequest request);
+    }
+
+    // requests of the connection, which responses are not written yet, in the order they are received
+    private final LinkedList<PendingResponse> pending = new LinkedList<PendingResponse>();
+
+    private volatile Listener listener;
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (e.getMessage() instanceof HttpRequest) {
+            synchronized (pending) {
+                pending.add(new PendingResponse((HttpRequest) e.getMessage()));
+            }
+        }
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (pending) {
+            pending.clear();
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * Writes the response of a request, once the responses of all earlier requests of the connection are written.
+     * Responses of requests not received through this handler are written immediately.
+     *
+     * @param channel the channel of the request
+     * @param request the request
+     * @param response the response of the request
+     * @return future notified when the response is written
+     */
+    public ChannelFuture write(Channel channel, HttpRequest request, HttpResponse response) {
+        synchronized (pending) {
+            PendingResponse current = find(request);
+            if (current == null) {
+                return channel.write(response);
+            }
+            current.response = response;
+            current.future = Channels.future(channel);
+            // written under the lock, so the channel gets the responses in that order
+            while (!pending.isEmpty() && pending.getFirst().response != null) {
+                PendingResponse next = pending.removeFirst();
+                channel.write(next.response).addListener(new FutureRelay(next.future));
+                if (listener != null) {
+                    listener.responseWritten(next.request);
+                }
+            }
+            return current.future;
+        }
+    }
+
+    private PendingResponse find(HttpRequest request) {
+        Iterator<PendingResponse> it = pending.iterator();
+        while (it.hasNext()) {
+            PendingResponse next = it.next();
+            if (next.request == request) {
+                return (next.response == null) ? next : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the listener notified when the response of a request received through this handler is written.
+     *
+     * @param listener the listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    private static class PendingResponse {
+        private final HttpRequest request;
+        private HttpResponse response;
+        private ChannelFuture future;
+
+        private PendingResponse(HttpRequest request) {
+            this.request = request;
+        }
+    }
+
+    // notifies the future returned to the writer with the result of the actual write
+    private static class FutureRelay implements ChannelFutureListener {
+        private final ChannelFuture target;
+
+        private FutureRelay(ChannelFuture target) {
+            this.target = target;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            if (future.isSuccess()) {
+                target.setSuccess();
+            } else if (future.isCancelled()) {
+                target.cancel();
+            } else {
+                target.setFailure(future.getCause());
+            }
+        }
+    }
+}
@@ -15,13 +15,17 @@
  */
 package com.apifest.oauth20;
 
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.util.CharsetUtil;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
 /**
  * Represents request when POST to /oauth20/tokens/revoke.
@@ -36,16 +40,70 @@ public class RevokeTokenRequest {
     private String accessToken;
     private String clientId;
 
-    public RevokeTokenRequest(HttpRequest request) {
-        String content = request.getContent().toString(CharsetUtil.UTF_8);
-        JsonParser parser = new JsonParser();
+    /**
+     * Creates revoke token request from the JSON content of the request. If the JSON is invalid,
+     * access_token and client_id are <code>null</code>.
+     *
+     * @param request the revoke token request
+     * @throws OAuthException if the content is too large
+     */
+    public RevokeTokenRequest(HttpRequest request) throws OAuthException {
+        ChannelBuffer content = request.getContent();
+        if (content.readableBytes() > RequestParser.MAX_CONTENT_LENGTH) {
+            throw new OAuthException(Response.REQUEST_TOO_LARGE, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+        }
+        // lenient as the former parsing into a Gson tree, but without building the tree; the content is small,
+        // so it is decoded at once instead of through a stream reader with its own buffers
+        JsonReader reader = new JsonReader(new StringReader(content.toString(CharsetUtil.UTF_8)));
+        reader.setLenient(true);
         try {
-            JsonObject jsonObj= parser.parse(content).getAsJsonObject();
-            this.accessToken = (jsonObj.get(ACCESS_TOKEN) != null) ? jsonObj.get(ACCESS_TOKEN).getAsString() : null;
-            this.clientId = (jsonObj.get(CLIENT_ID) != null) ? jsonObj.get(CLIENT_ID).getAsString() : null;
-        } catch (JsonSyntaxException e) {
-            // do nothing
+            parseFields(reader);
+        } catch (IOException e) {
+            this.accessToken = null;
+            this.clientId = null;
+        } catch (IllegalStateException e) {
+            // not a JSON object
+            this.accessToken = null;
+            this.clientId = null;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing to release
+            }
+        }
+    }
+
+    // reads only the top-level fields, nested values are skipped
+    private void parseFields(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (ACCESS_TOKEN.equals(name)) {
+                this.accessToken = nextValue(reader);
+            } else if (CLIENT_ID.equals(name)) {
+                this.clientId = nextValue(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new MalformedJsonException("JSON object expected");
+        }
+    }
+
+    private static String nextValue(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
         }
+        // throws IllegalStateException for objects and arrays
+        return reader.nextString();
     }
 
     public String getAccessToken() {
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Set of revoked signed access tokens. Unlike a cache, entries are never evicted before the token
+ * itself expires, otherwise a revoked token would become valid again.
+ */
+public class RevokedTokens {
+
+    // expired entries are purged on every PURGE_INTERVAL revocations
+    private static final int PURGE_INTERVAL = 1000;
+
+    private final Map<String, Long> revoked = new ConcurrentHashMap<String, Long>();
+    private final AtomicInteger revocations = new AtomicInteger();
+
+    /**
+     * Adds a token to the set.
+     *
+     * @param tokenId id of the token
+     * @param expiresAt time in millis when the token expires
+     */
+    public void revoke(String tokenId, long expiresAt) {
+        long now = System.currentTimeMillis();
+        if (expiresAt <= now) {
+            return;
+        }
+        revoked.put(tokenId, expiresAt);
+        if (revocations.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purgeExpired(now);
+        }
+    }
+
+    public boolean isRevoked(String tokenId) {
+        return revoked.containsKey(tokenId);
+    }
+
+    public int size() {
+        return revoked.size();
+    }
+
+    protected void purgeExpired(long now) {
+        Iterator<Map.Entry<String, Long>> it = revoked.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() <= now) {
+                it.remove();
+            }
+        }
+    }
+}
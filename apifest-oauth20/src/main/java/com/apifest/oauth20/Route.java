@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import org.jboss.netty.handler.codec.http.HttpMethod;
+
+/**
+ * Endpoint registered in {@link RouteRegistry} with its method and path template.
+ *
+ * @param <T> type of the endpoints
+ */
+public class Route<T> {
+
+    private final HttpMethod method;
+    private final String template;
+    private final T endpoint;
+
+    public Route(HttpMethod method, String template, T endpoint) {
+        this.method = method;
+        this.template = template;
+        this.endpoint = endpoint;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public T getEndpoint() {
+        return endpoint;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Endpoint and path parameters of a request matched by {@link RouteRegistry}.
+ *
+ * @param <T> type of the endpoints
+ */
+public class RouteMatch<T> {
+
+    private final Route<T> route;
+    private final Map<String, String> params;
+
+    public RouteMatch(Route<T> route, Map<String, String> params) {
+        this.route = route;
+        this.params = params;
+    }
+
+    public Route<T> getRoute() {
+        return route;
+    }
+
+    public T getEndpoint() {
+        return route.getEndpoint();
+    }
+
+    /**
+     * Returns the value of a path parameter.
+     *
+     * @param name name of the parameter as set in the path template
+     * @return the raw (not decoded) value or <code>null</code>, if there is no such parameter
+     */
+    public String getParam(String name) {
+        return (params != null) ? params.get(name) : null;
+    }
+
+    public Map<String, String> getParams() {
+        if (params == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(params);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.jboss.netty.handler.codec.http.HttpMethod;
+
+/**
+ * Maps request method and path to an endpoint. Routes are registered with path templates like
+ * <code>/oauth20/scopes/{scope}</code> or <code>/oauth20/applications/{client_id:[a-f0-9]+}</code>, where
+ * the optional regular expression restricts the values of a path parameter. Paths without parameters are
+ * looked up in a hash map, the others are matched segment by segment in a trie and path parameters are
+ * extracted in the same pass.
+ * Routes should be registered before the server is started.
+ *
+ * @param <T> type of the endpoints
+ */
+public class RouteRegistry<T> {
+
+    private final Map<String, Map<HttpMethod, Route<T>>> staticRoutes =
+            new ConcurrentHashMap<String, Map<HttpMethod, Route<T>>>();
+    private final Node<T> root = new Node<T>(null, null);
+
+    /**
+     * Registers an endpoint. An endpoint already registered with the same method and template is replaced.
+     *
+     * @param method HTTP method
+     * @param template path template, must start with /
+     * @param endpoint the endpoint
+     * @throws IllegalArgumentException if the template is not valid or conflicts with a registered one
+     */
+    public synchronized void register(HttpMethod method, String template, T endpoint) {
+        if (template == null || !template.startsWith("/")) {
+            throw new IllegalArgumentException("path template must start with /");
+        }
+        Route<T> route = new Route<T>(method, template, endpoint);
+        if (template.indexOf('{') < 0) {
+            Map<HttpMethod, Route<T>> endpoints = staticRoutes.get(template);
+            if (endpoints == null) {
+                endpoints = new ConcurrentHashMap<HttpMethod, Route<T>>();
+                staticRoutes.put(template, endpoints);
+            }
+            endpoints.put(method, route);
+            return;
+        }
+        Node<T> node = root;
+        for (String segment : template.substring(1).split("/", -1)) {
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                node = node.getParamChild(segment.substring(1, segment.length() - 1));
+            } else {
+                node = node.getChild(segment);
+            }
+        }
+        node.endpoints.put(method, route);
+    }
+
+    /**
+     * Finds the endpoint of a request.
+     *
+     * @param method HTTP method of the request
+     * @param path request path, without query string
+     * @return the matched route or <code>null</code>, if no endpoint is registered for that method and path
+     */
+    public RouteMatch<T> match(HttpMethod method, String path) {
+        Map<HttpMethod, Route<T>> endpoints = staticRoutes.get(path);
+        if (endpoints != null) {
+            Route<T> route = endpoints.get(method);
+            if (route != null) {
+                return new RouteMatch<T>(route, null);
+            }
+        }
+        if (!path.startsWith("/")) {
+            return null;
+        }
+        Node<T> node = root;
+        Map<String, String> params = null;
+        int start = 1;
+        while (node != null && start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            String segment = path.substring(start, end);
+            Node<T> next = node.children.get(segment);
+            if (next == null && node.paramChild != null && node.paramChild.accepts(segment)) {
+                next = node.paramChild;
+                if (params == null) {
+                    params = new HashMap<String, String>(4);
+                }
+                params.put(next.paramName, segment);
+            }
+            node = next;
+            start = end + 1;
+        }
+        if (node == null) {
+            return null;
+        }
+        Route<T> route = node.endpoints.get(method);
+        return (route != null) ? new RouteMatch<T>(route, params) : null;
+    }
+
+    /**
+     * Returns the path of a request URI without parsing it as {@link java.net.URI}.
+     *
+     * @param uri request URI, could be absolute and could contain query string
+     * @return the raw path
+     */
+    public static String getPath(String uri) {
+        int start = 0;
+        if (!uri.startsWith("/")) {
+            int schemeEnd = uri.indexOf("://");
+            if (schemeEnd >= 0) {
+                start = uri.indexOf('/', schemeEnd + 3);
+                if (start < 0) {
+                    return "/";
+                }
+            }
+        }
+        int end = uri.indexOf('?', start);
+        if (end < 0) {
+            end = uri.indexOf('#', start);
+        }
+        if (start == 0 && end < 0) {
+            return uri;
+        }
+        return uri.substring(start, (end < 0) ? uri.length() : end);
+    }
+
+    private static final class Node<T> {
+        private final Map<String, Node<T>> children = new ConcurrentHashMap<String, Node<T>>();
+        private final Map<HttpMethod, Route<T>> endpoints = new ConcurrentHashMap<HttpMethod, Route<T>>();
+        private final String paramName;
+        private final Pattern paramPattern;
+        private volatile Node<T> paramChild;
+
+        private Node(String paramName, Pattern paramPattern) {
+            this.paramName = paramName;
+            this.paramPattern = paramPattern;
+        }
+
+        private Node<T> getChild(String segment) {
+            Node<T> child = children.get(segment);
+            if (child == null) {
+                child = new Node<T>(null, null);
+                children.put(segment, child);
+            }
+            return child;
+        }
+
+        private Node<T> getParamChild(String param) {
+            int idx = param.indexOf(':');
+            String name = (idx > 0) ? param.substring(0, idx) : param;
+            String regex = (idx > 0) ? param.substring(idx + 1) : null;
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("path parameter name is missing");
+            }
+            if (paramChild == null) {
+                paramChild = new Node<T>(name, (regex != null) ? Pattern.compile(regex) : null);
+            } else if (!paramChild.paramName.equals(name) || !String.valueOf(paramChild.paramPattern).equals(String.valueOf(regex))) {
+                throw new IllegalArgumentException("path parameter {" + param + "} conflicts with {" + paramChild.paramName
+                        + "}");
+            }
+            return paramChild;
+        }
+
+        private boolean accepts(String segment) {
+            return !segment.isEmpty() && (paramPattern == null || paramPattern.matcher(segment).matches());
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory registry of all scopes. Scopes are read from an immutable snapshot of the scopes in the DB,
+ * so resolving the scopes of a token request does not hit the DB. The snapshot is loaded again and swapped
+ * when a scope is stored or deleted on any node and, optionally, periodically by a background thread.
+ */
+public class ScopeRegistry implements MetricsSource {
+
+    // time in sec between two periodic reloads
+    public static final int DEFAULT_RELOAD_INTERVAL = 300;
+
+    protected static Logger log = LoggerFactory.getLogger(ScopeRegistry.class);
+
+    private final DBManager db;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>();
+    // incremented on each change, so a reload started before a change cannot replace a newer snapshot
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong reloadFailures = new AtomicLong();
+    private final Thread reloadThread;
+    private volatile boolean running = true;
+
+    /**
+     * Creates scope registry. The scopes are loaded when first needed.
+     *
+     * @param db the DBManager the scopes are loaded from
+     * @param reloadInterval time in sec between two periodic reloads, 0 means reload on changes only
+     */
+    public ScopeRegistry(DBManager db, int reloadInterval) {
+        this.db = db;
+        if (reloadInterval > 0) {
+            final long interval = reloadInterval * 1000L;
+            reloadThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    reloadLoop(interval);
+                }
+            }, "scope-registry-reload");
+            reloadThread.setDaemon(true);
+            reloadThread.start();
+        } else {
+            reloadThread = null;
+        }
+    }
+
+    /**
+     * Returns the scope with that name.
+     *
+     * @param scopeName the scope name
+     * @return the scope or <code>null</code>, if no such scope exists
+     */
+    public Scope find(String scopeName) {
+        return getSnapshot().scopes.get(scopeName);
+    }
+
+    /**
+     * Returns all scopes. The returned list cannot be modified.
+     */
+    public List<Scope> getAll() {
+        return getSnapshot().all;
+    }
+
+    /**
+     * Loads all scopes from the DB and swaps the snapshot. If the DB cannot be read,
+     * the current snapshot is kept.
+     */
+    public void reload() {
+        long gen = generation.incrementAndGet();
+        Snapshot loaded;
+        try {
+            loaded = new Snapshot(db.getAllScopes(), gen);
+        } catch (RuntimeException e) {
+            reloadFailures.incrementAndGet();
+            if (snapshot.get() == null) {
+                throw e;
+            }
+            log.error("cannot reload scopes, the previous scopes are used", e);
+            return;
+        }
+        while (true) {
+            Snapshot current = snapshot.get();
+            if (current != null && current.generation > gen) {
+                return;
+            }
+            if (snapshot.compareAndSet(current, loaded)) {
+                reloads.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        if (reloadThread != null) {
+            reloadThread.interrupt();
+        }
+    }
+
+    public int size() {
+        Snapshot current = snapshot.get();
+        return (current != null) ? current.all.size() : 0;
+    }
+
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    public long getReloadFailures() {
+        return reloadFailures.get();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Snapshot current = snapshot.get();
+        Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+        metrics.put("size", size());
+        metrics.put("reloads", getReloads());
+        metrics.put("reload_failures", getReloadFailures());
+        metrics.put("age_ms", (current != null) ? System.currentTimeMillis() - current.loadedAt : 0);
+        return metrics;
+    }
+
+    protected Snapshot getSnapshot() {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            reload();
+            current = snapshot.get();
+        }
+        return current;
+    }
+
+    protected void reloadLoop(long interval) {
+        while (running) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                log.error("cannot load scopes", e);
+            }
+        }
+    }
+
+    protected static final class Snapshot {
+        private final Map<String, Scope> scopes;
+        private final List<Scope> all;
+        private final long generation;
+        private final long loadedAt = System.currentTimeMillis();
+
+        Snapshot(List<Scope> scopes, long generation) {
+            Map<String, Scope> byName = new HashMap<String, Scope>();
+            List<Scope> list = new ArrayList<Scope>();
+            if (scopes != null) {
+                for (Scope scope : scopes) {
+                    if (scope != null && scope.getScope() != null) {
+                        byName.put(scope.getScope(), scope);
+                        list.add(scope);
+                    }
+                }
+            }
+            this.scopes = Collections.unmodifiableMap(byName);
+            this.all = Collections.unmodifiableList(list);
+            this.generation = generation;
+        }
+    }
+}
@@ -22,7 +22,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
-import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -57,6 +56,10 @@ public class ScopeService {
     protected static final String SCOPE_USED_BY_APP_MESSAGE = "{\"status\":\"scope cannot be deleted, there are client apps registered with it\"}";
     private static final String SPACE = " ";
 
+    static {
+        Response.preEncodeMessages(ScopeService.class);
+    }
+
     /**
      * Register an oauth scope. If the scope already exists, returns an error.
      *
@@ -69,7 +72,7 @@ public class ScopeService {
         String responseMsg = "";
         // check Content-Type
         if (contentType != null && contentType.contains(Response.APPLICATION_JSON)) {
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = JSONSerializer.getMapper();
             try {
                 Scope scope = mapper.readValue(content, Scope.class);
                 if (scope.valid()) {
@@ -124,16 +127,9 @@ public class ScopeService {
             return getScopes(queryParams.get("client_id").get(0));
         }
         List<Scope> scopes = DBManagerFactory.getInstance().getAllScopes();
-        ObjectMapper mapper = new ObjectMapper();
         String jsonString;
         try {
-            jsonString = mapper.writeValueAsString(scopes);
-        } catch (JsonGenerationException e) {
-            log.error("cannot load scopes", e);
-            throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
-        } catch (JsonMappingException e) {
-            log.error("cannot load scopes", e);
-            throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
+            jsonString = JSONSerializer.toJsonString(scopes);
         } catch (IOException e) {
             log.error("cannot load scopes", e);
             throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
@@ -240,7 +236,7 @@ public class ScopeService {
         String responseMsg = "";
         // check Content-Type
         if (contentType != null && contentType.contains(Response.APPLICATION_JSON)) {
-            ObjectMapper mapper = new ObjectMapper();
+            ObjectMapper mapper = JSONSerializer.getMapper();
             try {
                 Scope scope = mapper.readValue(content, Scope.class);
                 if (scope.validForUpdate()) {
@@ -310,15 +306,8 @@ public class ScopeService {
         String jsonString = null;
         Scope scope = DBManagerFactory.getInstance().findScope(scopeName);
         if (scope != null) {
-            ObjectMapper mapper = new ObjectMapper();
             try {
-                jsonString = mapper.writeValueAsString(scope);
-            } catch (JsonGenerationException e) {
-                log.error("cannot load scopes", e);
-                throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
-            } catch (JsonMappingException e) {
-                log.error("cannot load scopes", e);
-                throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
+                jsonString = JSONSerializer.toJsonString(scope);
             } catch (IOException e) {
                 log.error("cannot load scopes", e);
                 throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
@@ -381,15 +370,8 @@ public class ScopeService {
                 result.add(scope);
             }
 
-            ObjectMapper mapper = new ObjectMapper();
             try {
-                jsonString = mapper.writeValueAsString(result);
-            } catch (JsonGenerationException e) {
-                log.error("cannot load scopes per clientId", e);
-                throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
-            } catch (JsonMappingException e) {
-                log.error("cannot load scopes per clientId", e);
-                throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
+                jsonString = JSONSerializer.toJsonString(result);
             } catch (IOException e) {
                 log.error("cannot load scopes per clientId", e);
                 throw new OAuthException(e, null, HttpResponseStatus.BAD_REQUEST);
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+
+/**
+ * Creates the pipeline of each accepted connection. When an {@link ExecutionHandler} is set, requests are handled
+ * in its thread pool, so blocking DB and custom handler calls do not block the I/O worker threads.
+ * When an {@link AdmissionController} is set, requests over its limits are rejected before that pool.
+ * Responses are written in the order of the requests of the connection by its {@link ResponseSequencer}.
+ */
+public class ServerPipelineFactory implements ChannelPipelineFactory {
+
+    protected static final int MAX_CONTENT_LENGTH = 4096;
+
+    private final ExecutionHandler executionHandler;
+    private final AdmissionController admissionController;
+
+    /**
+     * Creates pipeline factory.
+     *
+     * @param executionHandler shared execution handler, <code>null</code> if requests are handled in the I/O threads
+     * @param admissionController admission controller, <code>null</code> if requests are not limited
+     */
+    public ServerPipelineFactory(ExecutionHandler executionHandler, AdmissionController admissionController) {
+        this.executionHandler = executionHandler;
+        this.admissionController = admissionController;
+    }
+
+    @Override
+    public ChannelPipeline getPipeline() {
+        ChannelPipeline pipeline = Channels.pipeline();
+        pipeline.addLast("decoder", new HttpRequestDecoder());
+        pipeline.addLast("aggregator", new HttpChunkAggregator(MAX_CONTENT_LENGTH));
+        pipeline.addLast("encoder", new HttpResponseEncoder());
+        ResponseSequencer sequencer = new ResponseSequencer();
+        pipeline.addLast("sequencer", sequencer);
+        if (admissionController != null) {
+            pipeline.addLast("admission", new AdmissionHandler(admissionController, sequencer));
+        }
+        if (executionHandler != null) {
+            pipeline.addLast("execution", executionHandler);
+        }
+        pipeline.addLast("handler", new HttpRequestHandler(sequencer));
+        return pipeline;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Exposes the state of a thread pool as metrics.
+ */
+public class ThreadPoolMetrics implements MetricsSource {
+
+    private final ThreadPoolExecutor executor;
+
+    public ThreadPoolMetrics(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+        metrics.put("active_threads", executor.getActiveCount());
+        metrics.put("pool_size", executor.getPoolSize());
+        metrics.put("largest_pool_size", executor.getLargestPoolSize());
+        metrics.put("queue_size", executor.getQueue().size());
+        metrics.put("completed_tasks", executor.getCompletedTaskCount());
+        return metrics;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.security.SecureRandom;
+
+/**
+ * Generates access tokens, refresh tokens, authorization codes and client credentials from the raw bytes of
+ * a per-thread {@link SecureRandom}. The tokens have fixed length, each of them carries the full entropy of
+ * its random bytes. The number of bytes and the encoding of each token kind are set in the properties file.
+ * If the {@link TokenPool} is enabled, tokens are taken from it and generated inline only when it is empty.
+ */
+public final class TokenGenerator {
+
+    public static final String ENCODING_BASE64URL = "base64url";
+    public static final String ENCODING_HEX = "hex";
+
+    // 256 bits, encoded to 43 base64url chars
+    public static final int DEFAULT_TOKEN_BYTES = 32;
+
+    // tokens shorter than 128 bits are not accepted
+    public static final int MIN_TOKEN_BYTES = 16;
+
+    // client_id is always hex, as the application routes match it with [a-f0-9]+
+    public static final int CLIENT_ID_BYTES = 20;
+
+    private static final char[] BASE64URL_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    // SecureRandom is thread-safe, but synchronized, so each thread uses its own instance
+    private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+
+    private TokenGenerator() {
+    }
+
+    /**
+     * Kinds of generated tokens.
+     */
+    public enum Kind {
+        ACCESS_TOKEN, REFRESH_TOKEN, AUTH_CODE, CLIENT_ID, CLIENT_SECRET
+    }
+
+    public static String generateAccessToken() {
+        return next(Kind.ACCESS_TOKEN);
+    }
+
+    public static String generateRefreshToken() {
+        return next(Kind.REFRESH_TOKEN);
+    }
+
+    public static String generateAuthCode() {
+        return next(Kind.AUTH_CODE);
+    }
+
+    public static String generateClientSecret() {
+        return next(Kind.CLIENT_SECRET);
+    }
+
+    public static String generateClientId() {
+        return next(Kind.CLIENT_ID);
+    }
+
+    // takes a pre-generated token, if the token pool is enabled and not empty
+    private static String next(Kind kind) {
+        TokenPool pool = TokenPool.getInstance();
+        if (pool != null) {
+            String token = pool.take(kind);
+            if (token != null) {
+                return token;
+            }
+        }
+        return generate(kind);
+    }
+
+    /**
+     * Generates a new token of a kind with the length and encoding set for that kind.
+     *
+     * @param kind the token kind
+     * @return the encoded random bytes
+     */
+    public static String generate(Kind kind) {
+        switch (kind) {
+        case ACCESS_TOKEN:
+            return generate(OAuthServer.getAccessTokenBytes(), OAuthServer.getAccessTokenEncoding());
+        case REFRESH_TOKEN:
+            return generate(OAuthServer.getRefreshTokenBytes(), OAuthServer.getRefreshTokenEncoding());
+        case AUTH_CODE:
+            return generate(OAuthServer.getAuthCodeBytes(), OAuthServer.getAuthCodeEncoding());
+        case CLIENT_SECRET:
+            return generate(OAuthServer.getClientSecretBytes(), OAuthServer.getClientSecretEncoding());
+        default:
+            return generate(CLIENT_ID_BYTES, ENCODING_HEX);
+        }
+    }
+
+    /**
+     * Generates a random token.
+     *
+     * @param bytes number of random bytes
+     * @param encoding {@value #ENCODING_BASE64URL} (without padding) or {@value #ENCODING_HEX}
+     * @return the encoded random bytes
+     */
+    public static String generate(int bytes, String encoding) {
+        byte[] random = new byte[bytes];
+        RANDOM.get().nextBytes(random);
+        if (ENCODING_HEX.equalsIgnoreCase(encoding)) {
+            return encodeHex(random);
+        }
+        return encodeBase64Url(random);
+    }
+
+    public static boolean isValidEncoding(String encoding) {
+        return ENCODING_BASE64URL.equalsIgnoreCase(encoding) || ENCODING_HEX.equalsIgnoreCase(encoding);
+    }
+
+    /**
+     * Returns the {@link SecureRandom} of the current thread.
+     */
+    static SecureRandom getRandom() {
+        return RANDOM.get();
+    }
+
+    static String encodeHex(byte[] data) {
+        int length = data.length;
+        char[] chars = new char[length * 2];
+        for (int i = 0, j = 0; i < length; i++) {
+            chars[j++] = HEX_CHARS[(data[i] >> 4) & 0x0f];
+            chars[j++] = HEX_CHARS[data[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    static String encodeBase64Url(byte[] data) {
+        int length = data.length;
+        char[] chars = new char[(length * 4 + 2) / 3];
+        int i = 0;
+        int j = 0;
+        for (; i + 2 < length; i += 3) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            chars[j++] = BASE64URL_CHARS[bits >>> 18];
+            chars[j++] = BASE64URL_CHARS[(bits >>> 12) & 0x3f];
+            chars[j++] = BASE64URL_CHARS[(bits >>> 6) & 0x3f];
+            chars[j++] = BASE64URL_CHARS[bits & 0x3f];
+        }
+        int remaining = length - i;
+        if (remaining > 0) {
+            int bits = (data[i] & 0xff) << 16 | ((remaining == 2) ? (data[i + 1] & 0xff) << 8 : 0);
+            chars[j++] = BASE64URL_CHARS[bits >>> 18];
+            chars[j++] = BASE64URL_CHARS[(bits >>> 12) & 0x3f];
+            if (remaining == 2) {
+                chars[j++] = BASE64URL_CHARS[(bits >>> 6) & 0x3f];
+            }
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of pre-generated tokens, so the random bytes of the tokens are not generated while a token request
+ * is handled. Each token kind has a lock-free ring buffer, filled by a background thread. The thread refills
+ * the buffers periodically and as soon as a buffer drops below half of its size. When a buffer is empty,
+ * the token is generated inline and that is counted as starvation.
+ */
+public class TokenPool implements MetricsSource {
+
+    // time in millis between two refills, if no buffer drops below half of its size
+    public static final int DEFAULT_REFILL_INTERVAL = 100;
+
+    protected static Logger log = LoggerFactory.getLogger(TokenPool.class);
+
+    private static volatile TokenPool instance;
+    private static volatile boolean initialized;
+
+    private final Ring[] rings;
+    private final AtomicLong[] taken;
+    private final AtomicLong[] starved;
+    private final AtomicLong[] refilled;
+    private final long refillInterval;
+    private final Thread refillThread;
+    private volatile boolean running = true;
+    private volatile long refillRate;
+
+    /**
+     * Creates token pool and starts its refill thread.
+     *
+     * @param size number of pre-generated tokens of each kind, rounded up to a power of two
+     * @param refillInterval time in millis between two refills
+     */
+    public TokenPool(int size, int refillInterval) {
+        TokenGenerator.Kind[] kinds = TokenGenerator.Kind.values();
+        rings = new Ring[kinds.length];
+        taken = new AtomicLong[kinds.length];
+        starved = new AtomicLong[kinds.length];
+        refilled = new AtomicLong[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            rings[i] = new Ring(size);
+            taken[i] = new AtomicLong();
+            starved[i] = new AtomicLong();
+            refilled[i] = new AtomicLong();
+        }
+        this.refillInterval = refillInterval * 1000000L;
+        refillThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                refillLoop();
+            }
+        }, "token-pool-refill");
+        refillThread.setDaemon(true);
+        refillThread.start();
+    }
+
+    /**
+     * Returns the token pool configured for that ApiFest OAuth20 node.
+     *
+     * @return token pool or <code>null</code>, if tokens are generated inline
+     */
+    public static TokenPool getInstance() {
+        // called for each generated token, so the lock is taken only once
+        if (initialized) {
+            return instance;
+        }
+        synchronized (TokenPool.class) {
+            if (!initialized) {
+                if (OAuthServer.getTokenPoolSize() > 0) {
+                    instance = new TokenPool(OAuthServer.getTokenPoolSize(),
+                            Math.max(1, OAuthServer.getTokenPoolRefillInterval()));
+                    Metrics.register("token_pool", instance);
+                }
+                initialized = true;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Takes a pre-generated token.
+     *
+     * @param kind the token kind
+     * @return the token or <code>null</code>, if no pre-generated tokens of that kind are left
+     */
+    public String take(TokenGenerator.Kind kind) {
+        int idx = kind.ordinal();
+        Ring ring = rings[idx];
+        String token = ring.poll();
+        if (token == null) {
+            starved[idx].incrementAndGet();
+            LockSupport.unpark(refillThread);
+            return null;
+        }
+        taken[idx].incrementAndGet();
+        if (ring.size() < ring.capacity() / 2) {
+            LockSupport.unpark(refillThread);
+        }
+        return token;
+    }
+
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(refillThread);
+    }
+
+    protected void refillLoop() {
+        TokenGenerator.Kind[] kinds = TokenGenerator.Kind.values();
+        while (running) {
+            long start = System.nanoTime();
+            long count = 0;
+            try {
+                for (int i = 0; i < kinds.length && running; i++) {
+                    count += refill(kinds[i], i);
+                }
+            } catch (RuntimeException e) {
+                log.error("cannot generate tokens", e);
+            }
+            if (count > 0) {
+                refillRate = count * 1000000000L / Math.max(1, System.nanoTime() - start);
+            }
+            // woken up earlier by take, when a buffer drops below half of its size
+            LockSupport.parkNanos(this, refillInterval);
+        }
+    }
+
+    private long refill(TokenGenerator.Kind kind, int idx) {
+        Ring ring = rings[idx];
+        long count = 0;
+        while (running && ring.size() < ring.capacity()) {
+            if (!ring.offer(TokenGenerator.generate(kind))) {
+                break;
+            }
+            count++;
+        }
+        refilled[idx].addAndGet(count);
+        return count;
+    }
+
+    public int getAvailable(TokenGenerator.Kind kind) {
+        return rings[kind.ordinal()].size();
+    }
+
+    public long getStarved(TokenGenerator.Kind kind) {
+        return starved[kind.ordinal()].get();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new HashMap<String, Number>();
+        for (TokenGenerator.Kind kind : TokenGenerator.Kind.values()) {
+            String prefix = kind.name().toLowerCase() + "_";
+            int idx = kind.ordinal();
+            metrics.put(prefix + "available", rings[idx].size());
+            metrics.put(prefix + "taken", taken[idx].get());
+            metrics.put(prefix + "starved", starved[idx].get());
+            metrics.put(prefix + "refilled", refilled[idx].get());
+        }
+        // tokens per second generated by the last refill
+        metrics.put("refill_rate", refillRate);
+        return metrics;
+    }
+
+    /**
+     * Bounded lock-free multi-producer multi-consumer ring buffer. Each slot has a sequence number that tells
+     * whether the slot is free for the producer or filled for the consumer of a given position.
+     */
+    static final class Ring {
+        private final AtomicReferenceArray<String> items;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        Ring(int size) {
+            int capacity = Integer.highestOneBit(Math.max(2, size) - 1) << 1;
+            items = new AtomicReferenceArray<String>(capacity);
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+            mask = capacity - 1;
+        }
+
+        boolean offer(String item) {
+            long pos = tail.get();
+            while (true) {
+                int idx = (int) (pos & mask);
+                long diff = sequences.get(idx) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        items.set(idx, item);
+                        sequences.set(idx, pos + 1);
+                        return true;
+                    }
+                } else if (diff < 0) {
+                    // full
+                    return false;
+                }
+                pos = tail.get();
+            }
+        }
+
+        String poll() {
+            long pos = head.get();
+            while (true) {
+                int idx = (int) (pos & mask);
+                long diff = sequences.get(idx) - (pos + 1);
+                if (diff == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        String item = items.get(idx);
+                        items.set(idx, null);
+                        sequences.set(idx, pos + mask + 1);
+                        return item;
+                    }
+                } else if (diff < 0) {
+                    // empty
+                    return null;
+                }
+                pos = head.get();
+            }
+        }
+
+        int size() {
+            long size = tail.get() - head.get();
+            return (int) Math.max(0, Math.min(size, mask + 1));
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+}
@@ -16,16 +16,8 @@
 
 package com.apifest.oauth20;
 
-import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
-import org.jboss.netty.util.CharsetUtil;
 
 /**
  * Represents token request.
@@ -59,29 +51,33 @@ public class TokenRequest {
 
     private String userId;
 
-    public TokenRequest(HttpRequest request) {
-        String content = request.getContent().toString(CharsetUtil.UTF_8);
-        List<NameValuePair> values = URLEncodedUtils.parse(content, Charset.forName("UTF-8"));
-        Map<String, String> params = new HashMap<String, String>();
-        for (NameValuePair pair : values) {
-            params.put(pair.getName(), pair.getValue());
-        }
-        this.grantType = params.get(GRANT_TYPE);
-        this.code = params.get(CODE);
-        this.redirectUri = params.get(REDIRECT_URI);
-        this.clientId = params.get(CLIENT_ID);
-        this.clientSecret = params.get(CLIENT_SECRET);
-        this.refreshToken = params.get(REFRESH_TOKEN);
-        this.scope = params.get(SCOPE);
-        this.username = params.get(USERNAME);
-        this.password = params.get(PASSWORD);
+    private static final String[] PARAMS = { GRANT_TYPE, CODE, REDIRECT_URI, CLIENT_ID, CLIENT_SECRET, REFRESH_TOKEN,
+            SCOPE, USERNAME, PASSWORD };
+
+    /**
+     * Creates token request from the form content of the request.
+     *
+     * @param request the token request
+     * @throws OAuthException if the content is too large or malformed, or a parameter is repeated
+     */
+    public TokenRequest(HttpRequest request) throws OAuthException {
+        String[] params = RequestParser.parseForm(request.getContent(), PARAMS);
+        this.grantType = params[0];
+        this.code = params[1];
+        this.redirectUri = params[2];
+        this.clientId = params[3];
+        this.clientSecret = params[4];
+        this.refreshToken = params[5];
+        this.scope = params[6];
+        this.username = params[7];
+        this.password = params[8];
     }
 
     public void validate() throws OAuthException {
         checkMandatoryParams();
         if (!grantType.equals(AUTHORIZATION_CODE) && !grantType.equals(REFRESH_TOKEN)
                 && !grantType.equals(CLIENT_CREDENTIALS) && !grantType.equals(PASSWORD)
-                && !grantType.equals(OAuthServer.getCustomGrantType())) {
+                && !OAuthServer.isCustomGrantType(grantType)) {
             throw new OAuthException(Response.GRANT_TYPE_NOT_SUPPORTED,
                     HttpResponseStatus.BAD_REQUEST);
         }
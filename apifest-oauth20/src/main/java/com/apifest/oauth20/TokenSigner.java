@@ -0,0 +1,334 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues and verifies self-contained access tokens. Such a token carries the client id, user id, scope,
+ * details and expiration of the access token and is signed with HMAC-SHA256, so it could be verified
+ * without a DB lookup. The token format is:
+ * <pre>
+ * v1.[key_id].[base64url(JSON payload)].[base64url(signature)]
+ * </pre>
+ * The signature is calculated over the first three parts. Tokens are always signed with the current key,
+ * while all configured keys are used for verification, so keys could be rotated without invalidating
+ * the already issued tokens.
+ * Revoked tokens are stored in the DB until they expire and loaded on startup. Without an invalidation bus
+ * (MongoDB), a token not revoked locally is also checked in the DB, as the other nodes are not notified.
+ */
+public class TokenSigner implements InvalidationListener {
+
+    public static final String FORMAT_OPAQUE = "opaque";
+    public static final String FORMAT_SIGNED = "signed";
+
+    protected static final String VERSION = "v1";
+    private static final String PREFIX = VERSION + ".";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // recommended min length of a signing key
+    private static final int MIN_KEY_LENGTH = 32;
+
+    private static final String TOKEN_ID = "jti";
+    private static final String CLIENT_ID = "cid";
+    private static final String USER_ID = "uid";
+    private static final String SCOPE = "scp";
+    private static final String TYPE = "typ";
+    private static final String CREATED = "iat";
+    // absolute expiration time in seconds since the epoch, as the JWT exp claim
+    private static final String EXPIRES = "exp";
+    private static final String DETAILS = "det";
+
+    protected static Logger log = LoggerFactory.getLogger(TokenSigner.class);
+
+    private static volatile TokenSigner instance;
+    private static volatile boolean initialized;
+
+    private final Map<String, SigningKey> keys = new HashMap<String, SigningKey>();
+    private final SigningKey currentKey;
+    private final RevokedTokens revokedTokens = new RevokedTokens();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private volatile InvalidationBus invalidationBus;
+    private volatile DBManager revocationStore;
+
+    /**
+     * Creates token signer.
+     *
+     * @param keys signing keys by key id
+     * @param currentKeyId id of the key used for signing of new tokens
+     */
+    public TokenSigner(Map<String, String> keys, String currentKeyId) {
+        for (Map.Entry<String, String> entry : keys.entrySet()) {
+            this.keys.put(entry.getKey(), new SigningKey(entry.getKey(), entry.getValue()));
+        }
+        this.currentKey = this.keys.get(currentKeyId);
+        if (currentKey == null) {
+            throw new IllegalArgumentException("no signing key with id " + currentKeyId);
+        }
+    }
+
+    /**
+     * Returns the token signer configured for that ApiFest OAuth20 node.
+     *
+     * @return token signer or <code>null</code>, if access tokens are not signed
+     */
+    public static synchronized TokenSigner getInstance() {
+        if (!initialized) {
+            if (FORMAT_SIGNED.equalsIgnoreCase(OAuthServer.getAccessTokenFormat())) {
+                Map<String, String> keys = parseKeys(OAuthServer.getSigningKeys());
+                String keyId = OAuthServer.getSigningKeyId();
+                if (keyId == null || keyId.isEmpty()) {
+                    keyId = keys.keySet().iterator().next();
+                }
+                instance = new TokenSigner(keys, keyId);
+            }
+            initialized = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Parses signing keys in format key_id1:secret1,key_id2:secret2.
+     *
+     * @param value signing keys
+     * @return {@link Map} of secrets by key id
+     * @throws IllegalArgumentException if no keys set or a key is not in the correct format
+     */
+    public static Map<String, String> parseKeys(String value) {
+        Map<String, String> keys = new LinkedHashMap<String, String>();
+        if (value != null) {
+            for (String key : value.split(",")) {
+                int idx = key.indexOf(':');
+                if (idx <= 0 || idx == key.length() - 1) {
+                    throw new IllegalArgumentException("signing key must be in format key_id:secret");
+                }
+                String keyId = key.substring(0, idx).trim();
+                if (keyId.indexOf('.') >= 0) {
+                    throw new IllegalArgumentException("signing key id must not contain '.'");
+                }
+                String secret = key.substring(idx + 1).trim();
+                if (secret.length() < MIN_KEY_LENGTH) {
+                    log.warn("signing key {} is shorter than {} chars", keyId, MIN_KEY_LENGTH);
+                }
+                keys.put(keyId, secret);
+            }
+        }
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("no signing keys set");
+        }
+        return keys;
+    }
+
+    public static boolean isSignedToken(String token) {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    /**
+     * Creates a signed token that contains the access token details.
+     *
+     * @param accessToken the access token
+     * @return signed token
+     */
+    public String sign(AccessToken accessToken) {
+        Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put(TOKEN_ID, TokenGenerator.generate(TokenGenerator.MIN_TOKEN_BYTES, TokenGenerator.ENCODING_BASE64URL));
+        payload.put(CLIENT_ID, accessToken.getClientId());
+        payload.put(USER_ID, accessToken.getUserId());
+        payload.put(SCOPE, accessToken.getScope());
+        payload.put(TYPE, accessToken.getType());
+        payload.put(CREATED, accessToken.getCreated());
+        // rounded up, so the token does not expire earlier than the access token
+        payload.put(EXPIRES, (accessToken.getExpiresAt() + 999) / 1000);
+        if (accessToken.getDetails() != null && !accessToken.getDetails().isEmpty()) {
+            payload.put(DETAILS, accessToken.getDetails());
+        }
+        String content;
+        try {
+            content = PREFIX + currentKey.id + "." + Base64.encodeBase64URLSafeString(mapper.writeValueAsBytes(payload));
+        } catch (IOException e) {
+            // should not happen as the payload is serialized in memory
+            throw new IllegalStateException("cannot serialize access token", e);
+        }
+        return content + "." + Base64.encodeBase64URLSafeString(currentKey.sign(content));
+    }
+
+    /**
+     * Verifies the signature of a token and loads the access token from its payload.
+     * The expiration and the revocation of the token are not checked.
+     *
+     * @param token signed token
+     * @return the access token or <code>null</code>, if the token is not correctly signed
+     */
+    @SuppressWarnings("unchecked")
+    public AccessToken parse(String token) {
+        if (!isSignedToken(token)) {
+            return null;
+        }
+        int keyEnd = token.indexOf('.', PREFIX.length());
+        int payloadEnd = (keyEnd > 0) ? token.indexOf('.', keyEnd + 1) : -1;
+        if (payloadEnd < 0 || token.indexOf('.', payloadEnd + 1) >= 0) {
+            return null;
+        }
+        SigningKey key = keys.get(token.substring(PREFIX.length(), keyEnd));
+        if (key == null) {
+            log.debug("unknown signing key for token {}", token);
+            return null;
+        }
+        byte[] signature = Base64.decodeBase64(token.substring(payloadEnd + 1));
+        if (!MessageDigest.isEqual(signature, key.sign(token.substring(0, payloadEnd)))) {
+            log.debug("invalid signature of token {}", token);
+            return null;
+        }
+        try {
+            Map<String, Object> payload = mapper.readValue(Base64.decodeBase64(token.substring(keyEnd + 1, payloadEnd)),
+                    Map.class);
+            AccessToken accessToken = new AccessToken();
+            accessToken.setToken(token);
+            accessToken.setClientId((String) payload.get(CLIENT_ID));
+            accessToken.setUserId((String) payload.get(USER_ID));
+            accessToken.setScope((String) payload.get(SCOPE));
+            accessToken.setType((String) payload.get(TYPE));
+            long created = ((Number) payload.get(CREATED)).longValue();
+            accessToken.setCreated(created);
+            Object expires = payload.get(EXPIRES);
+            if (expires instanceof Number) {
+                long expiresAt = ((Number) expires).longValue() * 1000;
+                accessToken.setExpiresIn(String.valueOf(Math.max(0, (expiresAt - created) / 1000)));
+                accessToken.setExpiresAt(expiresAt);
+            } else {
+                // tokens signed by older versions carry the relative expires_in
+                accessToken.setExpiresIn((String) expires);
+            }
+            accessToken.setDetails((Map<String, String>) payload.get(DETAILS));
+            accessToken.setValid(true);
+            return accessToken;
+        } catch (IOException e) {
+            log.error("cannot parse payload of signed token {}", token);
+        } catch (RuntimeException e) {
+            log.error("cannot parse payload of signed token {}", token);
+        }
+        return null;
+    }
+
+    /**
+     * Revokes a signed token. The token is kept in the revocation set and in the DB until it expires.
+     * The revocation is published to the other nodes through the invalidation bus, if any.
+     *
+     * @param accessToken the access token
+     */
+    public void revoke(AccessToken accessToken) {
+        long expiresAt = (accessToken.getExpiresAt() > 0) ? accessToken.getExpiresAt() : Long.MAX_VALUE;
+        String tokenId = getTokenId(accessToken.getToken());
+        revokedTokens.revoke(tokenId, expiresAt);
+        DBManager store = revocationStore;
+        if (store != null) {
+            store.storeRevokedToken(tokenId, expiresAt);
+        }
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(InvalidationEvent.Type.REVOKED_TOKEN, tokenId, expiresAt);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.InvalidationListener#onInvalidation(com.apifest.oauth20.InvalidationEvent)
+     */
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        if (event.getType() == InvalidationEvent.Type.REVOKED_TOKEN) {
+            revokedTokens.revoke(event.getKey(), event.getExpiresAt());
+        }
+    }
+
+    public void setInvalidationBus(InvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+        invalidationBus.addListener(this);
+    }
+
+    /**
+     * Sets the DB the revocations are stored in and loads the tokens revoked before that node was started.
+     *
+     * @param revocationStore the DB
+     */
+    public void setRevocationStore(DBManager revocationStore) {
+        for (Map.Entry<String, Long> entry : revocationStore.getRevokedTokens().entrySet()) {
+            revokedTokens.revoke(entry.getKey(), entry.getValue());
+        }
+        this.revocationStore = revocationStore;
+    }
+
+    public boolean isRevoked(String token) {
+        String tokenId = getTokenId(token);
+        if (revokedTokens.isRevoked(tokenId)) {
+            return true;
+        }
+        // without invalidation bus, tokens revoked on the other nodes are known only to the DB
+        DBManager store = revocationStore;
+        return invalidationBus == null && store != null && store.isRevokedToken(tokenId);
+    }
+
+    public RevokedTokens getRevokedTokens() {
+        return revokedTokens;
+    }
+
+    // the signature is unique per token and is much shorter than the token itself
+    protected static String getTokenId(String token) {
+        return token.substring(token.lastIndexOf('.') + 1);
+    }
+
+    private static final class SigningKey {
+        private final String id;
+        private final SecretKeySpec secret;
+        // Mac instances are not thread-safe
+        private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac m = Mac.getInstance(HMAC_SHA256);
+                    m.init(secret);
+                    return m;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("cannot initialize " + HMAC_SHA256, e);
+                }
+            }
+        };
+
+        private SigningKey(String id, String secret) {
+            this.id = id;
+            this.secret = new SecretKeySpec(secret.getBytes(UTF8), HMAC_SHA256);
+        }
+
+        private byte[] sign(String content) {
+            return mac.get().doFinal(content.getBytes(UTF8));
+        }
+    }
+}
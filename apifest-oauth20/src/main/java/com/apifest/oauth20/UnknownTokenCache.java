@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+/**
+ * Short-lived local cache of access tokens not found in the DB.
+ * Repeated validations of unknown or garbage tokens are answered without a DB lookup.
+ */
+public class UnknownTokenCache extends BoundedCache<String, Boolean> {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    // tokens longer than that are not cached, so garbage tokens cannot fill the cache
+    protected static final int MAX_TOKEN_LENGTH = 512;
+
+    private final long ttl;
+
+    /**
+     * Creates unknown token cache.
+     *
+     * @param maxEntries maximum number of cached tokens
+     * @param ttl time in seconds a token is kept in the cache
+     */
+    public UnknownTokenCache(int maxEntries, int ttl) {
+        super(maxEntries, 0);
+        this.ttl = ttl * 1000L;
+    }
+
+    public boolean contains(String token) {
+        return get(token) != null;
+    }
+
+    public void put(String token) {
+        if (token == null || token.length() > MAX_TOKEN_LENGTH) {
+            return;
+        }
+        put(token, Boolean.TRUE, System.currentTimeMillis() + ttl, ENTRY_OVERHEAD_BYTES + token.length() * 2);
+    }
+}
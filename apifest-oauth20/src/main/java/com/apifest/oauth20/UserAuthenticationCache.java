@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.apifest.oauth20.api.UserDetails;
+
+/**
+ * Local cache of successful user authentications, so repeated logins of the same user do not call
+ * the user authentication. Neither usernames nor passwords are kept: the cache key is a salted hash of the
+ * client id and username, so logins of a user through several clients are cached separately, and a cached result
+ * is returned only if the salted hash of client id, username and password matches the one of the cached login.
+ * The salt is random per node.
+ * Cached results of a user could be invalidated, e.g. when the password is changed, with
+ * {@link #invalidateUser(String)} or DELETE /oauth20/user-authentications. The invalidation is published to the
+ * other nodes through the invalidation bus, if any.
+ */
+public class UserAuthenticationCache extends BoundedCache<String, UserAuthenticationCache.CachedAuthentication>
+        implements InvalidationListener {
+
+    // approximate size of a cached entry without the user details
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+    private static final int SALT_LENGTH = 16;
+    private static final String SHA256 = "SHA-256";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static volatile UserAuthenticationCache instance;
+    private static volatile boolean initialized;
+
+    private final long ttl;
+    private final byte[] salt = new byte[SALT_LENGTH];
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile InvalidationBus invalidationBus;
+
+    // MessageDigest instances are not thread-safe
+    private final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(SHA256);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("cannot initialize " + SHA256, e);
+            }
+        }
+    };
+
+    /**
+     * Creates user authentication cache.
+     *
+     * @param maxEntries maximum number of cached users
+     * @param ttl time in seconds an authentication result is kept in the cache
+     */
+    public UserAuthenticationCache(int maxEntries, int ttl) {
+        super(maxEntries, 0);
+        this.ttl = ttl * 1000L;
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * Returns the user authentication cache configured for that ApiFest OAuth20 node.
+     *
+     * @return user authentication cache or <code>null</code>, if the results are not cached
+     */
+    public static synchronized UserAuthenticationCache getInstance() {
+        if (!initialized) {
+            if (OAuthServer.getUserAuthCacheMaxEntries() > 0) {
+                instance = new UserAuthenticationCache(OAuthServer.getUserAuthCacheMaxEntries(),
+                        OAuthServer.getUserAuthCacheTTL());
+                Metrics.register("user_auth_cache", instance);
+            }
+            initialized = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the cached result of a successful authentication with the same credentials.
+     *
+     * @param clientId client id of the token request
+     * @param username username
+     * @param password password
+     * @return the cached user details or <code>null</code>, if not cached
+     */
+    public UserDetails get(String clientId, String username, String password) {
+        if (username == null || password == null) {
+            return null;
+        }
+        CachedAuthentication cached = get(hashKey(clientId, username));
+        if (cached == null) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(cached.credentials, hashCredentials(clientId, username, password))) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        return cached.userDetails;
+    }
+
+    /**
+     * Caches the result of a successful authentication.
+     *
+     * @param clientId client id of the token request
+     * @param username username
+     * @param password password
+     * @param userDetails details about the authenticated user
+     */
+    public void put(String clientId, String username, String password, UserDetails userDetails) {
+        if (username == null || password == null || userDetails == null || userDetails.getUserId() == null) {
+            return;
+        }
+        CachedAuthentication cached = new CachedAuthentication(hashUsername(username),
+                hashCredentials(clientId, username, password), userDetails);
+        put(hashKey(clientId, username), cached, System.currentTimeMillis() + ttl, estimateSize(userDetails));
+    }
+
+    /**
+     * Removes the cached authentication results of a user, through all clients, on all nodes.
+     *
+     * @param username username
+     */
+    public void invalidateUser(String username) {
+        removeUser(username);
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(InvalidationEvent.Type.USER, username, 0);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.InvalidationListener#onInvalidation(com.apifest.oauth20.InvalidationEvent)
+     */
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+        if (event.getType() == InvalidationEvent.Type.USER) {
+            removeUser(event.getKey());
+        }
+    }
+
+    private void removeUser(String username) {
+        final String usernameHash = hashUsername(username);
+        removeAll(new ValueMatcher<CachedAuthentication>() {
+            @Override
+            public boolean matches(CachedAuthentication cached) {
+                return cached.usernameHash.equals(usernameHash);
+            }
+        });
+    }
+
+    public void setInvalidationBus(InvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+        invalidationBus.addListener(this);
+    }
+
+    /**
+     * Returns the number of lookups that found a cached user, but with other credentials.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = super.getMetrics();
+        long hits = getHits() - getRejected();
+        long lookups = getHits() + getMisses();
+        metrics.put("rejected", getRejected());
+        metrics.put("hit_rate", (lookups > 0) ? hits * 100 / lookups : 0L);
+        return metrics;
+    }
+
+    protected String hashUsername(String username) {
+        MessageDigest md = digest.get();
+        md.update(salt);
+        return Base64.encodeBase64URLSafeString(md.digest(username.getBytes(UTF8)));
+    }
+
+    protected String hashKey(String clientId, String username) {
+        MessageDigest md = digest.get();
+        md.update(salt);
+        update(md, clientId);
+        update(md, username);
+        return Base64.encodeBase64URLSafeString(md.digest());
+    }
+
+    protected byte[] hashCredentials(String clientId, String username, String password) {
+        MessageDigest md = digest.get();
+        md.update(salt);
+        // lengths are included, so the fields cannot be shifted between each other
+        update(md, clientId);
+        update(md, username);
+        update(md, password);
+        return md.digest();
+    }
+
+    private static void update(MessageDigest md, String value) {
+        byte[] bytes = (value != null) ? value.getBytes(UTF8) : new byte[0];
+        int length = bytes.length;
+        md.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+        md.update(bytes);
+    }
+
+    protected static int estimateSize(UserDetails userDetails) {
+        int size = ENTRY_OVERHEAD_BYTES + STRING_OVERHEAD_BYTES + userDetails.getUserId().length() * 2;
+        if (userDetails.getDetails() != null) {
+            for (Map.Entry<String, String> entry : userDetails.getDetails().entrySet()) {
+                size += 2 * STRING_OVERHEAD_BYTES;
+                size += (entry.getKey() != null) ? entry.getKey().length() * 2 : 0;
+                size += (entry.getValue() != null) ? entry.getValue().length() * 2 : 0;
+            }
+        }
+        return size;
+    }
+
+    protected static final class CachedAuthentication {
+        private final String usernameHash;
+        private final byte[] credentials;
+        private final UserDetails userDetails;
+
+        private CachedAuthentication(String usernameHash, byte[] credentials, UserDetails userDetails) {
+            this.usernameHash = usernameHash;
+            this.credentials = credentials;
+            this.userDetails = userDetails;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apifest.oauth20;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Represents request when POST to /oauth20/tokens/validate.
+ */
+public class ValidateTokensRequest {
+
+    protected static final String TOKENS = "tokens";
+
+    private List<String> tokens;
+
+    public ValidateTokensRequest(HttpRequest request) {
+        String content = request.getContent().toString(CharsetUtil.UTF_8);
+        JsonParser parser = new JsonParser();
+        try {
+            JsonObject jsonObj = parser.parse(content).getAsJsonObject();
+            JsonElement tokensElement = jsonObj.get(TOKENS);
+            if (tokensElement != null && tokensElement.isJsonArray()) {
+                JsonArray array = tokensElement.getAsJsonArray();
+                // duplicated tokens are validated once
+                Set<String> uniqueTokens = new LinkedHashSet<String>();
+                for (JsonElement element : array) {
+                    if (element.isJsonPrimitive() && element.getAsString().length() > 0) {
+                        uniqueTokens.add(element.getAsString());
+                    }
+                }
+                this.tokens = new ArrayList<String>(uniqueTokens);
+            }
+        } catch (JsonSyntaxException e) {
+            // do nothing
+        } catch (IllegalStateException e) {
+            // not a JSON object, do nothing
+        }
+    }
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    protected void checkMandatoryParams() throws OAuthException {
+        if (tokens == null || tokens.isEmpty()) {
+            throw new OAuthException(String.format(Response.MANDATORY_PARAM_MISSING, TOKENS),
+                    HttpResponseStatus.BAD_REQUEST);
+        }
+        if (tokens.size() > OAuthServer.getValidateTokensMaxCount()) {
+            throw new OAuthException(String.format(Response.TOO_MANY_TOKENS, OAuthServer.getValidateTokensMaxCount()),
+                    HttpResponseStatus.BAD_REQUEST);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import java.util.Map;
+
+import com.hazelcast.map.AbstractEntryProcessor;
+
+/**
+ * Invalidates an auth code on the partition that owns it, if the code is valid and was issued to the client
+ * for the redirect URI. Returns the invalidated auth code or <code>null</code>, so only one of concurrent
+ * exchanges of the same code gets it. The same update is applied on the backups.
+ */
+public class ConsumeAuthCodeProcessor extends AbstractEntryProcessor<String, PersistentAuthCode> {
+
+    private static final long serialVersionUID = 2734451938236405417L;
+
+    private final String redirectUri;
+    private final String clientId;
+
+    public ConsumeAuthCodeProcessor(String redirectUri, String clientId) {
+        this.redirectUri = redirectUri;
+        this.clientId = clientId;
+    }
+
+    @Override
+    public Object process(Map.Entry<String, PersistentAuthCode> entry) {
+        PersistentAuthCode authCode = entry.getValue();
+        if (authCode == null || !authCode.isValid() || !equal(redirectUri, authCode.getRedirectUri())
+                || !equal(clientId, authCode.getClientId())) {
+            return null;
+        }
+        authCode.setValid(false);
+        // the entry is updated only when set again
+        entry.setValue(authCode);
+        return authCode;
+    }
+
+    private static boolean equal(String value, String other) {
+        return (value == null) ? other == null : value.equals(other);
+    }
+}
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -33,6 +34,7 @@ import com.apifest.oauth20.AccessToken;
 import com.apifest.oauth20.AuthCode;
 import com.apifest.oauth20.ClientCredentials;
 import com.apifest.oauth20.DBManager;
+import com.apifest.oauth20.InvalidationBus;
 import com.apifest.oauth20.OAuthServer;
 import com.apifest.oauth20.Scope;
 import com.hazelcast.config.Config;
@@ -51,6 +53,7 @@ import com.hazelcast.config.MaxSizeConfig.MaxSizePolicy;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
 import com.hazelcast.query.EntryObject;
 import com.hazelcast.query.Predicate;
 import com.hazelcast.query.PredicateBuilder;
@@ -69,6 +72,8 @@ public class HazelcastDBManager implements DBManager {
     private static final String APIFEST_CLIENT = "APIFEST_CLIENT";
     private static final String APIFEST_AUTH_CODE = "APIFEST_AUTH_CODE";
     private static final String APIFEST_ACCESS_TOKEN = "APIFEST_ACCESS_TOKEN";
+    private static final String APIFEST_INVALIDATION = "APIFEST_INVALIDATION";
+    private static final String APIFEST_REVOKED_TOKEN = "APIFEST_REVOKED_TOKEN";
     private static HazelcastInstance hazelcastClient = null;
 
     private static final int MAX_POOL_SIZE = 64;
@@ -85,6 +90,11 @@ public class HazelcastDBManager implements DBManager {
         hazelcastClient.getMap(APIFEST_ACCESS_TOKEN).addIndex("accessTokenByUserIdAndClient", false);
     }
 
+    public InvalidationBus createInvalidationBus() {
+        ITopic<String> topic = hazelcastClient.getTopic(APIFEST_INVALIDATION);
+        return new HazelcastInvalidationBus(topic);
+    }
+
     private static Map<String, MapConfig> createMapConfigs() {
         Map<String, MapConfig> configs = new HashMap<String, MapConfig>();
         MapConfig accTokenConfig = createMapConfig(APIFEST_ACCESS_TOKEN);
@@ -207,9 +217,31 @@ public class HazelcastDBManager implements DBManager {
      */
     @Override
     public void storeAccessToken(AccessToken accessToken) {
-        Long tokenExpiration = (accessToken.getRefreshExpiresIn() != null && !accessToken.getRefreshExpiresIn().isEmpty()) ? Long.valueOf(accessToken.getRefreshExpiresIn()) : Long.valueOf(accessToken.getExpiresIn());
+        // the token is kept until the refresh token expires
+        long tokenExpiresAt = Math.max(accessToken.getExpiresAt(), accessToken.getRefreshExpiresAt());
+        long ttl = Math.max(1, tokenExpiresAt - System.currentTimeMillis());
         getAccessTokenContainer().put(accessToken.getToken(), PersistenceTransformations.toPersistentAccessToken(accessToken),
-                tokenExpiration, TimeUnit.SECONDS);
+                ttl, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#rotateAccessToken(java.lang.String, com.apifest.oauth20.AccessToken)
+     */
+    @Override
+    public boolean rotateAccessToken(String oldToken, AccessToken newToken) {
+        // concurrent refreshes wait for the lock of the old token, only the first one finds it
+        IMap<String, PersistentAccessToken> container = getAccessTokenContainer();
+        container.lock(oldToken);
+        try {
+            if (!container.containsKey(oldToken)) {
+                return false;
+            }
+            storeAccessToken(newToken);
+            container.remove(oldToken);
+            return true;
+        } finally {
+            container.unlock(oldToken);
+        }
     }
 
     /*
@@ -250,6 +282,21 @@ public class HazelcastDBManager implements DBManager {
         }
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#findAccessTokens(java.util.Collection)
+     */
+    @Override
+    public Map<String, AccessToken> findAccessTokens(Collection<String> accessTokens) {
+        Map<String, AccessToken> found = new HashMap<String, AccessToken>();
+        Map<String, PersistentAccessToken> tokensStored = getAccessTokenContainer().getAll(new HashSet<String>(accessTokens));
+        for (Map.Entry<String, PersistentAccessToken> entry : tokensStored.entrySet()) {
+            if (entry.getValue() != null) {
+                found.put(entry.getKey(), PersistenceTransformations.toAccessToken(entry.getValue()));
+            }
+        }
+        return found;
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#findAuthCode(java.lang.String, java.lang.String)
      */
@@ -265,6 +312,16 @@ public class HazelcastDBManager implements DBManager {
         return PersistenceTransformations.toAuthCode(values.iterator().next());
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#consumeAuthCode(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public AuthCode consumeAuthCode(String authCode, String redirectUri, String clientId) {
+        PersistentAuthCode consumed = (PersistentAuthCode) getAuthCodeContainer().executeOnKey(authCode,
+                new ConsumeAuthCodeProcessor(redirectUri, clientId));
+        return PersistenceTransformations.toAuthCode(consumed);
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#findClientCredentials(java.lang.String)
      */
@@ -319,6 +376,11 @@ public class HazelcastDBManager implements DBManager {
         return hazelcastClient.getMap(APIFEST_ACCESS_TOKEN);
     }
 
+    // expiration time in millis by revoked token id
+    private IMap<String, Long> getRevokedTokenContainer() {
+        return hazelcastClient.getMap(APIFEST_REVOKED_TOKEN);
+    }
+
     /*
      * @see com.apifest.oauth20.DBManager#updateClientAppScope(java.lang.String)
      */
@@ -387,4 +449,34 @@ public class HazelcastDBManager implements DBManager {
         getAccessTokenContainer().remove(accessToken);
     }
 
+    /*
+     * @see com.apifest.oauth20.DBManager#storeRevokedToken(java.lang.String, long)
+     */
+    @Override
+    public void storeRevokedToken(String tokenId, long expiresAt) {
+        long ttl = expiresAt - System.currentTimeMillis();
+        if (expiresAt == Long.MAX_VALUE) {
+            // a token without expiration stays revoked
+            getRevokedTokenContainer().put(tokenId, expiresAt);
+        } else if (ttl > 0) {
+            getRevokedTokenContainer().put(tokenId, expiresAt, ttl, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#isRevokedToken(java.lang.String)
+     */
+    @Override
+    public boolean isRevokedToken(String tokenId) {
+        return getRevokedTokenContainer().containsKey(tokenId);
+    }
+
+    /*
+     * @see com.apifest.oauth20.DBManager#getRevokedTokens()
+     */
+    @Override
+    public Map<String, Long> getRevokedTokens() {
+        return new HashMap<String, Long>(getRevokedTokenContainer());
+    }
+
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import com.apifest.oauth20.InvalidationBus;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+
+/**
+ * Invalidation bus that uses a Hazelcast {@link ITopic}.
+ */
+public class HazelcastInvalidationBus extends InvalidationBus {
+
+    private final ITopic<String> topic;
+    private final String registrationId;
+
+    public HazelcastInvalidationBus(ITopic<String> topic) {
+        this.topic = topic;
+        this.registrationId = topic.addMessageListener(new MessageListener<String>() {
+            @Override
+            public void onMessage(Message<String> message) {
+                HazelcastInvalidationBus.this.onMessage(message.getMessageObject());
+            }
+        });
+    }
+
+    @Override
+    protected void send(String message) {
+        topic.publish(message);
+    }
+
+    @Override
+    public void close() {
+        topic.removeMessageListener(registrationId);
+    }
+}
@@ -138,6 +138,8 @@ public class PersistenceTransformations {
         String refreshExpiresIn = (accessToken.getRefreshExpiresIn() != null && !accessToken.getRefreshExpiresIn().isEmpty()) ?
                 accessToken.getRefreshExpiresIn() : accessToken.getExpiresIn();
         persistentAccessToken.setRefreshExpiresIn(refreshExpiresIn);
+        persistentAccessToken.setExpiresAt(accessToken.getExpiresAt());
+        persistentAccessToken.setRefreshExpiresAt(accessToken.getRefreshExpiresAt());
         return persistentAccessToken;
     }
 
@@ -159,6 +161,14 @@ public class PersistenceTransformations {
             String refreshExpiresIn = (persistentAccessToken.getRefreshExpiresIn() != null && !persistentAccessToken.getRefreshExpiresIn().isEmpty()) ?
                     persistentAccessToken .getRefreshExpiresIn() : persistentAccessToken.getExpiresIn();
             accessToken.setRefreshExpiresIn(refreshExpiresIn);
+            // tokens stored by older versions have no expiresAt and refreshExpiresAt,
+            // so the values calculated from expiresIn and refreshExpiresIn are used
+            if (persistentAccessToken.getExpiresAt() != null) {
+                accessToken.setExpiresAt(persistentAccessToken.getExpiresAt());
+            }
+            if (persistentAccessToken.getRefreshExpiresAt() != null) {
+                accessToken.setRefreshExpiresAt(persistentAccessToken.getRefreshExpiresAt());
+            }
         }
         return accessToken;
     }
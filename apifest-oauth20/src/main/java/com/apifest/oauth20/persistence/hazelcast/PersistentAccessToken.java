@@ -39,6 +39,8 @@ public class PersistentAccessToken implements Serializable {
     private Long created;
     private String details = "";
     private String refreshExpiresIn = "";
+    private Long expiresAt;
+    private Long refreshExpiresAt;
 
     public String getToken() {
         return token;
@@ -143,4 +145,20 @@ public class PersistentAccessToken implements Serializable {
     public String getAccessTokenByUserIdAndClient() {
         return this.userId + this.getClientId() + this.isValid();
     }
+
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public Long getRefreshExpiresAt() {
+        return refreshExpiresAt;
+    }
+
+    public void setRefreshExpiresAt(Long refreshExpiresAt) {
+        this.refreshExpiresAt = refreshExpiresAt;
+    }
 }
@@ -16,7 +16,6 @@
 
 package com.apifest.oauth20;
 
-import static org.mockito.BDDMockito.willReturn;
 import static org.mockito.Mockito.spy;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
@@ -97,8 +96,7 @@ public class AccessTokenTest {
         cal.setTime(new Date(System.currentTimeMillis()));
         cal.add(Calendar.MINUTE, -16);
         Long created = cal.getTimeInMillis();
-        willReturn(created).given(accessToken).getCreated();
-        willReturn("899").given(accessToken).getExpiresIn();
+        accessToken.setCreated(created);
 
         // WHEN
         boolean expired = accessToken.tokenExpired();
@@ -115,8 +113,7 @@ public class AccessTokenTest {
         cal.setTime(new Date(System.currentTimeMillis()));
         cal.add(Calendar.MINUTE, -14);
         Long created = cal.getTimeInMillis();
-        willReturn(created).given(accessToken).getCreated();
-        willReturn("899").given(accessToken).getExpiresIn();
+        accessToken.setCreated(created);
 
         // WHEN
         boolean expired = accessToken.tokenExpired();
@@ -133,7 +130,7 @@ public class AccessTokenTest {
         cal.setTime(new Date(System.currentTimeMillis()));
         cal.add(Calendar.MINUTE, -5);
         Long created = cal.getTimeInMillis();
-        willReturn(created).given(accessToken).getCreated();
+        accessToken.setCreated(created);
 
         // WHEN
         boolean expired = accessToken.refreshTokenExpired();
@@ -150,7 +147,7 @@ public class AccessTokenTest {
         cal.setTime(new Date(System.currentTimeMillis()));
         cal.add(Calendar.MINUTE, -11);
         Long created = cal.getTimeInMillis();
-        willReturn(created).given(accessToken).getCreated();
+        accessToken.setCreated(created);
 
         // WHEN
         boolean expired = accessToken.refreshTokenExpired();
@@ -266,4 +263,54 @@ public class AccessTokenTest {
         // THEN
         assertTrue(accessToken.getRefreshExpiresIn().equals("600"));
     }
+
+    @Test
+    public void when_create_access_token_calculate_expires_at() throws Exception {
+        // WHEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+
+        // THEN
+        assertEquals(accessToken.getExpiresAt(), accessToken.getCreated() + 300 * 1000);
+        assertEquals(accessToken.getRefreshExpiresAt(), accessToken.getCreated() + 600 * 1000);
+    }
+
+    @Test
+    public void when_load_legacy_access_token_without_expires_at_calculate_it() throws Exception {
+        // GIVEN
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("token", "60c7addaadabdada583950401f998c1df9ed6e4d5da637eb914a3dcbe0b3cff0");
+        map.put("expiresIn", "300");
+        map.put("refreshExpiresIn", "600");
+        map.put("valid", "true");
+        map.put("created", "1421267589868");
+
+        // WHEN
+        AccessToken accessToken = AccessToken.loadFromStringMap(map);
+
+        // THEN
+        assertEquals(accessToken.getExpiresAt(), 1421267589868L + 300 * 1000);
+        assertEquals(accessToken.getRefreshExpiresAt(), 1421267589868L + 600 * 1000);
+        assertTrue(accessToken.tokenExpired());
+    }
+
+    @Test
+    public void when_load_access_token_with_expires_at_use_it() throws Exception {
+        // GIVEN
+        long expiresAt = System.currentTimeMillis() + 60000;
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("token", "60c7addaadabdada583950401f998c1df9ed6e4d5da637eb914a3dcbe0b3cff0");
+        map.put("expiresIn", "300");
+        map.put("valid", true);
+        map.put("created", 1421267589868L);
+        map.put("expiresAt", expiresAt);
+        map.put("refreshExpiresAt", expiresAt);
+
+        // WHEN
+        AccessToken accessToken = AccessToken.loadFromMap(map);
+
+        // THEN
+        assertEquals(accessToken.getExpiresAt(), expiresAt);
+        assertFalse(accessToken.tokenExpired());
+        assertFalse(accessToken.refreshTokenExpired());
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AdmissionController.RequestClass;
+
+public class AdmissionControllerTest {
+
+    private static final Map<RequestClass, Integer> NONE = Collections.emptyMap();
+
+    @Test
+    public void when_classify_request_return_class_by_uri_and_method() throws Exception {
+        // THEN
+        assertEquals(AdmissionController.classify(HttpMethod.GET, "/oauth20/tokens/validate?token=abc"),
+                RequestClass.VALIDATE);
+        assertEquals(AdmissionController.classify(HttpMethod.POST, "/oauth20/tokens/validate"), RequestClass.VALIDATE);
+        assertEquals(AdmissionController.classify(HttpMethod.POST, "/oauth20/tokens"), RequestClass.TOKEN);
+        assertEquals(AdmissionController.classify(HttpMethod.POST, "/oauth20/tokens/revoke"), RequestClass.TOKEN);
+        assertEquals(AdmissionController.classify(HttpMethod.GET, "/oauth20/auth-codes?client_id=1"),
+                RequestClass.AUTH_CODE);
+        assertEquals(AdmissionController.classify(HttpMethod.GET, "/oauth20/tokens?client_id=1"), RequestClass.ADMIN);
+        assertEquals(AdmissionController.classify(HttpMethod.GET, "/oauth20/applications"), RequestClass.ADMIN);
+        assertEquals(AdmissionController.classify(HttpMethod.PUT, "/oauth20/scopes/basic"), RequestClass.ADMIN);
+        assertEquals(AdmissionController.classify(HttpMethod.DELETE, "/oauth20/user-authentications?username=rossi"),
+                RequestClass.ADMIN);
+        assertEquals(AdmissionController.classify(HttpMethod.GET, "/oauth20/metrics"), RequestClass.OTHER);
+    }
+
+    @Test
+    public void when_class_limit_reached_shed_request() throws Exception {
+        // GIVEN
+        AdmissionController controller = new AdmissionController(0, AdmissionController.parseClassValues("admin:1"),
+                NONE, 1);
+        controller.tryAcquire(RequestClass.ADMIN);
+
+        // WHEN
+        boolean admitted = controller.tryAcquire(RequestClass.ADMIN);
+
+        // THEN
+        assertFalse(admitted);
+        assertTrue(controller.tryAcquire(RequestClass.VALIDATE));
+        assertEquals(controller.getShed(RequestClass.ADMIN), 1L);
+        assertEquals(controller.getAdmitted(RequestClass.ADMIN), 1L);
+    }
+
+    @Test
+    public void when_request_released_admit_next_request() throws Exception {
+        // GIVEN
+        AdmissionController controller = new AdmissionController(0, AdmissionController.parseClassValues("token:1"),
+                NONE, 1);
+        controller.tryAcquire(RequestClass.TOKEN);
+
+        // WHEN
+        controller.release(RequestClass.TOKEN);
+
+        // THEN
+        assertTrue(controller.tryAcquire(RequestClass.TOKEN));
+        assertEquals(controller.getInFlight(RequestClass.TOKEN), 1);
+    }
+
+    @Test
+    public void when_low_priority_share_used_leave_capacity_for_validate() throws Exception {
+        // GIVEN
+        AdmissionController controller = new AdmissionController(4, NONE, NONE, 1);
+        controller.tryAcquire(RequestClass.ADMIN);
+        controller.tryAcquire(RequestClass.ADMIN);
+
+        // WHEN
+        boolean admin = controller.tryAcquire(RequestClass.ADMIN);
+
+        // THEN
+        assertFalse(admin);
+        assertTrue(controller.tryAcquire(RequestClass.VALIDATE));
+        assertTrue(controller.tryAcquire(RequestClass.VALIDATE));
+        assertFalse(controller.tryAcquire(RequestClass.VALIDATE));
+        assertEquals(controller.getInFlight(), 4);
+    }
+
+    @Test
+    public void when_class_limit_reached_release_global_permit() throws Exception {
+        // GIVEN
+        AdmissionController controller = new AdmissionController(10, AdmissionController.parseClassValues("token:1"),
+                NONE, 1);
+        controller.tryAcquire(RequestClass.TOKEN);
+
+        // WHEN
+        controller.tryAcquire(RequestClass.TOKEN);
+
+        // THEN
+        assertEquals(controller.getInFlight(), 1);
+        assertEquals(controller.getMetrics().get("token.shed"), 1L);
+    }
+
+    @Test
+    public void when_other_request_always_admit_it() throws Exception {
+        // GIVEN
+        AdmissionController controller = new AdmissionController(1, NONE, NONE, 1);
+        controller.tryAcquire(RequestClass.VALIDATE);
+
+        // WHEN
+        boolean admitted = controller.tryAcquire(RequestClass.OTHER);
+
+        // THEN
+        assertTrue(admitted);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void when_parse_unknown_request_class_throw_exception() throws Exception {
+        // WHEN
+        AdmissionController.parseClassValues("validate:10,unknown:5");
+    }
+}
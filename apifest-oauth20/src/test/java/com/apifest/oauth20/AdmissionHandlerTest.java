@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AdmissionController.RequestClass;
+
+public class AdmissionHandlerTest {
+
+    AdmissionController controller;
+    ResponseSequencer sequencer;
+    AdmissionHandler handler;
+    ChannelHandlerContext ctx;
+    Channel channel;
+
+    @BeforeMethod
+    public void setup() {
+        AdmissionHandler.log = mock(Logger.class);
+        controller = new AdmissionController(0, AdmissionController.parseClassValues("validate:1,token:1"),
+                AdmissionController.parseClassValues(null), 3);
+        sequencer = new ResponseSequencer();
+        handler = new AdmissionHandler(controller, sequencer);
+        ctx = mock(ChannelHandlerContext.class);
+        channel = mock(Channel.class);
+        willReturn(channel).given(ctx).getChannel();
+        willReturn(mock(ChannelFuture.class)).given(channel).write(any());
+    }
+
+    @Test
+    public void when_limit_reached_write_service_unavailable_response() throws Exception {
+        // GIVEN
+        controller.tryAcquire(RequestClass.VALIDATE);
+        HttpRequest request = request(HttpMethod.GET, "/oauth20/tokens/validate?token=abc");
+
+        // WHEN
+        MessageEvent event = receive(request);
+
+        // THEN
+        verify(ctx, never()).sendUpstream(event);
+        ArgumentCaptor<HttpResponse> captor = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(channel).write(captor.capture());
+        HttpResponse response = captor.getValue();
+        assertEquals(response.getStatus(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertEquals(response.headers().get("Retry-After"), "3");
+    }
+
+    @Test
+    public void when_response_written_release_admitted_request() throws Exception {
+        // GIVEN
+        HttpRequest request = request(HttpMethod.GET, "/oauth20/tokens/validate?token=abc");
+        MessageEvent event = receive(request);
+
+        // WHEN
+        sequencer.write(channel, request, Response.createUnauthorizedResponse());
+
+        // THEN
+        verify(ctx).sendUpstream(event);
+        assertEquals(controller.getInFlight(RequestClass.VALIDATE), 0);
+        assertEquals(controller.getAdmitted(RequestClass.VALIDATE), 1L);
+    }
+
+    @Test
+    public void when_response_written_release_class_of_its_request() throws Exception {
+        // GIVEN
+        HttpRequest validate = request(HttpMethod.GET, "/oauth20/tokens/validate?token=abc");
+        HttpRequest token = request(HttpMethod.POST, "/oauth20/tokens");
+        receive(validate);
+        receive(token);
+
+        // WHEN
+        sequencer.write(channel, validate, Response.createUnauthorizedResponse());
+
+        // THEN
+        assertEquals(controller.getInFlight(RequestClass.VALIDATE), 0);
+        assertEquals(controller.getInFlight(RequestClass.TOKEN), 1);
+    }
+
+    @Test
+    public void when_earlier_response_pending_write_service_unavailable_response_after_it() throws Exception {
+        // GIVEN
+        HttpRequest admitted = request(HttpMethod.GET, "/oauth20/tokens/validate?token=abc");
+        receive(admitted);
+
+        // WHEN
+        receive(request(HttpMethod.GET, "/oauth20/tokens/validate?token=def"));
+
+        // THEN
+        verify(channel, never()).write(any());
+        HttpResponse response = Response.createUnauthorizedResponse();
+        sequencer.write(channel, admitted, response);
+        verify(channel).write(response);
+        assertEquals(controller.getInFlight(RequestClass.VALIDATE), 0);
+    }
+
+    @Test
+    public void when_channel_closed_release_requests_without_response() throws Exception {
+        // GIVEN
+        receive(request(HttpMethod.GET, "/oauth20/tokens/validate?token=abc"));
+        receive(request(HttpMethod.POST, "/oauth20/tokens"));
+
+        // WHEN
+        handler.channelClosed(ctx, mock(ChannelStateEvent.class));
+
+        // THEN
+        assertEquals(controller.getInFlight(RequestClass.VALIDATE), 0);
+        assertEquals(controller.getInFlight(RequestClass.TOKEN), 0);
+    }
+
+    private HttpRequest request(HttpMethod method, String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, uri);
+    }
+
+    // received as in the pipeline, the sequencer is added before the admission handler
+    private MessageEvent receive(HttpRequest request) throws Exception {
+        MessageEvent event = mock(MessageEvent.class);
+        willReturn(request).given(event).getMessage();
+        sequencer.messageReceived(mock(ChannelHandlerContext.class), event);
+        handler.messageReceived(ctx, event);
+        return event;
+    }
+}
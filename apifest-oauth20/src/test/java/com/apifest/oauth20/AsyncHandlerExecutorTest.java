@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.slf4j.Logger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.AsyncHandlerExecutor.OverflowPolicy;
+import com.apifest.oauth20.api.LifecycleHandler;
+
+public class AsyncHandlerExecutorTest {
+
+    static volatile CountDownLatch release;
+    static volatile CountDownLatch started;
+    static volatile Thread lastThread;
+
+    AsyncHandlerExecutor executor;
+
+    @BeforeMethod
+    public void setup() {
+        AsyncHandlerExecutor.log = mock(Logger.class);
+        release = new CountDownLatch(1);
+        started = new CountDownLatch(1);
+        lastThread = null;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void when_queue_is_full_and_policy_is_drop_drop_handler_call() throws Exception {
+        // GIVEN
+        executor = new AsyncHandlerExecutor(1, 1, OverflowPolicy.DROP);
+        LifecycleHandlerEntry<LifecycleHandler> entry = createEntry(BlockingHandler.class);
+        executor.execute(entry, mock(HttpRequest.class), mock(HttpResponse.class));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(entry, mock(HttpRequest.class), mock(HttpResponse.class));
+
+        // WHEN
+        executor.execute(entry, mock(HttpRequest.class), mock(HttpResponse.class));
+
+        // THEN
+        assertEquals(executor.getDropped(), 1L);
+        assertEquals(executor.getMetrics().get("queue_size"), 1);
+        assertEquals(executor.getMetrics().get("dropped"), 1L);
+    }
+
+    @Test
+    public void when_queue_is_full_and_policy_is_caller_runs_invoke_handler_in_calling_thread() throws Exception {
+        // GIVEN
+        executor = new AsyncHandlerExecutor(1, 1, OverflowPolicy.CALLER_RUNS);
+        executor.execute(createEntry(BlockingHandler.class), mock(HttpRequest.class), mock(HttpResponse.class));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(createEntry(BlockingHandler.class), mock(HttpRequest.class), mock(HttpResponse.class));
+
+        // WHEN
+        executor.execute(createEntry(RecordingHandler.class), mock(HttpRequest.class), mock(HttpResponse.class));
+
+        // THEN
+        assertSame(lastThread, Thread.currentThread());
+        assertEquals(executor.getDropped(), 0L);
+    }
+
+    @Test
+    public void when_handler_fails_count_failure_and_continue() throws Exception {
+        // GIVEN
+        executor = new AsyncHandlerExecutor(1, 10, OverflowPolicy.BLOCK);
+
+        // WHEN
+        executor.execute(createEntry(FailingHandler.class), mock(HttpRequest.class), mock(HttpResponse.class));
+        executor.execute(createEntry(RecordingHandler.class), mock(HttpRequest.class), mock(HttpResponse.class));
+        executor.shutdown();
+
+        // THEN
+        assertTrue(waitForCompleted(2));
+        assertEquals(executor.getFailed(), 1L);
+        assertTrue(lastThread.getName().startsWith("async-handler-"));
+        assertEquals(executor.getMetrics().get("submitted"), 2L);
+    }
+
+    @Test
+    public void when_parse_overflow_policy_ignore_case() throws Exception {
+        // THEN
+        assertEquals(OverflowPolicy.parse("caller_runs"), OverflowPolicy.CALLER_RUNS);
+        assertEquals(OverflowPolicy.parse(" Block "), OverflowPolicy.BLOCK);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void when_parse_unknown_overflow_policy_throw_exception() throws Exception {
+        // WHEN
+        OverflowPolicy.parse("discard_oldest");
+    }
+
+    private boolean waitForCompleted(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getCompleted() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private LifecycleHandlerEntry<LifecycleHandler> createEntry(Class<? extends LifecycleHandler> clazz)
+            throws Exception {
+        return new LifecycleHandlerEntry<LifecycleHandler>(clazz, new String[0], new String[0], true, true);
+    }
+
+    public static class BlockingHandler implements LifecycleHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response) {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static class RecordingHandler implements LifecycleHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response) {
+            lastThread = Thread.currentThread();
+        }
+    }
+
+    public static class FailingHandler implements LifecycleHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response) {
+            throw new IllegalStateException("sink is not available");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.api.AuthenticationCallback;
+import com.apifest.oauth20.api.AuthenticationException;
+import com.apifest.oauth20.api.IAsyncUserAuthentication;
+import com.apifest.oauth20.api.UserDetails;
+
+public class AsyncUserAuthenticatorTest {
+
+    HashedWheelTimer timer;
+    StoredCallbackAuthentication authentication;
+    AuthenticationCallback callback;
+
+    @BeforeMethod
+    public void setup() {
+        AsyncUserAuthenticator.log = mock(Logger.class);
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        authentication = new StoredCallbackAuthentication();
+        callback = mock(AuthenticationCallback.class);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void when_user_authenticated_pass_user_details_to_callback() throws Exception {
+        // GIVEN
+        AsyncUserAuthenticator authenticator = new AsyncUserAuthenticator(authentication, 5000, timer);
+        UserDetails userDetails = new UserDetails("12345", null);
+
+        // WHEN
+        authenticator.authenticate("rossi", "test", mock(HttpRequest.class), callback);
+        authentication.callback.onSuccess(userDetails);
+
+        // THEN
+        verify(callback).onSuccess(userDetails);
+        assertTrue(timer.stop().isEmpty());
+    }
+
+    @Test
+    public void when_authentication_times_out_pass_timeout_exception_and_ignore_late_result() throws Exception {
+        // GIVEN
+        AsyncUserAuthenticator authenticator = new AsyncUserAuthenticator(authentication, 20, timer);
+        ArgumentCaptor<AuthenticationException> captor = ArgumentCaptor.forClass(AuthenticationException.class);
+
+        // WHEN
+        authenticator.authenticate("rossi", "test", mock(HttpRequest.class), callback);
+        verify(callback, timeout(5000)).onFailure(captor.capture());
+        authentication.callback.onSuccess(new UserDetails("12345", null));
+
+        // THEN
+        assertTrue(captor.getValue() instanceof AuthenticationTimeoutException);
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    public void when_authentication_throws_runtime_exception_pass_failure_to_callback() throws Exception {
+        // GIVEN
+        IAsyncUserAuthentication failing = new IAsyncUserAuthentication() {
+            @Override
+            public void authenticate(String username, String password, HttpRequest authRequest,
+                    AuthenticationCallback callback) {
+                throw new IllegalStateException("LDAP is not available");
+            }
+        };
+        AsyncUserAuthenticator authenticator = new AsyncUserAuthenticator(failing, 5000, timer);
+
+        // WHEN
+        authenticator.authenticate("rossi", "test", mock(HttpRequest.class), callback);
+
+        // THEN
+        verify(callback).onFailure(any(AuthenticationException.class));
+    }
+
+    // keeps the callback, so the test completes the authentication
+    static class StoredCallbackAuthentication implements IAsyncUserAuthentication {
+        volatile AuthenticationCallback callback;
+
+        @Override
+        public void authenticate(String username, String password, HttpRequest authRequest,
+                AuthenticationCallback callback) {
+            this.callback = callback;
+        }
+    }
+}
@@ -18,6 +18,8 @@ package com.apifest.oauth20;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.HttpStatus;
@@ -30,10 +32,12 @@ import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.netty.util.CharsetUtil;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.apifest.oauth20.api.AuthenticationCallback;
 import com.apifest.oauth20.api.UserDetails;
 
 import static org.mockito.Matchers.*;
@@ -267,7 +271,8 @@ public class AuthorizationServerTest {
 
         String authCode = "eWPoZNvLxVDxuoVBCnGurPXefa#ttxKfryNbLPDvPFsFSkXVhreWW=HvULXWANTnhR=UEtkiaCxsOxgv_nTpqNWQFB-zGkQBHVoqQkjiWkyRuAHZWkFfn#sNeBhJVgOsR=F_vA"
                 + "mJwoOh_ooe#ovaJVCOiZls_DzvkhOnRVrlDRSzZrbZIB_rwGXjpoeXdJlIjZQGhSR#";
-        given(authServer.db.findAuthCode(authCode, redirectUri)).willReturn(mock(AuthCode.class));
+        // the auth code is issued to another client, so it is not consumed
+        given(authServer.db.consumeAuthCode(authCode, redirectUri, "another_client")).willReturn(mock(AuthCode.class));
 
         HttpRequest req = mock(HttpRequest.class);
         String content = "redirect_uri=" + redirectUri
@@ -287,8 +292,8 @@ public class AuthorizationServerTest {
         }
 
         // THEN
-        verify(authServer).findAuthCode(any(TokenRequest.class));
-        assertEquals(errorMsg, Response.INVALID_CLIENT_ID);
+        verify(authServer.db).consumeAuthCode(authCode, redirectUri, clientId);
+        assertEquals(errorMsg, Response.INVALID_AUTH_CODE);
     }
 
     @Test
@@ -304,7 +309,7 @@ public class AuthorizationServerTest {
                 + "mJwoOh_ooe#ovaJVCOiZls_DzvkhOnRVrlDRSzZrbZIB_rwGXjpoeXdJlIjZQGhSR#";
         AuthCode authCode = mock(AuthCode.class);
         given(authCode.getClientId()).willReturn(clientId);
-        given(authServer.db.findAuthCode(code, redirectUri)).willReturn(authCode);
+        given(authServer.db.consumeAuthCode(code, redirectUri, clientId)).willReturn(authCode);
 
         HttpRequest req = mock(HttpRequest.class);
         String content = "redirect_uri="
@@ -319,7 +324,8 @@ public class AuthorizationServerTest {
         authServer.issueAccessToken(req);
 
         // THEN
-        verify(authServer).findAuthCode(any(TokenRequest.class));
+        verify(authServer).consumeAuthCode(any(TokenRequest.class));
+        verify(authServer.db, never()).updateAuthCodeValidStatus(anyString(), anyBoolean());
     }
 
     @Test
@@ -383,8 +389,8 @@ public class AuthorizationServerTest {
                 + "mJwoOh_ooe#ovaJVCOiZls_DzvkhOnRVrlDRSzZrbZIB_rwGXjpoeXdJlIjZQGhSR#";
         AuthCode authCode = mock(AuthCode.class);
         given(authCode.getClientId()).willReturn(clientId);
-        given(authServer.db.findAuthCode(code, redirectUri1)).willReturn(authCode);
-        given(authServer.db.findAuthCode(code, redirectUri2)).willReturn(authCode);
+        given(authServer.db.consumeAuthCode(code, redirectUri1, clientId)).willReturn(authCode);
+        given(authServer.db.consumeAuthCode(code, redirectUri2, clientId)).willReturn(authCode);
 
         HttpRequest req = mock(HttpRequest.class);
         String content = "redirect_uri="
@@ -399,7 +405,7 @@ public class AuthorizationServerTest {
         AccessToken token = authServer.issueAccessToken(req);
 
         // THEN
-        verify(authServer.db).findAuthCode(code, redirectUri2);
+        verify(authServer.db).consumeAuthCode(code, redirectUri2, clientId);
         assertNotNull(token);
     }
 
@@ -682,7 +688,8 @@ public class AuthorizationServerTest {
         AuthCode loadedCode = mock(AuthCode.class);
         given(loadedCode.getClientId()).willReturn(clientId);
         given(loadedCode.getRedirectUri()).willReturn(redirectUri);
-        given(authServer.db.findAuthCode(authCode, redirectUri2)).willReturn(loadedCode);
+        // the auth code is issued for another redirect uri, so it is not consumed
+        given(authServer.db.consumeAuthCode(authCode, redirectUri, clientId)).willReturn(loadedCode);
 
         HttpRequest req = mock(HttpRequest.class);
         String content = "redirect_uri="
@@ -702,12 +709,12 @@ public class AuthorizationServerTest {
         }
 
         // THEN
-        verify(authServer).findAuthCode(any(TokenRequest.class));
-        assertEquals(errorMsg, Response.INVALID_REDIRECT_URI);
+        verify(authServer).consumeAuthCode(any(TokenRequest.class));
+        assertEquals(errorMsg, Response.INVALID_AUTH_CODE);
     }
 
     @Test
-    public void when_grant_type_refresh_token_update_original_access_token_status()
+    public void when_grant_type_refresh_token_rotate_original_access_token()
             throws Exception {
         // GIVEN
         HttpRequest req = mock(HttpRequest.class);
@@ -722,15 +729,15 @@ public class AuthorizationServerTest {
         willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
         willReturn(refreshToken).given(accessToken).getRefreshToken();
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
 
         // WHEN
         AccessToken result = authServer.issueAccessToken(req);
 
         // THEN
         assertNotNull(result.getRefreshToken());
-        verify(authServer.db).updateAccessTokenValidStatus(accessToken.getToken(), false);
+        verify(authServer.db).rotateAccessToken(accessToken.getToken(), result);
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
     }
 
     @Test
@@ -780,6 +787,143 @@ public class AuthorizationServerTest {
         assertNotNull(result.getRefreshToken());
     }
 
+    @Test
+    public void when_async_user_authentication_completes_pass_access_token_to_callback() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "grant_type=" + TokenRequest.PASSWORD + "&username=rossi&password=test";
+        given(req.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        String clientId = "203598599234220";
+        willReturn(clientId).given(authServer).getBasicAuthorizationClientId(req);
+        willReturn(true).given(authServer).isActiveClientId(clientId);
+        willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
+        authServer.asyncAuthenticator = mock(AsyncUserAuthenticator.class);
+        AuthorizationServer.AccessTokenCallback callback = mock(AuthorizationServer.AccessTokenCallback.class);
+        ArgumentCaptor<AuthenticationCallback> authCallback = ArgumentCaptor.forClass(AuthenticationCallback.class);
+
+        // WHEN
+        authServer.issueAccessToken(req, callback);
+        verify(authServer.asyncAuthenticator).authenticate(eq("rossi"), eq("test"), eq(req), authCallback.capture());
+        authCallback.getValue().onSuccess(new UserDetails("123456", null));
+
+        // THEN
+        ArgumentCaptor<AccessToken> token = ArgumentCaptor.forClass(AccessToken.class);
+        verify(callback).onIssued(token.capture());
+        assertEquals(token.getValue().getUserId(), "123456");
+        assertEquals(token.getValue().getClientId(), clientId);
+        verify(authServer.db).storeAccessToken(token.getValue());
+        verify(authServer, never()).authenticateUser(anyString(), anyString(), any(HttpRequest.class));
+    }
+
+    @Test
+    public void when_async_user_authentication_completes_issue_access_token_in_execution_stage() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "grant_type=" + TokenRequest.PASSWORD + "&username=rossi&password=test";
+        given(req.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        String clientId = "203598599234220";
+        willReturn(clientId).given(authServer).getBasicAuthorizationClientId(req);
+        willReturn(true).given(authServer).isActiveClientId(clientId);
+        willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
+        authServer.asyncAuthenticator = mock(AsyncUserAuthenticator.class);
+        authServer.executionStage = mock(Executor.class);
+        AuthorizationServer.AccessTokenCallback callback = mock(AuthorizationServer.AccessTokenCallback.class);
+        ArgumentCaptor<AuthenticationCallback> authCallback = ArgumentCaptor.forClass(AuthenticationCallback.class);
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+
+        // WHEN
+        authServer.issueAccessToken(req, callback);
+        verify(authServer.asyncAuthenticator).authenticate(eq("rossi"), eq("test"), eq(req), authCallback.capture());
+        authCallback.getValue().onSuccess(new UserDetails("123456", null));
+
+        // THEN
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
+        verify(authServer.executionStage).execute(task.capture());
+        task.getValue().run();
+        ArgumentCaptor<AccessToken> token = ArgumentCaptor.forClass(AccessToken.class);
+        verify(callback).onIssued(token.capture());
+        verify(authServer.db).storeAccessToken(token.getValue());
+    }
+
+    @Test
+    public void when_execution_stage_rejects_access_token_issuing_return_service_unavailable() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "grant_type=" + TokenRequest.PASSWORD + "&username=rossi&password=test";
+        given(req.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        String clientId = "203598599234220";
+        willReturn(clientId).given(authServer).getBasicAuthorizationClientId(req);
+        willReturn(true).given(authServer).isActiveClientId(clientId);
+        willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
+        authServer.asyncAuthenticator = mock(AsyncUserAuthenticator.class);
+        authServer.executionStage = mock(Executor.class);
+        willThrow(new RejectedExecutionException()).given(authServer.executionStage).execute(any(Runnable.class));
+        AuthorizationServer.AccessTokenCallback callback = mock(AuthorizationServer.AccessTokenCallback.class);
+        ArgumentCaptor<AuthenticationCallback> authCallback = ArgumentCaptor.forClass(AuthenticationCallback.class);
+
+        // WHEN
+        authServer.issueAccessToken(req, callback);
+        verify(authServer.asyncAuthenticator).authenticate(eq("rossi"), eq("test"), eq(req), authCallback.capture());
+        authCallback.getValue().onSuccess(new UserDetails("123456", null));
+
+        // THEN
+        ArgumentCaptor<OAuthException> error = ArgumentCaptor.forClass(OAuthException.class);
+        verify(callback).onFailure(error.capture());
+        assertEquals(error.getValue().getHttpStatus(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
+    }
+
+    @Test
+    public void when_async_user_authentication_times_out_return_service_unavailable() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "grant_type=" + TokenRequest.PASSWORD + "&username=rossi&password=test";
+        given(req.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        String clientId = "203598599234220";
+        willReturn(clientId).given(authServer).getBasicAuthorizationClientId(req);
+        willReturn(true).given(authServer).isActiveClientId(clientId);
+        willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
+        authServer.asyncAuthenticator = mock(AsyncUserAuthenticator.class);
+        AuthorizationServer.AccessTokenCallback callback = mock(AuthorizationServer.AccessTokenCallback.class);
+        ArgumentCaptor<AuthenticationCallback> authCallback = ArgumentCaptor.forClass(AuthenticationCallback.class);
+
+        // WHEN
+        authServer.issueAccessToken(req, callback);
+        verify(authServer.asyncAuthenticator).authenticate(eq("rossi"), eq("test"), eq(req), authCallback.capture());
+        authCallback.getValue().onFailure(new AuthenticationTimeoutException("timed out"));
+
+        // THEN
+        ArgumentCaptor<OAuthException> error = ArgumentCaptor.forClass(OAuthException.class);
+        verify(callback).onFailure(error.capture());
+        assertEquals(error.getValue().getHttpStatus(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertEquals(error.getValue().getMessage(), Response.USER_AUTHENTICATION_TIMEOUT);
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
+    }
+
+    @Test
+    public void when_user_authentication_cached_do_not_authenticate_user_again() throws Exception {
+        // GIVEN
+        String content = "grant_type=" + TokenRequest.PASSWORD + "&username=rossi&password=test";
+        String clientId = "203598599234220";
+        HttpRequest req = mock(HttpRequest.class);
+        given(req.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        HttpRequest secondReq = mock(HttpRequest.class);
+        given(secondReq.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        willReturn(clientId).given(authServer).getBasicAuthorizationClientId(any(HttpRequest.class));
+        willReturn(true).given(authServer).isActiveClientId(clientId);
+        willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
+        willReturn(new UserDetails("123456", null)).given(authServer).authenticateUser("rossi", "test", req);
+        authServer.userAuthCache = new UserAuthenticationCache(100, 60);
+
+        // WHEN
+        authServer.issueAccessToken(req);
+        AccessToken result = authServer.issueAccessToken(secondReq);
+
+        // THEN
+        assertEquals(result.getUserId(), "123456");
+        verify(authServer, times(1)).authenticateUser(anyString(), anyString(), any(HttpRequest.class));
+    }
+
     @Test
     public void when_grant_type_password_and_auth_failed_return_error() throws Exception {
         // GIVEN
@@ -890,8 +1034,7 @@ public class AuthorizationServerTest {
         willReturn("basic").given(accessToken).getScope();
         willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
         willReturn(900).given(authServer.scopeService).getExpiresIn(TokenRequest.PASSWORD, "basic");
 
         // WHEN
@@ -1246,8 +1389,7 @@ public class AuthorizationServerTest {
         willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
         willReturn("basic").given(accessToken).getScope();
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
 
         // WHEN
         AccessToken result = authServer.issueAccessToken(req);
@@ -1274,8 +1416,7 @@ public class AuthorizationServerTest {
         willReturn("basic, extended").given(accessToken).getScope();
         willReturn(true).given(authServer.scopeService).scopeAllowed(anyString(), anyString());
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
 
         // WHEN
         AccessToken result = authServer.issueAccessToken(req);
@@ -1302,8 +1443,7 @@ public class AuthorizationServerTest {
         willReturn("basic, extended").given(accessToken).getScope();
         willReturn(false).given(authServer.scopeService).scopeAllowed(anyString(), anyString());
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
 
         // WHEN
         String errorMsg = null;
@@ -1496,14 +1636,14 @@ public class AuthorizationServerTest {
         ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
         given(req.getContent()).willReturn(buf);
         willReturn(true).given(authServer).isActiveClient(clientId, clientSecret);
-        willReturn(null).given(authServer).callCustomGrantTypeHandler(req);
+        willReturn(null).given(authServer).callCustomGrantTypeHandler("custom", req);
         willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
 
         // WHEN
         authServer.issueAccessToken(req);
 
         // THEN
-        verify(authServer).callCustomGrantTypeHandler(req);
+        verify(authServer).callCustomGrantTypeHandler("custom", req);
     }
 
     @Test
@@ -1517,7 +1657,7 @@ public class AuthorizationServerTest {
         ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
         given(req.getContent()).willReturn(buf);
         willReturn(true).given(authServer).isActiveClient(clientId, clientSecret);
-        willReturn(null).given(authServer).callCustomGrantTypeHandler(req);
+        willReturn(null).given(authServer).callCustomGrantTypeHandler("custom", req);
 
         // WHEN
         String errorMsg = null;
@@ -1545,7 +1685,7 @@ public class AuthorizationServerTest {
         UserDetails userDetails = mock(UserDetails.class);
         willReturn("12345").given(userDetails).getUserId();
         willReturn(null).given(userDetails).getDetails();
-        willReturn(userDetails).given(authServer).callCustomGrantTypeHandler(req);
+        willReturn(userDetails).given(authServer).callCustomGrantTypeHandler("custom", req);
         willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
 
         // WHEN
@@ -1556,6 +1696,65 @@ public class AuthorizationServerTest {
         verify(userDetails).getDetails();
     }
 
+    @Test
+    public void when_custom_grant_type_isolated_pass_access_token_to_callback() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String clientId = "203598599234220";
+        String clientSecret = "f754cb0cd78c4c36fa3c1c0325ef72bb4a011373";
+        String content = "grant_type=" + OAuthServer.getCustomGrantType() + "&client_id=" + clientId
+                + "&client_secret=" + clientSecret;
+        given(req.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        willReturn(true).given(authServer).isActiveClient(clientId, clientSecret);
+        willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
+        CustomGrantType customGrantType = mock(CustomGrantType.class);
+        willReturn(true).given(customGrantType).isIsolated();
+        authServer.customGrantTypes = mock(CustomGrantTypeRegistry.class);
+        willReturn(customGrantType).given(authServer.customGrantTypes).get(OAuthServer.getCustomGrantType());
+        AuthorizationServer.AccessTokenCallback callback = mock(AuthorizationServer.AccessTokenCallback.class);
+        ArgumentCaptor<AuthenticationCallback> grantCallback = ArgumentCaptor.forClass(AuthenticationCallback.class);
+
+        // WHEN
+        authServer.issueAccessToken(req, callback);
+        verify(customGrantType).execute(eq(req), grantCallback.capture());
+        grantCallback.getValue().onSuccess(new UserDetails("123456", null));
+
+        // THEN
+        ArgumentCaptor<AccessToken> token = ArgumentCaptor.forClass(AccessToken.class);
+        verify(callback).onIssued(token.capture());
+        assertEquals(token.getValue().getUserId(), "123456");
+        verify(authServer.db).storeAccessToken(token.getValue());
+        verify(authServer, never()).callCustomGrantTypeHandler(anyString(), any(HttpRequest.class));
+    }
+
+    @Test
+    public void when_custom_grant_type_times_out_return_service_unavailable() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String clientId = "203598599234220";
+        String clientSecret = "f754cb0cd78c4c36fa3c1c0325ef72bb4a011373";
+        String content = "grant_type=" + OAuthServer.getCustomGrantType() + "&client_id=" + clientId
+                + "&client_secret=" + clientSecret;
+        given(req.getContent()).willReturn(ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8)));
+        willReturn(true).given(authServer).isActiveClient(clientId, clientSecret);
+        willReturn("basic").given(authServer.scopeService).getValidScope(null, clientId);
+        willThrow(new AuthenticationTimeoutException("timed out")).given(authServer)
+                .callCustomGrantTypeHandler(OAuthServer.getCustomGrantType(), req);
+
+        // WHEN
+        OAuthException error = null;
+        try {
+            authServer.issueAccessToken(req);
+        } catch (OAuthException e) {
+            error = e;
+        }
+
+        // THEN
+        assertEquals(error.getHttpStatus(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertEquals(error.getMessage(), Response.GRANT_TYPE_UNAVAILABLE);
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
+    }
+
     @Test
     public void when_update_client_app_with_invalid_client_id_throws_oauth_exception_with_bad_request_status() throws Exception {
         // GIVEN
@@ -1720,8 +1919,7 @@ public class AuthorizationServerTest {
         willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
         willReturn(refreshToken).given(accessToken).getRefreshToken();
         willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
-        willDoNothing().given(authServer.db).updateAccessTokenValidStatus(anyString(), anyBoolean());
-        willDoNothing().given(authServer.db).storeAccessToken(any(AccessToken.class));
+        willReturn(true).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
         willReturn(900).given(authServer.scopeService).getExpiresIn(TokenRequest.PASSWORD, "basic");
 
         // WHEN
@@ -1762,4 +1960,168 @@ public class AuthorizationServerTest {
         // THEN
         verify(authServer.db).removeAccessToken(accessToken.getToken());
     }
+
+    @Test
+    public void when_refresh_token_already_rotated_return_invalid_refresh_token() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String refreshToken = "403b510679013ea1813b6fb5f76e7ddfedb8852d9eb8eef73";
+        String content = "grant_type=" + TokenRequest.REFRESH_TOKEN + "&refresh_token=" + refreshToken;
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
+        given(req.getContent()).willReturn(buf);
+        String clientId = "203598599234220";
+        willReturn(clientId).given(authServer).getBasicAuthorizationClientId(req);
+        willReturn(true).given(authServer).isActiveClientId(clientId);
+        AccessToken accessToken = mock(AccessToken.class);
+        willReturn("basic").given(accessToken).getScope();
+        willReturn("02d31ca13a0e448802b063ca2e16010b74b0e96ce9e05e953e").given(accessToken).getToken();
+        willReturn(refreshToken).given(accessToken).getRefreshToken();
+        willReturn(accessToken).given(authServer.db).findAccessTokenByRefreshToken(refreshToken, clientId);
+        willReturn(false).given(authServer.db).rotateAccessToken(anyString(), any(AccessToken.class));
+
+        // WHEN
+        String errorMsg = null;
+        try {
+            authServer.issueAccessToken(req);
+        } catch (OAuthException e) {
+            errorMsg = e.getMessage();
+        }
+
+        // THEN
+        assertEquals(errorMsg, Response.INVALID_REFRESH_TOKEN);
+        verify(authServer.db, never()).storeAccessToken(any(AccessToken.class));
+    }
+
+    @Test
+    public void when_validate_tokens_return_only_valid_not_expired_tokens() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "{\"tokens\":[\"token1\",\"token2\",\"token3\",\"token1\"]}";
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
+        willReturn(buf).given(req).getContent();
+
+        AccessToken validToken = mock(AccessToken.class);
+        willReturn(true).given(validToken).isValid();
+        willReturn(false).given(validToken).tokenExpired();
+        AccessToken expiredToken = mock(AccessToken.class);
+        willReturn(true).given(expiredToken).isValid();
+        willReturn(true).given(expiredToken).tokenExpired();
+        willReturn("token2").given(expiredToken).getToken();
+        Map<String, AccessToken> found = new HashMap<String, AccessToken>();
+        found.put("token1", validToken);
+        found.put("token2", expiredToken);
+        willReturn(found).given(authServer.db).findAccessTokens(anyCollection());
+
+        // WHEN
+        Map<String, AccessToken> result = authServer.validateTokens(req);
+
+        // THEN
+        assertEquals(result.size(), 1);
+        assertEquals(result.get("token1"), validToken);
+        verify(authServer.db).findAccessTokens(java.util.Arrays.asList("token1", "token2", "token3"));
+        verify(authServer.db).updateAccessTokenValidStatus("token2", false);
+    }
+
+    @Test
+    public void when_validate_tokens_without_tokens_throw_exception() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer("{\"tokens\":[]}".getBytes(CharsetUtil.UTF_8));
+        willReturn(buf).given(req).getContent();
+
+        // WHEN
+        String message = null;
+        try {
+            authServer.validateTokens(req);
+        } catch (OAuthException e) {
+            message = e.getMessage();
+        }
+
+        // THEN
+        assertEquals(message, String.format(Response.MANDATORY_PARAM_MISSING, "tokens"));
+        verify(authServer.db, never()).findAccessTokens(anyCollection());
+    }
+
+    @Test
+    public void when_signed_token_is_valid_do_not_look_it_up_in_db() throws Exception {
+        // GIVEN
+        authServer.tokenSigner = new TokenSigner(TokenSigner.parseKeys("k1:0123456789abcdef0123456789abcdef"), "k1");
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setClientId("203598599234220");
+        String token = authServer.tokenSigner.sign(accessToken);
+
+        // WHEN
+        AccessToken result = authServer.isValidToken(token);
+
+        // THEN
+        assertEquals(result.getClientId(), "203598599234220");
+        verify(authServer.db, never()).findAccessToken(anyString());
+    }
+
+    @Test
+    public void when_signed_token_is_revoked_return_null() throws Exception {
+        // GIVEN
+        authServer.tokenSigner = new TokenSigner(TokenSigner.parseKeys("k1:0123456789abcdef0123456789abcdef"), "k1");
+        String clientId = "203598599234220";
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setClientId(clientId);
+        String token = authServer.tokenSigner.sign(accessToken);
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "{\"access_token\":\"" + token + "\",\"client_id\":\"" + clientId + "\"}";
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
+        willReturn(buf).given(req).getContent();
+        willReturn(true).given(authServer).isExistingClient(clientId);
+
+        // WHEN
+        boolean revoked = authServer.revokeToken(req);
+        AccessToken result = authServer.isValidToken(token);
+
+        // THEN
+        assertTrue(revoked);
+        assertNull(result);
+        verify(authServer.db).removeAccessToken(token);
+        verify(authServer.db, never()).findAccessToken(anyString());
+    }
+
+    @Test
+    public void when_signed_token_is_expired_return_null() throws Exception {
+        // GIVEN
+        authServer.tokenSigner = new TokenSigner(TokenSigner.parseKeys("k1:0123456789abcdef0123456789abcdef"), "k1");
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setCreated(System.currentTimeMillis() - 301 * 1000);
+        String token = authServer.tokenSigner.sign(accessToken);
+
+        // WHEN
+        AccessToken result = authServer.isValidToken(token);
+
+        // THEN
+        assertNull(result);
+    }
+
+    @Test
+    public void when_grant_type_client_credentials_issue_signed_access_token() throws Exception {
+        // GIVEN
+        authServer.tokenSigner = new TokenSigner(TokenSigner.parseKeys("k1:0123456789abcdef0123456789abcdef"), "k1");
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "grant_type=" + TokenRequest.CLIENT_CREDENTIALS + "&scope=basic";
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
+        given(req.getContent()).willReturn(buf);
+        String clientId = "203598599234220";
+        ClientCredentials clientCredentials = new ClientCredentials();
+        clientCredentials.setScope("basic");
+        clientCredentials.setId(clientId);
+        given(authServer.db.findClientCredentials(clientId)).willReturn(clientCredentials);
+        willReturn("basic").given(authServer.scopeService).getValidScopeByScope(anyString(), anyString());
+        willReturn(clientId).given(authServer).getBasicAuthorizationClientId(req);
+        willReturn(true).given(authServer).isActiveClientId(clientId);
+        willReturn(1800).given(authServer.scopeService).getExpiresIn(TokenRequest.CLIENT_CREDENTIALS, "basic");
+
+        // WHEN
+        AccessToken result = authServer.issueAccessToken(req);
+
+        // THEN
+        assertTrue(TokenSigner.isSignedToken(result.getToken()));
+        assertEquals(authServer.isValidToken(result.getToken()).getClientId(), clientId);
+        verify(authServer.db).storeAccessToken(result);
+    }
 }
@@ -0,0 +1,452 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CachingDBManagerTest {
+
+    DBManager db;
+    CachingDBManager cachingDB;
+
+    @BeforeMethod
+    public void setup() {
+        db = mock(DBManager.class);
+        cachingDB = new CachingDBManager(db, new AccessTokenCache(1000, 0, 60), new UnknownTokenCache(1000, 5));
+    }
+
+    @Test
+    public void when_token_is_cached_do_not_load_it_from_db() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+
+        // WHEN
+        cachingDB.findAccessToken(accessToken.getToken());
+        AccessToken result = cachingDB.findAccessToken(accessToken.getToken());
+
+        // THEN
+        assertEquals(result.getToken(), accessToken.getToken());
+        verify(db, times(1)).findAccessToken(accessToken.getToken());
+        assertEquals(cachingDB.getAccessTokenCache().getHits(), 1);
+        assertEquals(cachingDB.getAccessTokenCache().getMisses(), 1);
+    }
+
+    @Test
+    public void when_token_is_removed_invalidate_cached_token() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // WHEN
+        cachingDB.removeAccessToken(accessToken.getToken());
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // THEN
+        verify(db).removeAccessToken(accessToken.getToken());
+        verify(db, times(2)).findAccessToken(accessToken.getToken());
+    }
+
+    @Test
+    public void when_token_is_rotated_invalidate_cached_old_token() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        AccessToken newToken = new AccessToken("Bearer", "300", "basic", "600");
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+        willReturn(true).given(db).rotateAccessToken(accessToken.getToken(), newToken);
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // WHEN
+        boolean rotated = cachingDB.rotateAccessToken(accessToken.getToken(), newToken);
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // THEN
+        assertTrue(rotated);
+        verify(db, times(2)).findAccessToken(accessToken.getToken());
+    }
+
+    @Test
+    public void when_token_is_not_rotated_keep_cached_token() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        AccessToken newToken = new AccessToken("Bearer", "300", "basic", "600");
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+        willReturn(false).given(db).rotateAccessToken(accessToken.getToken(), newToken);
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // WHEN
+        boolean rotated = cachingDB.rotateAccessToken(accessToken.getToken(), newToken);
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // THEN
+        assertFalse(rotated);
+        verify(db, times(1)).findAccessToken(accessToken.getToken());
+    }
+
+    @Test
+    public void when_token_status_is_updated_invalidate_cached_token() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // WHEN
+        cachingDB.updateAccessTokenValidStatus(accessToken.getToken(), false);
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // THEN
+        verify(db).updateAccessTokenValidStatus(accessToken.getToken(), false);
+        verify(db, times(2)).findAccessToken(accessToken.getToken());
+    }
+
+    @Test
+    public void when_token_is_expired_do_not_cache_it() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        accessToken.setCreated(System.currentTimeMillis() - 301 * 1000);
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+
+        // WHEN
+        cachingDB.findAccessToken(accessToken.getToken());
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // THEN
+        verify(db, times(2)).findAccessToken(accessToken.getToken());
+    }
+
+    @Test
+    public void when_cached_token_changed_by_caller_do_not_change_cached_one() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+        cachingDB.findAccessToken(accessToken.getToken()).setValid(false);
+
+        // WHEN
+        AccessToken result = cachingDB.findAccessToken(accessToken.getToken());
+        result.setScope("other");
+
+        // THEN
+        AccessToken cached = cachingDB.findAccessToken(accessToken.getToken());
+        assertTrue(cached.isValid());
+        assertEquals(cached.getScope(), "basic");
+        verify(db, times(1)).findAccessToken(accessToken.getToken());
+    }
+
+    @Test
+    public void when_token_removed_while_loaded_do_not_cache_it() throws Exception {
+        // GIVEN
+        final AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        willAnswer(new Answer<AccessToken>() {
+            @Override
+            public AccessToken answer(InvocationOnMock invocation) {
+                // revoked by another request after the token is read from the DB
+                cachingDB.removeAccessToken(accessToken.getToken());
+                return accessToken;
+            }
+        }).given(db).findAccessToken(accessToken.getToken());
+
+        // WHEN
+        cachingDB.findAccessToken(accessToken.getToken());
+
+        // THEN
+        assertEquals(cachingDB.getAccessTokenCache().size(), 0);
+    }
+
+    @Test
+    public void when_cache_is_full_evict_least_recently_used_token() throws Exception {
+        // GIVEN
+        AccessTokenCache cache = new AccessTokenCache(16, 0, 60);
+        cachingDB = new CachingDBManager(db, cache, null);
+
+        // WHEN
+        for (int i = 0; i < 100; i++) {
+            AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+            willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+            cachingDB.findAccessToken(accessToken.getToken());
+        }
+
+        // THEN
+        assertEquals(cache.size() + cache.getEvictions(), 100);
+        assertEquals(cache.size() <= 16, true);
+    }
+
+    @Test
+    public void when_cache_exceeds_max_bytes_evict_tokens() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        AccessTokenCache cache = new AccessTokenCache(1000, 16, 60);
+
+        // WHEN
+        cache.put(accessToken);
+
+        // THEN
+        assertNull(cache.get(accessToken.getToken()));
+        assertEquals(cache.getEvictions(), 1);
+        assertEquals(cache.getBytes(), 0);
+    }
+
+    @Test
+    public void when_token_not_found_do_not_look_it_up_again() throws Exception {
+        // GIVEN
+        String token = "a9855207b560ac824dfb84f4d235243afdccfacaa3a32c66baeeec06eb0afa9c";
+
+        // WHEN
+        cachingDB.findAccessToken(token);
+        AccessToken result = cachingDB.findAccessToken(token);
+
+        // THEN
+        assertNull(result);
+        verify(db, times(1)).findAccessToken(token);
+        assertEquals(cachingDB.getUnknownTokenCache().getHits(), 1);
+    }
+
+    @Test
+    public void when_token_stored_remove_it_from_unknown_tokens() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        cachingDB.findAccessToken(accessToken.getToken());
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+
+        // WHEN
+        cachingDB.storeAccessToken(accessToken);
+        AccessToken result = cachingDB.findAccessToken(accessToken.getToken());
+
+        // THEN
+        verify(db).storeAccessToken(accessToken);
+        assertEquals(result, accessToken);
+    }
+
+    @Test
+    public void when_find_tokens_load_from_db_only_not_cached_tokens() throws Exception {
+        // GIVEN
+        AccessToken cachedToken = new AccessToken("Bearer", "300", "basic", "600");
+        willReturn(cachedToken).given(db).findAccessToken(cachedToken.getToken());
+        cachingDB.findAccessToken(cachedToken.getToken());
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        Map<String, AccessToken> loaded = new HashMap<String, AccessToken>();
+        loaded.put(accessToken.getToken(), accessToken);
+        willReturn(loaded).given(db).findAccessTokens(Arrays.asList(accessToken.getToken(), "unknown"));
+
+        // WHEN
+        Map<String, AccessToken> result = cachingDB.findAccessTokens(
+                Arrays.asList(cachedToken.getToken(), accessToken.getToken(), "unknown"));
+        cachingDB.findAccessTokens(Arrays.asList(accessToken.getToken(), "unknown"));
+
+        // THEN
+        assertEquals(result.size(), 2);
+        assertEquals(result.get(cachedToken.getToken()).getToken(), cachedToken.getToken());
+        assertEquals(result.get(accessToken.getToken()), accessToken);
+        verify(db, times(1)).findAccessTokens(anyCollection());
+    }
+
+    private static ClientCredentials createActiveClient() {
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        creds.setStatus(ClientCredentials.ACTIVE_STATUS);
+        return creds;
+    }
+
+    @Test
+    public void when_client_is_cached_do_not_load_it_from_db() throws Exception {
+        // GIVEN
+        cachingDB = new CachingDBManager(db, null, null, new ClientCredentialsCache(100, 60), null);
+        ClientCredentials creds = createActiveClient();
+        willReturn(creds).given(db).findClientCredentials(creds.getId());
+
+        // WHEN
+        cachingDB.findClientCredentials(creds.getId());
+        ClientCredentials result = cachingDB.findClientCredentials(creds.getId());
+
+        // THEN
+        assertEquals(result.getId(), creds.getId());
+        verify(db, times(1)).findClientCredentials(creds.getId());
+    }
+
+    @Test
+    public void when_cached_client_changed_by_caller_do_not_change_cached_one() throws Exception {
+        // GIVEN
+        cachingDB = new CachingDBManager(db, null, null, new ClientCredentialsCache(100, 60), null);
+        ClientCredentials creds = createActiveClient();
+        willReturn(creds).given(db).findClientCredentials(creds.getId());
+        cachingDB.findClientCredentials(creds.getId()).setStatus(ClientCredentials.INACTIVE_STATUS);
+
+        // WHEN
+        cachingDB.findClientCredentials(creds.getId()).setScope("other");
+
+        // THEN
+        ClientCredentials cached = cachingDB.findClientCredentials(creds.getId());
+        assertEquals(cached.getStatus(), ClientCredentials.ACTIVE_STATUS);
+        assertEquals(cached.getScope(), "basic");
+        verify(db, times(1)).findClientCredentials(creds.getId());
+    }
+
+    @Test
+    public void when_client_updated_while_loaded_do_not_cache_it() throws Exception {
+        // GIVEN
+        final ClientCredentialsCache clientCache = new ClientCredentialsCache(100, 60);
+        cachingDB = new CachingDBManager(db, null, null, clientCache, null);
+        final ClientCredentials creds = createActiveClient();
+        willAnswer(new Answer<ClientCredentials>() {
+            @Override
+            public ClientCredentials answer(InvocationOnMock invocation) {
+                // deactivated by another request after the client application is read from the DB
+                cachingDB.updateClientApp(creds.getId(), null, null, ClientCredentials.INACTIVE_STATUS, null);
+                return creds;
+            }
+        }).given(db).findClientCredentials(creds.getId());
+
+        // WHEN
+        cachingDB.findClientCredentials(creds.getId());
+
+        // THEN
+        assertEquals(clientCache.size(), 0);
+    }
+
+    @Test
+    public void when_client_is_cached_check_client_secret_without_db() throws Exception {
+        // GIVEN
+        cachingDB = new CachingDBManager(db, null, null, new ClientCredentialsCache(100, 60), null);
+        ClientCredentials creds = createActiveClient();
+        willReturn(creds).given(db).findClientCredentials(creds.getId());
+        cachingDB.findClientCredentials(creds.getId());
+
+        // WHEN
+        boolean valid = cachingDB.validClient(creds.getId(), creds.getSecret());
+        boolean invalid = cachingDB.validClient(creds.getId(), "wrong");
+
+        // THEN
+        assertTrue(valid);
+        assertFalse(invalid);
+        verify(db, never()).validClient(anyString(), anyString());
+        verify(db, times(1)).findClientCredentials(creds.getId());
+    }
+
+    @Test
+    public void when_client_is_updated_invalidate_cached_client() throws Exception {
+        // GIVEN
+        cachingDB = new CachingDBManager(db, null, null, new ClientCredentialsCache(100, 60), null);
+        ClientCredentials creds = createActiveClient();
+        willReturn(creds).given(db).findClientCredentials(creds.getId());
+        cachingDB.findClientCredentials(creds.getId());
+
+        // WHEN
+        cachingDB.updateClientApp(creds.getId(), "extended", null, null, null);
+        cachingDB.findClientCredentials(creds.getId());
+
+        // THEN
+        verify(db, times(2)).findClientCredentials(creds.getId());
+    }
+
+    @Test
+    public void when_client_invalidation_received_invalidate_cached_client() throws Exception {
+        // GIVEN
+        cachingDB = new CachingDBManager(db, null, null, new ClientCredentialsCache(100, 60), null);
+        ClientCredentials creds = createActiveClient();
+        willReturn(creds).given(db).findClientCredentials(creds.getId());
+        cachingDB.findClientCredentials(creds.getId());
+
+        // WHEN
+        cachingDB.onInvalidation(new InvalidationEvent(InvalidationEvent.Type.CLIENT, creds.getId(), 0, "node",
+                System.currentTimeMillis()));
+        cachingDB.findClientCredentials(creds.getId());
+
+        // THEN
+        verify(db, times(2)).findClientCredentials(creds.getId());
+    }
+
+    @Test
+    public void when_request_scope_open_load_client_once_per_request() throws Exception {
+        // GIVEN
+        ClientCredentials creds = createActiveClient();
+        willReturn(creds).given(db).findClientCredentials(creds.getId());
+
+        // WHEN
+        CachingDBManager.beginRequestScope();
+        try {
+            cachingDB.findClientCredentials(creds.getId());
+            cachingDB.validClient(creds.getId(), creds.getSecret());
+            cachingDB.findClientCredentials(creds.getId());
+            cachingDB.findClientCredentials("unknown");
+            cachingDB.findClientCredentials("unknown");
+        } finally {
+            CachingDBManager.endRequestScope();
+        }
+        cachingDB.findClientCredentials(creds.getId());
+
+        // THEN
+        verify(db, times(2)).findClientCredentials(creds.getId());
+        verify(db, times(1)).findClientCredentials("unknown");
+        verify(db, never()).validClient(anyString(), anyString());
+    }
+
+    @Test
+    public void when_scope_registry_used_do_not_load_scope_from_db() throws Exception {
+        // GIVEN
+        cachingDB = new CachingDBManager(db, null, null, null, new ScopeRegistry(db, 0), null);
+        Scope scope = new Scope();
+        scope.setScope("basic");
+        willReturn(Arrays.asList(scope)).given(db).getAllScopes();
+
+        // WHEN
+        Scope result = cachingDB.findScope("basic");
+        cachingDB.findScope("basic");
+
+        // THEN
+        assertEquals(result, scope);
+        verify(db, never()).findScope(anyString());
+        verify(db, times(1)).getAllScopes();
+    }
+
+    @Test
+    public void when_scope_stored_or_changed_on_another_node_reload_scopes() throws Exception {
+        // GIVEN
+        cachingDB = new CachingDBManager(db, null, null, null, new ScopeRegistry(db, 0), null);
+        Scope scope = new Scope();
+        scope.setScope("basic");
+        willReturn(Arrays.asList(scope)).given(db).getAllScopes();
+        cachingDB.findScope("basic");
+
+        // WHEN
+        cachingDB.storeScope(scope);
+        cachingDB.onInvalidation(new InvalidationEvent(InvalidationEvent.Type.SCOPE, "basic", 0, "node",
+                System.currentTimeMillis()));
+
+        // THEN
+        verify(db).storeScope(scope);
+        verify(db, times(3)).getAllScopes();
+    }
+}
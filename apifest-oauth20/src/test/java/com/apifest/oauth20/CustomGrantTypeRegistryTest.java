@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.api.ICustomGrantTypeHandler;
+
+public class CustomGrantTypeRegistryTest {
+
+    @BeforeMethod
+    public void setup() {
+        CustomGrantTypeRegistry.log = mock(Logger.class);
+    }
+
+    @Test
+    public void when_custom_grant_types_set_parse_config_per_grant_type() throws Exception {
+        // GIVEN
+        Properties props = new Properties();
+        props.setProperty("custom.grant_type", "custom");
+        props.setProperty("custom.grant_type.class", "com.example.CustomHandler");
+        props.setProperty("custom.grant_types", "device, partner");
+        props.setProperty("custom.grant_type.device.name", "urn:ietf:params:oauth:grant-type:device_code");
+        props.setProperty("custom.grant_type.device.class", "com.example.DeviceHandler");
+        props.setProperty("custom.grant_type.partner.class", "com.example.PartnerHandler");
+        props.setProperty("custom.grant_type.partner.threads", "4");
+        props.setProperty("custom.grant_type.partner.queue_size", "20");
+        props.setProperty("custom.grant_type.partner.max_concurrent", "8");
+        props.setProperty("custom.grant_type.partner.timeout", "1500");
+
+        // WHEN
+        List<CustomGrantTypeRegistry.Config> configs = CustomGrantTypeRegistry.parseConfigs(props);
+
+        // THEN
+        assertEquals(configs.size(), 3);
+        assertEquals(configs.get(0).getName(), "custom");
+        assertEquals(configs.get(0).getClassName(), "com.example.CustomHandler");
+        assertEquals(configs.get(0).getThreads(), 0);
+        assertEquals(configs.get(1).getName(), "urn:ietf:params:oauth:grant-type:device_code");
+        assertEquals(configs.get(1).getAlias(), "device");
+        assertEquals(configs.get(1).getTimeout(), CustomGrantType.DEFAULT_TIMEOUT);
+        CustomGrantTypeRegistry.Config partner = configs.get(2);
+        assertEquals(partner.getName(), "partner");
+        assertEquals(partner.getClassName(), "com.example.PartnerHandler");
+        assertEquals(partner.getThreads(), 4);
+        assertEquals(partner.getQueueSize(), 20);
+        assertEquals(partner.getMaxConcurrent(), 8);
+        assertEquals(partner.getTimeout(), 1500);
+    }
+
+    @Test
+    public void when_grant_type_configured_twice_ignore_second_config() throws Exception {
+        // GIVEN
+        Properties props = new Properties();
+        props.setProperty("custom.grant_type", "partner");
+        props.setProperty("custom.grant_types", "partner");
+
+        // WHEN
+        List<CustomGrantTypeRegistry.Config> configs = CustomGrantTypeRegistry.parseConfigs(props);
+
+        // THEN
+        assertEquals(configs.size(), 1);
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void when_handler_class_not_loaded_do_not_register_grant_type() throws Exception {
+        // GIVEN
+        Properties props = new Properties();
+        props.setProperty("custom.grant_types", "device,partner");
+        props.setProperty("custom.grant_type.partner.threads", "1");
+        List<CustomGrantTypeRegistry.Config> configs = CustomGrantTypeRegistry.parseConfigs(props);
+        configs.get(1).setHandlerClass((Class) ICustomGrantTypeHandler.class);
+
+        // WHEN
+        CustomGrantTypeRegistry registry = new CustomGrantTypeRegistry(configs, mock(Timer.class));
+
+        // THEN
+        assertNull(registry.get("device"));
+        assertNotNull(registry.get("partner"));
+        assertTrue(registry.hasIsolatedGrantTypes());
+        registry.shutdown();
+    }
+
+    @Test
+    public void when_no_custom_grant_type_set_return_empty_config() throws Exception {
+        // WHEN
+        List<CustomGrantTypeRegistry.Config> configs = CustomGrantTypeRegistry.parseConfigs(new Properties());
+
+        // THEN
+        assertTrue(configs.isEmpty());
+        assertFalse(new CustomGrantTypeRegistry(configs, mock(Timer.class)).hasIsolatedGrantTypes());
+    }
+}
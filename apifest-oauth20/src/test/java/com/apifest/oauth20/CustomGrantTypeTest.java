@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.api.AuthenticationCallback;
+import com.apifest.oauth20.api.AuthenticationException;
+import com.apifest.oauth20.api.ICustomGrantTypeHandler;
+import com.apifest.oauth20.api.UserDetails;
+
+public class CustomGrantTypeTest {
+
+    static final UserDetails USER_DETAILS = new UserDetails("12345", null);
+    static final AtomicInteger instances = new AtomicInteger();
+    static volatile CountDownLatch release;
+
+    HashedWheelTimer timer;
+    CustomGrantType grantType;
+
+    public static class CountingHandler implements ICustomGrantTypeHandler {
+        public CountingHandler() {
+            instances.incrementAndGet();
+        }
+
+        @Override
+        public UserDetails execute(HttpRequest request) throws AuthenticationException {
+            return USER_DETAILS;
+        }
+    }
+
+    public static class BlockingHandler implements ICustomGrantTypeHandler {
+        @Override
+        public UserDetails execute(HttpRequest request) throws AuthenticationException {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return USER_DETAILS;
+        }
+    }
+
+    public static class FailingHandler implements ICustomGrantTypeHandler {
+        @Override
+        public UserDetails execute(HttpRequest request) throws AuthenticationException {
+            throw new AuthenticationException("invalid assertion");
+        }
+    }
+
+    @BeforeMethod
+    public void setup() {
+        CustomGrantType.log = mock(Logger.class);
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        instances.set(0);
+        release = new CountDownLatch(1);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        release.countDown();
+        if (grantType != null) {
+            grantType.shutdown();
+        }
+        timer.stop();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private CustomGrantType createGrantType(Class handlerClass, int threads, int maxConcurrent, long timeout) {
+        grantType = new CustomGrantType("partner", handlerClass, threads, 10, maxConcurrent, timeout, timer);
+        return grantType;
+    }
+
+    @Test
+    public void when_no_threads_execute_handler_in_calling_thread_and_reuse_handler_instance() throws Exception {
+        // GIVEN
+        createGrantType(CountingHandler.class, 0, 0, 100);
+
+        // WHEN
+        UserDetails first = grantType.execute(mock(HttpRequest.class));
+        UserDetails second = grantType.execute(mock(HttpRequest.class));
+
+        // THEN
+        assertSame(first, USER_DETAILS);
+        assertSame(second, USER_DETAILS);
+        assertEquals(instances.get(), 1);
+        assertEquals(grantType.getMetrics().get("requests"), 2L);
+    }
+
+    @Test
+    public void when_threads_set_pass_user_details_from_grant_type_thread() throws Exception {
+        // GIVEN
+        createGrantType(CountingHandler.class, 2, 0, 5000);
+        AuthenticationCallback callback = mock(AuthenticationCallback.class);
+
+        // WHEN
+        grantType.execute(mock(HttpRequest.class), callback);
+
+        // THEN
+        verify(callback, timeout(1000)).onSuccess(USER_DETAILS);
+        assertTrue(grantType.isIsolated());
+    }
+
+    @Test
+    public void when_handler_does_not_complete_in_time_pass_timeout_exception() throws Exception {
+        // GIVEN
+        createGrantType(BlockingHandler.class, 1, 0, 20);
+        AuthenticationCallback callback = mock(AuthenticationCallback.class);
+        ArgumentCaptor<AuthenticationException> captor = ArgumentCaptor.forClass(AuthenticationException.class);
+
+        // WHEN
+        grantType.execute(mock(HttpRequest.class), callback);
+
+        // THEN
+        verify(callback, timeout(1000)).onFailure(captor.capture());
+        assertTrue(captor.getValue() instanceof AuthenticationTimeoutException);
+        assertEquals(grantType.getTimeouts(), 1L);
+    }
+
+    @Test
+    public void when_max_concurrent_reached_reject_request_immediately() throws Exception {
+        // GIVEN
+        createGrantType(BlockingHandler.class, 2, 1, 5000);
+        AuthenticationCallback first = mock(AuthenticationCallback.class);
+        AuthenticationCallback second = mock(AuthenticationCallback.class);
+        grantType.execute(mock(HttpRequest.class), first);
+
+        // WHEN
+        grantType.execute(mock(HttpRequest.class), second);
+
+        // THEN
+        verify(second).onFailure(any(GrantTypeUnavailableException.class));
+        assertEquals(grantType.getRejected(), 1L);
+        release.countDown();
+        verify(first, timeout(1000)).onSuccess(USER_DETAILS);
+    }
+
+    @Test(expectedExceptions = AuthenticationException.class, expectedExceptionsMessageRegExp = "invalid assertion")
+    public void when_handler_fails_throw_its_exception() throws Exception {
+        // GIVEN
+        createGrantType(FailingHandler.class, 1, 0, 5000);
+
+        // WHEN
+        try {
+            grantType.execute(mock(HttpRequest.class));
+        } finally {
+            // THEN
+            assertEquals(grantType.getFailed(), 1L);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.apifest.oauth20;
 
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
 import static org.mockito.BDDMockito.willDoNothing;
 import static org.mockito.BDDMockito.willReturn;
 import static org.mockito.BDDMockito.willThrow;
@@ -25,7 +26,11 @@ import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
@@ -41,10 +46,17 @@ import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.netty.util.CharsetUtil;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 /**
  * @author Rossitsa Borissova
  */
@@ -113,6 +125,7 @@ public class HttpRequestHandlerTest {
         HttpRequest req = mock(HttpRequest.class);
         AuthorizationServer auth = mock(AuthorizationServer.class);
         ClientCredentials creds = mock(ClientCredentials.class);
+        willThrow(new IllegalStateException()).given(creds).getId();
         willReturn(creds).given(auth).issueClientCredentials(req);
         handler.auth = auth;
 
@@ -226,15 +239,15 @@ public class HttpRequestHandlerTest {
         ChannelHandlerContext ctx = mockChannelHandlerContext();
 
         MessageEvent event = mock(MessageEvent.class);
-        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.PUT, HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI);
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.PUT, HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI + "/basic");
         willReturn(req).given(event).getMessage();
-        willReturn(mock(HttpResponse.class)).given(handler).handleUpdateScope(req);
+        willReturn(mock(HttpResponse.class)).given(handler).handleUpdateScope(req, "basic");
 
         // WHEN
         handler.messageReceived(ctx, event);
 
         // THEN
-        verify(handler).handleUpdateScope(req);
+        verify(handler).handleUpdateScope(req, "basic");
     }
 
     @Test
@@ -248,7 +261,7 @@ public class HttpRequestHandlerTest {
         willReturn("OK").given(scopeService).updateScope(req, scopeName);
 
         // WHEN
-        handler.handleUpdateScope(req);
+        handler.handleUpdateScope(req, scopeName);
 
         // THEN
         verify(scopeService).updateScope(req, scopeName);
@@ -296,13 +309,13 @@ public class HttpRequestHandlerTest {
         String uri = HttpRequestHandler.APPLICATION_URI + "/218900b6c8d973881cf4185ecf2c6aba";
         HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
         willReturn(req).given(event).getMessage();
-        willReturn(mock(HttpResponse.class)).given(handler).handleGetClientApplication(req);
+        willReturn(mock(HttpResponse.class)).given(handler).handleGetClientApplication(req, "218900b6c8d973881cf4185ecf2c6aba");
 
         // WHEN
         handler.messageReceived(ctx, event);
 
         // THEN
-        verify(handler).handleGetClientApplication(req);
+        verify(handler).handleGetClientApplication(req, "218900b6c8d973881cf4185ecf2c6aba");
     }
 
     @Test
@@ -316,7 +329,7 @@ public class HttpRequestHandlerTest {
         handler.auth = auth;
 
         // WHEN
-        handler.handleGetClientApplication(req);
+        handler.handleGetClientApplication(req, "218900b6c8d973881cf4185ecf2c6aba");
 
         // THEN
         verify(handler.auth).getApplicationInfo("218900b6c8d973881cf4185ecf2c6aba");
@@ -328,15 +341,15 @@ public class HttpRequestHandlerTest {
         ChannelHandlerContext ctx = mockChannelHandlerContext();
 
         MessageEvent event = mock(MessageEvent.class);
-        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.PUT, HttpRequestHandler.APPLICATION_URI);
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.PUT, HttpRequestHandler.APPLICATION_URI + "/218900b6c8d973881cf4185ecf2c6aba");
         willReturn(req).given(event).getMessage();
-        willReturn(mock(HttpResponse.class)).given(handler).handleUpdateClientApplication(req);
+        willReturn(mock(HttpResponse.class)).given(handler).handleUpdateClientApplication(req, "218900b6c8d973881cf4185ecf2c6aba");
 
         // WHEN
         handler.messageReceived(ctx, event);
 
         // THEN
-        verify(handler).handleUpdateClientApplication(req);
+        verify(handler).handleUpdateClientApplication(req, "218900b6c8d973881cf4185ecf2c6aba");
     }
 
     @Test
@@ -458,16 +471,21 @@ public class HttpRequestHandlerTest {
 
 
     @Test
-    public void when_uri_does_not_match_OAUTH_SCOPE_DELETE_PATTERN_return_not_found() throws Exception {
+    public void when_uri_does_not_match_scope_route_return_not_found() throws Exception {
         // GIVEN
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        MessageEvent event = mock(MessageEvent.class);
         HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.DELETE, HttpRequestHandler.APPLICATION_URI);
         req.setUri(HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI + "/non@ValidScope");
+        willReturn(req).given(event).getMessage();
 
         // WHEN
-        HttpResponse response = handler.handleDeleteScope(req);
+        handler.messageReceived(ctx, event);
 
         // THEN
-        assertEquals(response.getStatus(), HttpResponseStatus.NOT_FOUND);
+        ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(ctx.getChannel()).write(response.capture());
+        assertEquals(response.getValue().getStatus(), HttpResponseStatus.NOT_FOUND);
     }
 
     @Test
@@ -481,7 +499,7 @@ public class HttpRequestHandlerTest {
         willReturn(scopeService).given(handler).getScopeService();
 
         // WHEN
-        HttpResponse response = handler.handleDeleteScope(req);
+        HttpResponse response = handler.handleDeleteScope(req, "validScope");
 
         // THEN
         assertEquals(response.getStatus(), HttpResponseStatus.OK);
@@ -499,7 +517,7 @@ public class HttpRequestHandlerTest {
         willReturn(scopeService).given(handler).getScopeService();
 
         // WHEN
-        HttpResponse response = handler.handleDeleteScope(req);
+        HttpResponse response = handler.handleDeleteScope(req, "validScope");
 
         // THEN
         assertEquals(response.getStatus(), HttpResponseStatus.OK);
@@ -517,7 +535,7 @@ public class HttpRequestHandlerTest {
         willReturn(scopeService).given(handler).getScopeService();
 
         // WHEN
-        HttpResponse response = handler.handleDeleteScope(req);
+        HttpResponse response = handler.handleDeleteScope(req, "validScope");
 
         // THEN
         assertEquals(response.getStatus(), HttpResponseStatus.BAD_REQUEST);
@@ -532,13 +550,115 @@ public class HttpRequestHandlerTest {
         MessageEvent event = mock(MessageEvent.class);
         HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.DELETE, HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI + "/scope");
         willReturn(req).given(event).getMessage();
-        willReturn(mock(HttpResponse.class)).given(handler).handleDeleteScope(req);
+        willReturn(mock(HttpResponse.class)).given(handler).handleDeleteScope(req, "scope");
+
+        // WHEN
+        handler.messageReceived(ctx, event);
+
+        // THEN
+        verify(handler).handleDeleteScope(req, "scope");
+    }
+
+    @Test
+    public void when_DELETE_scope_with_invalid_name_return_not_found_without_invoking_handleDeleteScope() throws Exception {
+        // GIVEN
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+
+        MessageEvent event = mock(MessageEvent.class);
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.DELETE, HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI + "/non@ValidScope");
+        willReturn(req).given(event).getMessage();
+
+        // WHEN
+        handler.messageReceived(ctx, event);
+
+        // THEN
+        verify(handler, never()).handleDeleteScope(eq(req), anyString());
+    }
+
+    @Test
+    public void when_endpoint_registered_dispatch_requests_to_it() throws Exception {
+        // GIVEN
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        MessageEvent event = mock(MessageEvent.class);
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/oauth20/custom/123?param=1");
+        willReturn(req).given(event).getMessage();
+        HttpRequestHandler.Endpoint endpoint = mock(HttpRequestHandler.Endpoint.class);
+        HttpRequestHandler.registerEndpoint(HttpMethod.GET, "/oauth20/custom/{id}", endpoint);
+
+        // WHEN
+        handler.messageReceived(ctx, event);
+
+        // THEN
+        ArgumentCaptor<RouteMatch> route = ArgumentCaptor.forClass(RouteMatch.class);
+        verify(endpoint).handle(eq(handler), eq(req), route.capture());
+        assertEquals(route.getValue().getParam("id"), "123");
+    }
+
+    @Test
+    public void when_client_cache_disabled_do_not_keep_clients_for_the_request() throws Exception {
+        // GIVEN
+        DBManager db = mock(DBManager.class);
+        final CachingDBManager cachingDB = new CachingDBManager(db, null, null);
+        HttpRequestHandler.registerEndpoint(HttpMethod.GET, "/oauth20/clients-twice", readClientTwice(cachingDB));
+        MessageEvent event = mock(MessageEvent.class);
+        willReturn(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/oauth20/clients-twice"))
+                .given(event).getMessage();
+
+        // WHEN
+        handler.messageReceived(mockChannelHandlerContext(), event);
+
+        // THEN
+        verify(db, times(2)).findClientCredentials("client1");
+    }
+
+    @Test
+    public void when_client_cache_enabled_read_client_once_per_request() throws Exception {
+        // GIVEN
+        DBManager db = mock(DBManager.class);
+        final CachingDBManager cachingDB = new CachingDBManager(db, null, null);
+        HttpRequestHandler.registerEndpoint(HttpMethod.GET, "/oauth20/clients-twice", readClientTwice(cachingDB));
+        MessageEvent event = mock(MessageEvent.class);
+        willReturn(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/oauth20/clients-twice"))
+                .given(event).getMessage();
+        willReturn(true).given(handler).isClientRequestScopeEnabled();
+
+        // WHEN
+        handler.messageReceived(mockChannelHandlerContext(), event);
+
+        // THEN
+        verify(db, times(1)).findClientCredentials("client1");
+    }
+
+    private HttpRequestHandler.Endpoint readClientTwice(final DBManager db) {
+        return new HttpRequestHandler.Endpoint() {
+            @Override
+            public HttpResponse handle(HttpRequestHandler handler, HttpRequest req,
+                    RouteMatch<HttpRequestHandler.Endpoint> route) {
+                db.findClientCredentials("client1");
+                db.findClientCredentials("client1");
+                return Response.createNotFoundResponse();
+            }
+        };
+    }
+
+    @Test
+    public void when_endpoint_throws_write_internal_server_error_response() throws Exception {
+        // GIVEN
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        MessageEvent event = mock(MessageEvent.class);
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/oauth20/failing/123");
+        willReturn(req).given(event).getMessage();
+        HttpRequestHandler.Endpoint endpoint = mock(HttpRequestHandler.Endpoint.class);
+        willThrow(new IllegalStateException()).given(endpoint).handle(eq(handler), eq(req), any(RouteMatch.class));
+        HttpRequestHandler.registerEndpoint(HttpMethod.GET, "/oauth20/failing/{id}", endpoint);
 
         // WHEN
         handler.messageReceived(ctx, event);
 
         // THEN
-        verify(handler).handleDeleteScope(req);
+        ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(ctx.getChannel()).write(response.capture());
+        assertEquals(response.getValue().getStatus(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
     }
 
     @Test
@@ -552,7 +672,7 @@ public class HttpRequestHandlerTest {
         willReturn(scopeService).given(handler).getScopeService();
 
         // WHEN
-        handler.handleDeleteScope(req);
+        handler.handleDeleteScope(req, scopeName);
 
         // THEN
         verify(scopeService).deleteScope(scopeName);
@@ -567,13 +687,18 @@ public class HttpRequestHandlerTest {
         ScopeService scopeService = mock(ScopeService.class);
         willReturn("OK").given(scopeService).deleteScope(scopeName);
         willReturn(scopeService).given(handler).getScopeService();
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        MessageEvent event = mock(MessageEvent.class);
+        willReturn(req).given(event).getMessage();
 
         // WHEN
-        HttpResponse response = handler.handleDeleteScope(req);
+        handler.messageReceived(ctx, event);
 
         // THEN
         verify(scopeService, times(0)).deleteScope(scopeName);
-        assertEquals(response.getStatus(), HttpResponseStatus.NOT_FOUND);
+        ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(ctx.getChannel()).write(response.capture());
+        assertEquals(response.getValue().getStatus(), HttpResponseStatus.NOT_FOUND);
     }
 
     @Test
@@ -592,6 +717,30 @@ public class HttpRequestHandlerTest {
         assertEquals(response.getStatus(), HttpResponseStatus.BAD_REQUEST);
     }
 
+    @Test
+    public void when_token_valid_return_token_fields_without_expiration_times() throws Exception {
+        // GIVEN
+        String uri = HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI + "?token=abc";
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+        AccessToken token = new AccessToken("Bearer", "300", "basic", "600");
+        token.setClientId("218900b6c8d973881cf4185ecf2c6aba");
+        token.setUserId("12345");
+        handler.auth = mock(AuthorizationServer.class);
+        willReturn(token).given(handler.auth).isValidToken("abc");
+
+        // WHEN
+        HttpResponse response = handler.handleTokenValidate(req);
+
+        // THEN
+        JsonObject json = new JsonParser().parse(response.getContent().toString(CharsetUtil.UTF_8)).getAsJsonObject();
+        Set<String> keys = new HashSet<String>();
+        for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+            keys.add(entry.getKey());
+        }
+        assertEquals(keys, new HashSet<String>(Arrays.asList("token", "refreshToken", "expiresIn", "type", "scope",
+                "valid", "clientId", "codeId", "userId", "created", "refreshExpiresIn")));
+    }
+
     @Test
     public void when_token_is_empty_do_not_try_to_validate_it() throws Exception {
         // GIVEN
@@ -619,7 +768,7 @@ public class HttpRequestHandlerTest {
         handler.auth = auth;
 
         // WHEN
-        HttpResponse response = handler.handleGetClientApplication(req);
+        HttpResponse response = handler.handleGetClientApplication(req, clientId);
 
         // THEN
         assertEquals(response.getStatus(), HttpResponseStatus.NOT_FOUND);
@@ -780,4 +929,125 @@ public class HttpRequestHandlerTest {
         return ctx;
     }
 
+    @Test
+    public void when_POST_validate_tokens_invoke_validate_tokens() throws Exception {
+        // GIVEN
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI);
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        MessageEvent event = mock(MessageEvent.class);
+        given(event.getMessage()).willReturn(req);
+        willReturn(null).given(handler).handleTokensValidate(req);
+
+        // WHEN
+        handler.messageReceived(ctx, event);
+
+        // THEN
+        verify(handler).handleTokensValidate(req);
+    }
+
+    @Test
+    public void when_validate_tokens_return_valid_tokens_by_token() throws Exception {
+        // GIVEN
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI);
+        AuthorizationServer auth = mock(AuthorizationServer.class);
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        java.util.Map<String, AccessToken> tokens = new java.util.HashMap<String, AccessToken>();
+        tokens.put(accessToken.getToken(), accessToken);
+        willReturn(tokens).given(auth).validateTokens(req);
+        handler.auth = auth;
+
+        // WHEN
+        HttpResponse response = handler.handleTokensValidate(req);
+
+        // THEN
+        assertEquals(response.getStatus(), HttpResponseStatus.OK);
+        assertTrue(response.getContent().toString(CharsetUtil.UTF_8).startsWith("{\"" + accessToken.getToken() + "\":{"));
+    }
+
+    @Test
+    public void when_user_authenticated_asynchronously_write_token_response_when_issued() throws Exception {
+        // GIVEN
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, HttpRequestHandler.ACCESS_TOKEN_URI);
+        req.headers().set(HttpHeaders.Names.CONTENT_TYPE, HttpHeaders.Values.APPLICATION_X_WWW_FORM_URLENCODED);
+        MessageEvent event = mock(MessageEvent.class);
+        willReturn(req).given(event).getMessage();
+        AuthorizationServer auth = mock(AuthorizationServer.class);
+        willReturn(true).given(auth).isAsyncAccessTokenIssuing();
+        handler.auth = auth;
+        ArgumentCaptor<AuthorizationServer.AccessTokenCallback> callback =
+                ArgumentCaptor.forClass(AuthorizationServer.AccessTokenCallback.class);
+
+        // WHEN
+        handler.messageReceived(ctx, event);
+        verify(auth).issueAccessToken(eq(req), callback.capture());
+        verify(ctx.getChannel(), never()).write(anyObject());
+        callback.getValue().onIssued(new AccessToken("Bearer", "300", "basic", "600"));
+
+        // THEN
+        ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(ctx.getChannel()).write(response.capture());
+        assertEquals(response.getValue().getStatus(), HttpResponseStatus.OK);
+        assertTrue(response.getValue().getContent().toString(CharsetUtil.UTF_8).contains("refresh_token"));
+    }
+
+    @Test
+    public void when_token_issued_before_endpoint_returns_write_response_once() throws Exception {
+        // GIVEN
+        ChannelHandlerContext ctx = mockChannelHandlerContext();
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, HttpRequestHandler.ACCESS_TOKEN_URI);
+        req.headers().set(HttpHeaders.Names.CONTENT_TYPE, HttpHeaders.Values.APPLICATION_X_WWW_FORM_URLENCODED);
+        MessageEvent event = mock(MessageEvent.class);
+        willReturn(req).given(event).getMessage();
+        AuthorizationServer auth = mock(AuthorizationServer.class);
+        willReturn(true).given(auth).isAsyncAccessTokenIssuing();
+        willAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((AuthorizationServer.AccessTokenCallback) invocation.getArguments()[1]).onFailure(
+                        new OAuthException(Response.USER_AUTHENTICATION_TIMEOUT, HttpResponseStatus.SERVICE_UNAVAILABLE));
+                return null;
+            }
+        }).given(auth).issueAccessToken(eq(req), any(AuthorizationServer.AccessTokenCallback.class));
+        handler.auth = auth;
+
+        // WHEN
+        handler.messageReceived(ctx, event);
+
+        // THEN
+        ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(ctx.getChannel(), times(1)).write(response.capture());
+        assertEquals(response.getValue().getStatus(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    public void when_invalidate_user_authentications_invalidate_them_for_the_username() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        given(req.getUri()).willReturn("http://example.com/oauth20/user-authentications?username=rossi");
+        handler.auth = mock(AuthorizationServer.class);
+
+        // WHEN
+        HttpResponse response = handler.handleInvalidateUserAuthentications(req);
+
+        // THEN
+        verify(handler.auth).invalidateUserAuthentications("rossi");
+        assertEquals(response.getStatus(), HttpResponseStatus.OK);
+        assertEquals(response.getContent().toString(CharsetUtil.UTF_8), Response.USER_AUTHENTICATIONS_INVALIDATED);
+    }
+
+    @Test
+    public void when_invalidate_user_authentications_without_username_return_bad_request() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        given(req.getUri()).willReturn("http://example.com/oauth20/user-authentications");
+        handler.auth = mock(AuthorizationServer.class);
+
+        // WHEN
+        HttpResponse response = handler.handleInvalidateUserAuthentications(req);
+
+        // THEN
+        verify(handler.auth, never()).invalidateUserAuthentications(anyString());
+        assertEquals(response.getStatus(), HttpResponseStatus.BAD_REQUEST);
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class InvalidationBusTest {
+
+    LocalBus node1;
+    LocalBus node2;
+
+    @BeforeMethod
+    public void setup() {
+        InvalidationBus.log = mock(Logger.class);
+        List<LocalBus> cluster = new ArrayList<LocalBus>();
+        node1 = new LocalBus(cluster);
+        node2 = new LocalBus(cluster);
+    }
+
+    @Test
+    public void when_decode_encoded_event_return_same_event() throws Exception {
+        // GIVEN
+        InvalidationEvent event = new InvalidationEvent(InvalidationEvent.Type.SCOPE, "basic|extended", 0, "node", 123L);
+
+        // WHEN
+        InvalidationEvent result = InvalidationEvent.decode(event.encode());
+
+        // THEN
+        assertEquals(result.getType(), InvalidationEvent.Type.SCOPE);
+        assertEquals(result.getKey(), "basic|extended");
+        assertEquals(result.getOrigin(), "node");
+        assertEquals(result.getTimestamp(), 123L);
+        assertNull(InvalidationEvent.decode("UNKNOWN|node|123|0|key"));
+        assertNull(InvalidationEvent.decode("SCOPE|node|123"));
+    }
+
+    @Test
+    public void when_token_removed_on_one_node_remove_it_from_cache_on_other_nodes() throws Exception {
+        // GIVEN
+        DBManager db = mock(DBManager.class);
+        CachingDBManager cachingDB1 = new CachingDBManager(db, new AccessTokenCache(1000, 0, 60), null, node1);
+        CachingDBManager cachingDB2 = new CachingDBManager(db, new AccessTokenCache(1000, 0, 60), null, node2);
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+        willReturn(accessToken).given(db).findAccessToken(accessToken.getToken());
+        cachingDB2.findAccessToken(accessToken.getToken());
+
+        // WHEN
+        cachingDB1.removeAccessToken(accessToken.getToken());
+        cachingDB2.findAccessToken(accessToken.getToken());
+
+        // THEN
+        verify(db, times(2)).findAccessToken(accessToken.getToken());
+        assertEquals(node1.getPublished(), 1);
+        assertEquals(node2.getReceived(), 1);
+        assertEquals(node1.getReceived(), 0);
+    }
+
+    @Test
+    public void when_signed_token_revoked_on_one_node_it_is_revoked_on_other_nodes() throws Exception {
+        // GIVEN
+        TokenSigner signer1 = new TokenSigner(TokenSigner.parseKeys("k1:0123456789abcdef0123456789abcdef"), "k1");
+        TokenSigner signer2 = new TokenSigner(TokenSigner.parseKeys("k1:0123456789abcdef0123456789abcdef"), "k1");
+        signer1.setInvalidationBus(node1);
+        signer2.setInvalidationBus(node2);
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setToken(signer1.sign(accessToken));
+
+        // WHEN
+        signer1.revoke(accessToken);
+
+        // THEN
+        assertTrue(signer2.isRevoked(accessToken.getToken()));
+    }
+
+    @Test
+    public void when_event_received_update_lag_metrics() throws Exception {
+        // GIVEN
+        String message = new InvalidationEvent(InvalidationEvent.Type.CLIENT, "203598599234220", 0, "other",
+                System.currentTimeMillis() - 2000).encode();
+
+        // WHEN
+        node1.onMessage(message);
+
+        // THEN
+        assertEquals(node1.getReceived(), 1);
+        assertTrue(node1.getMaxLag() >= 2000);
+        assertTrue(node1.getAverageLag() >= 2000);
+        assertEquals(node1.getMetrics().get("received"), 1L);
+    }
+
+    @Test
+    public void when_listener_fails_notify_other_listeners() throws Exception {
+        // GIVEN
+        InvalidationListener failing = mock(InvalidationListener.class);
+        doThrow(new IllegalStateException()).when(failing).onInvalidation(any(InvalidationEvent.class));
+        InvalidationListener listener = mock(InvalidationListener.class);
+        node2.addListener(failing);
+        node2.addListener(listener);
+
+        // WHEN
+        node1.publish(InvalidationEvent.Type.SCOPE, "basic", 0);
+
+        // THEN
+        verify(listener).onInvalidation(any(InvalidationEvent.class));
+    }
+
+    @Test
+    public void when_publish_fails_do_not_throw_exception() throws Exception {
+        // GIVEN
+        node1.fail = true;
+        InvalidationListener listener = mock(InvalidationListener.class);
+        node2.addListener(listener);
+
+        // WHEN
+        node1.publish(InvalidationEvent.Type.SCOPE, "basic", 0);
+
+        // THEN
+        assertEquals(node1.getPublishFailures(), 1);
+        assertFalse(node1.getPublished() > 0);
+        verify(listener, never()).onInvalidation(any(InvalidationEvent.class));
+    }
+
+    // delivers the messages to all buses in the same JVM, as Redis pub/sub and Hazelcast ITopic do
+    static class LocalBus extends InvalidationBus {
+        private final List<LocalBus> cluster;
+        boolean fail;
+
+        LocalBus(List<LocalBus> cluster) {
+            this.cluster = cluster;
+            cluster.add(this);
+        }
+
+        @Override
+        protected void send(String message) {
+            if (fail) {
+                throw new IllegalStateException("connection failed");
+            }
+            for (LocalBus bus : cluster) {
+                bus.onMessage(message);
+            }
+        }
+
+        @Override
+        public void close() {
+            cluster.remove(this);
+        }
+    }
+}
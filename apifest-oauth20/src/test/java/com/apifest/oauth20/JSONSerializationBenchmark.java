@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.lang.management.ManagementFactory;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.util.CharsetUtil;
+
+import com.google.gson.Gson;
+
+/**
+ * Measures the bytes allocated and the time per response body of {@link JSONSerializer} and of the former
+ * serialization (a new ObjectMapper or Gson per request, a String and a copy of it in a ChannelBuffer).
+ * Requires a JVM that supports com.sun.management.ThreadMXBean. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.apifest.oauth20.JSONSerializationBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public final class JSONSerializationBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 100000;
+    private static final int ITERATIONS = 500000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private JSONSerializationBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final AccessToken accessToken = new AccessToken("Bearer", "300", "basic extended", "600");
+        accessToken.setClientId("218900b6c8d973881cf4185ecf2c6aba");
+        accessToken.setUserId("12345");
+
+        Body[] bodies = {
+            new Body("issue token, ObjectMapper per request") {
+                @Override
+                ChannelBuffer create() throws Exception {
+                    String json = new ObjectMapper().writeValueAsString(accessToken);
+                    return ChannelBuffers.copiedBuffer(json.getBytes(CharsetUtil.UTF_8));
+                }
+            },
+            new Body("issue token, JSONSerializer") {
+                @Override
+                ChannelBuffer create() throws Exception {
+                    return JSONSerializer.toJson(accessToken);
+                }
+            },
+            new Body("validate token, Gson per request") {
+                @Override
+                ChannelBuffer create() throws Exception {
+                    String json = new Gson().toJson(accessToken);
+                    return ChannelBuffers.copiedBuffer(json.getBytes(CharsetUtil.UTF_8));
+                }
+            },
+            new Body("validate token, JSONSerializer") {
+                @Override
+                ChannelBuffer create() throws Exception {
+                    return JSONSerializer.fieldsToJson(accessToken);
+                }
+            }
+        };
+        for (Body body : bodies) {
+            body.run(WARMUP_ITERATIONS);
+        }
+        for (Body body : bodies) {
+            body.report(ITERATIONS);
+        }
+    }
+
+    private abstract static class Body {
+        private final String name;
+
+        Body(String name) {
+            this.name = name;
+        }
+
+        abstract ChannelBuffer create() throws Exception;
+
+        long run(int iterations) throws Exception {
+            long sum = 0;
+            for (int i = 0; i < iterations; i++) {
+                sum += create().readableBytes();
+            }
+            return sum;
+        }
+
+        void report(int iterations) throws Exception {
+            long threadId = Thread.currentThread().getId();
+            long allocated = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            long sum = run(iterations);
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getThreadAllocatedBytes(threadId) - allocated;
+            System.out.println(String.format("%-40s %8d bytes/response %8.1f ns/response (%d bytes)", name,
+                    allocated / iterations, (double) elapsed / iterations, sum / iterations));
+        }
+    }
+}
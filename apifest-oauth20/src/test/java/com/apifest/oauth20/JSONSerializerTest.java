@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.netty.util.CharsetUtil;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class JSONSerializerTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void when_write_access_token_return_same_json_as_object_mapper() throws Exception {
+        // GIVEN
+        AccessToken withRefreshToken = new AccessToken("Bearer", "300", "basic", "600");
+        AccessToken withoutRefreshToken = new AccessToken("Bearer", "300", "basic extended", false, null);
+        AccessToken empty = new AccessToken();
+        AccessToken escaped = new AccessToken("Bearer", "300", "sc\"ope\u0001\u00e9\u2028", "600");
+
+        // THEN
+        for (AccessToken token : Arrays.asList(withRefreshToken, withoutRefreshToken, empty, escaped)) {
+            assertEquals(JSONSerializer.toJson(token).toString(CharsetUtil.UTF_8), mapper.writeValueAsString(token));
+        }
+    }
+
+    @Test
+    public void when_write_client_credentials_return_same_json_as_object_mapper() throws Exception {
+        // GIVEN
+        ClientCredentials creds = new ClientCredentials("app", "basic", "descr", "http://example.com", null);
+        ClientCredentials empty = new ClientCredentials();
+
+        // THEN
+        assertEquals(JSONSerializer.toJson(creds).toString(CharsetUtil.UTF_8), mapper.writeValueAsString(creds));
+        assertEquals(JSONSerializer.toJson(empty).toString(CharsetUtil.UTF_8), mapper.writeValueAsString(empty));
+    }
+
+    @Test
+    public void when_write_application_info_return_same_json_as_object_mapper() throws Exception {
+        // GIVEN
+        ApplicationInfo full = new ApplicationInfo();
+        full.setName("app");
+        full.setDescription("descr");
+        full.setId("218900b6c8d973881cf4185ecf2c6aba");
+        full.setSecret("secret");
+        full.setScope("basic extended");
+        full.setRegistered(new Date(1400000000000L));
+        full.setRedirectUri("http://example.com?a=1&b=<2>");
+        full.setStatus(0);
+        Map<String, String> details = new LinkedHashMap<String, String>();
+        details.put("owner", "me");
+        details.put("empty", null);
+        full.setApplicationDetails(details);
+        ApplicationInfo partial = new ApplicationInfo();
+        partial.setRegistered(new Date(0));
+        partial.setDescription("");
+        partial.setApplicationDetails(new HashMap<String, String>());
+
+        // THEN
+        assertEquals(JSONSerializer.toJson(full).toString(CharsetUtil.UTF_8), mapper.writeValueAsString(full));
+        assertEquals(JSONSerializer.toJson(partial).toString(CharsetUtil.UTF_8), mapper.writeValueAsString(partial));
+    }
+
+    @Test
+    public void when_write_scopes_return_same_json_as_object_mapper() throws Exception {
+        // GIVEN
+        Scope scope = new Scope();
+        scope.setScope("basic");
+        scope.setDescription("basic scope");
+        scope.setCcExpiresIn(1800);
+        scope.setPassExpiresIn(900);
+        scope.setRefreshExpiresIn(3600);
+        Scope empty = new Scope();
+        List<Scope> scopes = new ArrayList<Scope>(Arrays.asList(scope, empty, null));
+
+        // THEN
+        assertEquals(JSONSerializer.toJsonString(scope), mapper.writeValueAsString(scope));
+        assertEquals(JSONSerializer.toJsonString(empty), mapper.writeValueAsString(empty));
+        assertEquals(JSONSerializer.toJsonString(scopes), mapper.writeValueAsString(scopes));
+    }
+
+    @Test
+    public void when_write_redirect_uri_return_same_json_as_json_object() throws Exception {
+        // GIVEN
+        String redirectUri = "http://example.com/callback?code=abc&state=x%20y";
+        JsonObject obj = new JsonObject();
+        obj.addProperty("redirect_uri", redirectUri);
+
+        // THEN
+        assertEquals(JSONSerializer.redirectUriToJson(redirectUri).toString(CharsetUtil.UTF_8), obj.toString());
+    }
+
+    @Test
+    public void when_write_fields_return_same_json_as_gson() throws Exception {
+        // GIVEN
+        AccessToken token = new AccessToken("Bearer", "300", "basic", "600");
+        token.setClientId("218900b6c8d973881cf4185ecf2c6aba");
+        token.setUserId("user<1>\u00e9\u0436\u20ac\ud83d\ude00");
+        Map<String, AccessToken> tokens = new LinkedHashMap<String, AccessToken>();
+        tokens.put(token.getToken(), token);
+        tokens.put("unknown", null);
+
+        // the calculated expiration times are not returned
+        Gson gson = new Gson();
+        JsonObject expected = new JsonParser().parse(gson.toJson(token)).getAsJsonObject();
+        expected.remove("expiresAt");
+        expected.remove("refreshExpiresAt");
+
+        // THEN
+        assertEquals(JSONSerializer.fieldsToJson(token).toString(CharsetUtil.UTF_8), gson.toJson(expected));
+        assertEquals(JSONSerializer.fieldsToJson(token).readableBytes(),
+                gson.toJson(expected).getBytes(CharsetUtil.UTF_8).length);
+        JsonObject expectedTokens = new JsonObject();
+        expectedTokens.add(token.getToken(), expected);
+        assertEquals(JSONSerializer.fieldsToJson(tokens).toString(CharsetUtil.UTF_8), gson.toJson(expectedTokens));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.api.ExceptionEventHandler;
+import com.apifest.oauth20.api.LifecycleHandler;
+import com.apifest.oauth20.api.OnException;
+import com.apifest.oauth20.api.OnRequest;
+import com.apifest.oauth20.api.OnResponse;
+
+public class LifecycleEventHandlersTest {
+
+    Route<String> tokenRoute = new Route<String>(HttpMethod.POST, "/oauth20/tokens", "token");
+    Route<String> scopeRoute = new Route<String>(HttpMethod.GET, "/oauth20/scopes/{scope:\\p{Alnum}+}", "getScope");
+
+    @BeforeMethod
+    public void setup() {
+        LifecycleEventHandlers.clear();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        LifecycleEventHandlers.clear();
+    }
+
+    @Test
+    public void when_handler_has_uri_filter_resolve_it_only_for_matching_routes() throws Exception {
+        // GIVEN
+        LifecycleEventHandlers.addHandler(TokenHandler.class);
+        LifecycleEventHandlers.addHandler(AnyHandler.class);
+
+        // WHEN
+        List<LifecycleHandlerEntry<LifecycleHandler>> tokenHandlers = LifecycleEventHandlers
+                .getHandlers(HttpMethod.POST, tokenRoute).getRequestHandlers();
+        List<LifecycleHandlerEntry<LifecycleHandler>> scopeHandlers = LifecycleEventHandlers
+                .getHandlers(HttpMethod.GET, scopeRoute).getRequestHandlers();
+        List<LifecycleHandlerEntry<LifecycleHandler>> notFoundHandlers = LifecycleEventHandlers
+                .getHandlers(HttpMethod.GET, null).getRequestHandlers();
+
+        // THEN
+        assertEquals(tokenHandlers.size(), 2);
+        assertEquals(scopeHandlers.size(), 1);
+        assertEquals(scopeHandlers.get(0).getHandlerClass(), AnyHandler.class);
+        assertEquals(notFoundHandlers.size(), 1);
+        assertEquals(notFoundHandlers.get(0).getHandlerClass(), AnyHandler.class);
+    }
+
+    @Test
+    public void when_handler_has_method_filter_resolve_it_only_for_matching_methods() throws Exception {
+        // GIVEN
+        LifecycleEventHandlers.addHandler(ScopeGetHandler.class);
+        Route<String> deleteScopeRoute = new Route<String>(HttpMethod.DELETE, "/oauth20/scopes/{scope}", "deleteScope");
+
+        // WHEN
+        LifecycleEventHandlers.RouteHandlers getHandlers = LifecycleEventHandlers.getHandlers(HttpMethod.GET, scopeRoute);
+        LifecycleEventHandlers.RouteHandlers deleteHandlers = LifecycleEventHandlers.getHandlers(HttpMethod.DELETE,
+                deleteScopeRoute);
+
+        // THEN
+        assertEquals(getHandlers.getResponseHandlers().size(), 1);
+        assertEquals(getHandlers.getExceptionHandlers().size(), 1);
+        assertTrue(deleteHandlers.getResponseHandlers().isEmpty());
+        assertTrue(deleteHandlers.getExceptionHandlers().isEmpty());
+    }
+
+    @Test
+    public void when_response_handler_is_async_resolve_it_as_async_handler() throws Exception {
+        // GIVEN
+        LifecycleEventHandlers.addHandler(AuditHandler.class);
+        LifecycleEventHandlers.addHandler(ScopeGetHandler.class);
+
+        // WHEN
+        LifecycleEventHandlers.RouteHandlers handlers = LifecycleEventHandlers.getHandlers(HttpMethod.GET, scopeRoute);
+
+        // THEN
+        assertEquals(handlers.getAsyncResponseHandlers().size(), 1);
+        assertEquals(handlers.getAsyncResponseHandlers().get(0).getHandlerClass(), AuditHandler.class);
+        assertEquals(handlers.getResponseHandlers().size(), 1);
+        assertEquals(handlers.getResponseHandlers().get(0).getHandlerClass(), ScopeGetHandler.class);
+    }
+
+    @Test
+    public void when_route_handlers_resolved_return_same_handlers() throws Exception {
+        // GIVEN
+        LifecycleEventHandlers.addHandler(TokenHandler.class);
+
+        // WHEN
+        LifecycleEventHandlers.RouteHandlers first = LifecycleEventHandlers.getHandlers(HttpMethod.POST, tokenRoute);
+        LifecycleEventHandlers.RouteHandlers second = LifecycleEventHandlers.getHandlers(HttpMethod.POST, tokenRoute);
+
+        // THEN
+        assertSame(first, second);
+    }
+
+    @Test
+    public void when_handler_is_thread_safe_share_instance_between_threads() throws Exception {
+        // GIVEN
+        LifecycleEventHandlers.addHandler(TokenHandler.class);
+        final LifecycleHandlerEntry<LifecycleHandler> entry = LifecycleEventHandlers
+                .getHandlers(HttpMethod.POST, tokenRoute).getRequestHandlers().get(0);
+
+        // WHEN
+        LifecycleHandler other = getInOtherThread(entry);
+
+        // THEN
+        assertSame(entry.getHandler(), entry.getHandler());
+        assertSame(other, entry.getHandler());
+    }
+
+    @Test
+    public void when_handler_is_not_thread_safe_create_instance_per_thread() throws Exception {
+        // GIVEN
+        LifecycleEventHandlers.addHandler(AnyHandler.class);
+        final LifecycleHandlerEntry<LifecycleHandler> entry = LifecycleEventHandlers
+                .getHandlers(HttpMethod.POST, tokenRoute).getRequestHandlers().get(0);
+
+        // WHEN
+        LifecycleHandler other = getInOtherThread(entry);
+
+        // THEN
+        assertSame(entry.getHandler(), entry.getHandler());
+        assertNotSame(other, entry.getHandler());
+    }
+
+    @Test
+    public void when_no_handlers_loaded_return_empty_handlers() throws Exception {
+        // WHEN
+        LifecycleEventHandlers.RouteHandlers handlers = LifecycleEventHandlers.getHandlers(HttpMethod.POST, tokenRoute);
+
+        // THEN
+        assertTrue(handlers.getRequestHandlers().isEmpty());
+        assertTrue(handlers.getResponseHandlers().isEmpty());
+        assertTrue(handlers.getExceptionHandlers().isEmpty());
+    }
+
+    @Test
+    public void when_normalize_template_remove_param_regex() throws Exception {
+        // THEN
+        assertEquals(LifecycleHandlerEntry.normalizeTemplate("/oauth20/applications/{client_id:[a-f0-9]+}"),
+                "/oauth20/applications/{client_id}");
+        assertEquals(LifecycleHandlerEntry.normalizeTemplate("/oauth20/scopes/{scope:(\\p{Alnum}+-?_?)+}"),
+                "/oauth20/scopes/{scope}");
+        assertEquals(LifecycleHandlerEntry.normalizeTemplate("/oauth20/tokens"), "/oauth20/tokens");
+    }
+
+    private LifecycleHandler getInOtherThread(final LifecycleHandlerEntry<LifecycleHandler> entry) throws Exception {
+        final AtomicReference<LifecycleHandler> result = new AtomicReference<LifecycleHandler>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(entry.getHandler());
+            }
+        });
+        thread.start();
+        thread.join();
+        return result.get();
+    }
+
+    @OnRequest(uri = "/oauth20/tokens", threadSafe = true)
+    public static class TokenHandler implements LifecycleHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response) {
+        }
+    }
+
+    @OnResponse(async = true)
+    public static class AuditHandler implements LifecycleHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response) {
+        }
+    }
+
+    @OnRequest
+    public static class AnyHandler implements LifecycleHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response) {
+        }
+    }
+
+    @OnResponse(uri = "/oauth20/scopes/*", method = "GET")
+    @OnException(uri = "/oauth20/scopes/{scope}", method = "get")
+    public static class ScopeGetHandler implements LifecycleHandler, ExceptionEventHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response) {
+        }
+
+        @Override
+        public void handleException(Exception ex, HttpRequest request) {
+        }
+    }
+}
@@ -21,10 +21,13 @@ import static org.mockito.Mockito.*;
 import static org.mockito.BDDMockito.*;
 import static org.testng.Assert.*;
 
+import java.io.IOException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.bson.BSONObject;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -34,6 +37,7 @@ import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 
 /**
  * @author Rossitsa Borissova
@@ -43,14 +47,16 @@ public class MongoDBManagerTest {
     MongoDBManager dbManager;
     DB db;
     DBCollection coll;
+    DBCollection revokedColl;
 
     @BeforeMethod
     public void setup() {
-        dbManager = spy(new MongoDBManager());
         MongoDBManager.log = mock(Logger.class);
         db = mock(DB.class);
         coll = mock(DBCollection.class);
-        MongoDBManager.db = db;
+        revokedColl = mock(DBCollection.class);
+        given(db.getCollection(MongoDBManager.REVOKED_TOKEN_COLLECTION_NAME)).willReturn(revokedColl);
+        dbManager = spy(new MongoDBManager(db));
     }
 
     @Test
@@ -242,4 +248,157 @@ public class MongoDBManagerTest {
         // THEN
         assertFalse(result);
     }
+
+    @Test
+    public void when_rotate_access_token_mark_old_token_rotated_store_new_one_and_remove_old_one() throws Exception {
+        // GIVEN
+        AccessToken newToken = new AccessToken("Bearer", "300", "basic", "600");
+        given(db.getCollection(MongoDBManager.ACCESS_TOKEN_COLLECTION_NAME)).willReturn(coll);
+        given(coll.findAndModify(any(DBObject.class), any(DBObject.class), any(DBObject.class), eq(false),
+                any(DBObject.class), eq(false), eq(false))).willReturn(new BasicDBObject("token", "old"));
+        willDoNothing().given(dbManager).storeObject(newToken, MongoDBManager.ACCESS_TOKEN_COLLECTION_NAME);
+
+        // WHEN
+        boolean rotated = dbManager.rotateAccessToken("old", newToken);
+
+        // THEN
+        assertTrue(rotated);
+        BasicDBObject query = new BasicDBObject("token", "old");
+        query.put("rotated", new BasicDBObject("$exists", false));
+        verify(coll).findAndModify(eq(query), any(DBObject.class), any(DBObject.class), eq(false),
+                eq(new BasicDBObject("$set", new BasicDBObject("rotated", true).append("valid", false))), eq(false),
+                eq(false));
+        verify(dbManager).storeObject(newToken, MongoDBManager.ACCESS_TOKEN_COLLECTION_NAME);
+        verify(coll).remove(new BasicDBObject("token", "old"));
+    }
+
+    @Test
+    public void when_old_access_token_already_rotated_do_not_store_new_one() throws Exception {
+        // GIVEN
+        AccessToken newToken = new AccessToken("Bearer", "300", "basic", "600");
+        given(db.getCollection(MongoDBManager.ACCESS_TOKEN_COLLECTION_NAME)).willReturn(coll);
+
+        // WHEN
+        boolean rotated = dbManager.rotateAccessToken("old", newToken);
+
+        // THEN
+        assertFalse(rotated);
+        verify(dbManager, never()).storeObject(newToken, MongoDBManager.ACCESS_TOKEN_COLLECTION_NAME);
+        verify(coll, never()).remove(any(DBObject.class));
+    }
+
+    @Test
+    public void when_new_access_token_not_stored_restore_old_one() throws Exception {
+        // GIVEN
+        AccessToken newToken = new AccessToken("Bearer", "300", "basic", "600");
+        given(db.getCollection(MongoDBManager.ACCESS_TOKEN_COLLECTION_NAME)).willReturn(coll);
+        given(coll.findAndModify(any(DBObject.class), any(DBObject.class), any(DBObject.class), eq(false),
+                any(DBObject.class), eq(false), eq(false))).willReturn(
+                new BasicDBObject("token", "old").append("valid", true));
+        willThrow(new IOException()).given(dbManager).storeObject(newToken, MongoDBManager.ACCESS_TOKEN_COLLECTION_NAME);
+
+        // WHEN
+        boolean rotated = dbManager.rotateAccessToken("old", newToken);
+
+        // THEN
+        assertFalse(rotated);
+        BasicDBObject update = new BasicDBObject("$set", new BasicDBObject("valid", true));
+        update.put("$unset", new BasicDBObject("rotated", ""));
+        verify(coll).update(new BasicDBObject("token", "old"), update);
+        verify(coll, never()).remove(any(DBObject.class));
+    }
+
+    @Test
+    public void when_consume_auth_code_query_by_client_id_and_invalidate_it() throws Exception {
+        // GIVEN
+        BasicDBObject stored = new BasicDBObject();
+        stored.put("code", "code");
+        stored.put("clientId", "203598599234220");
+        stored.put("redirectUri", "http://example.com");
+        stored.put("valid", false);
+        stored.put("created", 1365191565324L);
+        stored.put("_id", new ObjectId());
+        given(db.getCollection(MongoDBManager.AUTH_CODE_COLLECTION_NAME)).willReturn(coll);
+        given(coll.findAndModify(any(DBObject.class), any(DBObject.class), any(DBObject.class), eq(false),
+                any(DBObject.class), eq(true), eq(false))).willReturn(stored);
+
+        // WHEN
+        AuthCode authCode = dbManager.consumeAuthCode("code", "http://example.com", "203598599234220");
+
+        // THEN
+        assertEquals(authCode.getCode(), "code");
+        BasicDBObject query = new BasicDBObject();
+        query.put("code", "code");
+        query.put("redirectUri", "http://example.com");
+        query.put("clientId", "203598599234220");
+        query.put("valid", true);
+        verify(coll).findAndModify(eq(query), any(DBObject.class), any(DBObject.class), eq(false),
+                eq(new BasicDBObject("$set", new BasicDBObject("valid", false))), eq(true), eq(false));
+    }
+
+    @Test
+    public void when_auth_code_not_consumed_return_null() throws Exception {
+        // GIVEN
+        given(db.getCollection(MongoDBManager.AUTH_CODE_COLLECTION_NAME)).willReturn(coll);
+
+        // WHEN
+        AuthCode authCode = dbManager.consumeAuthCode("code", "http://example.com", "203598599234220");
+
+        // THEN
+        assertNull(authCode);
+    }
+
+    @Test
+    public void when_created_create_revoked_tokens_ttl_index() throws Exception {
+        // THEN
+        verify(revokedColl).createIndex(new BasicDBObject("expiresAt", 1),
+                new BasicDBObject("expireAfterSeconds", 0));
+    }
+
+    @Test
+    public void when_store_revoked_token_upsert_it() throws Exception {
+        // GIVEN
+        given(db.getCollection(MongoDBManager.REVOKED_TOKEN_COLLECTION_NAME)).willReturn(coll);
+        long expiresAt = System.currentTimeMillis() + 60000;
+
+        // WHEN
+        dbManager.storeRevokedToken("tokenId", expiresAt);
+
+        // THEN
+        verify(coll, never()).createIndex(any(DBObject.class), any(DBObject.class));
+        verify(revokedColl, times(1)).createIndex(any(DBObject.class), any(DBObject.class));
+        BasicDBObject revoked = new BasicDBObject("_id", "tokenId");
+        revoked.put("expiresAt", new Date(expiresAt));
+        verify(coll).update(new BasicDBObject("_id", "tokenId"), revoked, true, false);
+    }
+
+    @Test
+    public void when_revoked_token_not_found_return_false() throws Exception {
+        // GIVEN
+        given(db.getCollection(MongoDBManager.REVOKED_TOKEN_COLLECTION_NAME)).willReturn(coll);
+
+        // WHEN
+        boolean revoked = dbManager.isRevokedToken("tokenId");
+
+        // THEN
+        assertFalse(revoked);
+        verify(coll).findOne(any(DBObject.class));
+    }
+
+    @Test
+    public void when_ttl_index_not_created_on_startup_create_it_on_revocation() throws Exception {
+        // GIVEN
+        willThrow(new MongoException("DB not available")).given(revokedColl).createIndex(any(DBObject.class),
+                any(DBObject.class));
+        dbManager = new MongoDBManager(db);
+        willDoNothing().given(revokedColl).createIndex(any(DBObject.class), any(DBObject.class));
+
+        // WHEN
+        dbManager.storeRevokedToken("tokenId", System.currentTimeMillis() + 60000);
+        dbManager.storeRevokedToken("tokenId2", System.currentTimeMillis() + 60000);
+
+        // THEN
+        verify(revokedColl, times(3)).createIndex(new BasicDBObject("expiresAt", 1),
+                new BasicDBObject("expireAfterSeconds", 0));
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.apache.commons.codec.binary.Base64;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
+import org.testng.annotations.Test;
+
+public class RequestParserTest {
+
+    private static ChannelBuffer buffer(String content) {
+        return ChannelBuffers.copiedBuffer(content, CharsetUtil.UTF_8);
+    }
+
+    @Test
+    public void when_parse_form_return_decoded_values_of_requested_names() throws Exception {
+        // GIVEN
+        ChannelBuffer content = buffer("grant_type=password&username=ross%C3%AF&other=1&password=a+b%26c&scope=");
+
+        // WHEN
+        String[] values = RequestParser.parseForm(content, "grant_type", "username", "password", "scope", "code");
+
+        // THEN
+        assertEquals(values[0], "password");
+        assertEquals(values[1], "ross\u00ef");
+        assertEquals(values[2], "a b&c");
+        assertEquals(values[3], "");
+        assertNull(values[4]);
+        assertEquals(content.readerIndex(), 0);
+    }
+
+    @Test
+    public void when_parameter_name_encoded_decode_it() throws Exception {
+        // WHEN
+        String[] values = RequestParser.parseForm(buffer("client%5Fid=123&&wyfr"), "client_id", "wyfr");
+
+        // THEN
+        assertEquals(values[0], "123");
+        assertNull(values[1]);
+    }
+
+    @Test
+    public void when_parameter_repeated_throw_invalid_request() throws Exception {
+        // WHEN
+        OAuthException error = null;
+        try {
+            RequestParser.parseForm(buffer("client_id=1&grant_type=password&client_id=2"), "client_id");
+        } catch (OAuthException e) {
+            error = e;
+        }
+
+        // THEN
+        assertEquals(error.getMessage(), Response.INVALID_REQUEST);
+        assertEquals(error.getHttpStatus(), HttpResponseStatus.BAD_REQUEST);
+    }
+
+    @Test
+    public void when_unknown_parameter_repeated_ignore_it() throws Exception {
+        // WHEN
+        String[] values = RequestParser.parseForm(buffer("a=1&a=2&client_id=3"), "client_id");
+
+        // THEN
+        assertEquals(values[0], "3");
+    }
+
+    @Test(expectedExceptions = OAuthException.class)
+    public void when_percent_encoding_malformed_throw_exception() throws Exception {
+        // WHEN
+        RequestParser.parseForm(buffer("other=%zz&client_id=1"), "client_id");
+    }
+
+    @Test(expectedExceptions = OAuthException.class)
+    public void when_percent_encoding_truncated_throw_exception() throws Exception {
+        // WHEN
+        RequestParser.parseForm(buffer("client_id=1%2"), "client_id");
+    }
+
+    @Test
+    public void when_content_too_large_throw_exception() throws Exception {
+        // GIVEN
+        StringBuilder content = new StringBuilder("client_id=");
+        while (content.length() <= RequestParser.MAX_CONTENT_LENGTH) {
+            content.append("0123456789");
+        }
+
+        // WHEN
+        OAuthException error = null;
+        try {
+            RequestParser.parseForm(buffer(content.toString()), "client_id");
+        } catch (OAuthException e) {
+            error = e;
+        }
+
+        // THEN
+        assertEquals(error.getHttpStatus(), HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+    }
+
+    @Test
+    public void when_parse_query_ignore_path_and_fragment() throws Exception {
+        // WHEN
+        String[] values = RequestParser.parseQuery(
+                "/oauth20/auth-codes?token=abc&redirect_uri=http%3A%2F%2Fexample.com%2Fcb%3Fa%3D1#token=x",
+                "token", "redirect_uri");
+
+        // THEN
+        assertEquals(values[0], "abc");
+        assertEquals(values[1], "http://example.com/cb?a=1");
+    }
+
+    @Test
+    public void when_uri_has_no_query_return_null_values() throws Exception {
+        // WHEN
+        String[] values = RequestParser.parseQuery("/oauth20/tokens/validate", "token");
+
+        // THEN
+        assertNull(values[0]);
+    }
+
+    @Test
+    public void when_parse_basic_authorization_return_client_id_and_secret() throws Exception {
+        // GIVEN
+        String header = "Basic " + Base64.encodeBase64String("203598599234220:sec:ret".getBytes(CharsetUtil.UTF_8));
+
+        // WHEN
+        String[] credentials = RequestParser.parseBasicAuthorization(header);
+
+        // THEN
+        assertEquals(credentials[0], "203598599234220");
+        assertEquals(credentials[1], "sec:ret");
+    }
+
+    @Test
+    public void when_basic_authorization_not_padded_decode_it() throws Exception {
+        // GIVEN
+        String header = "basic " + Base64.encodeBase64String("ab:c".getBytes(CharsetUtil.UTF_8)).replace("=", "");
+
+        // WHEN
+        String[] credentials = RequestParser.parseBasicAuthorization(header);
+
+        // THEN
+        assertEquals(credentials[0], "ab");
+        assertEquals(credentials[1], "c");
+    }
+
+    @Test
+    public void when_basic_authorization_invalid_return_null() throws Exception {
+        // THEN
+        assertNull(RequestParser.parseBasicAuthorization(null));
+        assertNull(RequestParser.parseBasicAuthorization("Bearer abc"));
+        assertNull(RequestParser.parseBasicAuthorization("Basic a$b="));
+        assertNull(RequestParser.parseBasicAuthorization(
+                "Basic " + Base64.encodeBase64String("no-secret:".getBytes(CharsetUtil.UTF_8))));
+        assertNull(RequestParser.parseBasicAuthorization(
+                "Basic " + Base64.encodeBase64String("no-colon".getBytes(CharsetUtil.UTF_8))));
+    }
+}
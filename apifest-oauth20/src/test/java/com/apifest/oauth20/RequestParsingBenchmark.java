@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+import org.jboss.netty.util.CharsetUtil;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares the cost per request of {@link RequestParser} and the streaming revoke request parsing with the former
+ * parsing of the token, authorization code, validate and revoke requests and of the Basic Authorization header.
+ * Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.apifest.oauth20.RequestParsingBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public final class RequestParsingBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int ITERATIONS = 2000000;
+
+    private static final String[] TOKEN_PARAMS = { "grant_type", "code", "redirect_uri", "client_id", "client_secret",
+            "refresh_token", "scope", "username", "password" };
+    private static final String[] AUTH_PARAMS = { "client_id", "response_type", "redirect_uri", "state", "scope",
+            "user_id" };
+    private static final ChannelBuffer TOKEN_CONTENT = ChannelBuffers.copiedBuffer("grant_type=password"
+            + "&username=rossi&password=p%40ss+word&client_id=203598599234220"
+            + "&client_secret=105ef93e7bb386da3a23c32e8563434fad005fd0a6a88315fcdf946aa761c838&scope=basic",
+            CharsetUtil.UTF_8);
+    private static final String AUTH_URI = "/oauth20/auth-codes?response_type=code&client_id=203598599234220"
+            + "&redirect_uri=http%3A%2F%2Fexample.com%2Fcallback&state=xyz&scope=basic&user_id=12345";
+    private static final String VALIDATE_URI = "/oauth20/tokens/validate?token=9376e098e8190835a0b41d83355f92d66f425469";
+    private static final ChannelBuffer REVOKE_CONTENT = ChannelBuffers.copiedBuffer(
+            "{\"access_token\":\"9376e098e8190835a0b41d83355f92d66f425469\",\"client_id\":\"203598599234220\"}",
+            CharsetUtil.UTF_8);
+    private static final String AUTHORIZATION = "Basic "
+            + Base64.encodeBase64String("203598599234220:105ef93e7bb386da3a23c32e8563434f".getBytes(CharsetUtil.UTF_8));
+
+    private RequestParsingBenchmark() {
+    }
+
+    private abstract static class Case {
+        private final String name;
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        abstract int parse() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final HttpRequest revokeRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+                HttpRequestHandler.ACCESS_TOKEN_REVOKE_URI);
+        revokeRequest.setContent(REVOKE_CONTENT);
+        Case[] cases = {
+            new Case("token form, former") {
+                @Override
+                int parse() {
+                    String content = TOKEN_CONTENT.toString(CharsetUtil.UTF_8);
+                    List<NameValuePair> values = URLEncodedUtils.parse(content, Charset.forName("UTF-8"));
+                    Map<String, String> params = new HashMap<String, String>();
+                    for (NameValuePair pair : values) {
+                        params.put(pair.getName(), pair.getValue());
+                    }
+                    return params.get("password").length();
+                }
+            },
+            new Case("token form, parser") {
+                @Override
+                int parse() throws Exception {
+                    return RequestParser.parseForm(TOKEN_CONTENT, TOKEN_PARAMS)[8].length();
+                }
+            },
+            new Case("auth query, former") {
+                @Override
+                int parse() {
+                    Map<String, List<String>> params = new QueryStringDecoder(AUTH_URI).getParameters();
+                    return QueryParameter.getFirstElement(params, "redirect_uri").length();
+                }
+            },
+            new Case("auth query, parser") {
+                @Override
+                int parse() throws Exception {
+                    return RequestParser.parseQuery(AUTH_URI, AUTH_PARAMS)[2].length();
+                }
+            },
+            new Case("validate query, former") {
+                @Override
+                int parse() {
+                    Map<String, List<String>> params = new QueryStringDecoder(VALIDATE_URI).getParameters();
+                    return QueryParameter.getFirstElement(params, QueryParameter.TOKEN).length();
+                }
+            },
+            new Case("validate query, parser") {
+                @Override
+                int parse() throws Exception {
+                    return RequestParser.parseQuery(VALIDATE_URI, QueryParameter.TOKEN)[0].length();
+                }
+            },
+            new Case("revoke JSON, former") {
+                @Override
+                int parse() {
+                    String content = REVOKE_CONTENT.toString(CharsetUtil.UTF_8);
+                    JsonObject jsonObj = new JsonParser().parse(content).getAsJsonObject();
+                    return jsonObj.get("access_token").getAsString().length();
+                }
+            },
+            new Case("revoke JSON, streaming") {
+                @Override
+                int parse() throws Exception {
+                    return new RevokeTokenRequest(revokeRequest).getAccessToken().length();
+                }
+            },
+            new Case("basic auth, former") {
+                @Override
+                int parse() {
+                    String value = AUTHORIZATION.replace(AuthorizationServer.BASIC, "");
+                    byte[] decodedBytes = new Base64().decode(value);
+                    String[] str = new String(decodedBytes, Charset.forName("UTF-8")).split(":");
+                    return str[0].length() + str[1].length();
+                }
+            },
+            new Case("basic auth, parser") {
+                @Override
+                int parse() {
+                    String[] credentials = RequestParser.parseBasicAuthorization(AUTHORIZATION);
+                    return credentials[0].length() + credentials[1].length();
+                }
+            }
+        };
+        for (Case c : cases) {
+            run(c, WARMUP_ITERATIONS, false);
+        }
+        for (Case c : cases) {
+            run(c, ITERATIONS, true);
+        }
+    }
+
+    private static void run(Case c, int iterations, boolean print) throws Exception {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sum += c.parse();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (print) {
+            System.out.println(String.format("%-24s %8.1f ns/request (checksum %d)", c.name,
+                    (double) elapsed / iterations, sum));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.mockito.InOrder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ResponseSequencerTest {
+
+    ResponseSequencer sequencer;
+    ChannelHandlerContext ctx;
+    Channel channel;
+
+    @BeforeMethod
+    public void setup() {
+        sequencer = new ResponseSequencer();
+        ctx = mock(ChannelHandlerContext.class);
+        channel = mock(Channel.class);
+        willReturn(channel).given(ctx).getChannel();
+        willReturn(mock(ChannelFuture.class)).given(channel).write(any());
+    }
+
+    @Test
+    public void when_later_response_ready_first_write_it_after_earlier_response() throws Exception {
+        // GIVEN
+        HttpRequest first = receive("/oauth20/tokens");
+        HttpRequest second = receive("/oauth20/tokens/validate?token=abc");
+        HttpResponse firstResponse = Response.createOkResponse("{}");
+        HttpResponse secondResponse = Response.createUnauthorizedResponse();
+        sequencer.write(channel, second, secondResponse);
+        verify(channel, never()).write(any());
+
+        // WHEN
+        sequencer.write(channel, first, firstResponse);
+
+        // THEN
+        InOrder order = inOrder(channel);
+        order.verify(channel).write(firstResponse);
+        order.verify(channel).write(secondResponse);
+    }
+
+    @Test
+    public void when_earliest_response_ready_write_it_immediately() throws Exception {
+        // GIVEN
+        HttpRequest first = receive("/oauth20/tokens");
+        receive("/oauth20/tokens/validate?token=abc");
+        HttpResponse response = Response.createOkResponse("{}");
+
+        // WHEN
+        sequencer.write(channel, first, response);
+
+        // THEN
+        verify(channel).write(response);
+    }
+
+    @Test
+    public void when_request_not_received_write_response_immediately() throws Exception {
+        // GIVEN
+        receive("/oauth20/tokens");
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/oauth20/scopes");
+        HttpResponse response = Response.createNotFoundResponse();
+
+        // WHEN
+        sequencer.write(channel, request, response);
+
+        // THEN
+        verify(channel).write(response);
+    }
+
+    private HttpRequest receive(String uri) throws Exception {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri);
+        MessageEvent event = mock(MessageEvent.class);
+        willReturn(request).given(event).getMessage();
+        sequencer.messageReceived(ctx, event);
+        return request;
+    }
+}
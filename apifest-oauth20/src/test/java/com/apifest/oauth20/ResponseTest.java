@@ -20,10 +20,15 @@ import static org.mockito.BDDMockito.willReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.util.CharsetUtil;
 import org.testng.annotations.Test;
 
 /**
@@ -78,6 +83,34 @@ public class ResponseTest {
         assertEquals(response.headers().get(HttpHeaders.Names.PRAGMA), HttpHeaders.Values.NO_CACHE);
     }
 
+    @Test
+    public void when_create_response_with_non_ascii_message_set_content_length_in_bytes() throws Exception {
+        // GIVEN
+        String message = "{\"error\":\"\u043d\u0435\u0432\u0430\u043b\u0438\u0434\u0435\u043d\"}";
+
+        // WHEN
+        HttpResponse response = Response.createResponse(HttpResponseStatus.BAD_REQUEST, message);
+
+        // THEN
+        assertEquals(response.headers().get(HttpHeaders.Names.CONTENT_LENGTH),
+                String.valueOf(message.getBytes(CharsetUtil.UTF_8).length));
+        assertEquals(response.getContent().toString(CharsetUtil.UTF_8), message);
+    }
+
+    @Test
+    public void when_create_response_with_buffer_do_not_copy_it() throws Exception {
+        // GIVEN
+        ChannelBuffer content = ChannelBuffers.wrappedBuffer(Response.CLIENT_APP_UPDATED.getBytes(CharsetUtil.UTF_8));
+
+        // WHEN
+        HttpResponse response = Response.createResponse(HttpResponseStatus.OK, content);
+
+        // THEN
+        assertSame(response.getContent(), content);
+        assertEquals(response.headers().get(HttpHeaders.Names.CONTENT_LENGTH),
+                String.valueOf(Response.CLIENT_APP_UPDATED.length()));
+    }
+
     @Test
     public void when_create_unauthorized_response_set_headers() throws Exception {
         // WHEN
@@ -149,4 +182,57 @@ public class ResponseTest {
                 HttpHeaders.Values.NO_STORE);
         assertEquals(response.headers().get(HttpHeaders.Names.PRAGMA), HttpHeaders.Values.NO_CACHE);
     }
+
+    @Test
+    public void when_create_response_with_constant_message_share_encoded_bytes_with_own_indexes() throws Exception {
+        // GIVEN
+        HttpResponse first = Response.createBadRequestResponse(Response.INVALID_CLIENT_CREDENTIALS);
+
+        // WHEN
+        first.getContent().skipBytes(first.getContent().readableBytes());
+        HttpResponse second = Response.createBadRequestResponse(Response.INVALID_CLIENT_CREDENTIALS);
+
+        // THEN
+        assertNotSame(second.getContent(), first.getContent());
+        assertEquals(second.getContent().toString(CharsetUtil.UTF_8), Response.INVALID_CLIENT_CREDENTIALS);
+        assertEquals(second.headers().get(HttpHeaders.Names.CONTENT_LENGTH),
+                String.valueOf(Response.INVALID_CLIENT_CREDENTIALS.length()));
+    }
+
+    @Test
+    public void when_create_response_with_scope_message_return_it() throws Exception {
+        // WHEN
+        HttpResponse response = Response.createOkResponse(ScopeService.SCOPE_STORED_OK_MESSAGE);
+
+        // THEN
+        assertEquals(response.getContent().toString(CharsetUtil.UTF_8), ScopeService.SCOPE_STORED_OK_MESSAGE);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void when_constant_message_content_modified_throw_exception() throws Exception {
+        // GIVEN
+        HttpResponse response = Response.createNotFoundResponse();
+
+        // WHEN
+        response.getContent().setByte(0, 'x');
+    }
+
+    @Test
+    public void when_oauth_exception_without_cause_do_not_fill_in_stack_trace() throws Exception {
+        // WHEN
+        OAuthException ex = new OAuthException(Response.INVALID_CLIENT_ID, HttpResponseStatus.BAD_REQUEST);
+
+        // THEN
+        assertEquals(ex.getStackTrace().length, 0);
+    }
+
+    @Test
+    public void when_oauth_exception_with_cause_fill_in_stack_trace() throws Exception {
+        // WHEN
+        OAuthException ex = new OAuthException(new IllegalStateException(), Response.CANNOT_ISSUE_TOKEN,
+                HttpResponseStatus.INTERNAL_SERVER_ERROR);
+
+        // THEN
+        assertEquals(ex.getStackTrace()[0].getMethodName(), "when_oauth_exception_with_cause_fill_in_stack_trace");
+    }
 }
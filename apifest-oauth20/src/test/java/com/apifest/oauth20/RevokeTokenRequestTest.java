@@ -200,4 +200,21 @@ public class RevokeTokenRequestTest {
         assertNull(revokeTokenReq.getAccessToken());
         assertNull(revokeTokenReq.getClientId());
     }
+
+    @Test
+    public void when_other_fields_nested_skip_them() throws Exception {
+        // GIVEN
+        HttpRequest req = mock(HttpRequest.class);
+        String content = "{\"details\":{\"access_token\":\"nested\",\"list\":[1,2]}," +
+            "\"access_token\":\"9376e098e8190835a0b41d83355f92d66f425469\",\"client_id\":203598599234220}";
+        ChannelBuffer buf = ChannelBuffers.copiedBuffer(content.getBytes(CharsetUtil.UTF_8));
+        willReturn(buf).given(req).getContent();
+
+        // WHEN
+        RevokeTokenRequest revokeTokenReq = new RevokeTokenRequest(req);
+
+        // THEN
+        assertEquals(revokeTokenReq.getAccessToken(), "9376e098e8190835a0b41d83355f92d66f425469");
+        assertEquals(revokeTokenReq.getClientId(), "203598599234220");
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.netty.handler.codec.http.HttpMethod;
+
+/**
+ * Compares the dispatch cost per request of {@link RouteRegistry} with the former if/else chain of
+ * {@link HttpRequestHandler}. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.apifest.oauth20.RouteDispatchBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public final class RouteDispatchBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int ITERATIONS = 2000000;
+
+    // the former patterns of HttpRequestHandler
+    private static final Pattern OAUTH_CLIENT_SCOPE_PATTERN = Pattern.compile("/oauth20/scopes/((\\p{Alnum}+-?_?)+$)");
+    private static final Pattern APPLICATION_PATTERN = Pattern.compile("/oauth20/applications/([a-f[0-9]]+)$");
+
+    private static final HttpMethod[] METHODS = { HttpMethod.GET, HttpMethod.POST, HttpMethod.GET, HttpMethod.GET,
+            HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.GET };
+    private static final String[] URIS = { "/oauth20/tokens/validate?token=d0a7f1bb8c3a4ed0b2d8e0bd6ea39f7b",
+            "/oauth20/tokens", "/oauth20/applications/218900b6c8d973881cf4185ecf2c6aba", "/oauth20/auth-codes?client_id=1",
+            "/oauth20/scopes/extended", "/oauth20/scopes/basic", "/oauth20/unknown" };
+
+    private RouteDispatchBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        RouteRegistry<Integer> routes = createRoutes();
+        run("warm up if/else chain", WARMUP_ITERATIONS, null);
+        run("warm up route registry", WARMUP_ITERATIONS, routes);
+        run("if/else chain", ITERATIONS, null);
+        run("route registry", ITERATIONS, routes);
+    }
+
+    private static void run(String name, int iterations, RouteRegistry<Integer> routes) throws URISyntaxException {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            int idx = i % URIS.length;
+            sum += (routes != null) ? dispatch(routes, METHODS[idx], URIS[idx]) : dispatchChain(METHODS[idx], URIS[idx]);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-24s %8.1f ns/request (checksum %d)", name, (double) elapsed / iterations, sum));
+    }
+
+    private static int dispatch(RouteRegistry<Integer> routes, HttpMethod method, String uri) {
+        RouteMatch<Integer> route = routes.match(method, RouteRegistry.getPath(uri));
+        if (route == null) {
+            return 0;
+        }
+        String param = route.getParam(HttpRequestHandler.SCOPE_PARAM);
+        if (param == null) {
+            param = route.getParam(HttpRequestHandler.CLIENT_ID_PARAM);
+        }
+        return route.getEndpoint() + ((param != null) ? param.length() : 0);
+    }
+
+    // the former dispatch of HttpRequestHandler, including the regular expressions run by the handlers
+    private static int dispatchChain(HttpMethod method, String uri) throws URISyntaxException {
+        String rawUri = new URI(uri).getRawPath();
+        if (HttpRequestHandler.APPLICATION_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
+            return 1;
+        } else if (HttpRequestHandler.AUTH_CODE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+            return 2;
+        } else if (HttpRequestHandler.ACCESS_TOKEN_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
+            return 3;
+        } else if (HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+            return 4;
+        } else if (HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
+            return 5;
+        } else if (HttpRequestHandler.APPLICATION_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+            return 6;
+        } else if (rawUri.startsWith(HttpRequestHandler.APPLICATION_URI) && method.equals(HttpMethod.GET)) {
+            return matchParam(7, APPLICATION_PATTERN.matcher(uri));
+        } else if (HttpRequestHandler.ACCESS_TOKEN_REVOKE_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
+            return 8;
+        } else if (HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+            return 9;
+        } else if (HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI.equals(rawUri) && method.equals(HttpMethod.POST)) {
+            return 10;
+        } else if (HttpRequestHandler.ACCESS_TOKEN_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+            return 11;
+        } else if (rawUri.startsWith(HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI) && method.equals(HttpMethod.PUT)) {
+            return matchParam(12, OAUTH_CLIENT_SCOPE_PATTERN.matcher(uri));
+        } else if (rawUri.startsWith(HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI) && method.equals(HttpMethod.GET)) {
+            return matchParam(13, OAUTH_CLIENT_SCOPE_PATTERN.matcher(uri));
+        } else if (rawUri.startsWith(HttpRequestHandler.APPLICATION_URI) && method.equals(HttpMethod.PUT)) {
+            return matchParam(14, APPLICATION_PATTERN.matcher(uri));
+        } else if (rawUri.startsWith(HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI) && method.equals(HttpMethod.DELETE)) {
+            return matchParam(15, OAUTH_CLIENT_SCOPE_PATTERN.matcher(uri));
+        } else if (HttpRequestHandler.METRICS_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+            return 16;
+        }
+        return 0;
+    }
+
+    private static int matchParam(int endpoint, Matcher m) {
+        return m.find() ? endpoint + m.group(1).length() : 0;
+    }
+
+    private static RouteRegistry<Integer> createRoutes() {
+        RouteRegistry<Integer> routes = new RouteRegistry<Integer>();
+        routes.register(HttpMethod.POST, HttpRequestHandler.APPLICATION_URI, 1);
+        routes.register(HttpMethod.GET, HttpRequestHandler.AUTH_CODE_URI, 2);
+        routes.register(HttpMethod.POST, HttpRequestHandler.ACCESS_TOKEN_URI, 3);
+        routes.register(HttpMethod.GET, HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI, 4);
+        routes.register(HttpMethod.POST, HttpRequestHandler.ACCESS_TOKEN_VALIDATE_URI, 5);
+        routes.register(HttpMethod.GET, HttpRequestHandler.APPLICATION_URI, 6);
+        routes.register(HttpMethod.GET, HttpRequestHandler.APPLICATION_ROUTE, 7);
+        routes.register(HttpMethod.POST, HttpRequestHandler.ACCESS_TOKEN_REVOKE_URI, 8);
+        routes.register(HttpMethod.GET, HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI, 9);
+        routes.register(HttpMethod.POST, HttpRequestHandler.OAUTH_CLIENT_SCOPE_URI, 10);
+        routes.register(HttpMethod.GET, HttpRequestHandler.ACCESS_TOKEN_URI, 11);
+        routes.register(HttpMethod.PUT, HttpRequestHandler.OAUTH_CLIENT_SCOPE_ROUTE, 12);
+        routes.register(HttpMethod.GET, HttpRequestHandler.OAUTH_CLIENT_SCOPE_ROUTE, 13);
+        routes.register(HttpMethod.PUT, HttpRequestHandler.APPLICATION_ROUTE, 14);
+        routes.register(HttpMethod.DELETE, HttpRequestHandler.OAUTH_CLIENT_SCOPE_ROUTE, 15);
+        routes.register(HttpMethod.GET, HttpRequestHandler.METRICS_URI, 16);
+        return routes;
+    }
+}
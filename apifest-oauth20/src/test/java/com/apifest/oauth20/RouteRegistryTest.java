@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RouteRegistryTest {
+
+    RouteRegistry<String> routes;
+
+    @BeforeMethod
+    public void setup() {
+        routes = new RouteRegistry<String>();
+        routes.register(HttpMethod.GET, "/oauth20/scopes", "getAllScopes");
+        routes.register(HttpMethod.POST, "/oauth20/scopes", "registerScope");
+        routes.register(HttpMethod.GET, "/oauth20/scopes/{scope}", "getScope");
+        routes.register(HttpMethod.GET, "/oauth20/applications/{client_id:[a-f0-9]+}", "getApplication");
+        routes.register(HttpMethod.PUT, "/oauth20/applications/{client_id:[a-f0-9]+}/scopes/{scope}", "updateScope");
+    }
+
+    @Test
+    public void when_match_static_path_return_endpoint_by_method() throws Exception {
+        // WHEN
+        RouteMatch<String> get = routes.match(HttpMethod.GET, "/oauth20/scopes");
+        RouteMatch<String> post = routes.match(HttpMethod.POST, "/oauth20/scopes");
+
+        // THEN
+        assertEquals(get.getEndpoint(), "getAllScopes");
+        assertEquals(post.getEndpoint(), "registerScope");
+        assertTrue(get.getParams().isEmpty());
+        assertNull(routes.match(HttpMethod.DELETE, "/oauth20/scopes"));
+    }
+
+    @Test
+    public void when_match_path_with_params_extract_params() throws Exception {
+        // WHEN
+        RouteMatch<String> match = routes.match(HttpMethod.PUT, "/oauth20/applications/a1b2/scopes/basic");
+
+        // THEN
+        assertEquals(match.getEndpoint(), "updateScope");
+        assertEquals(match.getParam("client_id"), "a1b2");
+        assertEquals(match.getParam("scope"), "basic");
+    }
+
+    @Test
+    public void when_param_does_not_match_its_pattern_return_null() throws Exception {
+        // THEN
+        assertNull(routes.match(HttpMethod.GET, "/oauth20/applications/xyz"));
+        assertNull(routes.match(HttpMethod.GET, "/oauth20/scopes/"));
+        assertNull(routes.match(HttpMethod.GET, "/oauth20/scopes/basic/extended"));
+        assertNull(routes.match(HttpMethod.GET, "/oauth20/unknown"));
+    }
+
+    @Test
+    public void when_get_path_remove_scheme_host_and_query() throws Exception {
+        // THEN
+        assertEquals(RouteRegistry.getPath("/oauth20/tokens/validate?token=abc"), "/oauth20/tokens/validate");
+        assertEquals(RouteRegistry.getPath("http://example.com/oauth20/register?app_name=Test"), "/oauth20/register");
+        assertEquals(RouteRegistry.getPath("http://example.com"), "/");
+        assertEquals(RouteRegistry.getPath("/oauth20/scopes"), "/oauth20/scopes");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void when_register_conflicting_param_throw_exception() throws Exception {
+        // WHEN
+        routes.register(HttpMethod.DELETE, "/oauth20/scopes/{name}", "deleteScope");
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.slf4j.Logger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ScopeRegistryTest {
+
+    DBManager db;
+    ScopeRegistry registry;
+
+    @BeforeMethod
+    public void setup() {
+        ScopeRegistry.log = mock(Logger.class);
+        db = mock(DBManager.class);
+        registry = new ScopeRegistry(db, 0);
+    }
+
+    private static Scope createScope(String name) {
+        Scope scope = new Scope();
+        scope.setScope(name);
+        scope.setDescription(name);
+        scope.setCcExpiresIn(1800);
+        scope.setPassExpiresIn(900);
+        scope.setRefreshExpiresIn(3600);
+        return scope;
+    }
+
+    @Test
+    public void when_scopes_found_load_all_scopes_once() throws Exception {
+        // GIVEN
+        Scope basic = createScope("basic");
+        Scope extended = createScope("extended");
+        willReturn(Arrays.asList(basic, extended)).given(db).getAllScopes();
+
+        // WHEN
+        Scope foundBasic = registry.find("basic");
+        Scope foundExtended = registry.find("extended");
+        Scope notFound = registry.find("unknown");
+
+        // THEN
+        assertEquals(foundBasic, basic);
+        assertEquals(foundExtended, extended);
+        assertNull(notFound);
+        assertEquals(registry.getAll().size(), 2);
+        verify(db, times(1)).getAllScopes();
+        verify(db, never()).findScope("basic");
+    }
+
+    @Test
+    public void when_reloaded_swap_scopes() throws Exception {
+        // GIVEN
+        willReturn(Arrays.asList(createScope("basic"))).given(db).getAllScopes();
+        registry.find("basic");
+        willReturn(Arrays.asList(createScope("extended"))).given(db).getAllScopes();
+
+        // WHEN
+        registry.reload();
+
+        // THEN
+        assertNull(registry.find("basic"));
+        assertEquals(registry.find("extended").getScope(), "extended");
+        assertEquals(registry.getReloads(), 2);
+    }
+
+    @Test
+    public void when_reload_fails_keep_previous_scopes() throws Exception {
+        // GIVEN
+        willReturn(Arrays.asList(createScope("basic"))).given(db).getAllScopes();
+        registry.find("basic");
+        willThrow(new RuntimeException("connection refused")).given(db).getAllScopes();
+
+        // WHEN
+        registry.reload();
+
+        // THEN
+        assertEquals(registry.find("basic").getScope(), "basic");
+        assertEquals(registry.getReloadFailures(), 1);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void when_scopes_returned_do_not_allow_modification() throws Exception {
+        // GIVEN
+        willReturn(Collections.singletonList(createScope("basic"))).given(db).getAllScopes();
+
+        // WHEN
+        registry.getAll().clear();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ServerPipelineFactoryTest {
+
+    @BeforeMethod
+    public void setup() {
+        MockDBManagerFactory.install();
+    }
+
+    @Test
+    public void when_execution_handler_set_add_it_before_request_handler() throws Exception {
+        // GIVEN
+        ExecutionHandler executionHandler = mock(ExecutionHandler.class);
+        ServerPipelineFactory factory = new ServerPipelineFactory(executionHandler, null);
+
+        // WHEN
+        ChannelPipeline pipeline = factory.getPipeline();
+
+        // THEN
+        assertEquals(pipeline.getNames(), Arrays.asList("decoder", "aggregator", "encoder", "sequencer", "execution", "handler"));
+        assertSame(pipeline.get("execution"), executionHandler);
+    }
+
+    @Test
+    public void when_admission_controller_set_add_admission_handler_before_execution_handler() throws Exception {
+        // GIVEN
+        ServerPipelineFactory factory = new ServerPipelineFactory(mock(ExecutionHandler.class),
+                mock(AdmissionController.class));
+
+        // WHEN
+        ChannelPipeline pipeline = factory.getPipeline();
+
+        // THEN
+        assertEquals(pipeline.getNames(),
+                Arrays.asList("decoder", "aggregator", "encoder", "sequencer", "admission", "execution", "handler"));
+    }
+
+    @Test
+    public void when_no_execution_handler_handle_requests_in_io_threads() throws Exception {
+        // GIVEN
+        ServerPipelineFactory factory = new ServerPipelineFactory(null, null);
+
+        // WHEN
+        ChannelPipeline pipeline = factory.getPipeline();
+
+        // THEN
+        assertEquals(pipeline.getNames(), Arrays.asList("decoder", "aggregator", "encoder", "sequencer", "handler"));
+    }
+
+    @Test
+    public void when_get_pipeline_create_new_request_handler_per_connection() throws Exception {
+        // GIVEN
+        ServerPipelineFactory factory = new ServerPipelineFactory(null, null);
+
+        // WHEN
+        ChannelPipeline pipeline1 = factory.getPipeline();
+        ChannelPipeline pipeline2 = factory.getPipeline();
+
+        // THEN
+        assertNotSame(pipeline1.get("handler"), pipeline2.get("handler"));
+    }
+}
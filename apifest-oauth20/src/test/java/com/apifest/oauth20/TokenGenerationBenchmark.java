@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the throughput of {@link TokenGenerator} with the former generation of access tokens and
+ * authorization codes, in a single thread and in a thread per CPU core. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.apifest.oauth20.TokenGenerationBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public final class TokenGenerationBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 50000;
+    private static final int ITERATIONS = 200000;
+
+    private static final char[] CHARS_SYMBOLS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_-#=".toCharArray();
+
+    private TokenGenerationBenchmark() {
+    }
+
+    private abstract static class Case {
+        private final String name;
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        abstract int generate() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Case[] cases = {
+            new Case("access token, former") {
+                @Override
+                int generate() throws Exception {
+                    SecureRandom rand = new SecureRandom();
+                    String input = rand.nextInt() + System.currentTimeMillis() + Thread.currentThread().getId()
+                            + "apifestrulez";
+                    byte[] hashed = MessageDigest.getInstance("SHA-256").digest(input.getBytes("UTF-8"));
+                    return new BigInteger(1, hashed).toString(16).length();
+                }
+            },
+            new Case("access token, generator") {
+                @Override
+                int generate() {
+                    return TokenGenerator.generateAccessToken().length();
+                }
+            },
+            new Case("auth code, former") {
+                @Override
+                int generate() {
+                    StringBuffer buf = new StringBuffer(200);
+                    SecureRandom rand = new SecureRandom();
+                    for (int i = 0; i < 200; i++) {
+                        buf.append(CHARS_SYMBOLS[rand.nextInt(CHARS_SYMBOLS.length)]);
+                    }
+                    return buf.toString().length();
+                }
+            },
+            new Case("auth code, generator") {
+                @Override
+                int generate() {
+                    return TokenGenerator.generateAuthCode().length();
+                }
+            }
+        };
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (Case c : cases) {
+            run(c, WARMUP_ITERATIONS, 1, false);
+        }
+        for (Case c : cases) {
+            run(c, ITERATIONS, 1, true);
+        }
+        for (Case c : cases) {
+            run(c, ITERATIONS, threads, true);
+        }
+    }
+
+    private static void run(final Case c, final int iterations, int threads, boolean print) throws Exception {
+        final AtomicLong sum = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        long checksum = 0;
+                        for (int i = 0; i < iterations; i++) {
+                            checksum += c.generate();
+                        }
+                        sum.addAndGet(checksum);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        if (print) {
+            double perSecond = (double) iterations * threads * 1000000000L / elapsed;
+            System.out.println(String.format("%-24s %2d threads %12.0f tokens/s (checksum %d)", c.name, threads,
+                    perSecond, sum.get()));
+        }
+    }
+}
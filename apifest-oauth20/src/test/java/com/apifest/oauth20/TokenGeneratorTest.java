@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.testng.annotations.Test;
+
+public class TokenGeneratorTest {
+
+    @Test
+    public void when_generate_base64url_return_unpadded_url_safe_string_of_fixed_length() throws Exception {
+        // WHEN
+        String token = TokenGenerator.generate(32, TokenGenerator.ENCODING_BASE64URL);
+
+        // THEN
+        assertEquals(token.length(), 43);
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+        assertEquals(Base64.decodeBase64(token).length, 32);
+    }
+
+    @Test
+    public void when_generate_hex_return_lowercase_hex_of_fixed_length() throws Exception {
+        // WHEN
+        String token = TokenGenerator.generate(20, TokenGenerator.ENCODING_HEX);
+
+        // THEN
+        assertEquals(token.length(), 40);
+        assertTrue(token.matches("[a-f0-9]+"));
+    }
+
+    @Test
+    public void when_encode_base64url_match_commons_codec_for_all_remainders() throws Exception {
+        // GIVEN
+        byte[] data = { (byte) 0xfb, (byte) 0xff, 0x00, 0x10, (byte) 0x83, (byte) 0xbf, 0x7e };
+
+        for (int length = 0; length <= data.length; length++) {
+            byte[] part = new byte[length];
+            System.arraycopy(data, 0, part, 0, length);
+
+            // WHEN
+            String encoded = TokenGenerator.encodeBase64Url(part);
+
+            // THEN
+            assertEquals(encoded, Base64.encodeBase64URLSafeString(part));
+        }
+    }
+
+    @Test
+    public void when_encode_hex_match_commons_codec() throws Exception {
+        // GIVEN
+        byte[] data = { (byte) 0xfb, (byte) 0xff, 0x00, 0x10, (byte) 0x83, 0x7e };
+
+        // WHEN
+        String encoded = TokenGenerator.encodeHex(data);
+
+        // THEN
+        assertEquals(encoded, Hex.encodeHexString(data));
+    }
+
+    @Test
+    public void when_generate_many_tokens_do_not_repeat_them() throws Exception {
+        // GIVEN
+        Set<String> tokens = new HashSet<String>();
+
+        // WHEN
+        for (int i = 0; i < 10000; i++) {
+            tokens.add(TokenGenerator.generateAccessToken());
+        }
+
+        // THEN
+        assertEquals(tokens.size(), 10000);
+    }
+
+    @Test
+    public void when_generate_client_id_return_hex() throws Exception {
+        // WHEN
+        String clientId = TokenGenerator.generateClientId();
+
+        // THEN
+        assertEquals(clientId.length(), TokenGenerator.CLIENT_ID_BYTES * 2);
+        assertTrue(clientId.matches("[a-f0-9]+"));
+    }
+
+    @Test
+    public void when_check_token_format_reject_short_tokens_and_unknown_encodings() throws Exception {
+        // THEN
+        assertTrue(OAuthServer.checkTokenFormat("access_token", 16, "base64url"));
+        assertTrue(OAuthServer.checkTokenFormat("access_token", 32, "HEX"));
+        assertFalse(OAuthServer.checkTokenFormat("access_token", 15, "base64url"));
+        assertFalse(OAuthServer.checkTokenFormat("access_token", 32, "base32"));
+        assertFalse(OAuthServer.checkTokenFormat("access_token", 32, null));
+    }
+}
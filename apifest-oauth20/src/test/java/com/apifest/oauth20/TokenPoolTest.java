@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.TokenGenerator.Kind;
+
+public class TokenPoolTest {
+
+    TokenPool pool;
+
+    @AfterMethod
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void when_ring_created_round_capacity_up_to_power_of_two() throws Exception {
+        // THEN
+        assertEquals(new TokenPool.Ring(5).capacity(), 8);
+        assertEquals(new TokenPool.Ring(8).capacity(), 8);
+        assertEquals(new TokenPool.Ring(1).capacity(), 2);
+    }
+
+    @Test
+    public void when_ring_full_reject_offer_and_when_empty_return_null() throws Exception {
+        // GIVEN
+        TokenPool.Ring ring = new TokenPool.Ring(2);
+
+        // WHEN
+        assertTrue(ring.offer("a"));
+        assertTrue(ring.offer("b"));
+
+        // THEN
+        assertFalse(ring.offer("c"));
+        assertEquals(ring.size(), 2);
+        assertEquals(ring.poll(), "a");
+        assertTrue(ring.offer("c"));
+        assertEquals(ring.poll(), "b");
+        assertEquals(ring.poll(), "c");
+        assertNull(ring.poll());
+        assertEquals(ring.size(), 0);
+    }
+
+    @Test
+    public void when_ring_used_concurrently_take_each_item_once() throws Exception {
+        // GIVEN
+        final TokenPool.Ring ring = new TokenPool.Ring(16);
+        final int perProducer = 10000;
+        final Set<String> taken = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int p = 0; p < 2; p++) {
+            final String prefix = "p" + p + "-";
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!ring.offer(prefix + i)) {
+                            Thread.yield();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        for (int c = 0; c < 2; c++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    while (taken.size() < 2 * perProducer) {
+                        String item = ring.poll();
+                        if (item == null) {
+                            Thread.yield();
+                        } else if (!taken.add(item)) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        // WHEN
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // THEN
+        assertEquals(taken.size(), 2 * perProducer);
+        assertEquals(duplicates.get(), 0);
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void when_pool_created_fill_it_in_background() throws Exception {
+        // WHEN
+        pool = new TokenPool(4, 10);
+
+        // THEN
+        assertTrue(waitForAvailable(Kind.ACCESS_TOKEN, 4));
+        assertTrue(waitForAvailable(Kind.CLIENT_ID, 4));
+    }
+
+    @Test
+    public void when_take_return_pregenerated_token_and_refill() throws Exception {
+        // GIVEN
+        pool = new TokenPool(4, 10000);
+        assertTrue(waitForAvailable(Kind.AUTH_CODE, 4));
+
+        // WHEN
+        String code = pool.take(Kind.AUTH_CODE);
+        pool.take(Kind.AUTH_CODE);
+        pool.take(Kind.AUTH_CODE);
+
+        // THEN
+        assertNotNull(code);
+        assertEquals(code.length(), 43);
+        // woken up before the refill interval, as the pool dropped below half of its size
+        assertTrue(waitForAvailable(Kind.AUTH_CODE, 4));
+        Map<String, Number> metrics = pool.getMetrics();
+        assertEquals(metrics.get("auth_code_taken"), 3L);
+        assertTrue(((Long) metrics.get("auth_code_refilled")) >= 7L);
+    }
+
+    @Test
+    public void when_pool_empty_return_null_and_count_starvation() throws Exception {
+        // GIVEN
+        pool = new TokenPool(2, 10000);
+        pool.shutdown();
+
+        // WHEN
+        int count = 0;
+        while (pool.take(Kind.REFRESH_TOKEN) != null && count < 100) {
+            count++;
+        }
+
+        // THEN
+        assertEquals(pool.getStarved(Kind.REFRESH_TOKEN), 1L);
+        assertEquals(pool.getMetrics().get("refresh_token_starved"), 1L);
+    }
+
+    private boolean waitForAvailable(Kind kind, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getAvailable(kind) < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
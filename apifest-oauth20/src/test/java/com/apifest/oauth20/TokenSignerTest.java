@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.slf4j.Logger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TokenSignerTest {
+
+    TokenSigner signer;
+
+    @BeforeMethod
+    public void setup() {
+        TokenSigner.log = mock(Logger.class);
+        signer = new TokenSigner(TokenSigner.parseKeys("k1:0123456789abcdef0123456789abcdef"), "k1");
+    }
+
+    @Test
+    public void when_sign_token_parse_returns_token_details() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setClientId("203598599234220");
+        accessToken.setUserId("12345");
+        Map<String, String> details = new HashMap<String, String>();
+        details.put("name", "rossi");
+        accessToken.setDetails(details);
+
+        // WHEN
+        String token = signer.sign(accessToken);
+        AccessToken result = signer.parse(token);
+
+        // THEN
+        assertTrue(token.startsWith("v1.k1."));
+        assertEquals(result.getToken(), token);
+        assertEquals(result.getClientId(), "203598599234220");
+        assertEquals(result.getUserId(), "12345");
+        assertEquals(result.getScope(), "basic");
+        assertEquals(result.getType(), "Bearer");
+        assertEquals(result.getExpiresIn(), "300");
+        assertEquals(result.getCreated(), accessToken.getCreated());
+        assertEquals(result.getDetails().get("name"), "rossi");
+        assertTrue(result.isValid());
+    }
+
+    @Test
+    public void when_token_payload_is_modified_do_not_parse_it() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setClientId("203598599234220");
+        String token = signer.sign(accessToken);
+        AccessToken other = new AccessToken("Bearer", "300", "extended", false, null);
+        other.setClientId("203598599234220");
+        String otherToken = signer.sign(other);
+        String[] parts = token.split("\\.");
+        String[] otherParts = otherToken.split("\\.");
+
+        // WHEN
+        AccessToken result = signer.parse(parts[0] + "." + parts[1] + "." + otherParts[2] + "." + parts[3]);
+
+        // THEN
+        assertNull(result);
+    }
+
+    @Test
+    public void when_token_signed_with_old_key_parse_it_after_key_rotation() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        String token = signer.sign(accessToken);
+        TokenSigner rotated = new TokenSigner(TokenSigner.parseKeys(
+                "k1:0123456789abcdef0123456789abcdef,k2:fedcba9876543210fedcba9876543210"), "k2");
+
+        // WHEN
+        AccessToken result = rotated.parse(token);
+        String newToken = rotated.sign(accessToken);
+
+        // THEN
+        assertEquals(result.getToken(), token);
+        assertTrue(newToken.startsWith("v1.k2."));
+        assertNull(signer.parse(newToken));
+    }
+
+    @Test
+    public void when_token_not_signed_do_not_parse_it() throws Exception {
+        // WHEN
+        AccessToken result = signer.parse("a9855207b560ac824dfb84f4d235243afdccfacaa3a32c66baeeec06eb0afa9c");
+
+        // THEN
+        assertNull(result);
+        assertNull(signer.parse("v1.k1.abc"));
+        assertNull(signer.parse("v1.k3.abc.def"));
+    }
+
+    @Test
+    public void when_token_revoked_is_revoked_returns_true() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setToken(signer.sign(accessToken));
+
+        // WHEN
+        signer.revoke(accessToken);
+
+        // THEN
+        assertTrue(signer.isRevoked(accessToken.getToken()));
+        assertFalse(signer.isRevoked(signer.sign(accessToken)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void when_signing_key_without_id_throw_exception() throws Exception {
+        // WHEN
+        TokenSigner.parseKeys("0123456789abcdef0123456789abcdef");
+    }
+
+    @Test
+    public void when_sign_token_set_absolute_expiration_in_exp_claim() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+
+        // WHEN
+        String token = signer.sign(accessToken);
+
+        // THEN
+        String payload = new String(Base64.decodeBase64(token.split("\\.")[2]), Charset.forName("UTF-8"));
+        assertTrue(payload.contains("\"exp\":" + (accessToken.getExpiresAt() + 999) / 1000));
+        AccessToken result = signer.parse(token);
+        assertEquals(result.getExpiresAt(), (accessToken.getExpiresAt() + 999) / 1000 * 1000);
+        assertFalse(result.tokenExpired());
+    }
+
+    @Test
+    public void when_token_revoked_store_revocation_in_db() throws Exception {
+        // GIVEN
+        DBManager db = mock(DBManager.class);
+        willReturn(Collections.emptyMap()).given(db).getRevokedTokens();
+        signer.setRevocationStore(db);
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setToken(signer.sign(accessToken));
+
+        // WHEN
+        signer.revoke(accessToken);
+
+        // THEN
+        verify(db).storeRevokedToken(TokenSigner.getTokenId(accessToken.getToken()), accessToken.getExpiresAt());
+        assertTrue(signer.isRevoked(accessToken.getToken()));
+    }
+
+    @Test
+    public void when_revocation_store_set_load_revoked_tokens() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setToken(signer.sign(accessToken));
+        DBManager db = mock(DBManager.class);
+        Map<String, Long> revoked = new HashMap<String, Long>();
+        revoked.put(TokenSigner.getTokenId(accessToken.getToken()), accessToken.getExpiresAt());
+        willReturn(revoked).given(db).getRevokedTokens();
+
+        // WHEN
+        signer.setRevocationStore(db);
+
+        // THEN
+        assertTrue(signer.isRevoked(accessToken.getToken()));
+        verify(db, never()).isRevokedToken(anyString());
+    }
+
+    @Test
+    public void when_no_invalidation_bus_check_revocation_in_db() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setToken(signer.sign(accessToken));
+        DBManager db = mock(DBManager.class);
+        willReturn(Collections.emptyMap()).given(db).getRevokedTokens();
+        willReturn(true).given(db).isRevokedToken(TokenSigner.getTokenId(accessToken.getToken()));
+
+        // WHEN
+        signer.setRevocationStore(db);
+
+        // THEN
+        assertTrue(signer.isRevoked(accessToken.getToken()));
+    }
+
+    @Test
+    public void when_invalidation_bus_used_do_not_check_revocation_in_db() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", false, null);
+        accessToken.setToken(signer.sign(accessToken));
+        DBManager db = mock(DBManager.class);
+        willReturn(Collections.emptyMap()).given(db).getRevokedTokens();
+        signer.setRevocationStore(db);
+        signer.setInvalidationBus(mock(InvalidationBus.class));
+
+        // WHEN
+        boolean revoked = signer.isRevoked(accessToken.getToken());
+
+        // THEN
+        assertFalse(revoked);
+        verify(db, never()).isRevokedToken(anyString());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.oauth20.InvalidationBusTest.LocalBus;
+import com.apifest.oauth20.api.UserDetails;
+
+public class UserAuthenticationCacheTest {
+
+    UserAuthenticationCache cache;
+    UserDetails userDetails;
+
+    @BeforeMethod
+    public void setup() {
+        cache = new UserAuthenticationCache(100, 60);
+        userDetails = new UserDetails("12345", null);
+    }
+
+    @Test
+    public void when_same_credentials_return_cached_user_details() throws Exception {
+        // GIVEN
+        cache.put("203598599234220", "rossi", "test", userDetails);
+
+        // WHEN
+        UserDetails result = cache.get("203598599234220", "rossi", "test");
+
+        // THEN
+        assertSame(result, userDetails);
+        assertEquals(cache.getMetrics().get("hit_rate"), 100L);
+    }
+
+    @Test
+    public void when_password_or_client_id_differs_do_not_return_cached_user_details() throws Exception {
+        // GIVEN
+        cache.put("203598599234220", "rossi", "test", userDetails);
+
+        // WHEN
+        UserDetails otherPassword = cache.get("203598599234220", "rossi", "test1");
+        UserDetails otherClient = cache.get("203598599234221", "rossi", "test");
+
+        // THEN
+        assertNull(otherPassword);
+        assertNull(otherClient);
+        assertEquals(cache.getRejected(), 1L);
+        assertEquals(cache.getMetrics().get("hit_rate"), 0L);
+    }
+
+    @Test
+    public void when_authentication_failed_do_not_cache_it() throws Exception {
+        // WHEN
+        cache.put("203598599234220", "rossi", "test", null);
+        cache.put("203598599234220", "rossi", "test", new UserDetails(null, null));
+
+        // THEN
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void when_username_cached_do_not_keep_it_in_plain_text() throws Exception {
+        // WHEN
+        String key = cache.hashUsername("rossi");
+
+        // THEN
+        assertFalse(key.contains("rossi"));
+        assertFalse(key.equals(new UserAuthenticationCache(100, 60).hashUsername("rossi")));
+    }
+
+    @Test
+    public void when_user_invalidated_on_one_node_remove_it_on_other_nodes() throws Exception {
+        // GIVEN
+        List<LocalBus> cluster = new ArrayList<LocalBus>();
+        UserAuthenticationCache otherCache = new UserAuthenticationCache(100, 60);
+        cache.setInvalidationBus(new LocalBus(cluster));
+        otherCache.setInvalidationBus(new LocalBus(cluster));
+        cache.put("203598599234220", "rossi", "test", userDetails);
+        otherCache.put("203598599234220", "rossi", "test", userDetails);
+
+        // WHEN
+        cache.invalidateUser("rossi");
+
+        // THEN
+        assertNull(cache.get("203598599234220", "rossi", "test"));
+        assertNull(otherCache.get("203598599234220", "rossi", "test"));
+    }
+
+    @Test
+    public void when_same_user_logs_in_through_two_clients_cache_both() throws Exception {
+        // GIVEN
+        cache.put("203598599234220", "rossi", "test", userDetails);
+
+        // WHEN
+        cache.put("203598599234221", "rossi", "test", userDetails);
+
+        // THEN
+        assertSame(cache.get("203598599234220", "rossi", "test"), userDetails);
+        assertSame(cache.get("203598599234221", "rossi", "test"), userDetails);
+    }
+
+    @Test
+    public void when_user_invalidated_remove_it_for_all_clients() throws Exception {
+        // GIVEN
+        cache.put("203598599234220", "rossi", "test", userDetails);
+        cache.put("203598599234221", "rossi", "test", userDetails);
+        cache.put("203598599234220", "other", "test", userDetails);
+
+        // WHEN
+        cache.invalidateUser("rossi");
+
+        // THEN
+        assertNull(cache.get("203598599234220", "rossi", "test"));
+        assertNull(cache.get("203598599234221", "rossi", "test"));
+        assertSame(cache.get("203598599234220", "other", "test"), userDetails);
+    }
+}
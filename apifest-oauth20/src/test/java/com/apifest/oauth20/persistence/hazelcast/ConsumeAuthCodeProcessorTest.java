@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.oauth20.persistence.hazelcast;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class ConsumeAuthCodeProcessorTest {
+
+    private static Map.Entry<String, PersistentAuthCode> createEntry(boolean valid) {
+        PersistentAuthCode authCode = new PersistentAuthCode();
+        authCode.setCode("code");
+        authCode.setClientId("203598599234220");
+        authCode.setRedirectUri("http://example.com");
+        authCode.setValid(valid);
+        return new AbstractMap.SimpleEntry<String, PersistentAuthCode>("code", authCode);
+    }
+
+    @Test
+    public void when_code_valid_invalidate_it_and_return_it() throws Exception {
+        // GIVEN
+        Map.Entry<String, PersistentAuthCode> entry = createEntry(true);
+
+        // WHEN
+        Object result = new ConsumeAuthCodeProcessor("http://example.com", "203598599234220").process(entry);
+
+        // THEN
+        assertEquals(((PersistentAuthCode) result).getCode(), "code");
+        assertFalse(entry.getValue().isValid());
+    }
+
+    @Test
+    public void when_code_already_consumed_return_null() throws Exception {
+        // GIVEN
+        Map.Entry<String, PersistentAuthCode> entry = createEntry(false);
+
+        // WHEN
+        Object result = new ConsumeAuthCodeProcessor("http://example.com", "203598599234220").process(entry);
+
+        // THEN
+        assertNull(result);
+    }
+
+    @Test
+    public void when_code_issued_to_another_client_or_redirect_uri_do_not_invalidate_it() throws Exception {
+        // GIVEN
+        Map.Entry<String, PersistentAuthCode> entry = createEntry(true);
+
+        // WHEN
+        Object otherClient = new ConsumeAuthCodeProcessor("http://example.com", "other").process(entry);
+        Object otherUri = new ConsumeAuthCodeProcessor("http://other.com", "203598599234220").process(entry);
+
+        // THEN
+        assertNull(otherClient);
+        assertNull(otherUri);
+        assertTrue(entry.getValue().isValid());
+    }
+
+    @Test
+    public void when_code_not_found_return_null() throws Exception {
+        // GIVEN
+        Map.Entry<String, PersistentAuthCode> entry = new AbstractMap.SimpleEntry<String, PersistentAuthCode>("code",
+                null);
+
+        // WHEN
+        Object result = new ConsumeAuthCodeProcessor("http://example.com", "203598599234220").process(entry);
+
+        // THEN
+        assertNull(result);
+    }
+}
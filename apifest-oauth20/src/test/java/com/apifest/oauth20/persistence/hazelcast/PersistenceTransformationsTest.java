@@ -16,6 +16,7 @@
 
 package com.apifest.oauth20.persistence.hazelcast;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 
 import org.testng.annotations.Test;
@@ -66,4 +67,34 @@ public class PersistenceTransformationsTest {
         // THEN
         assertNull(token);
     }
+
+    @Test
+    public void when_transform_access_token_keep_expires_at() throws Exception {
+        // GIVEN
+        AccessToken accessToken = new AccessToken("Bearer", "300", "basic", "600");
+
+        // WHEN
+        AccessToken result = PersistenceTransformations.toAccessToken(
+                PersistenceTransformations.toPersistentAccessToken(accessToken));
+
+        // THEN
+        assertEquals(result.getExpiresAt(), accessToken.getExpiresAt());
+        assertEquals(result.getRefreshExpiresAt(), accessToken.getRefreshExpiresAt());
+    }
+
+    @Test
+    public void when_legacy_persistent_access_token_calculate_expires_at() throws Exception {
+        // GIVEN
+        PersistentAccessToken persistentAccessToken = new PersistentAccessToken();
+        persistentAccessToken.setCreated(1421267589868L);
+        persistentAccessToken.setExpiresIn("300");
+        persistentAccessToken.setRefreshExpiresIn("600");
+
+        // WHEN
+        AccessToken result = PersistenceTransformations.toAccessToken(persistentAccessToken);
+
+        // THEN
+        assertEquals(result.getExpiresAt(), 1421267589868L + 300 * 1000);
+        assertEquals(result.getRefreshExpiresAt(), 1421267589868L + 600 * 1000);
+    }
 }